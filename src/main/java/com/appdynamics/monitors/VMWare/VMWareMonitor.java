@@ -11,12 +11,21 @@ import com.appdynamics.extensions.ABaseMonitor;
 import com.appdynamics.extensions.TasksExecutionServiceProvider;
 import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
 import com.appdynamics.extensions.util.AssertUtils;
+import com.appdynamics.monitors.VMWare.collectors.CollectorScheduler;
+import com.appdynamics.monitors.VMWare.collectors.MetricPathRegistry;
+import com.appdynamics.monitors.VMWare.connection.VMWareSessionPool;
+import com.appdynamics.monitors.VMWare.inventory.IncrementalInventory;
+import com.appdynamics.monitors.VMWare.inventory.PropertyRetriever;
+import com.appdynamics.monitors.VMWare.inventory.TopologyCache;
+import com.appdynamics.monitors.VMWare.metrics.DeltaCalculator;
 import com.appdynamics.monitors.VMWare.metrics.VMWareMetrics;
 import com.appdynamics.monitors.VMWare.util.Constants;
 import org.slf4j.Logger;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class VMWareMonitor extends ABaseMonitor {
 
@@ -24,9 +33,35 @@ public class VMWareMonitor extends ABaseMonitor {
 
     private static final Logger logger = ExtensionsLoggerFactory.getLogger(VMWareMonitor.class);
 
+    private final VMWareSessionPool sessionPool = new VMWareSessionPool();
+    private final Map<String, IncrementalInventory> incrementalInventories = new ConcurrentHashMap<>();
+    private final Map<String, TopologyCache> topologyCaches = new ConcurrentHashMap<>();
+    private final Map<String, DeltaCalculator> deltaCalculators = new ConcurrentHashMap<>();
+    private final Map<String, MetricPathRegistry> pathRegistries = new ConcurrentHashMap<>();
+    private CollectorScheduler collectorScheduler;
+
     public VMWareMonitor() {
         String msg = "Using Monitor Version [" + getImplementationVersion() + "]";
         logger.info(msg);
+        //The machine agent does not stop monitors, the pooled sessions and the collector pool are closed with the JVM
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                shutdown();
+            }
+        }, "VMWareMonitor-shutdown"));
+    }
+
+    /**
+     * Stops the collector pool and logs out of the pooled vCenter sessions.
+     */
+    void shutdown() {
+        logger.info("Shutting down, closing the vCenter sessions");
+        synchronized (this) {
+            if (collectorScheduler != null) {
+                collectorScheduler.shutdown();
+            }
+        }
+        sessionPool.closeAll();
     }
 
     protected String getDefaultMetricPrefix() {
@@ -39,12 +74,47 @@ public class VMWareMonitor extends ABaseMonitor {
 
     protected void doRun(TasksExecutionServiceProvider tasksExecutionServiceProvider) {
 
-        List<Map<String, ?>> vmWareServers = (List<Map<String, ?>>)
-                this.getContextConfiguration().getConfigYml().get(Constants.SERVERS);
+        Map<String, ?> configYml = this.getContextConfiguration().getConfigYml();
+        List<Map<String, ?>> vmWareServers = (List<Map<String, ?>>) configYml.get(Constants.SERVERS);
+        boolean incrementalUpdates = Boolean.TRUE.equals(configYml.get(Constants.INCREMENTAL_UPDATES));
+        final Integer topologyCacheTtl = (Integer) configYml.get(Constants.TOPOLOGY_CACHE_TTL);
+        final Integer topologyEventInterval = (Integer) configYml.get(Constants.TOPOLOGY_EVENT_INTERVAL);
+        final Integer maxDeltaSamples = (Integer) configYml.get(Constants.MAX_DELTA_SAMPLES);
+        CollectorScheduler collectorScheduler = getCollectorScheduler(configYml);
+        List<String> hosts = new ArrayList<>();
+        for (Map<String, ?> vmWareServer : vmWareServers) {
+            hosts.add((String) vmWareServer.get(com.appdynamics.extensions.Constants.HOST));
+        }
+        collectorScheduler.retainServers(hosts);
 
         for (Map<String, ?> vmWareServer : vmWareServers) {
 
-            VMWareMonitorTask task = new VMWareMonitorTask(tasksExecutionServiceProvider, this.getContextConfiguration(), vmWareServer);
+            IncrementalInventory incrementalInventory = null;
+            if (incrementalUpdates) {
+                final Integer pageSize = (Integer) configYml.get(Constants.PROPERTY_COLLECTOR_PAGE_SIZE);
+                incrementalInventory = incrementalInventories.computeIfAbsent((String) vmWareServer.get(com.appdynamics.extensions.Constants.HOST),
+                        k -> new IncrementalInventory(pageSize == null ? PropertyRetriever.DEFAULT_PAGE_SIZE : pageSize));
+            }
+
+            //The incremental model already follows topology changes, the cache is only used for full reads
+            TopologyCache topologyCache = null;
+            if (!incrementalUpdates && topologyCacheTtl != null && topologyCacheTtl > 0) {
+                topologyCache = topologyCaches.computeIfAbsent((String) vmWareServer.get(com.appdynamics.extensions.Constants.HOST),
+                        k -> new TopologyCache(topologyCacheTtl, topologyEventInterval == null ? TopologyCache.DEFAULT_EVENT_INTERVAL_SECONDS : topologyEventInterval));
+            }
+
+            //The previous samples of the delta metrics and the metric paths of a server, MoRefs are only unique within a vCenter
+            DeltaCalculator deltaCalculator = deltaCalculators.computeIfAbsent((String) vmWareServer.get(com.appdynamics.extensions.Constants.HOST),
+                    k -> new DeltaCalculator(maxDeltaSamples == null ? DeltaCalculator.DEFAULT_MAX_ENTRIES : maxDeltaSamples));
+            MetricPathRegistry pathRegistry = pathRegistries.computeIfAbsent((String) vmWareServer.get(com.appdynamics.extensions.Constants.HOST), k -> new MetricPathRegistry());
+
+            Integer maxConcurrentCollectors = (Integer) vmWareServer.get(Constants.MAX_CONCURRENT_COLLECTORS);
+            Integer maxConcurrentRequests = (Integer) vmWareServer.get(Constants.MAX_CONCURRENT_REQUESTS);
+            CollectorScheduler.ServerExecutor collectorExecutor = collectorScheduler.forServer((String) vmWareServer.get(com.appdynamics.extensions.Constants.HOST),
+                    maxConcurrentCollectors == null ? CollectorScheduler.DEFAULT_MAX_CONCURRENT_COLLECTORS : maxConcurrentCollectors,
+                    maxConcurrentRequests == null ? CollectorScheduler.DEFAULT_MAX_CONCURRENT_REQUESTS : maxConcurrentRequests);
+
+            VMWareMonitorTask task = new VMWareMonitorTask(tasksExecutionServiceProvider, this.getContextConfiguration(), vmWareServer, sessionPool, incrementalInventory, topologyCache, collectorExecutor, deltaCalculator, pathRegistry);
 
             String displayName = (String) vmWareServer.get(Constants.DISPLAY_NAME);
 
@@ -58,6 +128,19 @@ public class VMWareMonitor extends ABaseMonitor {
         }
     }
 
+    /**
+     * The collector pool lives as long as the monitor, it is created on the first run.
+     */
+    private synchronized CollectorScheduler getCollectorScheduler(Map<String, ?> configYml) {
+        if (collectorScheduler == null) {
+            Integer threads = (Integer) configYml.get(Constants.COLLECTOR_THREADS);
+            Integer queueCapacity = (Integer) configYml.get(Constants.COLLECTOR_QUEUE_CAPACITY);
+            collectorScheduler = new CollectorScheduler(threads == null ? CollectorScheduler.getDefaultThreads() : threads,
+                    queueCapacity == null ? CollectorScheduler.DEFAULT_QUEUE_CAPACITY : queueCapacity);
+        }
+        return collectorScheduler;
+    }
+
     @Override
     protected List<Map<String, ?>> getServers() {
         List<Map<String, ?>> servers = (List<Map<String, ?>>) this.getContextConfiguration().getConfigYml().get(Constants.SERVERS);
@@ -68,5 +151,6 @@ public class VMWareMonitor extends ABaseMonitor {
     @Override
     protected void initializeMoreStuff(Map<String, String> args) {
         getContextConfiguration().setMetricXml(args.get(Constants.METRIC_FILE), VMWareMetrics.class);
+        ((VMWareMetrics) getContextConfiguration().getMetricsXml()).compile();
     }
 }
\ No newline at end of file
@@ -14,42 +14,92 @@ import com.appdynamics.extensions.TasksExecutionServiceProvider;
 import com.appdynamics.extensions.conf.MonitorContextConfiguration;
 import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
 import com.appdynamics.extensions.util.CryptoUtils;
+import com.appdynamics.monitors.VMWare.collectors.ClusterMetricCollector;
+import com.appdynamics.monitors.VMWare.collectors.ClusterRollups;
+import com.appdynamics.monitors.VMWare.collectors.CollectionDeadline;
+import com.appdynamics.monitors.VMWare.collectors.CollectorContext;
+import com.appdynamics.monitors.VMWare.collectors.CollectorScheduler;
+import com.appdynamics.monitors.VMWare.collectors.DatastoreMetricCollector;
 import com.appdynamics.monitors.VMWare.collectors.HostMetricCollector;
+import com.appdynamics.monitors.VMWare.collectors.MetricPathRegistry;
+import com.appdynamics.monitors.VMWare.collectors.MetricSink;
+import com.appdynamics.monitors.VMWare.collectors.MetricTable;
+import com.appdynamics.monitors.VMWare.collectors.NetworkMetricCollector;
+import com.appdynamics.monitors.VMWare.collectors.ResourcePoolMetricCollector;
+import com.appdynamics.monitors.VMWare.connection.VMWareSession;
+import com.appdynamics.monitors.VMWare.connection.VMWareSessionPool;
+import com.appdynamics.monitors.VMWare.instrumentation.ExtensionMetrics;
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.inventory.HostConfigMatcher;
+import com.appdynamics.monitors.VMWare.inventory.IncrementalInventory;
+import com.appdynamics.monitors.VMWare.inventory.NameMatcher;
+import com.appdynamics.monitors.VMWare.inventory.PropertyPaths;
+import com.appdynamics.monitors.VMWare.inventory.PropertyRetriever;
+import com.appdynamics.monitors.VMWare.inventory.TopologyCache;
+import com.appdynamics.monitors.VMWare.metrics.DeltaCalculator;
 import com.appdynamics.monitors.VMWare.metrics.VMWareMetrics;
+import com.appdynamics.monitors.VMWare.performance.PerformanceCollector;
 import com.appdynamics.monitors.VMWare.util.Constants;
 import com.google.common.base.Strings;
+import com.google.common.collect.ObjectArrays;
 import com.google.common.collect.Maps;
-import com.vmware.vim25.InvalidProperty;
-import com.vmware.vim25.RuntimeFault;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.NotAuthenticated;
 import com.vmware.vim25.mo.Folder;
-import com.vmware.vim25.mo.InventoryNavigator;
-import com.vmware.vim25.mo.ManagedEntity;
-import com.vmware.vim25.mo.ServiceInstance;
 import org.slf4j.Logger;
 
-import java.net.URL;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Set;
 import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
 
 public class VMWareMonitorTask implements AMonitorTaskRunnable {
 
     private static final Logger logger = ExtensionsLoggerFactory.getLogger(VMWareMonitorTask.class);
 
+    private static final long ENTITY_TIMEOUT_CHECK_MILLIS = 1000;
+    //Rows of a table a run may have waiting to be printed, in chunks of metrics of which a row has at least one
+    private static final int MAX_PENDING_CHUNKS = 2;
+    //The cluster collector only reads properties already retrieved and the rollups in memory
+    private static final long CLUSTER_COLLECTION_TIMEOUT_MILLIS = 5000;
+
     private MonitorContextConfiguration contextConfiguration;
     private Map<String, ?> vmWareServer;
     private Folder rootFolder;
     private VMWareMetrics vmWareMetrics;
     private MetricWriteHelper metricWriteHelper;
     private String displayName;
-
-    public VMWareMonitorTask(TasksExecutionServiceProvider tasksExecutionServiceProvider, MonitorContextConfiguration contextConfiguration, Map<String, ?> vmWareServer) {
+    private VMWareSessionPool sessionPool;
+    private VMWareSession session;
+    private IncrementalInventory incrementalInventory;
+    private TopologyCache topologyCache;
+    private CollectorScheduler.ServerExecutor collectorExecutor;
+    private DeltaCalculator deltaCalculator;
+    private MetricPathRegistry pathRegistry;
+
+    /**
+     * @param incrementalInventory model kept across runs when incremental updates are enabled, otherwise null
+     * @param topologyCache        host and VM topology kept across runs when the topology cache is enabled, otherwise null
+     * @param collectorExecutor    runs the collectors of the server
+     * @param deltaCalculator      samples of the metrics with a delta, kept across the runs of the server
+     * @param pathRegistry         host and VM metric paths kept across runs, null to build them every run
+     */
+    public VMWareMonitorTask(TasksExecutionServiceProvider tasksExecutionServiceProvider, MonitorContextConfiguration contextConfiguration, Map<String, ?> vmWareServer, VMWareSessionPool sessionPool, IncrementalInventory incrementalInventory, TopologyCache topologyCache, CollectorScheduler.ServerExecutor collectorExecutor, DeltaCalculator deltaCalculator, MetricPathRegistry pathRegistry) {
         this.contextConfiguration = contextConfiguration;
         this.vmWareServer = vmWareServer;
+        this.sessionPool = sessionPool;
+        this.incrementalInventory = incrementalInventory;
+        this.topologyCache = topologyCache;
+        this.collectorExecutor = collectorExecutor;
+        this.deltaCalculator = deltaCalculator;
+        this.pathRegistry = pathRegistry;
         this.vmWareMetrics = (VMWareMetrics) contextConfiguration.getMetricsXml();
         this.metricWriteHelper = tasksExecutionServiceProvider.getMetricWriteHelper();
         this.displayName = (String) vmWareServer.get(Constants.DISPLAY_NAME);
@@ -61,108 +111,400 @@ public class VMWareMonitorTask implements AMonitorTaskRunnable {
 
     public void run() {
 
-        List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = new CopyOnWriteArrayList<>();
+        long cycleStart = System.currentTimeMillis();
+        ExtensionMetrics extensionMetrics = new ExtensionMetrics();
+        long collectionTimeoutMillis = getCollectionTimeoutMillis();
+        CollectionDeadline collectionDeadline = new CollectionDeadline(collectionTimeoutMillis, getEntityCollectionTimeoutMillis(collectionTimeoutMillis), extensionMetrics.getHostCollectionTimes());
+        Integer chunkSize = (Integer) contextConfiguration.getConfigYml().get(Constants.METRIC_CHUNK_SIZE);
+        int metricChunkSize = chunkSize == null || chunkSize <= 0 ? MetricSink.DEFAULT_CHUNK_SIZE : chunkSize;
+        MetricSink collectedMetrics = new MetricSink(metricWriteHelper, metricChunkSize);
         String host = (String) vmWareServer.get(com.appdynamics.extensions.Constants.HOST);
 
-        StringBuilder heartbeatMetricPath = new StringBuilder(contextConfiguration.getMetricPrefix());
-
+        String metricPrefixWithDisplayName = contextConfiguration.getMetricPrefix();
         if (!Strings.isNullOrEmpty(displayName)) {
-            heartbeatMetricPath.append("|").append(displayName);
+            metricPrefixWithDisplayName += "|" + displayName;
         }
 
+        StringBuilder heartbeatMetricPath = new StringBuilder(metricPrefixWithDisplayName);
         heartbeatMetricPath.append("|HeartBeat");
 
+        long connectStart = System.currentTimeMillis();
         try {
-            connect();
+            connect(extensionMetrics);
+            extensionMetrics.setConnectMillis(System.currentTimeMillis() - connectStart);
             com.appdynamics.extensions.metrics.Metric heartBeatMetric = new com.appdynamics.extensions.metrics.Metric(Constants.HEARTBEAT, String.valueOf(1), heartbeatMetricPath.toString());
             collectedMetrics.add(heartBeatMetric);
+            addSessionMetrics(metricPrefixWithDisplayName, collectedMetrics);
         } catch (Exception e) {
+            extensionMetrics.setConnectMillis(System.currentTimeMillis() - connectStart);
             com.appdynamics.extensions.metrics.Metric heartBeatMetric = new com.appdynamics.extensions.metrics.Metric(Constants.HEARTBEAT, String.valueOf(0), heartbeatMetricPath.toString());
             collectedMetrics.add(heartBeatMetric);
-            metricWriteHelper.transformAndPrintMetrics(collectedMetrics);
             logger.error("Error connecting to server with name {}", vmWareServer.get(com.appdynamics.extensions.Constants.HOST));
+            reportFailedRun(metricPrefixWithDisplayName, extensionMetrics, collectedMetrics);
             return;
         }
 
         //If rootFolder is null, exit
         if (rootFolder == null) {
             logger.error("Could not establish connection to host [{}], not collecting metrics", host);
+            reportFailedRun(metricPrefixWithDisplayName, extensionMetrics, collectedMetrics);
             return;
         }
 
         List<Map<String, Object>> hostConfig = (List<Map<String, Object>>) vmWareServer.get(Constants.HOSTCONFIG);
         if (hostConfig != null && !hostConfig.isEmpty()) {
 
-            Phaser metricCollectorsPhaser = new Phaser();
-            metricCollectorsPhaser.register();
+            Phaser metricCollectorsPhaser = newCollectorsPhaser(collectedMetrics);
+
+            List<EntityData> entities;
+            try {
+                long inventoryStart = System.currentTimeMillis();
+                entities = retrieveInventoryRetryingOnce(extensionMetrics);
+                extensionMetrics.setInventoryMillis(System.currentTimeMillis() - inventoryStart);
+            } catch (Exception e) {
+                logger.error("Unable to retrieve the inventory from host [{}]", host, e);
+                if (VMWareSessionPool.isSessionFailure(e)) {
+                    sessionPool.invalidate(host, (String) vmWareServer.get(com.appdynamics.extensions.Constants.USER));
+                }
+                reportFailedRun(metricPrefixWithDisplayName, extensionMetrics, collectedMetrics);
+                return;
+            }
+
+            List<EntityData> hostEntities = new ArrayList<>();
+            List<EntityData> datastoreEntities = new ArrayList<>();
+            List<EntityData> clusterEntities = new ArrayList<>();
+            List<EntityData> resourcePoolEntities = new ArrayList<>();
+            List<EntityData> portGroupEntities = new ArrayList<>();
+            List<EntityData> vmEntities = new ArrayList<>();
+            Map<String, String> computeResourceNames = new HashMap<>();
+            Map<String, List<EntityData>> vmsByHost = new HashMap<>();
+            for (EntityData entity : entities) {
+                if (Constants.HOSTSYSTEM.equals(entity.getType())) {
+                    hostEntities.add(entity);
+                } else if (Constants.DATASTORE.equals(entity.getType())) {
+                    datastoreEntities.add(entity);
+                } else if (Constants.CLUSTER_COMPUTE_RESOURCE.equals(entity.getType())) {
+                    clusterEntities.add(entity);
+                    computeResourceNames.put(entity.getId(), entity.getName());
+                } else if (Constants.COMPUTE_RESOURCE.equals(entity.getType())) {
+                    computeResourceNames.put(entity.getId(), entity.getName());
+                } else if (Constants.RESOURCEPOOL.equals(entity.getType()) || Constants.VIRTUALAPP.equals(entity.getType())) {
+                    resourcePoolEntities.add(entity);
+                } else if (Constants.DISTRIBUTED_PORTGROUP.equals(entity.getType())) {
+                    portGroupEntities.add(entity);
+                } else {
+                    vmEntities.add(entity);
+                    ManagedObjectReference vmHost = (ManagedObjectReference) entity.getProperty(PropertyPaths.VM_HOST);
+                    if (vmHost != null) {
+                        List<EntityData> hostVMs = vmsByHost.get(vmHost.getVal());
+                        if (hostVMs == null) {
+                            hostVMs = new ArrayList<>();
+                            vmsByHost.put(vmHost.getVal(), hostVMs);
+                        }
+                        hostVMs.add(entity);
+                    }
+                }
+            }
 
-            List<ManagedEntity> hostEntities = getHostMachines(rootFolder, hostConfig);
+            List<EntityData> allHostEntities = hostEntities;
+            HostConfigMatcher hostConfigMatcher = HostConfigMatcher.compile(hostConfig, (List<String>) vmWareServer.get(Constants.EXCLUDE_HOSTS));
+            hostEntities = getHostMachines(hostEntities, hostConfigMatcher);
             if (logger.isDebugEnabled()) {
                 logger.debug("Found " + hostEntities.size() + " hosts");
                 StringBuilder sb = new StringBuilder();
-                for (ManagedEntity managedEntity : hostEntities) {
+                for (EntityData hostEntity : hostEntities) {
                     if (sb.length() > 0) {
                         sb.append(",");
                     }
-                    sb.append(managedEntity.getName());
+                    sb.append(hostEntity.getName());
                 }
                 logger.debug("Host machines [{}]", sb.toString());
             }
 
-            for (final ManagedEntity hostEntity : hostEntities) {
+            deltaCalculator.useMetrics(vmWareMetrics);
+            CollectorContext collectorContext = new CollectorContext(metricPrefixWithDisplayName, metricCollectorsPhaser, collectedMetrics, collectionDeadline,
+                    deltaCalculator, pathRegistry, createPerformanceCollector(extensionMetrics));
 
-                String metricPrefixWithDisplayName = contextConfiguration.getMetricPrefix();
-                if (!Strings.isNullOrEmpty(displayName)) {
-                    metricPrefixWithDisplayName += "|" + displayName;
-                }
+            ClusterRollups clusterRollups = null;
+            if (isClusterCollectionEnabled()) {
+                clusterRollups = new ClusterRollups(vmWareMetrics.getClusterMetrics().getCompiledRollups(),
+                        vmWareMetrics.getHostMetrics().getCompiledMetrics().length, vmWareMetrics.getVmMetrics().getCompiledMetrics().length);
+            }
+
+            //The host and VM values are kept by column until printed. A row is reused once printed, so the tables need
+            //the rows of the selected hosts and their VMs, but no more than are pending until the next chunk is printed
+            int selectedVMs = 0;
+            for (EntityData hostEntity : hostEntities) {
+                List<EntityData> hostVMs = vmsByHost.get(hostEntity.getId());
+                selectedVMs += hostVMs == null ? 0 : hostVMs.size();
+            }
+            int maxPendingRows = MAX_PENDING_CHUNKS * metricChunkSize;
+            MetricTable hostTable = new MetricTable(vmWareMetrics.getHostMetrics().getCompiledMetrics(), Math.min(hostEntities.size(), maxPendingRows));
+            MetricTable vmTable = new MetricTable(vmWareMetrics.getVmMetrics().getCompiledMetrics(), Math.min(selectedVMs, maxPendingRows));
+            for (final EntityData hostEntity : hostEntities) {
+                HostMetricCollector hostMetricCollector = new HostMetricCollector(collectorContext, hostEntity, vmsByHost.get(hostEntity.getId()), hostConfigMatcher, vmWareMetrics, clusterRollups, hostTable, vmTable);
+                collectorExecutor.execute("HostMetricCollector-" + hostEntity.getName(), hostMetricCollector);
+            }
 
+            if (isDatastoreCollectionEnabled()) {
+                DatastoreMetricCollector datastoreMetricCollector = new DatastoreMetricCollector(collectorContext, datastoreEntities, allHostEntities,
+                        NameMatcher.compile((List<String>) vmWareServer.get(Constants.DATASTORES)), NameMatcher.compile((List<String>) vmWareServer.get(Constants.EXCLUDE_DATASTORES)),
+                        vmWareMetrics.getDatastoreMetrics());
+                collectorExecutor.execute("DatastoreMetricCollector", datastoreMetricCollector);
+            }
 
-                HostMetricCollector hostMetricCollector = new HostMetricCollector(metricPrefixWithDisplayName, hostEntity, hostConfig, metricCollectorsPhaser, contextConfiguration.getContext().getExecutorService(), collectedMetrics, vmWareMetrics);
-                contextConfiguration.getContext().getExecutorService().execute("HostMetricCollector-" + hostEntity.getName(), hostMetricCollector);
+            if (isResourcePoolCollectionEnabled()) {
+                String resourcePoolMetricPath = (String) contextConfiguration.getConfigYml().get(Constants.RESOURCE_POOL_METRIC_PATH);
+                ResourcePoolMetricCollector resourcePoolMetricCollector = new ResourcePoolMetricCollector(collectorContext, resourcePoolEntities, computeResourceNames,
+                        NameMatcher.compile((List<String>) vmWareServer.get(Constants.RESOURCE_POOLS)), NameMatcher.compile((List<String>) vmWareServer.get(Constants.EXCLUDE_RESOURCE_POOLS)),
+                        Strings.isNullOrEmpty(resourcePoolMetricPath) ? Constants.DEFAULT_RESOURCE_POOL_METRIC_PATH : resourcePoolMetricPath,
+                        vmWareMetrics.getResourcePoolMetrics());
+                collectorExecutor.execute("ResourcePoolMetricCollector", resourcePoolMetricCollector);
             }
 
-            metricCollectorsPhaser.arriveAndAwaitAdvance();
+            if (isNetworkCollectionEnabled()) {
+                NetworkMetricCollector networkMetricCollector = new NetworkMetricCollector(collectorContext, hostEntities, vmEntities, portGroupEntities,
+                        NameMatcher.compile((List<String>) vmWareServer.get(Constants.NETWORKS)), NameMatcher.compile((List<String>) vmWareServer.get(Constants.EXCLUDE_NETWORKS)),
+                        vmWareMetrics.getNetworkMetrics());
+                collectorExecutor.execute("NetworkMetricCollector", networkMetricCollector);
+            }
 
-            //Close connection
-            try {
-                logger.info("Closing the connection to server [{}]", host);
-                rootFolder.getServerConnection().logout();
-            } catch (Exception e) {
-                logger.error("Unable to close the connection", e);
+            awaitCollectors(metricCollectorsPhaser, collectionDeadline, collectedMetrics, host);
+
+            //The cluster rollups need the values of all host collectors, the clusters are reported even if some
+            //of them timed out
+            CollectionDeadline clusterDeadline = null;
+            if (clusterRollups != null) {
+                clusterDeadline = new CollectionDeadline(Math.max(collectionDeadline.getRemainingMillis(), CLUSTER_COLLECTION_TIMEOUT_MILLIS));
+                Phaser clusterPhaser = newCollectorsPhaser(collectedMetrics);
+                CollectorContext clusterContext = new CollectorContext(metricPrefixWithDisplayName, clusterPhaser, collectedMetrics, clusterDeadline,
+                        deltaCalculator, pathRegistry, null);
+                ClusterMetricCollector clusterMetricCollector = new ClusterMetricCollector(clusterContext, clusterEntities,
+                        NameMatcher.compile((List<String>) vmWareServer.get(Constants.CLUSTERS)), NameMatcher.compile((List<String>) vmWareServer.get(Constants.EXCLUDE_CLUSTERS)),
+                        vmWareMetrics.getClusterMetrics(), clusterRollups);
+                collectorExecutor.execute("ClusterMetricCollector", clusterMetricCollector);
+                awaitCollectors(clusterPhaser, clusterDeadline, collectedMetrics, host);
+                addTimedOutMetrics(metricPrefixWithDisplayName, clusterDeadline, collectedMetrics);
+            }
+            addTimedOutMetrics(metricPrefixWithDisplayName, collectionDeadline, collectedMetrics);
+            deltaCalculator.completeCycle();
+            if (pathRegistry != null) {
+                pathRegistry.completeCycle();
             }
 
-            if (collectedMetrics.size() > 0) {
-                logger.debug("Printing {} metrics", collectedMetrics.size());
-                metricWriteHelper.transformAndPrintMetrics(collectedMetrics);
+            long collectionTime = collectorExecutor.completeCycle();
+            long cycleDuration = System.currentTimeMillis() - cycleStart;
+            logger.debug("Cycle of host [{}] took [{}] ms, its collectors ran for [{}] ms", host, cycleDuration, collectionTime);
+            collectedMetrics.add(new com.appdynamics.extensions.metrics.Metric(Constants.CYCLE_DURATION, String.valueOf(cycleDuration), metricPrefixWithDisplayName + "|" + Constants.CYCLE_DURATION));
+
+            collectedMetrics.flush();
+            int timedOut = getTimedOutCount(collectionDeadline);
+            int failed = collectionDeadline.getFailedCount();
+            if (clusterDeadline != null) {
+                timedOut += getTimedOutCount(clusterDeadline);
+                failed += clusterDeadline.getFailedCount();
             }
+            extensionMetrics.report(metricPrefixWithDisplayName, collectedMetrics.getPrintedCount(), timedOut, failed,
+                    collectorExecutor.getAndResetPeakQueueDepth(), collectedMetrics);
+            collectedMetrics.flush();
+            logger.debug("Printed {} metrics", collectedMetrics.getPrintedCount());
 
         } else {
             logger.info("hostConfig not specified in configuration. Exiting the process");
         }
     }
 
-    private void connect() {
+    /**
+     * @return a phaser the task is registered with, which wakes the task up from printing the metrics of finished
+     * collectors once all of them finished
+     */
+    private static Phaser newCollectorsPhaser(final MetricSink collectedMetrics) {
+        return new Phaser(1) {
+            @Override
+            protected boolean onAdvance(int phase, int registeredParties) {
+                collectedMetrics.wakeUp();
+                return super.onAdvance(phase, registeredParties);
+            }
+        };
+    }
+
+    /**
+     * Waits for the collectors until the deadline, then abandons the ones still running so that the metrics collected
+     * so far are reported. While waiting, the task prints the metrics whenever the collectors filled a chunk and
+     * interrupts the collectors over their entity timeout every {@link #ENTITY_TIMEOUT_CHECK_MILLIS}.
+     */
+    private void awaitCollectors(Phaser metricCollectorsPhaser, CollectionDeadline collectionDeadline, MetricSink collectedMetrics, String host) {
+        int phase = metricCollectorsPhaser.arrive();
+        try {
+            long nextCheck = System.currentTimeMillis() + ENTITY_TIMEOUT_CHECK_MILLIS;
+            while (metricCollectorsPhaser.getPhase() == phase) {
+                if (collectionDeadline.isExpired()) {
+                    logger.warn("Collection of host [{}] did not finish in time, reporting the metrics collected so far", host);
+                    break;
+                }
+                long wait = Math.min(nextCheck - System.currentTimeMillis(), collectionDeadline.getRemainingMillis());
+                if (collectedMetrics.awaitFlushRequest(Math.max(1, wait))) {
+                    collectedMetrics.flush();
+                }
+                if (System.currentTimeMillis() >= nextCheck) {
+                    collectionDeadline.abandonExpired();
+                    nextCheck = System.currentTimeMillis() + ENTITY_TIMEOUT_CHECK_MILLIS;
+                }
+            }
+            if (metricCollectorsPhaser.getPhase() != phase) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted while collecting host [{}], reporting the metrics collected so far", host);
+            Thread.currentThread().interrupt();
+        }
+        collectionDeadline.abandon();
+        metricCollectorsPhaser.forceTermination();
+    }
+
+    /**
+     * Reports the extension metrics of a run which ended before any collector ran, e.g. the requests of a failed login.
+     */
+    private void reportFailedRun(String metricPrefix, ExtensionMetrics extensionMetrics, MetricSink collectedMetrics) {
+        collectedMetrics.flush();
+        extensionMetrics.report(metricPrefix, collectedMetrics.getPrintedCount(), 0, 0, 0, collectedMetrics);
+        collectedMetrics.flush();
+    }
+
+    private static int getTimedOutCount(CollectionDeadline collectionDeadline) {
+        int timedOut = 0;
+        for (Integer hostTimedOut : collectionDeadline.getTimedOutCounts().values()) {
+            timedOut += hostTimedOut;
+        }
+        for (Integer collectorTimedOut : collectionDeadline.getTimedOutCollectorCounts().values()) {
+            timedOut += collectorTimedOut;
+        }
+        return timedOut;
+    }
+
+    private void addTimedOutMetrics(String metricPrefix, CollectionDeadline collectionDeadline, MetricSink collectedMetrics) {
+        for (Map.Entry<String, Integer> timedOut : collectionDeadline.getTimedOutCounts().entrySet()) {
+            if (timedOut.getValue() > 0) {
+                logger.warn("[{}] collectors of host [{}] timed out", timedOut.getValue(), timedOut.getKey());
+            }
+            String metricPath = metricPrefix + "|HostSystem|" + timedOut.getKey() + "|" + Constants.COLLECTION_TIMED_OUT;
+            collectedMetrics.add(new com.appdynamics.extensions.metrics.Metric(Constants.COLLECTION_TIMED_OUT, String.valueOf(timedOut.getValue()), metricPath));
+        }
+        for (Map.Entry<String, Integer> timedOut : collectionDeadline.getTimedOutCollectorCounts().entrySet()) {
+            if (timedOut.getValue() > 0) {
+                logger.warn("[{}] collector timed out", timedOut.getKey());
+            }
+            String metricPath = metricPrefix + "|" + timedOut.getKey() + "|" + Constants.COLLECTION_TIMED_OUT;
+            collectedMetrics.add(new com.appdynamics.extensions.metrics.Metric(Constants.COLLECTION_TIMED_OUT, String.valueOf(timedOut.getValue()), metricPath));
+        }
+    }
+
+    /**
+     * Clusters are collected when metrics.xml has a ClusterMetrics section and the server selects clusters with
+     * <code>clusters</code>.
+     */
+    private boolean isClusterCollectionEnabled() {
+        List<String> clusters = (List<String>) vmWareServer.get(Constants.CLUSTERS);
+        return vmWareMetrics.getClusterMetrics() != null && clusters != null && !clusters.isEmpty();
+    }
+
+    /**
+     * Resource pools and vApps are collected when metrics.xml has a ResourcePoolMetrics section and the server selects
+     * pools with <code>resourcePools</code>.
+     */
+    private boolean isResourcePoolCollectionEnabled() {
+        List<String> resourcePools = (List<String>) vmWareServer.get(Constants.RESOURCE_POOLS);
+        return vmWareMetrics.getResourcePoolMetrics() != null && resourcePools != null && !resourcePools.isEmpty();
+    }
+
+    /**
+     * The network is collected when metrics.xml has a NetworkMetrics section and the server selects vSwitches and port
+     * groups with <code>networks</code>.
+     */
+    private boolean isNetworkCollectionEnabled() {
+        List<String> networks = (List<String>) vmWareServer.get(Constants.NETWORKS);
+        return vmWareMetrics.getNetworkMetrics() != null && networks != null && !networks.isEmpty();
+    }
+
+    /**
+     * Datastores are collected when metrics.xml has a DatastoreMetrics section and the server selects datastores with
+     * <code>datastores</code>.
+     */
+    private boolean isDatastoreCollectionEnabled() {
+        List<String> datastores = (List<String>) vmWareServer.get(Constants.DATASTORES);
+        return vmWareMetrics.getDatastoreMetrics() != null && datastores != null && !datastores.isEmpty();
+    }
+
+    /**
+     * The collectors get <code>collectionTimeoutSeconds</code> from the start of the run, by default most of the
+     * execution window of the task so that a run is reported before the next one starts.
+     */
+    private long getCollectionTimeoutMillis() {
+        Map<String, ?> configYml = contextConfiguration.getConfigYml();
+        Integer timeout = (Integer) configYml.get(Constants.COLLECTION_TIMEOUT);
+        if (timeout != null && timeout > 0) {
+            return TimeUnit.SECONDS.toMillis(timeout);
+        }
+        long window = Constants.DEFAULT_TASK_DELAY_SECONDS;
+        Map<String, ?> taskSchedule = (Map<String, ?>) configYml.get(Constants.TASK_SCHEDULE);
+        if (taskSchedule != null && taskSchedule.get(Constants.TASK_DELAY_SECONDS) instanceof Integer) {
+            window = (Integer) taskSchedule.get(Constants.TASK_DELAY_SECONDS);
+        }
+        return TimeUnit.SECONDS.toMillis(window) * 4 / 5;
+    }
+
+    /**
+     * A single collector gets <code>entityCollectionTimeoutSeconds</code>, by default half of the time of
+     * the run.
+     */
+    private long getEntityCollectionTimeoutMillis(long collectionTimeoutMillis) {
+        Integer timeout = (Integer) contextConfiguration.getConfigYml().get(Constants.ENTITY_COLLECTION_TIMEOUT);
+        if (timeout != null && timeout > 0) {
+            return TimeUnit.SECONDS.toMillis(timeout);
+        }
+        return collectionTimeoutMillis / 2;
+    }
+
+    /**
+     * A single vCenter request gets the time of a single collector, so that a request vCenter does not answer
+     * fails and frees its thread and its request permit instead of blocking them beyond the run.
+     */
+    private int getRequestTimeoutMillis() {
+        return (int) Math.min(Integer.MAX_VALUE, getEntityCollectionTimeoutMillis(getCollectionTimeoutMillis()));
+    }
+
+    /**
+     * @param extensionMetrics counts the requests of the session probe and the login
+     */
+    private void connect(ExtensionMetrics extensionMetrics) {
 
         if (vmWareServer != null) {
             String host = (String) vmWareServer.get(com.appdynamics.extensions.Constants.HOST);
             String username = (String) vmWareServer.get(com.appdynamics.extensions.Constants.USER);
             String password = getPassword(vmWareServer);
 
-            String url = "https://" + host + "/sdk";
             try {
-                ServiceInstance serviceInstance = new ServiceInstance(new URL(url), username, password, true);
-                rootFolder = serviceInstance.getRootFolder();
+                session = sessionPool.acquire(host, username, password, getRequestTimeoutMillis(), extensionMetrics);
+                rootFolder = session.getRootFolder();
             } catch (Exception e) {
+                sessionPool.invalidate(host, username);
                 logger.error("Unable to connect to the host [{}]", host, e);
                 throw new RuntimeException("Unable to connect to the host [" + host + "]", e);
             }
-            logger.info("Connection to: " + url + " Successful");
+            logger.info("Connection to: [{}] Successful", host);
         } else {
             logger.error("Server configuration is null, exiting without collecting metrics.");
             throw new RuntimeException("Server configuration is null, exiting without collecting metrics.");
         }
     }
 
+    private void addSessionMetrics(String metricPrefix, MetricSink collectedMetrics) {
+        String sessionMetricPath = metricPrefix + "|" + Constants.SESSION + "|";
+        collectedMetrics.add(new com.appdynamics.extensions.metrics.Metric(Constants.SESSION_AGE, String.valueOf(session.getAgeInSeconds()), sessionMetricPath + Constants.SESSION_AGE));
+        collectedMetrics.add(new com.appdynamics.extensions.metrics.Metric(Constants.SESSION_REUSE_COUNT, String.valueOf(session.getReuseCount()), sessionMetricPath + Constants.SESSION_REUSE_COUNT));
+        collectedMetrics.add(new com.appdynamics.extensions.metrics.Metric(Constants.SESSION_LOGIN_COUNT, String.valueOf(session.getLoginCount()), sessionMetricPath + Constants.SESSION_LOGIN_COUNT));
+    }
+
     private String getPassword(Map<String, ?> config) {
         String password = null;
 
@@ -184,30 +526,102 @@ public class VMWareMonitorTask implements AMonitorTaskRunnable {
         return password;
     }
 
-    private List<ManagedEntity> getHostMachines(Folder rootFolder, List<Map<String, Object>> hostConfigs) {
-        List<ManagedEntity> hostEntities = new ArrayList<ManagedEntity>();
+    /**
+     * A pooled session can expire between the probe in {@link VMWareSessionPool#acquire} and the inventory read, the
+     * read is then repeated once with a new session instead of failing the run.
+     */
+    private List<EntityData> retrieveInventoryRetryingOnce(ExtensionMetrics extensionMetrics) throws RemoteException {
+        try {
+            return retrieveInventory(extensionMetrics);
+        } catch (NotAuthenticated e) {
+            String host = (String) vmWareServer.get(com.appdynamics.extensions.Constants.HOST);
+            logger.info("Session for [{}] expired during the run, retrying with a new session", host);
+            sessionPool.invalidate(host, (String) vmWareServer.get(com.appdynamics.extensions.Constants.USER));
+            connect(extensionMetrics);
+            return retrieveInventory(extensionMetrics);
+        }
+    }
 
-        for (Map<String, Object> hostConfig : hostConfigs) {
-            String hostName = (String) hostConfig.get(com.appdynamics.extensions.Constants.HOST);
-            try {
-                if ("*".equals(hostName)) {
-                    hostEntities = Arrays.asList(new InventoryNavigator(rootFolder).searchManagedEntities(Constants.HOSTSYSTEM));
-                } else {
-                    ManagedEntity hostSystem = new InventoryNavigator(rootFolder).searchManagedEntity(Constants.HOSTSYSTEM, hostName);
-                    if (hostSystem != null) {
-                        hostEntities.add(hostSystem);
-                    } else {
-                        logger.error("Could not find Host with name " + hostName);
-                    }
-                }
-            } catch (InvalidProperty invalidProperty) {
-                logger.error("Unable to get the host details", invalidProperty);
-            } catch (RuntimeFault runtimeFault) {
-                logger.error("Unable to get the host details", runtimeFault);
-            } catch (RemoteException e) {
-                logger.error("Unable to get the host details", e);
+    private List<EntityData> retrieveInventory(ExtensionMetrics extensionMetrics) throws RemoteException {
+        Map<String, String[]> pathsByType = new LinkedHashMap<>();
+        String[] hostPaths = PropertyPaths.getHostPropertyPaths(vmWareMetrics.getHostMetrics().getCompiledMetrics());
+        if (isClusterCollectionEnabled()) {
+            //The parent of a host in a cluster is the cluster
+            hostPaths = ObjectArrays.concat(hostPaths, PropertyPaths.PARENT);
+        }
+        String[] vmPaths = PropertyPaths.getVMPropertyPaths(vmWareMetrics.getVmMetrics().getCompiledMetrics());
+        if (isNetworkCollectionEnabled()) {
+            //The uplinks of the vSwitches and the port groups of the VM NICs, matched with the NIC counter instances. The
+            //topology cache reads them only with the topology
+            hostPaths = ObjectArrays.concat(hostPaths, new String[]{PropertyPaths.HOST_PHYSICAL_NICS, PropertyPaths.HOST_VSWITCHES}, String.class);
+            vmPaths = ObjectArrays.concat(vmPaths, PropertyPaths.VM_DEVICES);
+        }
+        pathsByType.put(Constants.HOSTSYSTEM, hostPaths);
+        pathsByType.put(Constants.VIRTUALMACHINE, vmPaths);
+        if (isDatastoreCollectionEnabled()) {
+            pathsByType.put(Constants.DATASTORE, PropertyPaths.getDatastorePropertyPaths(vmWareMetrics.getDatastoreMetrics().getCompiledMetrics()));
+        }
+        if (isClusterCollectionEnabled()) {
+            pathsByType.put(Constants.CLUSTER_COMPUTE_RESOURCE, PropertyPaths.getClusterPropertyPaths(vmWareMetrics.getClusterMetrics().getCompiledMetrics()));
+        }
+        if (isResourcePoolCollectionEnabled()) {
+            //vApps are resource pools and are read with them, the compute resources only for the name of their cluster
+            pathsByType.put(Constants.RESOURCEPOOL, PropertyPaths.getResourcePoolPropertyPaths(vmWareMetrics.getResourcePoolMetrics().getCompiledMetrics()));
+            pathsByType.put(Constants.COMPUTE_RESOURCE, new String[]{PropertyPaths.NAME});
+        }
+        if (isNetworkCollectionEnabled()) {
+            pathsByType.put(Constants.DISTRIBUTED_PORTGROUP, PropertyPaths.getPortGroupPropertyPaths());
+        }
+
+        if (incrementalInventory != null) {
+            return incrementalInventory.update(session.getServiceInstance(), pathsByType, extensionMetrics);
+        }
+
+        Integer pageSize = (Integer) contextConfiguration.getConfigYml().get(Constants.PROPERTY_COLLECTOR_PAGE_SIZE);
+        PropertyRetriever propertyRetriever = new PropertyRetriever(session.getServiceInstance(), pageSize == null ? PropertyRetriever.DEFAULT_PAGE_SIZE : pageSize,
+                collectorExecutor.getRequestPermits(), extensionMetrics);
+        if (topologyCache != null) {
+            return topologyCache.retrieve(session.getServiceInstance(), propertyRetriever, pathsByType, contextConfiguration.getContext().getExecutorService(), extensionMetrics);
+        }
+        return propertyRetriever.retrieve(pathsByType);
+    }
+
+    /**
+     * @return the collector for the metrics with a performance counter, or null if no metric has one
+     */
+    private PerformanceCollector createPerformanceCollector(ExtensionMetrics extensionMetrics) {
+        if (!PerformanceCollector.hasCounters(vmWareMetrics.getHostMetrics().getCompiledMetrics())
+                && !PerformanceCollector.hasCounters(vmWareMetrics.getVmMetrics().getCompiledMetrics())
+                && !(isDatastoreCollectionEnabled() && PerformanceCollector.hasCounters(vmWareMetrics.getDatastoreMetrics().getCompiledMetrics()))
+                && !(isNetworkCollectionEnabled() && PerformanceCollector.hasCounters(vmWareMetrics.getNetworkMetrics().getCompiledMetrics()))) {
+            return null;
+        }
+        try {
+            Integer batchSize = (Integer) contextConfiguration.getConfigYml().get(Constants.PERF_QUERY_BATCH_SIZE);
+            return new PerformanceCollector(session.getServiceInstance().getPerformanceManager(), session.getPerfCounters(extensionMetrics),
+                    batchSize == null ? PerformanceCollector.DEFAULT_BATCH_SIZE : batchSize, collectorExecutor.getRequestPermits(), extensionMetrics);
+        } catch (Exception e) {
+            logger.error("Unable to read the performance counters of host [{}], not collecting counter metrics", vmWareServer.get(com.appdynamics.extensions.Constants.HOST), e);
+            return null;
+        }
+    }
+
+    private List<EntityData> getHostMachines(List<EntityData> allHosts, HostConfigMatcher hostConfigMatcher) {
+        List<EntityData> hostEntities = new ArrayList<EntityData>();
+        Set<String> notFound = new HashSet<>(hostConfigMatcher.getHostNames());
+
+        for (EntityData hostEntity : allHosts) {
+            String hostName = hostEntity.getName();
+            if (hostName != null) {
+                notFound.remove(hostName.toLowerCase(Locale.ROOT));
             }
+            if (hostConfigMatcher.isHostSelected(hostName)) {
+                hostEntities.add(hostEntity);
+            }
+        }
+        for (String hostName : notFound) {
+            logger.error("Could not find Host with name " + hostName);
         }
         return hostEntities;
     }
-}
+}
\ No newline at end of file
@@ -7,8 +7,8 @@
 
 package com.appdynamics.monitors.VMWare.collectors;
 
-import com.appdynamics.extensions.metrics.Metric;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.appdynamics.monitors.VMWare.metrics.CompiledMetric;
+import com.vmware.vim25.ManagedEntityStatus;
 
 import java.util.List;
 import java.util.concurrent.Phaser;
@@ -18,30 +18,73 @@ import java.util.concurrent.Phaser;
  */
 public abstract class BaseMetricCollector implements Runnable {
 
-    private ObjectMapper objectMapper = new ObjectMapper();
-    private List<Metric> collectedMetrics;
-    private Phaser metricCollectorsPhaser;
+    private CollectorContext context;
     private String metricPrefix;
+    private CollectionDeadline.Budget budget;
 
-    public BaseMetricCollector(String metricPrefix, Phaser metricCollectorsPhaser, List<Metric> collectedMetrics) {
+    /**
+     * @param metricPrefix the path the collector reports under, e.g. the base path of the host of a VM
+     */
+    public BaseMetricCollector(CollectorContext context, String metricPrefix, CollectionDeadline.Budget budget) {
+        this.context = context;
         this.metricPrefix = metricPrefix;
-        this.metricCollectorsPhaser = metricCollectorsPhaser;
-        this.collectedMetrics = collectedMetrics;
+        this.budget = budget;
     }
 
-    public ObjectMapper getObjectMapper() {
-        return objectMapper;
+    public CollectorContext getContext() {
+        return context;
     }
 
-    public List<Metric> getCollectedMetrics() {
-        return collectedMetrics;
+    public MetricSink getCollectedMetrics() {
+        return context.getCollectedMetrics();
     }
 
     public Phaser getMetricCollectorsPhaser() {
-        return metricCollectorsPhaser;
+        return context.getMetricCollectorsPhaser();
     }
 
     public String getMetricPrefix() {
         return metricPrefix;
     }
-}
\ No newline at end of file
+
+    public CollectionDeadline.Budget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Replaces the value of a metric with a <code>delta</code> attribute by its difference or rate to the previous
+     * sample of the entity.
+     *
+     * @param entityKey   the MoRef of the entity, or another key unique in the server
+     * @param metricIndex the index of the metric among the metrics of the entity
+     * @return the value as is for metrics without a delta, otherwise the delta or NaN if there is none
+     */
+    protected double applyDelta(String entityKey, int metricIndex, CompiledMetric metric, double value, long timeMillis) {
+        if (metric.getDeltaMode() == null || Double.isNaN(value)) {
+            return value;
+        }
+        return context.getDeltaCalculator().compute(entityKey, metricIndex, value, metric.getDeltaMode(), timeMillis);
+    }
+
+    /**
+     * Sets the status in the row of the entity, or adds it to the batch if the entity has no row.
+     */
+    protected static void addStatus(MetricTable table, int row, ManagedEntityStatus status, MetricPathRegistry.EntityPaths entityPaths, List<com.appdynamics.extensions.metrics.Metric> batch) {
+        if (row != MetricTable.NO_ROW) {
+            table.setStatus(row, status.ordinal());
+        } else {
+            batch.add(new com.appdynamics.extensions.metrics.Metric("status", String.valueOf(status.ordinal()), entityPaths.getStatusPath()));
+        }
+    }
+
+    /**
+     * Sets the value in the row of the entity, or adds it to the batch if the entity has no row.
+     */
+    protected static void addValue(MetricTable table, int row, int metricIndex, CompiledMetric metric, double value, MetricPathRegistry.EntityPaths entityPaths, List<com.appdynamics.extensions.metrics.Metric> batch) {
+        if (row != MetricTable.NO_ROW) {
+            table.set(row, metricIndex, value);
+        } else {
+            batch.add(new com.appdynamics.extensions.metrics.Metric(metric.getName(), CompiledMetric.toMetricValue(value), entityPaths.getMetricPath(metricIndex), metric.getProperties()));
+        }
+    }
+}
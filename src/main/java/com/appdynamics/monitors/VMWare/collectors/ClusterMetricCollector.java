@@ -0,0 +1,108 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.collectors;
+
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.inventory.NameMatcher;
+import com.appdynamics.monitors.VMWare.metrics.ClusterMetrics;
+import com.appdynamics.monitors.VMWare.metrics.CompiledMetric;
+import com.appdynamics.monitors.VMWare.metrics.CompiledRollup;
+import com.appdynamics.monitors.VMWare.util.Constants;
+import com.vmware.vim25.ManagedEntityStatus;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the selected clusters of a server under <code>&lt;prefix&gt;|Cluster|&lt;name&gt;</code>: the cluster
+ * summary properties read in the bulk property retrieval of the run, and the {@link ClusterRollups} of the hosts and
+ * VMs collected in the cluster. Runs once the host collectors finished.
+ */
+public class ClusterMetricCollector extends BaseMetricCollector {
+
+    private static final Logger logger = ExtensionsLoggerFactory.getLogger(ClusterMetricCollector.class);
+
+    private final List<EntityData> clusters;
+    private final NameMatcher selectedClusters;
+    private final NameMatcher excludedClusters;
+    private final ClusterMetrics clusterMetrics;
+    private final ClusterRollups clusterRollups;
+
+    public ClusterMetricCollector(CollectorContext context, List<EntityData> clusters, NameMatcher selectedClusters, NameMatcher excludedClusters, ClusterMetrics clusterMetrics, ClusterRollups clusterRollups) {
+        super(context, context.getMetricPrefix(), context.getCollectionDeadline().registerCollector(Constants.CLUSTER));
+        this.clusters = clusters;
+        this.selectedClusters = selectedClusters;
+        this.excludedClusters = excludedClusters;
+        this.clusterMetrics = clusterMetrics;
+        this.clusterRollups = clusterRollups;
+        this.getMetricCollectorsPhaser().register();
+    }
+
+    public void run() {
+
+        List<com.appdynamics.extensions.metrics.Metric> batch = new ArrayList<>();
+        try {
+            if (!getBudget().enter()) {
+                logger.warn("Collection deadline passed before the clusters were collected");
+                return;
+            }
+
+            for (EntityData cluster : clusters) {
+                String clusterName = cluster.getName();
+                if (clusterName != null && selectedClusters.matches(clusterName) && !excludedClusters.matches(clusterName)) {
+                    collect(cluster, batch);
+                }
+            }
+            logger.debug("Finished collecting the clusters");
+        } catch (Exception e) {
+            logger.error("Error collecting the cluster metrics", e);
+            getBudget().fail();
+        } finally {
+            getBudget().exit(getCollectedMetrics(), batch);
+            getMetricCollectorsPhaser().arriveAndDeregister();
+        }
+    }
+
+    private void collect(EntityData cluster, List<com.appdynamics.extensions.metrics.Metric> batch) {
+        String clusterName = cluster.getName();
+        String baseMetricName = getMetricPrefix() + "|" + Constants.CLUSTER + "|" + clusterName;
+        logger.debug("Collecting cluster [{}] metrics", clusterName);
+
+        ManagedEntityStatus overallStatus = cluster.getOverallStatus();
+        if (overallStatus != null) {
+            batch.add(new com.appdynamics.extensions.metrics.Metric("status", String.valueOf(overallStatus.ordinal()), baseMetricName + "|Status"));
+        }
+
+        CompiledMetric[] metrics = clusterMetrics.getCompiledMetrics();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < metrics.length; i++) {
+            CompiledMetric metric = metrics[i];
+            String name = metric.getName();
+            double value = applyDelta(cluster.getId(), i, metric, metric.extract(cluster, null), now);
+            if (Double.isNaN(value)) {
+                logger.debug("No value for metric [{}] on cluster [{}]", name, clusterName);
+                continue;
+            }
+            batch.add(new com.appdynamics.extensions.metrics.Metric(name, CompiledMetric.toMetricValue(value), baseMetricName + "|" + name, metric.getProperties()));
+        }
+
+        ClusterRollups.Values values = clusterRollups.getValues(cluster.getId());
+        for (CompiledRollup rollup : clusterMetrics.getCompiledRollups()) {
+            String name = rollup.getName();
+            double value = values.compute(rollup);
+            if (Double.isNaN(value)) {
+                logger.debug("No value to roll up for metric [{}] on cluster [{}]", name, clusterName);
+                continue;
+            }
+            batch.add(new com.appdynamics.extensions.metrics.Metric(name, CompiledMetric.toMetricValue(value), baseMetricName + "|" + name, rollup.getProperties()));
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.collectors;
+
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.inventory.PropertyPaths;
+import com.appdynamics.monitors.VMWare.metrics.CompiledRollup;
+import com.appdynamics.monitors.VMWare.util.Constants;
+import com.vmware.vim25.ManagedObjectReference;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The host and VM metric values the cluster rollups of a run are computed from. The host collectors add the
+ * values they collected to the {@link Values} of their cluster, only for the metrics a rollup refers to, so the
+ * rollups need neither a query nor a second pass over the entities. Each series is sorted once when the rollups are
+ * computed, after which the sum, average, minimum, maximum and every percentile are read from it.
+ */
+public class ClusterRollups {
+
+    private final boolean[] hostSources;
+    private final boolean[] vmSources;
+    private final ConcurrentMap<String, Values> valuesByCluster = new ConcurrentHashMap<>();
+
+    /**
+     * @param hostMetrics the number of compiled host metrics
+     * @param vmMetrics   the number of compiled VM metrics
+     */
+    public ClusterRollups(CompiledRollup[] rollups, int hostMetrics, int vmMetrics) {
+        hostSources = new boolean[hostMetrics];
+        vmSources = new boolean[vmMetrics];
+        for (CompiledRollup rollup : rollups) {
+            if (rollup.getSourceIndex() >= 0) {
+                boolean[] sources = Constants.HOSTSYSTEM.equals(rollup.getSourceType()) ? hostSources : vmSources;
+                sources[rollup.getSourceIndex()] = true;
+            }
+        }
+    }
+
+    /**
+     * @return the values of the cluster the host belongs to, null if it is a standalone host
+     */
+    public Values forHost(EntityData host) {
+        Object parent = host.getProperty(PropertyPaths.PARENT);
+        if (!(parent instanceof ManagedObjectReference) || !Constants.CLUSTER_COMPUTE_RESOURCE.equals(((ManagedObjectReference) parent).getType())) {
+            return null;
+        }
+        return getValues(((ManagedObjectReference) parent).getVal());
+    }
+
+    public Values getValues(String clusterId) {
+        Values values = valuesByCluster.get(clusterId);
+        if (values == null) {
+            Values existing = valuesByCluster.putIfAbsent(clusterId, values = new Values(hostSources, vmSources));
+            if (existing != null) {
+                values = existing;
+            }
+        }
+        return values;
+    }
+
+    public static class Values {
+
+        private final Series[] hostSeries;
+        private final Series[] vmSeries;
+        private int hosts;
+        private int vms;
+
+        private Values(boolean[] hostSources, boolean[] vmSources) {
+            hostSeries = createSeries(hostSources);
+            vmSeries = createSeries(vmSources);
+        }
+
+        private static Series[] createSeries(boolean[] sources) {
+            Series[] series = new Series[sources.length];
+            for (int i = 0; i < sources.length; i++) {
+                if (sources[i]) {
+                    series[i] = new Series();
+                }
+            }
+            return series;
+        }
+
+        /**
+         * Adds a host collected in time.
+         *
+         * @param values the values of the host by index in the compiled host metrics, NaN if it has none
+         */
+        public synchronized void addHost(double[] values) {
+            hosts++;
+            add(hostSeries, values);
+        }
+
+        /**
+         * Adds a VM collected in time.
+         *
+         * @param values the values of the VM by index in the compiled VM metrics, NaN if it has none
+         */
+        public synchronized void addVM(double[] values) {
+            vms++;
+            add(vmSeries, values);
+        }
+
+        private static void add(Series[] series, double[] values) {
+            for (int i = 0; i < Math.min(series.length, values.length); i++) {
+                if (series[i] != null && !Double.isNaN(values[i])) {
+                    series[i].add(values[i]);
+                }
+            }
+        }
+
+        /**
+         * @return the rollup over the values added so far, NaN if there is none to aggregate
+         */
+        public synchronized double compute(CompiledRollup rollup) {
+            boolean hostSource = Constants.HOSTSYSTEM.equals(rollup.getSourceType());
+            int entities = hostSource ? hosts : vms;
+            if (rollup.getSourceIndex() < 0) {
+                return rollup.apply(new double[0], 0, entities);
+            }
+            Series series = (hostSource ? hostSeries : vmSeries)[rollup.getSourceIndex()];
+            series.sort();
+            return rollup.apply(series.values, series.count, entities);
+        }
+    }
+
+    private static class Series {
+
+        private double[] values = new double[16];
+        private int count;
+        private boolean sorted = true;
+
+        void add(double value) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count++] = value;
+            sorted = false;
+        }
+
+        void sort() {
+            if (!sorted) {
+                Arrays.sort(values, 0, count);
+                sorted = true;
+            }
+        }
+    }
+}
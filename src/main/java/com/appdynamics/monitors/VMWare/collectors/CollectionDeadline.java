@@ -0,0 +1,322 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.collectors;
+
+import com.appdynamics.extensions.metrics.Metric;
+import com.appdynamics.monitors.VMWare.instrumentation.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Time budget of the collectors of one run. Every host collector takes a {@link Budget} of its host, which also covers
+ * the VMs it collects. When the task stops waiting for them it calls {@link #abandon()}: the collectors still running
+ * are interrupted, whatever they collect afterwards is dropped and they are counted as timed out for their host.
+ * <p>
+ * A host is collected once all collectors registered for it finished; the time from the start of the first one until
+ * then is recorded in <code>hostCollectionTimes</code>. Collectors outside the host tree, such as the datastore
+ * collector, take a budget of their own with {@link #registerCollector(String)}.
+ * <p>
+ * With an <code>entityTimeoutMillis</code>, a single collector also may not run longer than that from the time it
+ * entered its budget, so that one hung vCenter call does not hold its thread until the end of the run.
+ * {@link #abandonExpired()} interrupts the collectors over their own time; what they collected so far is reported and
+ * they are counted as timed out.
+ * <p>
+ * The interrupt only wakes a collector waiting for a request permit or a lock, it does not unblock a SOAP call reading
+ * from its socket. Such a call is ended by the read timeout of the session, which the task sets to the entity timeout.
+ */
+public class CollectionDeadline {
+
+    private final long deadlineNanos;
+    private final long entityTimeoutNanos;
+    //by host MoRef, two hosts may have the same name
+    private final ConcurrentMap<String, AtomicInteger> unfinishedByHost = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> hostNames = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> unfinishedByCollector = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> startNanosByHost = new ConcurrentHashMap<>();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final LatencyHistogram hostCollectionTimes;
+    private final Map<Budget, Thread> running = new HashMap<>();
+    private boolean abandoned;
+
+    public CollectionDeadline(long timeoutMillis) {
+        this(timeoutMillis, null);
+    }
+
+    /**
+     * @param hostCollectionTimes records the collection time of every host collected in time, may be null
+     */
+    public CollectionDeadline(long timeoutMillis, LatencyHistogram hostCollectionTimes) {
+        this(timeoutMillis, 0, hostCollectionTimes);
+    }
+
+    /**
+     * @param entityTimeoutMillis the time a single collector may run, 0 to only apply the deadline of the run
+     */
+    public CollectionDeadline(long timeoutMillis, long entityTimeoutMillis, LatencyHistogram hostCollectionTimes) {
+        this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.entityTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, entityTimeoutMillis));
+        this.hostCollectionTimes = hostCollectionTimes;
+    }
+
+    /**
+     * @param hostId the MoRef of the host the collector belongs to
+     */
+    public Budget register(String hostId, String hostName) {
+        hostNames.put(hostId, hostName);
+        return new Budget(hostId, increment(unfinishedByHost, hostId));
+    }
+
+    /**
+     * @param collectorName the entity type the collector reports, e.g. <code>Datastore</code>
+     */
+    public Budget registerCollector(String collectorName) {
+        return new Budget(null, increment(unfinishedByCollector, collectorName));
+    }
+
+    private static AtomicInteger increment(ConcurrentMap<String, AtomicInteger> unfinishedByName, String name) {
+        AtomicInteger unfinished = unfinishedByName.get(name);
+        if (unfinished == null) {
+            AtomicInteger existing = unfinishedByName.putIfAbsent(name, unfinished = new AtomicInteger());
+            if (existing != null) {
+                unfinished = existing;
+            }
+        }
+        unfinished.incrementAndGet();
+        return unfinished;
+    }
+
+    public boolean isExpired() {
+        return deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    public long getRemainingMillis() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+    }
+
+    /**
+     * Gives up on the collectors which did not finish yet.
+     */
+    public void abandon() {
+        List<Runnable> abandonActions = new ArrayList<>();
+        synchronized (this) {
+            abandoned = true;
+            for (Map.Entry<Budget, Thread> entry : running.entrySet()) {
+                entry.getValue().interrupt();
+                entry.getKey().takeAbandonAction(abandonActions);
+            }
+        }
+        runAll(abandonActions);
+    }
+
+    /**
+     * Interrupts the collectors which ran longer than the entity timeout, the others keep running.
+     */
+    public void abandonExpired() {
+        if (entityTimeoutNanos == 0) {
+            return;
+        }
+        List<Runnable> abandonActions = new ArrayList<>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            for (Map.Entry<Budget, Thread> entry : running.entrySet()) {
+                Budget budget = entry.getKey();
+                if (!budget.timedOut && now - budget.enteredNanos >= entityTimeoutNanos) {
+                    budget.timedOut = true;
+                    entry.getValue().interrupt();
+                    budget.takeAbandonAction(abandonActions);
+                }
+            }
+        }
+        runAll(abandonActions);
+    }
+
+    //Outside the lock, an action may start the next collectors
+    private static void runAll(List<Runnable> actions) {
+        for (Runnable action : actions) {
+            action.run();
+        }
+    }
+
+    /**
+     * @return the number of collectors of every registered host which did not finish in time, by host name
+     */
+    public Map<String, Integer> getTimedOutCounts() {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (Map.Entry<String, AtomicInteger> entry : unfinishedByHost.entrySet()) {
+            String hostName = hostNames.get(entry.getKey());
+            Integer count = counts.get(hostName);
+            counts.put(hostName, (count == null ? 0 : count) + entry.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * @return the number of collectors registered with {@link #registerCollector(String)} which did not finish in
+     * time, by collector name
+     */
+    public Map<String, Integer> getTimedOutCollectorCounts() {
+        return toCounts(unfinishedByCollector);
+    }
+
+    private static Map<String, Integer> toCounts(Map<String, AtomicInteger> unfinishedByName) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (Map.Entry<String, AtomicInteger> entry : unfinishedByName.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * @return the number of collectors which ended with an error
+     */
+    public int getFailedCount() {
+        return failed.get();
+    }
+
+    public class Budget {
+
+        //the host MoRef, null for collectors outside the host tree
+        private final String hostId;
+        private final AtomicInteger unfinished;
+        private boolean entered;
+        private long enteredNanos;
+        //set when the collector ran longer than the entity timeout
+        private boolean timedOut;
+        private Runnable abandonAction;
+
+        private Budget(String hostId, AtomicInteger unfinished) {
+            this.hostId = hostId;
+            this.unfinished = unfinished;
+        }
+
+        /**
+         * @return false if the deadline already passed, the collector should then not collect anything
+         */
+        public boolean enter() {
+            synchronized (CollectionDeadline.this) {
+                if (abandoned || isExpired()) {
+                    return false;
+                }
+                entered = true;
+                enteredNanos = System.nanoTime();
+                running.put(this, Thread.currentThread());
+                if (hostId != null && !startNanosByHost.containsKey(hostId)) {
+                    startNanosByHost.put(hostId, System.nanoTime());
+                }
+                return true;
+            }
+        }
+
+        /**
+         * @return true if the deadline of the run or the entity timeout of the collector passed
+         */
+        public boolean isExpired() {
+            if (CollectionDeadline.this.isExpired()) {
+                return true;
+            }
+            synchronized (CollectionDeadline.this) {
+                return timedOut || entityTimeoutNanos > 0 && entered && System.nanoTime() - enteredNanos >= entityTimeoutNanos;
+            }
+        }
+
+        /**
+         * Runs <code>action</code> once when the collector is given up on while it runs, at once if it already was.
+         * The collector itself may still be blocked, e.g. in a vCenter call, until it notices the interrupt.
+         */
+        public void onAbandon(Runnable action) {
+            synchronized (CollectionDeadline.this) {
+                if (!entered || !abandoned && !timedOut) {
+                    abandonAction = action;
+                    return;
+                }
+            }
+            action.run();
+        }
+
+        private void takeAbandonAction(List<Runnable> abandonActions) {
+            if (abandonAction != null) {
+                abandonActions.add(abandonAction);
+                abandonAction = null;
+            }
+        }
+
+        /**
+         * Counts the collector as failed, it still has to {@link #exit} its budget.
+         */
+        public void fail() {
+            failed.incrementAndGet();
+        }
+
+        /**
+         * Hands what a running collector collected so far over to the sink, e.g. a batch of the VMs of a host, unless it
+         * was abandoned. The collector keeps its budget and still has to {@link #exit} it.
+         *
+         * @param rows the rows of <code>table</code> to hand over, the first <code>rowCount</code> of them
+         * @return false if the collector was abandoned, it should then stop
+         */
+        public boolean handOver(MetricSink collectedMetrics, List<Metric> batch, MetricTable table, int[] rows, int rowCount) {
+            synchronized (CollectionDeadline.this) {
+                if (!entered || abandoned) {
+                    return false;
+                }
+            }
+            collectedMetrics.addAll(batch);
+            for (int i = 0; i < rowCount; i++) {
+                collectedMetrics.addRow(table, rows[i]);
+            }
+            return true;
+        }
+
+        /**
+         * Hands the metrics of a collector which entered its budget over to the sink, unless it was abandoned.
+         *
+         * @return true if the metrics were handed over
+         */
+        public boolean exit(MetricSink collectedMetrics, List<Metric> batch) {
+            return exit(collectedMetrics, batch, null, MetricTable.NO_ROW);
+        }
+
+        /**
+         * Hands the row of the entity in the table over to the sink as well, if it has one. A collector over its
+         * entity timeout still hands over what it collected, but stays counted as timed out.
+         */
+        public boolean exit(MetricSink collectedMetrics, List<Metric> batch, MetricTable table, int row) {
+            synchronized (CollectionDeadline.this) {
+                if (!entered) {
+                    return false;
+                }
+                entered = false;
+                abandonAction = null;
+                running.remove(this);
+                // an interrupt from abandon() must not leak into the next task of the pooled thread
+                Thread.interrupted();
+                if (abandoned) {
+                    return false;
+                }
+                if (!timedOut && unfinished.decrementAndGet() == 0 && hostId != null && hostCollectionTimes != null) {
+                    hostCollectionTimes.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanosByHost.get(hostId)));
+                }
+            }
+            //Only whether the collector was abandoned is decided under the lock, adding to the sink may print
+            collectedMetrics.addAll(batch);
+            if (table != null && row != MetricTable.NO_ROW) {
+                collectedMetrics.addRow(table, row);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.collectors;
+
+import com.appdynamics.monitors.VMWare.metrics.DeltaCalculator;
+import com.appdynamics.monitors.VMWare.performance.PerformanceCollector;
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.Phaser;
+
+/**
+ * What the collectors of one run of a server share: the metric prefix of the server, the sink and the phaser the task
+ * waits on, the collection deadline, the state kept across runs and the services to read counters and to run the VM
+ * collectors. Created by the task for every run.
+ */
+public class CollectorContext {
+
+    private final String metricPrefix;
+    private final Phaser metricCollectorsPhaser;
+    private final MetricSink collectedMetrics;
+    private final CollectionDeadline collectionDeadline;
+    private final DeltaCalculator deltaCalculator;
+    private final MetricPathRegistry pathRegistry;
+    private final PerformanceCollector performanceCollector;
+
+    /**
+     * @param metricPrefix         the metric prefix including the display name of the server
+     * @param deltaCalculator      the samples of the metrics with a delta, kept across the runs of the server
+     * @param pathRegistry         the host and VM metric paths kept across runs, may be null to build them every run
+     * @param performanceCollector reads the performance counters, null if no metric uses a counter
+     */
+    public CollectorContext(String metricPrefix, Phaser metricCollectorsPhaser, MetricSink collectedMetrics, CollectionDeadline collectionDeadline,
+                            DeltaCalculator deltaCalculator, MetricPathRegistry pathRegistry, PerformanceCollector performanceCollector) {
+        this.metricPrefix = metricPrefix;
+        this.metricCollectorsPhaser = metricCollectorsPhaser;
+        this.collectedMetrics = collectedMetrics;
+        this.collectionDeadline = collectionDeadline;
+        this.deltaCalculator = Preconditions.checkNotNull(deltaCalculator, "The delta metrics need a DeltaCalculator");
+        this.pathRegistry = pathRegistry;
+        this.performanceCollector = performanceCollector;
+    }
+
+    public String getMetricPrefix() {
+        return metricPrefix;
+    }
+
+    public Phaser getMetricCollectorsPhaser() {
+        return metricCollectorsPhaser;
+    }
+
+    public MetricSink getCollectedMetrics() {
+        return collectedMetrics;
+    }
+
+    public CollectionDeadline getCollectionDeadline() {
+        return collectionDeadline;
+    }
+
+    public DeltaCalculator getDeltaCalculator() {
+        return deltaCalculator;
+    }
+
+    public MetricPathRegistry getPathRegistry() {
+        return pathRegistry;
+    }
+
+    public PerformanceCollector getPerformanceCollector() {
+        return performanceCollector;
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.collectors;
+
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import org.slf4j.Logger;
+
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the collectors of all servers on a dedicated work stealing pool instead of the executor shared with
+ * the server tasks, so its size no longer depends on the inventory.
+ * <p>
+ * Every server gets a {@link ServerExecutor} which runs at most <code>maxConcurrentCollectors</code> of its collectors
+ * at a time, to not overload vCenter, and queues the others without blocking a thread. Once
+ * <code>queueCapacity</code> collectors of a server are waiting, the submitting thread runs the collector itself, which
+ * slows the submitter down instead of rejecting the collector. It still stays within the limit: a collector of the
+ * server submitting more runs them in its own slot, any other thread waits for a slot first. A collector given up on
+ * by the {@link CollectionDeadline} frees its slot at once, even while its thread is still blocked.
+ * <p>
+ * The threads are shared fairly between the servers: after every cycle of a server, half of the threads are split
+ * evenly between the servers and the other half in proportion to the time their collectors took in recent cycles,
+ * which grows with the inventory size and the latency of the vCenter. A small vCenter thus always keeps its even share
+ * while a large or slow one gets the remaining threads, up to its <code>maxConcurrentCollectors</code>.
+ */
+public class CollectorScheduler {
+
+    private static final Logger logger = ExtensionsLoggerFactory.getLogger(CollectorScheduler.class);
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+    public static final int DEFAULT_MAX_CONCURRENT_COLLECTORS = 8;
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 8;
+
+    private final ForkJoinPool pool;
+    private final int threads;
+    private final int queueCapacity;
+    private final ConcurrentMap<String, ServerExecutor> serverExecutors = new ConcurrentHashMap<>();
+    //the server whose slot the current thread runs in
+    private final ThreadLocal<ServerExecutor> currentServer = new ThreadLocal<>();
+
+    public CollectorScheduler(int threads, int queueCapacity) {
+        this.pool = new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        this.threads = Math.max(1, threads);
+        this.queueCapacity = queueCapacity;
+    }
+
+    public static int getDefaultThreads() {
+        return Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param maxConcurrentCollectors collectors of the server running at once
+     * @param maxConcurrentRequests   vCenter requests of the collectors of the server in flight at once
+     * @return the executor of the server, kept across runs so that overlapping runs share the limits. Changed limits
+     * are applied to the executor in place, so a run still in flight stays within them.
+     */
+    public ServerExecutor forServer(String server, int maxConcurrentCollectors, int maxConcurrentRequests) {
+        final int collectorLimit = Math.max(1, maxConcurrentCollectors);
+        final int requestLimit = Math.max(1, maxConcurrentRequests);
+        final AtomicBoolean created = new AtomicBoolean();
+        ServerExecutor serverExecutor = serverExecutors.computeIfAbsent(server, k -> {
+            created.set(true);
+            return new ServerExecutor(k, collectorLimit, requestLimit);
+        });
+        if (created.get() || serverExecutor.updateLimits(collectorLimit, requestLimit)) {
+            rebalance();
+        }
+        return serverExecutor;
+    }
+
+    /**
+     * Forgets the servers which are no longer configured, so that they do not take a share anymore.
+     */
+    public void retainServers(Collection<String> servers) {
+        if (serverExecutors.keySet().retainAll(servers)) {
+            rebalance();
+        }
+    }
+
+    /**
+     * Shares the threads between the servers according to their recent collection time.
+     */
+    synchronized void rebalance() {
+        Collection<ServerExecutor> executors = serverExecutors.values();
+        if (executors.isEmpty()) {
+            return;
+        }
+        double totalWork = 0;
+        for (ServerExecutor serverExecutor : executors) {
+            totalWork += Math.max(0, serverExecutor.work);
+        }
+        double evenShare = threads / 2.0 / executors.size();
+        for (ServerExecutor serverExecutor : executors) {
+            //a server without a finished cycle yet counts as average
+            double weightedShare = totalWork > 0 && serverExecutor.work >= 0 ? threads / 2.0 * serverExecutor.work / totalWork : evenShare;
+            int limit = (int) Math.round(evenShare + weightedShare);
+            serverExecutor.setLimit(Math.max(1, Math.min(serverExecutor.maxConcurrentCollectors, limit)));
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    public class ServerExecutor {
+
+        private final String server;
+        private final RequestPermits requestPermits;
+        private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger waitingCount = new AtomicInteger();
+        private final AtomicInteger running = new AtomicInteger();
+        private final Object slotReleased = new Object();
+        private final AtomicInteger peakWaiting = new AtomicInteger();
+        private final AtomicLong busyNanos = new AtomicLong();
+        private volatile int maxConcurrentCollectors;
+        private int maxConcurrentRequests;
+        private volatile int limit;
+        private volatile double work = -1;
+
+        private ServerExecutor(String server, int maxConcurrentCollectors, int maxConcurrentRequests) {
+            this.server = server;
+            this.maxConcurrentCollectors = maxConcurrentCollectors;
+            this.limit = maxConcurrentCollectors;
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            this.requestPermits = new RequestPermits(maxConcurrentRequests);
+        }
+
+        /**
+         * Applies changed limits of the server. The request permits are added or taken away on the same semaphore, so
+         * the permits held by running collectors are released into it and the new limit holds once they are back.
+         *
+         * @return whether a limit changed
+         */
+        private synchronized boolean updateLimits(int maxConcurrentCollectors, int maxConcurrentRequests) {
+            boolean changed = false;
+            if (maxConcurrentRequests != this.maxConcurrentRequests) {
+                int difference = maxConcurrentRequests - this.maxConcurrentRequests;
+                if (difference > 0) {
+                    requestPermits.release(difference);
+                } else {
+                    requestPermits.reducePermits(-difference);
+                }
+                this.maxConcurrentRequests = maxConcurrentRequests;
+                changed = true;
+            }
+            if (maxConcurrentCollectors != this.maxConcurrentCollectors) {
+                this.maxConcurrentCollectors = maxConcurrentCollectors;
+                changed = true;
+            }
+            if (changed) {
+                logger.debug("Server [{}] may now run at most [{}] collectors and [{}] requests at once", server, maxConcurrentCollectors, maxConcurrentRequests);
+            }
+            return changed;
+        }
+
+        /**
+         * @return the permits a collector takes for every vCenter request
+         */
+        public Semaphore getRequestPermits() {
+            return requestPermits;
+        }
+
+        public void execute(String name, Runnable collector) {
+            if (waitingCount.incrementAndGet() > queueCapacity) {
+                waitingCount.decrementAndGet();
+                logger.debug("[{}] collectors of server [{}] are waiting, running [{}] in the caller", queueCapacity, server, name);
+                if (currentServer.get() == this) {
+                    //The caller already holds a slot of the server, waiting for another one could block all of them
+                    long start = System.nanoTime();
+                    try {
+                        collector.run();
+                    } finally {
+                        busyNanos.addAndGet(System.nanoTime() - start);
+                    }
+                } else {
+                    awaitSlot();
+                    new Slot(collector).run();
+                }
+                return;
+            }
+            waiting.add(collector);
+            dispatch();
+            peakWaiting.accumulateAndGet(waitingCount.get(), Math::max);
+        }
+
+        /**
+         * Takes a slot for a collector run by the caller, waiting for one while the server is at its limit.
+         */
+        private void awaitSlot() {
+            synchronized (slotReleased) {
+                while (true) {
+                    int current = running.get();
+                    if (current < limit) {
+                        if (running.compareAndSet(current, current + 1)) {
+                            return;
+                        }
+                        continue;
+                    }
+                    try {
+                        //timed, a slot freed by a changed limit is not signalled
+                        slotReleased.wait(100);
+                    } catch (InterruptedException e) {
+                        //the collector runs anyway and gives up on its own once it sees the interrupt
+                        Thread.currentThread().interrupt();
+                        running.incrementAndGet();
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void releaseSlot() {
+            running.decrementAndGet();
+            synchronized (slotReleased) {
+                slotReleased.notifyAll();
+            }
+            dispatch();
+        }
+
+        /**
+         * Hands waiting collectors to the pool while the server is below its limit. A finishing collector dispatches
+         * again, so a collector added while the limit was reached is picked up by the next one to finish.
+         */
+        private void dispatch() {
+            while (!waiting.isEmpty()) {
+                int current = running.get();
+                if (current >= limit) {
+                    return;
+                }
+                if (!running.compareAndSet(current, current + 1)) {
+                    continue;
+                }
+                Runnable collector = waiting.poll();
+                if (collector == null) {
+                    running.decrementAndGet();
+                    continue;
+                }
+                waitingCount.decrementAndGet();
+                try {
+                    pool.execute(new Slot(collector));
+                } catch (RejectedExecutionException e) {
+                    logger.debug("Collector pool is shut down, running the collector of server [{}] in the caller", server);
+                    new Slot(collector).run();
+                }
+            }
+        }
+
+        /**
+         * Called at the end of every cycle of the server with the collection time of the cycle, to update its share
+         * of the threads.
+         *
+         * @return the time the collectors of the server took in the cycle, in milliseconds
+         */
+        public long completeCycle() {
+            long busy = busyNanos.getAndSet(0);
+            work = work < 0 ? busy : (work + busy) / 2;
+            rebalance();
+            return TimeUnit.NANOSECONDS.toMillis(busy);
+        }
+
+        /**
+         * @return the most collectors of the server waiting for a thread at once since the last call
+         */
+        public int getAndResetPeakQueueDepth() {
+            return peakWaiting.getAndSet(0);
+        }
+
+        void addBusyNanos(long nanos) {
+            busyNanos.addAndGet(nanos);
+        }
+
+        int getLimit() {
+            return limit;
+        }
+
+        private void setLimit(int limit) {
+            if (limit != this.limit) {
+                logger.debug("Server [{}] may now run [{}] collectors at once", server, limit);
+                this.limit = limit;
+                dispatch();
+            }
+        }
+
+        int getRunning() {
+            return running.get();
+        }
+
+        int getMaxConcurrentCollectors() {
+            return maxConcurrentCollectors;
+        }
+
+        private class Slot implements Runnable {
+
+            private final Runnable collector;
+            private final AtomicBoolean released = new AtomicBoolean();
+
+            Slot(Runnable collector) {
+                this.collector = collector;
+            }
+
+            public void run() {
+                if (collector instanceof BaseMetricCollector) {
+                    ((BaseMetricCollector) collector).getBudget().onAbandon(new Runnable() {
+                        public void run() {
+                            release();
+                        }
+                    });
+                }
+                ServerExecutor callerServer = currentServer.get();
+                currentServer.set(ServerExecutor.this);
+                long start = System.nanoTime();
+                try {
+                    collector.run();
+                } catch (Throwable t) {
+                    logger.error("Collector of server [{}] failed", server, t);
+                } finally {
+                    busyNanos.addAndGet(System.nanoTime() - start);
+                    currentServer.set(callerServer);
+                    release();
+                }
+            }
+
+            /**
+             * Called when the collector finishes or is abandoned, whichever comes first.
+             */
+            private void release() {
+                if (released.compareAndSet(false, true)) {
+                    releaseSlot();
+                }
+            }
+        }
+    }
+
+    /**
+     * The request permits of a server, which may be taken away while they are held.
+     */
+    private static class RequestPermits extends Semaphore {
+
+        RequestPermits(int permits) {
+            super(permits, true);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
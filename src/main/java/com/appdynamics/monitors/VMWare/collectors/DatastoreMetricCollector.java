@@ -0,0 +1,142 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.collectors;
+
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.inventory.NameMatcher;
+import com.appdynamics.monitors.VMWare.inventory.PropertyPaths;
+import com.appdynamics.monitors.VMWare.metrics.CompiledMetric;
+import com.appdynamics.monitors.VMWare.metrics.DatastoreMetrics;
+import com.appdynamics.monitors.VMWare.performance.PerformanceCollector;
+import com.appdynamics.monitors.VMWare.util.Constants;
+import com.vmware.vim25.ManagedEntityStatus;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the selected datastores of a server under <code>&lt;prefix&gt;|Datastore|&lt;name&gt;</code>. The
+ * capacity properties of all datastores come from the bulk property retrieval of the run. The latency counters are
+ * kept by vSphere per host with the datastore uuid as instance, so they are read for all hosts at once and the
+ * highest value of any host is reported for the datastore.
+ */
+public class DatastoreMetricCollector extends BaseMetricCollector {
+
+    private static final Logger logger = ExtensionsLoggerFactory.getLogger(DatastoreMetricCollector.class);
+
+    private final List<EntityData> datastores;
+    private final List<EntityData> hosts;
+    private final NameMatcher selectedDatastores;
+    private final NameMatcher excludedDatastores;
+    private final DatastoreMetrics datastoreMetrics;
+
+    /**
+     * @param hosts the hosts the datastore latency counters are read from
+     */
+    public DatastoreMetricCollector(CollectorContext context, List<EntityData> datastores, List<EntityData> hosts, NameMatcher selectedDatastores, NameMatcher excludedDatastores, DatastoreMetrics datastoreMetrics) {
+        super(context, context.getMetricPrefix(), context.getCollectionDeadline().registerCollector(Constants.DATASTORE));
+        this.datastores = datastores;
+        this.hosts = hosts;
+        this.selectedDatastores = selectedDatastores;
+        this.excludedDatastores = excludedDatastores;
+        this.datastoreMetrics = datastoreMetrics;
+        this.getMetricCollectorsPhaser().register();
+    }
+
+    public void run() {
+
+        CompiledMetric[] metrics = datastoreMetrics.getCompiledMetrics();
+        List<com.appdynamics.extensions.metrics.Metric> batch = new ArrayList<>();
+        try {
+            if (!getBudget().enter()) {
+                logger.warn("Collection deadline passed before the datastores were collected");
+                return;
+            }
+
+            List<EntityData> selected = getDatastores();
+            logger.debug("Collecting [{}] of [{}] datastores", selected.size(), datastores.size());
+            if (selected.isEmpty()) {
+                return;
+            }
+
+            Map<String, Map<String, Long>> countersByInstance = Collections.emptyMap();
+            PerformanceCollector performanceCollector = getContext().getPerformanceCollector();
+            if (performanceCollector != null && PerformanceCollector.hasCounters(metrics)) {
+                try {
+                    countersByInstance = performanceCollector.collectInstances(hosts, metrics);
+                } catch (Exception e) {
+                    logger.error("Error querying the datastore performance counters", e);
+                }
+            }
+
+            for (EntityData datastore : selected) {
+                collect(datastore, metrics, countersByInstance, batch);
+            }
+            logger.debug("Finished collecting the datastores");
+        } catch (Exception e) {
+            logger.error("Error collecting the datastore metrics", e);
+            getBudget().fail();
+        } finally {
+            getBudget().exit(getCollectedMetrics(), batch);
+            getMetricCollectorsPhaser().arriveAndDeregister();
+        }
+    }
+
+    private void collect(EntityData datastore, CompiledMetric[] metrics, Map<String, Map<String, Long>> countersByInstance, List<com.appdynamics.extensions.metrics.Metric> batch) {
+        String datastoreName = datastore.getName();
+        String baseMetricName = getMetricPrefix() + "|" + Constants.DATASTORE + "|" + datastoreName;
+
+        ManagedEntityStatus overallStatus = datastore.getOverallStatus();
+        if (overallStatus != null) {
+            batch.add(new com.appdynamics.extensions.metrics.Metric("status", String.valueOf(overallStatus.ordinal()), baseMetricName + "|Status"));
+        }
+
+        Map<String, Long> counters = countersByInstance.get(getInstanceId(datastore));
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < metrics.length; i++) {
+            CompiledMetric metric = metrics[i];
+            String name = metric.getName();
+            double value = applyDelta(datastore.getId(), i, metric, metric.extract(datastore, counters), now);
+            if (Double.isNaN(value)) {
+                logger.debug("No value for metric [{}] on datastore [{}]", name, datastoreName);
+                continue;
+            }
+            batch.add(new com.appdynamics.extensions.metrics.Metric(name, CompiledMetric.toMetricValue(value), baseMetricName + "|" + name, metric.getProperties()));
+        }
+    }
+
+    private List<EntityData> getDatastores() {
+        List<EntityData> selected = new ArrayList<>();
+        for (EntityData datastore : datastores) {
+            String datastoreName = datastore.getName();
+            if (datastoreName != null && selectedDatastores.matches(datastoreName) && !excludedDatastores.matches(datastoreName)) {
+                selected.add(datastore);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * @return the uuid the host counters use as instance of the datastore, the last segment of its url
+     * (<code>ds:///vmfs/volumes/&lt;uuid&gt;/</code>), or null if the url is unknown
+     */
+    static String getInstanceId(EntityData datastore) {
+        Object url = datastore.getProperty(PropertyPaths.DATASTORE_URL);
+        if (!(url instanceof String)) {
+            return null;
+        }
+        String path = (String) url;
+        int end = path.endsWith("/") ? path.length() - 1 : path.length();
+        return path.substring(path.lastIndexOf('/', end - 1) + 1, end);
+    }
+}
@@ -7,24 +7,24 @@
 
 package com.appdynamics.monitors.VMWare.collectors;
 
-import com.appdynamics.extensions.executorservice.MonitorExecutorService;
 import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
-import com.appdynamics.extensions.metrics.Metric;
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.inventory.HostConfigMatcher;
+import com.appdynamics.monitors.VMWare.metrics.CompiledMetric;
 import com.appdynamics.monitors.VMWare.metrics.VMWareMetrics;
-import com.google.common.collect.Lists;
-import com.vmware.vim25.HostListSummaryQuickStats;
+import com.appdynamics.monitors.VMWare.performance.PerformanceCollector;
+import com.appdynamics.monitors.VMWare.util.Constants;
 import com.vmware.vim25.ManagedEntityStatus;
-import com.vmware.vim25.mo.HostSystem;
-import com.vmware.vim25.mo.ManagedEntity;
-import com.vmware.vim25.mo.VirtualMachine;
 import org.slf4j.Logger;
 
-import java.math.BigDecimal;
-import java.rmi.RemoteException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.Phaser;
+import java.util.Set;
 
 /**
  * @author Satish Muddam
@@ -33,167 +33,170 @@ public class HostMetricCollector extends BaseMetricCollector {
 
     private static final Logger logger = ExtensionsLoggerFactory.getLogger(HostMetricCollector.class);
 
-    private final ManagedEntity hostEntity;
-    private final List<Map<String, Object>> hostConfig;
-    private MonitorExecutorService executorService;
+    private final EntityData hostEntity;
+    private final List<EntityData> hostVMs;
+    private final HostConfigMatcher hostConfigMatcher;
     private VMWareMetrics vmWareMetrics;
-
-    public HostMetricCollector(String metricPrefix, ManagedEntity hostEntity, List<Map<String, Object>> hostConfig, Phaser metricCollectorsPhaser, MonitorExecutorService executorService, List<Metric> collectedMetrics, VMWareMetrics vmWareMetrics) {
-        super(metricPrefix, metricCollectorsPhaser, collectedMetrics);
+    private ClusterRollups clusterRollups;
+    private MetricTable hostTable;
+    private MetricTable vmTable;
+
+    /**
+     * @param clusterRollups gathers the values of the hosts and VMs for the rollups of their cluster, may be null
+     * @param hostTable      holds the values of the hosts of the run until they are printed, may be null to add metrics directly
+     * @param vmTable        the same for the VMs
+     */
+    public HostMetricCollector(CollectorContext context, EntityData hostEntity, List<EntityData> hostVMs, HostConfigMatcher hostConfigMatcher, VMWareMetrics vmWareMetrics, ClusterRollups clusterRollups, MetricTable hostTable, MetricTable vmTable) {
+        super(context, context.getMetricPrefix(), context.getCollectionDeadline().register(hostEntity.getId(), hostEntity.getName()));
         this.hostEntity = hostEntity;
-        this.hostConfig = hostConfig;
+        this.hostVMs = hostVMs;
+        this.hostConfigMatcher = hostConfigMatcher;
         this.getMetricCollectorsPhaser().register();
-        this.executorService = executorService;
         this.vmWareMetrics = vmWareMetrics;
+        this.clusterRollups = clusterRollups;
+        this.hostTable = hostTable;
+        this.vmTable = vmTable;
     }
 
     public void run() {
 
-        HostSystem hostSystem = (HostSystem) hostEntity;
-        String hostName = hostSystem.getName();
-        String baseMetricName = getMetricPrefix() + "|" + "HostSystem" + "|" + hostName;
+        String hostName = hostEntity.getName();
+        CompiledMetric[] metrics = vmWareMetrics.getHostMetrics().getCompiledMetrics();
 
         logger.info("Collecting host [{}] metrics", hostName);
+        List<com.appdynamics.extensions.metrics.Metric> batch = new ArrayList<>();
+        int row = MetricTable.NO_ROW;
+        ClusterRollups.Values clusterValues = null;
+        double[] rollupValues = null;
         try {
+            if (!getBudget().enter()) {
+                logger.warn("Collection deadline passed before host [{}] was collected", hostName);
+                return;
+            }
 
-            ManagedEntityStatus overallStatus = hostSystem.getOverallStatus();
+            ManagedEntityStatus overallStatus = hostEntity.getOverallStatus();
 
+            MetricPathRegistry pathRegistry = getContext().getPathRegistry();
+            MetricPathRegistry.EntityPaths hostPaths = pathRegistry != null ? pathRegistry.get(getMetricPrefix(), Constants.HOSTSYSTEM, hostEntity, metrics)
+                    : new MetricPathRegistry.EntityPaths(getMetricPrefix(), Constants.HOSTSYSTEM, hostName, metrics);
+            if (hostTable != null) {
+                row = hostTable.addRow(hostPaths);
+            }
+            addStatus(hostTable, row, overallStatus, hostPaths, batch);
             if (ManagedEntityStatus.red.equals(overallStatus)) {
                 logger.error("Host [{}] status is red, not collecting metrics", hostName);
-                com.appdynamics.extensions.metrics.Metric thisMetric = new com.appdynamics.extensions.metrics.Metric("status", String.valueOf(overallStatus.ordinal()), baseMetricName + "|Status");
-                getCollectedMetrics().add(thisMetric);
                 return;
-            } else {
-                com.appdynamics.extensions.metrics.Metric thisMetric = new com.appdynamics.extensions.metrics.Metric("status", String.valueOf(overallStatus.ordinal()), baseMetricName + "|Status");
-                getCollectedMetrics().add(thisMetric);
             }
 
+            List<EntityData> vms = getVMs(hostConfigMatcher, hostName, hostVMs);
+            clusterValues = clusterRollups == null ? null : clusterRollups.forHost(hostEntity);
+            if (clusterValues != null) {
+                //added to the rollups only once the host is handed over, an abandoned host is not counted
+                rollupValues = new double[metrics.length];
+                Arrays.fill(rollupValues, Double.NaN);
+            }
 
-            HostListSummaryQuickStats hostStats = hostSystem.getSummary().getQuickStats();
-
-            long totalHz = hostSystem.getHardware().getCpuInfo().getHz();
-            short numCpuCores = hostSystem.getHardware().getCpuInfo().getNumCpuCores();
+            Map<String, Map<String, Long>> countersByEntity = Collections.emptyMap();
+            PerformanceCollector performanceCollector = getContext().getPerformanceCollector();
+            if (performanceCollector != null) {
+                try {
+                    countersByEntity = performanceCollector.collect(Collections.singletonList(hostEntity), vmWareMetrics.getHostMetrics().getCompiledMetrics(), vms, vmWareMetrics.getVmMetrics().getCompiledMetrics());
+                } catch (Exception e) {
+                    logger.error("Error querying the performance counters of host [{}]", hostName, e);
+                }
+            }
 
-            com.appdynamics.monitors.VMWare.metrics.Metric[] metrics = vmWareMetrics.getHostMetrics().getMetrics();
-            for (com.appdynamics.monitors.VMWare.metrics.Metric metric : metrics) {
+            Map<String, Long> hostCounters = countersByEntity.get(hostEntity.getId());
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < metrics.length; i++) {
 
+                CompiledMetric metric = metrics[i];
                 String name = metric.getName();
-                BigDecimal value = null;
 
                 try {
+                    double value = applyDelta(hostEntity.getId(), i, metric, metric.extract(hostEntity, hostCounters), now);
 
-                    if ("Distributed CPU Fairness".equals(name)) {
-                        value = BigDecimal.valueOf(hostStats.getDistributedCpuFairness());
-                    } else if ("Distributed Memory Fairness".equals(name)) {
-                        value = BigDecimal.valueOf(hostStats.getDistributedMemoryFairness());
-                    } else if ("Overall CPU Usage".equals(name)) {
-                        value = BigDecimal.valueOf(hostStats.getOverallCpuUsage());
-                    } else if ("Overall CPU Usage %".equals(name)) {
-                        double totalCapacityMHz = totalHz * numCpuCores * 0.000001;
-                        double cpuUsagePercent = (hostStats.getOverallCpuUsage() * 100) / totalCapacityMHz;
-                        value = BigDecimal.valueOf(Math.round(cpuUsagePercent));
-                    } else if ("Overall Memory Usage".equals(name)) {
-                        value = BigDecimal.valueOf(hostStats.getOverallMemoryUsage());
-                    } else if ("Up Time".equals(name)) {
-                        value = BigDecimal.valueOf(hostStats.getUptime());
-                    } else if ("Memory Size".equals(name)) {
-                        value = BigDecimal.valueOf(hostSystem.getHardware().getMemorySize());
-                    } else if ("CPU Cores".equals(name)) {
-                        value = BigDecimal.valueOf(numCpuCores);
+                    if (Double.isNaN(value)) {
+                        logger.debug("No value for metric [{}] on host [{}]", name, hostName);
+                        continue;
                     }
-
-                    Map<String, String> propertiesMap = getObjectMapper().convertValue(metric, Map.class);
-
-                    StringBuilder sb = new StringBuilder(baseMetricName);
-                    sb.append("|").append(name);
-
-                    String fullMetricPath = sb.toString();
-
-                    com.appdynamics.extensions.metrics.Metric thisMetric = new com.appdynamics.extensions.metrics.Metric(name, String.valueOf(value), fullMetricPath, propertiesMap);
-                    getCollectedMetrics().add(thisMetric);
+                    if (rollupValues != null) {
+                        rollupValues[i] = value;
+                    }
+                    addValue(hostTable, row, i, metric, value, hostPaths, batch);
                 } catch (Exception e) {
                     logger.debug("Error collecting metric [{}] on host[{}]", name, hostName, e);
                 }
             }
             logger.info("Finished collecting host [{}] metrics", hostName);
+            if (getBudget().isExpired()) {
+                logger.warn("Collection deadline passed before the vms of host [{}] were collected", hostName);
+                return;
+            }
             logger.info("Started collecting VM metrics of host [{}]", hostName);
 
-            List<VirtualMachine> vms = getVMs(hostSystem);
-
-            for (VirtualMachine vm : vms) {
-                logger.info("Collecting vm [{}] metrics of host [{}]", vm.getName(), hostName);
-                VMMetricCollector vmMetricCollector = new VMMetricCollector(vm, baseMetricName, vmWareMetrics.getVmMetrics(), getCollectedMetrics(), getMetricCollectorsPhaser());
-                executorService.execute("VMMetricCollector-" + vm.getName(), vmMetricCollector);
-            }
+            //The VMs are read from memory once the counters were queried, they are collected on this thread
+            new VMMetricCollector(getContext(), vms, hostPaths.getBasePath(), vmWareMetrics.getVmMetrics(), countersByEntity, getBudget(), clusterValues, vmTable).collect();
 
         } catch (Exception e) {
             logger.error("Error collecting metrics from host [{}]", hostName, e);
+            getBudget().fail();
         } finally {
+            if (getBudget().exit(getCollectedMetrics(), batch, hostTable, row) && rollupValues != null) {
+                clusterValues.addHost(rollupValues);
+            }
             getMetricCollectorsPhaser().arriveAndDeregister();
         }
 
 
     }
 
-    private List<VirtualMachine> getVMs(HostSystem hostSystem) {
-        List<VirtualMachine> allVMs = new ArrayList<VirtualMachine>();
-        String hostName = hostSystem.getName();
+    /**
+     * The VMs of the host selected by its hostConfig rule, empty if the rule selects none. Static for the VM filter
+     * benchmark.
+     */
+    public static List<EntityData> getVMs(HostConfigMatcher hostConfigMatcher, String hostName, List<EntityData> hostVMs) {
+        List<EntityData> allVMs = new ArrayList<EntityData>();
         logger.info("Collecting vms for [{}]", hostName);
 
-        try {
-
-            List<String> vmConfigForHost = getVMConfigForHost(hostName, hostConfig);
+        HostConfigMatcher.HostRule hostRule = hostConfigMatcher.getRule(hostName);
 
-            if (vmConfigForHost == null || vmConfigForHost.size() <= 0) {
-                return allVMs;
-            }
+        if (hostRule == null || !hostRule.hasVMs()) {
+            return allVMs;
+        }
 
-            VirtualMachine[] vms = hostSystem.getVms();
+        List<EntityData> vms = hostVMs;
 
-            if (vms != null && vms.length > 0 && vmConfigForHost != null && vmConfigForHost.size() > 0) {
+        if (vms != null && vms.size() > 0) {
 
-                logger.debug("Found [{}] vms for host [{}]", vms.length, hostName);
-                if (logger.isTraceEnabled()) {
-                    StringBuilder sb = new StringBuilder();
-                    for (VirtualMachine vm : vms) {
-                        if (sb.length() > 0) {
-                            sb.append(",");
-                        }
-                        sb.append(vm.getName());
+            logger.debug("Found [{}] vms for host [{}]", vms.size(), hostName);
+            if (logger.isTraceEnabled()) {
+                StringBuilder sb = new StringBuilder();
+                for (EntityData vm : vms) {
+                    if (sb.length() > 0) {
+                        sb.append(",");
                     }
-                    logger.trace("VM machines [{}]", sb.toString());
+                    sb.append(vm.getName());
                 }
+                logger.trace("VM machines [{}]", sb.toString());
+            }
 
-
-                for (String vmNameFromConfig : vmConfigForHost) {
-                    boolean foundVM = false;
-                    boolean shouldCollectAllVMs = false;
-
-                    if ("*".equals(vmNameFromConfig)) {
-                        shouldCollectAllVMs = true;
-                    }
-
-                    for (VirtualMachine virtualMachine : vms) {
-                        String vmName = virtualMachine.getName();
-
-                        if (vmName.equalsIgnoreCase(vmNameFromConfig) || "*".equals(vmNameFromConfig)) {
-                            allVMs.add(virtualMachine);
-                            foundVM = true;
-                            if (!shouldCollectAllVMs) {
-                                break;
-                            }
-                        }
-                    }
-
-                    if (!foundVM) {
-                        logger.debug("Could not find vm with name " + vmNameFromConfig);
-                    }
+            Set<String> notFound = logger.isDebugEnabled() ? new HashSet<>(hostRule.getVMNames()) : Collections.<String>emptySet();
+            for (EntityData virtualMachine : vms) {
+                String vmName = virtualMachine.getName();
+                if (hostRule.isVMSelected(vmName)) {
+                    allVMs.add(virtualMachine);
+                }
+                if (!notFound.isEmpty() && vmName != null) {
+                    notFound.remove(vmName.toLowerCase(Locale.ROOT));
                 }
-            } else {
-                logger.info("No vm's configured for the host [{}]", hostName);
             }
-        } catch (RemoteException e) {
-            logger.error("Unable to get the VMs for host [{}]", hostName, e);
+
+            for (String vmName : notFound) {
+                logger.debug("Could not find vm with name " + vmName);
+            }
+        } else {
+            logger.info("No vm's configured for the host [{}]", hostName);
         }
 
         logger.info("VMs size for [{}] after filtering is [{}]", hostName, allVMs.size());
@@ -204,17 +207,5 @@ public class HostMetricCollector extends BaseMetricCollector {
 
         return allVMs;
     }
-
-    private List<String> getVMConfigForHost(String hostName, List<Map<String, Object>> hostConfigs) {
-        for (Map<String, Object> hostConfig : hostConfigs) {
-
-            String hostNameFromConfig = (String) hostConfig.get("host");
-
-            if (hostName.equalsIgnoreCase(hostNameFromConfig) || "*".equals(hostNameFromConfig)) {
-                return (List<String>) hostConfig.get("vms");
-            }
-        }
-        return Lists.newArrayList();
-    }
 }
 
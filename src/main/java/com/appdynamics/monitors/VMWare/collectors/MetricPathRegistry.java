@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.collectors;
+
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.metrics.CompiledMetric;
+import com.appdynamics.monitors.VMWare.util.RunCycles;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The metric paths of the hosts and VMs of a server, kept across runs so that the collectors build no strings per
+ * value. An entry per MoRef holds the base path of the entity, <code>&lt;parent&gt;|&lt;type&gt;|&lt;name&gt;</code>,
+ * and the full path of every metric. It is rebuilt when the name of the entity, its parent path (the host of a VM
+ * after a vMotion) or the metrics change, and dropped once the entity was not collected for
+ * {@link RunCycles#EVICT_AFTER_CYCLES} runs.
+ * <p>
+ * A <code>|</code> in an entity name is replaced by <code>-</code>, it would add a level to the path.
+ */
+public class MetricPathRegistry {
+
+    private final ConcurrentMap<String, EntityPaths> pathsById = new ConcurrentHashMap<>();
+    private final RunCycles cycles = new RunCycles();
+
+    /**
+     * @param parentPath the path the entity is reported under, e.g. the base path of the host of a VM
+     * @param type       the entity type in the path, e.g. <code>VirtualMachine</code>
+     * @param metrics    the compiled metrics of the entity type
+     */
+    public EntityPaths get(String parentPath, String type, EntityData entity, CompiledMetric[] metrics) {
+        String name = entity.getName();
+        EntityPaths paths = pathsById.get(entity.getId());
+        if (paths == null || !paths.matches(parentPath, type, name, metrics)) {
+            paths = new EntityPaths(parentPath, type, name, metrics);
+            pathsById.put(entity.getId(), paths);
+        }
+        paths.lastSeen = cycles.current();
+        return paths;
+    }
+
+    /**
+     * Ends a run of the server, dropping the paths of the entities not collected in the last
+     * {@link RunCycles#EVICT_AFTER_CYCLES} runs.
+     */
+    public void completeCycle() {
+        cycles.complete();
+        pathsById.values().removeIf(paths -> cycles.isStale(paths.lastSeen));
+    }
+
+    public int size() {
+        return pathsById.size();
+    }
+
+    /**
+     * The paths of one entity, immutable once built.
+     */
+    public static final class EntityPaths {
+
+        private final String parentPath;
+        private final String type;
+        private final String name;
+        private final CompiledMetric[] metrics;
+        private final String basePath;
+        private final String statusPath;
+        private final String[] metricPaths;
+        private volatile int lastSeen;
+
+        /**
+         * Builds the paths of an entity outside a registry.
+         */
+        public EntityPaths(String parentPath, String type, String name, CompiledMetric[] metrics) {
+            this.parentPath = parentPath;
+            this.type = type;
+            this.name = name;
+            this.metrics = metrics;
+            this.basePath = parentPath + "|" + type + "|" + sanitize(name);
+            this.statusPath = basePath + "|Status";
+            this.metricPaths = new String[metrics.length];
+            for (int i = 0; i < metrics.length; i++) {
+                metricPaths[i] = basePath + "|" + metrics[i].getName();
+            }
+        }
+
+        public String getBasePath() {
+            return basePath;
+        }
+
+        public String getStatusPath() {
+            return statusPath;
+        }
+
+        /**
+         * @param metricIndex the index of the metric in the compiled metrics the paths were built for
+         */
+        public String getMetricPath(int metricIndex) {
+            return metricPaths[metricIndex];
+        }
+
+        private boolean matches(String parentPath, String type, String name, CompiledMetric[] metrics) {
+            return this.metrics == metrics && Objects.equals(this.name, name) && this.parentPath.equals(parentPath) && this.type.equals(type);
+        }
+
+        static String sanitize(String name) {
+            return name == null ? null : name.replace('|', '-');
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.monitors.VMWare.collectors;
+
+import com.appdynamics.extensions.MetricWriteHelper;
+import com.appdynamics.extensions.metrics.Metric;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the metrics of all collectors of a task run. Writers are spread over a number of independently locked
+ * stripes picked by thread id, so concurrent collectors rarely contend and an add is an amortized O(1) append,
+ * unlike the full array copy of a <code>CopyOnWriteArrayList</code>. The stripes are merged by {@link #drain()}.
+ * <p>
+ * When created with a {@link MetricWriteHelper} the sink streams: as soon as <code>chunkSize</code> metrics are pending
+ * the thread waiting in {@link #awaitFlushRequest(long)}, the task, is woken up to print them in chunks of at most that
+ * size, so metrics of finished hosts and VMs are reported while others are still being collected and the memory held
+ * does not grow with the inventory. The collectors never print themselves and are not held up by the printing.
+ * <p>
+ * Host and VM values arrive as rows of a {@link MetricTable} and are only turned into {@link Metric}s when drained.
+ */
+public class MetricSink {
+
+    private static final int DEFAULT_STRIPES = 16;
+
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    private final List<Metric>[] stripes;
+    private final Set<MetricTable> tables = new CopyOnWriteArraySet<>();
+    private final int mask;
+    private final MetricWriteHelper metricWriteHelper;
+    private final int chunkSize;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong printed = new AtomicLong();
+    private final Object printLock = new Object();
+    private final Object flushSignal = new Object();
+    //guarded by flushSignal
+    private boolean flushRequested;
+    private boolean woken;
+
+    public MetricSink() {
+        this(DEFAULT_STRIPES);
+    }
+
+    public MetricSink(int concurrency) {
+        this(concurrency, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Streaming sink which prints the metrics with the helper in chunks of <code>chunkSize</code>.
+     */
+    public MetricSink(MetricWriteHelper metricWriteHelper, int chunkSize) {
+        this(DEFAULT_STRIPES, metricWriteHelper, chunkSize);
+    }
+
+    @SuppressWarnings("unchecked")
+    private MetricSink(int concurrency, MetricWriteHelper metricWriteHelper, int chunkSize) {
+        this.metricWriteHelper = metricWriteHelper;
+        this.chunkSize = chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE;
+        int size = Integer.highestOneBit(Math.max(1, concurrency - 1)) << 1;
+        stripes = new List[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ArrayList<>();
+        }
+        mask = size - 1;
+    }
+
+    public void add(Metric metric) {
+        List<Metric> stripe = stripe();
+        synchronized (stripe) {
+            stripe.add(metric);
+        }
+        added(1);
+    }
+
+    /**
+     * Adds the metrics of a finished host or VM.
+     */
+    public void addAll(Collection<Metric> metrics) {
+        if (metrics.isEmpty()) {
+            return;
+        }
+        List<Metric> stripe = stripe();
+        synchronized (stripe) {
+            stripe.addAll(metrics);
+        }
+        added(metrics.size());
+    }
+
+    /**
+     * Adds the metrics of a complete row of the table, they are created when the sink is drained.
+     */
+    public void addRow(MetricTable table, int row) {
+        tables.add(table);
+        added(table.markReady(row));
+    }
+
+    public int size() {
+        int size = 0;
+        for (MetricTable table : tables) {
+            size += table.getReadyCount();
+        }
+        for (List<Metric> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Removes and returns all metrics added and not printed so far.
+     */
+    public List<Metric> drain() {
+        List<Metric> metrics = new ArrayList<>(size());
+        for (List<Metric> stripe : stripes) {
+            synchronized (stripe) {
+                metrics.addAll(stripe);
+                stripe.clear();
+            }
+        }
+        for (MetricTable table : tables) {
+            table.drainTo(metrics);
+        }
+        pending.addAndGet(-metrics.size());
+        return metrics;
+    }
+
+    /**
+     * Prints the pending metrics of a streaming sink.
+     */
+    public void flush() {
+        if (metricWriteHelper == null) {
+            throw new IllegalStateException("The sink was created without a MetricWriteHelper");
+        }
+        synchronized (printLock) {
+            List<Metric> metrics = drain();
+            for (int from = 0; from < metrics.size(); from += chunkSize) {
+                metricWriteHelper.transformAndPrintMetrics(metrics.subList(from, Math.min(metrics.size(), from + chunkSize)));
+            }
+            printed.addAndGet(metrics.size());
+        }
+    }
+
+    /**
+     * Waits until the collectors added a chunk of metrics, {@link #wakeUp()} is called or the time is up.
+     *
+     * @return true if the pending metrics should be printed with {@link #flush()}
+     */
+    public boolean awaitFlushRequest(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (flushSignal) {
+            long remaining = timeoutMillis;
+            while (!flushRequested && !woken && remaining > 0) {
+                flushSignal.wait(remaining);
+                remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            }
+            boolean requested = flushRequested;
+            flushRequested = false;
+            woken = false;
+            return requested;
+        }
+    }
+
+    /**
+     * Ends the current {@link #awaitFlushRequest(long)}, e.g. once all collectors finished.
+     */
+    public void wakeUp() {
+        synchronized (flushSignal) {
+            woken = true;
+            flushSignal.notifyAll();
+        }
+    }
+
+    /**
+     * @return the number of metrics printed by a streaming sink
+     */
+    public long getPrintedCount() {
+        return printed.get();
+    }
+
+    private void added(int count) {
+        if (pending.addAndGet(count) >= chunkSize && metricWriteHelper != null) {
+            synchronized (flushSignal) {
+                flushRequested = true;
+                flushSignal.notifyAll();
+            }
+        }
+    }
+
+    private List<Metric> stripe() {
+        long id = Thread.currentThread().getId();
+        return stripes[(int) (id ^ (id >>> 16)) & mask];
+    }
+}
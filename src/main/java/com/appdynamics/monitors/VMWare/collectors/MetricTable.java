@@ -0,0 +1,155 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.collectors;
+
+import com.appdynamics.extensions.metrics.Metric;
+import com.appdynamics.monitors.VMWare.metrics.CompiledMetric;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The values of one entity type, e.g. all VMs, in a run, stored by column: every entity collected gets a row index
+ * and every metric of metrics.xml a <code>double[]</code> column with NaN for no value, next to a <code>byte[]</code>
+ * column for the overall status. An entity costs a few array slots instead of a {@link Metric}, a path and a value
+ * string per metric; the rows are turned into {@link Metric}s with the paths of the entity only when the
+ * {@link MetricSink} prints them.
+ * <p>
+ * The capacity is fixed for the run, so the columns never move: a collector claims a row with
+ * {@link #addRow(MetricPathRegistry.EntityPaths)}, writes it alone and hands it over with
+ * {@link MetricSink#addRow(MetricTable, int)}. A row is reused once it is printed, so with a streaming sink the
+ * capacity only has to cover the rows waiting to be printed, not the inventory; an entity beyond the capacity is
+ * reported with {@link Metric}s as before.
+ */
+public class MetricTable {
+
+    public static final int NO_ROW = -1;
+
+    private static final byte NO_STATUS = -1;
+    private static final String STATUS = "status";
+
+    private final CompiledMetric[] metrics;
+    private final MetricPathRegistry.EntityPaths[] paths;
+    private final double[][] columns;
+    private final byte[] statuses;
+    private final AtomicInteger rowCount = new AtomicInteger();
+
+    //rows handed over to the sink and not printed yet, guarded by this
+    private int[] readyRows = new int[64];
+    private int readyCount;
+    private int readyValues;
+    //printed rows to reuse, guarded by this
+    private int[] freeRows = new int[64];
+    private int freeCount;
+
+    public MetricTable(CompiledMetric[] metrics, int capacity) {
+        this.metrics = metrics;
+        this.paths = new MetricPathRegistry.EntityPaths[capacity];
+        this.columns = new double[metrics.length][capacity];
+        this.statuses = new byte[capacity];
+    }
+
+    /**
+     * @param entityPaths the metric paths of the entity, built for the metrics of the table
+     * @return the row of the entity, or {@link #NO_ROW} if the table is full
+     */
+    public int addRow(MetricPathRegistry.EntityPaths entityPaths) {
+        int row = takeFreeRow();
+        if (row == NO_ROW) {
+            row = rowCount.getAndIncrement();
+            if (row >= paths.length) {
+                return NO_ROW;
+            }
+        }
+        paths[row] = entityPaths;
+        statuses[row] = NO_STATUS;
+        for (double[] column : columns) {
+            column[row] = Double.NaN;
+        }
+        return row;
+    }
+
+    private synchronized int takeFreeRow() {
+        return freeCount == 0 ? NO_ROW : freeRows[--freeCount];
+    }
+
+    public void setStatus(int row, int status) {
+        statuses[row] = (byte) status;
+    }
+
+    /**
+     * @param metricIndex the index of the metric in the compiled metrics of the table
+     */
+    public void set(int row, int metricIndex, double value) {
+        columns[metricIndex][row] = value;
+    }
+
+    public double get(int row, int metricIndex) {
+        return columns[metricIndex][row];
+    }
+
+    public int getCapacity() {
+        return paths.length;
+    }
+
+    /**
+     * Queues a complete row for printing.
+     *
+     * @return the number of metrics the row reports
+     */
+    synchronized int markReady(int row) {
+        if (readyCount == readyRows.length) {
+            readyRows = Arrays.copyOf(readyRows, readyRows.length * 2);
+        }
+        readyRows[readyCount++] = row;
+        int values = statuses[row] == NO_STATUS ? 0 : 1;
+        for (double[] column : columns) {
+            if (!Double.isNaN(column[row])) {
+                values++;
+            }
+        }
+        readyValues += values;
+        return values;
+    }
+
+    /**
+     * @return the number of metrics of the queued rows
+     */
+    synchronized int getReadyCount() {
+        return readyValues;
+    }
+
+    /**
+     * Converts the queued rows into metrics and removes them from the queue, their rows are reused.
+     */
+    synchronized void drainTo(List<Metric> collectedMetrics) {
+        for (int i = 0; i < readyCount; i++) {
+            int row = readyRows[i];
+            MetricPathRegistry.EntityPaths entityPaths = paths[row];
+            if (statuses[row] != NO_STATUS) {
+                collectedMetrics.add(new Metric(STATUS, String.valueOf(statuses[row]), entityPaths.getStatusPath()));
+            }
+            for (int m = 0; m < metrics.length; m++) {
+                double value = columns[m][row];
+                if (!Double.isNaN(value)) {
+                    collectedMetrics.add(new Metric(metrics[m].getName(), CompiledMetric.toMetricValue(value), entityPaths.getMetricPath(m), metrics[m].getProperties()));
+                }
+            }
+            paths[row] = null;
+        }
+        if (freeCount + readyCount > freeRows.length) {
+            freeRows = Arrays.copyOf(freeRows, Math.max(freeRows.length * 2, freeCount + readyCount));
+        }
+        System.arraycopy(readyRows, 0, freeRows, freeCount, readyCount);
+        freeCount += readyCount;
+        readyCount = 0;
+        readyValues = 0;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.collectors;
+
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.inventory.NameMatcher;
+import com.appdynamics.monitors.VMWare.inventory.PropertyPaths;
+import com.appdynamics.monitors.VMWare.metrics.CompiledMetric;
+import com.appdynamics.monitors.VMWare.metrics.NetworkMetrics;
+import com.appdynamics.monitors.VMWare.performance.PerformanceCollector;
+import com.appdynamics.monitors.VMWare.util.Constants;
+import com.vmware.vim25.HostVirtualSwitch;
+import com.vmware.vim25.PhysicalNic;
+import com.vmware.vim25.VirtualDevice;
+import com.vmware.vim25.VirtualEthernetCard;
+import com.vmware.vim25.VirtualEthernetCardDistributedVirtualPortBackingInfo;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the network throughput of a server from the <code>net.*</code> performance counters, which vSphere keeps
+ * per NIC with the NIC as instance:
+ * <ul>
+ * <li>every physical NIC of the hosts under <code>&lt;prefix&gt;|HostSystem|&lt;host&gt;|NIC|&lt;vmnic&gt;</code></li>
+ * <li>the selected standard vSwitches under <code>&lt;prefix&gt;|HostSystem|&lt;host&gt;|vSwitch|&lt;name&gt;</code>,
+ * the sum of their uplink NICs</li>
+ * <li>the selected distributed port groups under <code>&lt;prefix&gt;|PortGroup|&lt;name&gt;</code>, the sum of the
+ * virtual NICs connected to the port group</li>
+ * </ul>
+ * The counters of all hosts and of the VMs with a NIC on a selected port group are read in batched QueryPerf calls.
+ */
+public class NetworkMetricCollector extends BaseMetricCollector {
+
+    private static final Logger logger = ExtensionsLoggerFactory.getLogger(NetworkMetricCollector.class);
+
+    private final List<EntityData> hosts;
+    private final List<EntityData> vms;
+    private final List<EntityData> portGroups;
+    private final NameMatcher selectedNetworks;
+    private final NameMatcher excludedNetworks;
+    private final NetworkMetrics networkMetrics;
+
+    /**
+     * @param hosts      the hosts whose physical NICs and vSwitches are reported
+     * @param vms        the VMs whose NICs make up the traffic of the port groups
+     * @param portGroups the distributed port groups of the server
+     */
+    public NetworkMetricCollector(CollectorContext context, List<EntityData> hosts, List<EntityData> vms, List<EntityData> portGroups, NameMatcher selectedNetworks, NameMatcher excludedNetworks, NetworkMetrics networkMetrics) {
+        super(context, context.getMetricPrefix(), context.getCollectionDeadline().registerCollector(Constants.NETWORK));
+        this.hosts = hosts;
+        this.vms = vms;
+        this.portGroups = portGroups;
+        this.selectedNetworks = selectedNetworks;
+        this.excludedNetworks = excludedNetworks;
+        this.networkMetrics = networkMetrics;
+        this.getMetricCollectorsPhaser().register();
+    }
+
+    public void run() {
+
+        CompiledMetric[] metrics = networkMetrics.getCompiledMetrics();
+        List<com.appdynamics.extensions.metrics.Metric> batch = new ArrayList<>();
+        try {
+            if (!getBudget().enter()) {
+                logger.warn("Collection deadline passed before the network was collected");
+                return;
+            }
+            PerformanceCollector performanceCollector = getContext().getPerformanceCollector();
+            if (performanceCollector == null || !PerformanceCollector.hasCounters(metrics)) {
+                logger.debug("No network counters to collect");
+                return;
+            }
+
+            Map<String, Map<String, Map<String, Long>>> valuesByHost = performanceCollector.collectInstancesByEntity(hosts, metrics);
+            for (EntityData host : hosts) {
+                Map<String, Map<String, Long>> valuesByNic = valuesByHost.get(host.getId());
+                if (valuesByNic != null) {
+                    collectHost(host, valuesByNic, metrics, batch);
+                }
+            }
+
+            collectPortGroups(metrics, batch);
+            logger.debug("Finished collecting the network");
+        } catch (Exception e) {
+            logger.error("Error collecting the network metrics", e);
+            getBudget().fail();
+        } finally {
+            getBudget().exit(getCollectedMetrics(), batch);
+            getMetricCollectorsPhaser().arriveAndDeregister();
+        }
+    }
+
+    private void collectHost(EntityData host, Map<String, Map<String, Long>> valuesByNic, CompiledMetric[] metrics, List<com.appdynamics.extensions.metrics.Metric> batch) {
+        String baseMetricName = getMetricPrefix() + "|" + Constants.HOSTSYSTEM + "|" + host.getName();
+
+        Map<String, String> nicsByKey = new HashMap<>();
+        Object physicalNics = host.getProperty(PropertyPaths.HOST_PHYSICAL_NICS);
+        if (physicalNics instanceof PhysicalNic[]) {
+            for (PhysicalNic physicalNic : (PhysicalNic[]) physicalNics) {
+                nicsByKey.put(physicalNic.getKey(), physicalNic.getDevice());
+                Map<String, Long> values = valuesByNic.get(physicalNic.getDevice());
+                if (values != null) {
+                    collect(host, host.getId() + "|" + physicalNic.getDevice(), baseMetricName + "|" + Constants.NIC + "|" + physicalNic.getDevice(), values, metrics, batch);
+                }
+            }
+        }
+
+        Object virtualSwitches = host.getProperty(PropertyPaths.HOST_VSWITCHES);
+        if (virtualSwitches instanceof HostVirtualSwitch[]) {
+            for (HostVirtualSwitch virtualSwitch : (HostVirtualSwitch[]) virtualSwitches) {
+                //A vSwitch without uplinks only carries traffic between the VMs of the host, which has no counter
+                if (!isSelected(virtualSwitch.getName()) || virtualSwitch.getPnic() == null) {
+                    continue;
+                }
+                Map<String, Long> values = new HashMap<>();
+                for (String uplink : virtualSwitch.getPnic()) {
+                    add(valuesByNic.get(nicsByKey.get(uplink)), values);
+                }
+                if (!values.isEmpty()) {
+                    collect(host, host.getId() + "|" + virtualSwitch.getName(), baseMetricName + "|" + Constants.VSWITCH + "|" + virtualSwitch.getName(), values, metrics, batch);
+                }
+            }
+        }
+    }
+
+    private void collectPortGroups(CompiledMetric[] metrics, List<com.appdynamics.extensions.metrics.Metric> batch) throws Exception {
+        Map<String, EntityData> selectedPortGroups = new HashMap<>();
+        for (EntityData portGroup : portGroups) {
+            Object key = portGroup.getProperty(PropertyPaths.PORTGROUP_KEY);
+            if (key instanceof String && isSelected(portGroup.getName())) {
+                selectedPortGroups.put((String) key, portGroup);
+            }
+        }
+        if (selectedPortGroups.isEmpty()) {
+            return;
+        }
+
+        //Only the VMs with a NIC on a selected port group are queried, their NICs by VM id and device key
+        Map<String, Map<String, String>> portGroupsByNic = new HashMap<>();
+        List<EntityData> connectedVMs = new ArrayList<>();
+        for (EntityData vm : vms) {
+            Map<String, String> vmPortGroups = getPortGroupsByNic(vm, selectedPortGroups);
+            if (!vmPortGroups.isEmpty()) {
+                portGroupsByNic.put(vm.getId(), vmPortGroups);
+                connectedVMs.add(vm);
+            }
+        }
+        logger.debug("Collecting [{}] port groups with [{}] connected VMs", selectedPortGroups.size(), connectedVMs.size());
+
+        Map<String, Map<String, Long>> valuesByPortGroup = new HashMap<>();
+        for (Map.Entry<String, Map<String, Map<String, Long>>> vmValues : getContext().getPerformanceCollector().collectInstancesByEntity(connectedVMs, metrics).entrySet()) {
+            Map<String, String> vmPortGroups = portGroupsByNic.get(vmValues.getKey());
+            for (Map.Entry<String, Map<String, Long>> nicValues : vmValues.getValue().entrySet()) {
+                String portGroupKey = vmPortGroups.get(nicValues.getKey());
+                if (portGroupKey == null) {
+                    continue;
+                }
+                Map<String, Long> values = valuesByPortGroup.get(portGroupKey);
+                if (values == null) {
+                    values = new HashMap<>();
+                    valuesByPortGroup.put(portGroupKey, values);
+                }
+                add(nicValues.getValue(), values);
+            }
+        }
+
+        for (Map.Entry<String, Map<String, Long>> portGroupValues : valuesByPortGroup.entrySet()) {
+            EntityData portGroup = selectedPortGroups.get(portGroupValues.getKey());
+            collect(portGroup, portGroup.getId(), getMetricPrefix() + "|" + Constants.PORT_GROUP + "|" + portGroup.getName(), portGroupValues.getValue(), metrics, batch);
+        }
+    }
+
+    /**
+     * @return the key of the selected port group of every NIC of the VM connected to one, by the device key which the
+     * VM counters use as instance
+     */
+    static Map<String, String> getPortGroupsByNic(EntityData vm, Map<String, EntityData> selectedPortGroups) {
+        Object devices = vm.getProperty(PropertyPaths.VM_DEVICES);
+        if (!(devices instanceof VirtualDevice[])) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> portGroupsByNic = new HashMap<>();
+        for (VirtualDevice device : (VirtualDevice[]) devices) {
+            if (device instanceof VirtualEthernetCard && device.getBacking() instanceof VirtualEthernetCardDistributedVirtualPortBackingInfo) {
+                VirtualEthernetCardDistributedVirtualPortBackingInfo backing = (VirtualEthernetCardDistributedVirtualPortBackingInfo) device.getBacking();
+                if (backing.getPort() != null && selectedPortGroups.containsKey(backing.getPort().getPortgroupKey())) {
+                    portGroupsByNic.put(String.valueOf(device.getKey()), backing.getPort().getPortgroupKey());
+                }
+            }
+        }
+        return portGroupsByNic;
+    }
+
+    /**
+     * @param nicKey identifies the NIC, vSwitch or port group in the server for the metrics with a delta
+     */
+    private void collect(EntityData source, String nicKey, String baseMetricName, Map<String, Long> counters, CompiledMetric[] metrics, List<com.appdynamics.extensions.metrics.Metric> batch) {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < metrics.length; i++) {
+            CompiledMetric metric = metrics[i];
+            String name = metric.getName();
+            double value = applyDelta(nicKey, i, metric, metric.extract(source, counters), now);
+            if (Double.isNaN(value)) {
+                logger.debug("No value for metric [{}] on [{}]", name, baseMetricName);
+                continue;
+            }
+            batch.add(new com.appdynamics.extensions.metrics.Metric(name, CompiledMetric.toMetricValue(value), baseMetricName + "|" + name, metric.getProperties()));
+        }
+    }
+
+    private boolean isSelected(String name) {
+        return name != null && selectedNetworks.matches(name) && !excludedNetworks.matches(name);
+    }
+
+    private static void add(Map<String, Long> values, Map<String, Long> sum) {
+        if (values == null) {
+            return;
+        }
+        for (Map.Entry<String, Long> value : values.entrySet()) {
+            Long previous = sum.get(value.getKey());
+            sum.put(value.getKey(), previous == null ? value.getValue() : previous + value.getValue());
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.collectors;
+
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.inventory.NameMatcher;
+import com.appdynamics.monitors.VMWare.inventory.PropertyPaths;
+import com.appdynamics.monitors.VMWare.metrics.CompiledMetric;
+import com.appdynamics.monitors.VMWare.metrics.ResourcePoolMetrics;
+import com.appdynamics.monitors.VMWare.util.Constants;
+import com.vmware.vim25.ManagedEntityStatus;
+import com.vmware.vim25.ManagedObjectReference;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the selected resource pools and vApps of a server, read in the bulk property retrieval of the run. The
+ * metric path of a pool follows the <code>resourcePoolMetricPath</code> layout of config.yml, in which
+ * <code>{cluster}</code> is the cluster (or standalone host) owning the pool, <code>{pool}</code> its name and
+ * <code>{path}</code> the names of its parent pools and itself below the root pool of the cluster, e.g.
+ * <code>Production|Web</code>. The root pool, which holds all resources of the cluster, has its own name as path. A
+ * <code>|</code> in a name is replaced by <code>-</code>, like in the paths of the hosts and VMs.
+ */
+public class ResourcePoolMetricCollector extends BaseMetricCollector {
+
+    private static final Logger logger = ExtensionsLoggerFactory.getLogger(ResourcePoolMetricCollector.class);
+
+    private final List<EntityData> resourcePools;
+    private final Map<String, String> computeResourceNames;
+    private final NameMatcher selectedResourcePools;
+    private final NameMatcher excludedResourcePools;
+    private final String metricPathLayout;
+    private final ResourcePoolMetrics resourcePoolMetrics;
+
+    /**
+     * @param computeResourceNames names of the clusters and standalone compute resources by id, for <code>{cluster}</code>
+     * @param metricPathLayout     the path of a pool below the metric prefix, see the class comment
+     */
+    public ResourcePoolMetricCollector(CollectorContext context, List<EntityData> resourcePools, Map<String, String> computeResourceNames, NameMatcher selectedResourcePools, NameMatcher excludedResourcePools, String metricPathLayout, ResourcePoolMetrics resourcePoolMetrics) {
+        super(context, context.getMetricPrefix(), context.getCollectionDeadline().registerCollector(Constants.RESOURCEPOOL));
+        this.resourcePools = resourcePools;
+        this.computeResourceNames = computeResourceNames;
+        this.selectedResourcePools = selectedResourcePools;
+        this.excludedResourcePools = excludedResourcePools;
+        this.metricPathLayout = metricPathLayout;
+        this.resourcePoolMetrics = resourcePoolMetrics;
+        this.getMetricCollectorsPhaser().register();
+    }
+
+    public void run() {
+
+        List<com.appdynamics.extensions.metrics.Metric> batch = new ArrayList<>();
+        try {
+            if (!getBudget().enter()) {
+                logger.warn("Collection deadline passed before the resource pools were collected");
+                return;
+            }
+
+            Map<String, EntityData> resourcePoolsById = new HashMap<>();
+            for (EntityData resourcePool : resourcePools) {
+                resourcePoolsById.put(resourcePool.getId(), resourcePool);
+            }
+            Map<String, String> poolPaths = new HashMap<>();
+            for (EntityData resourcePool : resourcePools) {
+                String poolName = resourcePool.getName();
+                if (poolName != null && selectedResourcePools.matches(poolName) && !excludedResourcePools.matches(poolName)) {
+                    collect(resourcePool, getMetricPath(resourcePool, resourcePoolsById, poolPaths), batch);
+                }
+            }
+            logger.debug("Finished collecting the resource pools");
+        } catch (Exception e) {
+            logger.error("Error collecting the resource pool metrics", e);
+            getBudget().fail();
+        } finally {
+            getBudget().exit(getCollectedMetrics(), batch);
+            getMetricCollectorsPhaser().arriveAndDeregister();
+        }
+    }
+
+    private void collect(EntityData resourcePool, String baseMetricName, List<com.appdynamics.extensions.metrics.Metric> batch) {
+        String poolName = resourcePool.getName();
+
+        ManagedEntityStatus overallStatus = resourcePool.getOverallStatus();
+        if (overallStatus != null) {
+            batch.add(new com.appdynamics.extensions.metrics.Metric("status", String.valueOf(overallStatus.ordinal()), baseMetricName + "|Status"));
+        }
+
+        CompiledMetric[] metrics = resourcePoolMetrics.getCompiledMetrics();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < metrics.length; i++) {
+            CompiledMetric metric = metrics[i];
+            String name = metric.getName();
+            double value = applyDelta(resourcePool.getId(), i, metric, metric.extract(resourcePool, null), now);
+            if (Double.isNaN(value)) {
+                logger.debug("No value for metric [{}] on resource pool [{}]", name, poolName);
+                continue;
+            }
+            batch.add(new com.appdynamics.extensions.metrics.Metric(name, CompiledMetric.toMetricValue(value), baseMetricName + "|" + name, metric.getProperties()));
+        }
+    }
+
+    /**
+     * @param poolPaths the <code>{path}</code> of the pools by id, built once per run and shared by the child pools
+     */
+    String getMetricPath(EntityData resourcePool, Map<String, EntityData> resourcePoolsById, Map<String, String> poolPaths) {
+        ManagedObjectReference owner = (ManagedObjectReference) resourcePool.getProperty(PropertyPaths.RESOURCE_POOL_OWNER);
+        String clusterName = owner == null ? "" : computeResourceNames.get(owner.getVal());
+        if (clusterName == null) {
+            clusterName = owner.getVal();
+        }
+        return getMetricPrefix() + "|" + metricPathLayout.replace("{cluster}", MetricPathRegistry.EntityPaths.sanitize(clusterName))
+                .replace("{pool}", MetricPathRegistry.EntityPaths.sanitize(resourcePool.getName()))
+                .replace("{path}", getPoolPath(resourcePool, resourcePoolsById, poolPaths, 0));
+    }
+
+    private String getPoolPath(EntityData resourcePool, Map<String, EntityData> resourcePoolsById, Map<String, String> poolPaths, int depth) {
+        String path = poolPaths.get(resourcePool.getId());
+        if (path != null) {
+            return path;
+        }
+        path = MetricPathRegistry.EntityPaths.sanitize(resourcePool.getName());
+        ManagedObjectReference parentMor = (ManagedObjectReference) resourcePool.getProperty(PropertyPaths.PARENT);
+        EntityData parent = parentMor == null ? null : resourcePoolsById.get(parentMor.getVal());
+        //The root pool below the cluster is left out of the path of its children. Pools can not be nested deeper than
+        //the inventory, the bound only guards against a cycle in stale data
+        if (parent != null && !isComputeResource((ManagedObjectReference) parent.getProperty(PropertyPaths.PARENT)) && depth < resourcePoolsById.size()) {
+            path = getPoolPath(parent, resourcePoolsById, poolPaths, depth + 1) + "|" + path;
+        }
+        poolPaths.put(resourcePool.getId(), path);
+        return path;
+    }
+
+    private static boolean isComputeResource(ManagedObjectReference mor) {
+        return mor != null && (Constants.CLUSTER_COMPUTE_RESOURCE.equals(mor.getType()) || Constants.COMPUTE_RESOURCE.equals(mor.getType()));
+    }
+}
@@ -8,135 +8,174 @@
 package com.appdynamics.monitors.VMWare.collectors;
 
 import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
-import com.appdynamics.monitors.VMWare.metrics.Metric;
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.metrics.CompiledMetric;
 import com.appdynamics.monitors.VMWare.metrics.VMMetrics;
+import com.appdynamics.monitors.VMWare.util.Constants;
 import com.vmware.vim25.ManagedEntityStatus;
-import com.vmware.vim25.VirtualMachineQuickStats;
-import com.vmware.vim25.mo.VirtualMachine;
 import org.slf4j.Logger;
 
-import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Phaser;
 
 /**
+ * Collects the VMs of one host. The host collector calls {@link #collect()} on its own thread under the budget of the
+ * host once the performance counters of the host and its VMs were queried, from then on the VM metrics are read from
+ * memory. The VMs are handed over to the sink in batches of {@link #HAND_OVER_BATCH_SIZE}, so that their rows are
+ * printed while the others are collected, and the VMs left once the budget expired are skipped.
+ *
  * @author Satish Muddam
  */
 public class VMMetricCollector extends BaseMetricCollector {
 
     private static final Logger logger = ExtensionsLoggerFactory.getLogger(VMMetricCollector.class);
 
-    private VirtualMachine virtualMachine;
-    private VMMetrics vmMetrics;
+    static final int HAND_OVER_BATCH_SIZE = 100;
 
-    public VMMetricCollector(VirtualMachine virtualMachine, String baseMetricPath, VMMetrics vmMetrics, List<com.appdynamics.extensions.metrics.Metric> collectedMetrics, Phaser metricCollectorsPhaser) {
-        super(baseMetricPath, metricCollectorsPhaser, collectedMetrics);
-        this.virtualMachine = virtualMachine;
+    private List<EntityData> virtualMachines;
+    private VMMetrics vmMetrics;
+    private Map<String, Map<String, Long>> countersByEntity;
+    private ClusterRollups.Values clusterValues;
+    private MetricTable vmTable;
+
+    /**
+     * @param countersByEntity the performance counter samples of the VMs in this run by MoRef and counter name
+     * @param budget           the budget of the host, entered and exited by the caller of {@link #collect()}
+     * @param clusterValues    gathers the values of the VMs for the rollups of their cluster, may be null
+     * @param vmTable          holds the values of the VMs of the run until they are printed, may be null to add metrics directly
+     */
+    public VMMetricCollector(CollectorContext context, List<EntityData> virtualMachines, String baseMetricPath, VMMetrics vmMetrics, Map<String, Map<String, Long>> countersByEntity,
+                             CollectionDeadline.Budget budget, ClusterRollups.Values clusterValues, MetricTable vmTable) {
+        super(context, baseMetricPath, budget);
+        this.virtualMachines = virtualMachines;
         this.vmMetrics = vmMetrics;
-        this.getMetricCollectorsPhaser().register();
+        this.countersByEntity = countersByEntity;
+        this.clusterValues = clusterValues;
+        this.vmTable = vmTable;
     }
 
+    /**
+     * Collects the VMs under a budget of their own, outside of a host collector.
+     */
     public void run() {
+        if (!getBudget().enter()) {
+            logger.warn("Collection deadline passed before the vms were collected");
+            return;
+        }
+        try {
+            collect();
+        } finally {
+            getBudget().exit(getCollectedMetrics(), Collections.<com.appdynamics.extensions.metrics.Metric>emptyList());
+        }
+    }
+
+    /**
+     * Collects the VMs on the calling thread, which entered the budget.
+     *
+     * @return the number of VMs collected, less than all of them if the budget expired or was abandoned
+     */
+    public int collect() {
+        CompiledMetric[] metrics = vmMetrics.getCompiledMetrics();
+        List<com.appdynamics.extensions.metrics.Metric> batch = new ArrayList<>();
+        int[] rows = new int[HAND_OVER_BATCH_SIZE];
+        int rowCount = 0;
+        List<double[]> rollupValues = new ArrayList<>();
+
+        int collected = 0;
+        for (EntityData virtualMachine : virtualMachines) {
+            if (collected > 0 && collected % HAND_OVER_BATCH_SIZE == 0) {
+                if (!handOver(batch, rows, rowCount, rollupValues)) {
+                    return collected;
+                }
+                rowCount = 0;
+                if (getBudget().isExpired()) {
+                    logger.warn("Collection deadline passed, [{}] of [{}] vms collected", collected, virtualMachines.size());
+                    return collected;
+                }
+            }
+            int row = collect(virtualMachine, metrics, batch, rollupValues);
+            if (row != MetricTable.NO_ROW) {
+                rows[rowCount++] = row;
+            }
+            collected++;
+        }
+        handOver(batch, rows, rowCount, rollupValues);
+        return collected;
+    }
+
+    private boolean handOver(List<com.appdynamics.extensions.metrics.Metric> batch, int[] rows, int rowCount, List<double[]> rollupValues) {
+        if (!getBudget().handOver(getCollectedMetrics(), batch, vmTable, rows, rowCount)) {
+            return false;
+        }
+        //added to the rollups only once the VMs are handed over, an abandoned VM is not counted
+        for (double[] values : rollupValues) {
+            clusterValues.addVM(values);
+        }
+        batch.clear();
+        rollupValues.clear();
+        return true;
+    }
+
+    /**
+     * @return the row of the VM, {@link MetricTable#NO_ROW} if its metrics were added to the batch
+     */
+    private int collect(EntityData virtualMachine, CompiledMetric[] metrics, List<com.appdynamics.extensions.metrics.Metric> batch, List<double[]> rollupValues) {
 
         String virtualMachineName = virtualMachine.getName();
 
         ManagedEntityStatus overallStatus = virtualMachine.getOverallStatus();
-
-        String baseMetricName = getMetricPrefix() + "|" + "VirtualMachine" + "|" + virtualMachineName;
+        int row = MetricTable.NO_ROW;
 
         try {
+            MetricPathRegistry pathRegistry = getContext().getPathRegistry();
+            MetricPathRegistry.EntityPaths vmPaths = pathRegistry != null ? pathRegistry.get(getMetricPrefix(), Constants.VIRTUALMACHINE, virtualMachine, metrics)
+                    : new MetricPathRegistry.EntityPaths(getMetricPrefix(), Constants.VIRTUALMACHINE, virtualMachineName, metrics);
+            if (vmTable != null) {
+                row = vmTable.addRow(vmPaths);
+            }
+            addStatus(vmTable, row, overallStatus, vmPaths, batch);
             if (ManagedEntityStatus.red.equals(overallStatus)) {
                 logger.error("VM [{}] status is red, not collecting metrics", virtualMachineName);
-                com.appdynamics.extensions.metrics.Metric thisMetric = new com.appdynamics.extensions.metrics.Metric("status", String.valueOf(overallStatus.ordinal()), baseMetricName + "|Status");
-                getCollectedMetrics().add(thisMetric);
-                return;
-            } else {
-                com.appdynamics.extensions.metrics.Metric thisMetric = new com.appdynamics.extensions.metrics.Metric("status", String.valueOf(overallStatus.ordinal()), baseMetricName + "|Status");
-                getCollectedMetrics().add(thisMetric);
+                return row;
             }
-    
-            logger.info("Started collecting metrics for vm [{}]", virtualMachineName);
 
-            VirtualMachineQuickStats vmStats = virtualMachine.getSummary().getQuickStats();
+            logger.info("Started collecting metrics for vm [{}]", virtualMachineName);
 
-            Metric[] metrics = vmMetrics.getMetrics();
+            double[] values = null;
+            if (clusterValues != null) {
+                values = new double[metrics.length];
+                Arrays.fill(values, Double.NaN);
+            }
 
-            for (Metric metric : metrics) {
+            Map<String, Long> counters = countersByEntity == null ? null : countersByEntity.get(virtualMachine.getId());
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < metrics.length; i++) {
 
+                CompiledMetric metric = metrics[i];
                 String name = metric.getName();
-                BigDecimal value = null;
-
-                try {
-                    if ("Ballooned Memory".equals(name)) {
-                        value = BigDecimal.valueOf(vmStats.getBalloonedMemory());
-                    } else if ("Compressed Memory".equals(name)) {
-                        value = BigDecimal.valueOf(vmStats.getCompressedMemory());
-
-                    } else if ("Overhead Memory Consumed".equals(name)) {
-                        value = BigDecimal.valueOf(vmStats.getConsumedOverheadMemory());
-
-                    } else if ("Distributed CPU Entitlement".equals(name)) {
-                        value = BigDecimal.valueOf(vmStats.getDistributedCpuEntitlement());
-
-                    } else if ("Distributed Memory Entitlement".equals(name)) {
-                        value = BigDecimal.valueOf(vmStats.getDistributedMemoryEntitlement());
-
-                    } else if ("Guest Memory Usage".equals(name)) {
-                        value = BigDecimal.valueOf(vmStats.getGuestMemoryUsage());
-
-                    } else if ("Host Memory Usage".equals(name)) {
-                        value = BigDecimal.valueOf(vmStats.getHostMemoryUsage());
-
-                    } else if ("Overall CPU Usage".equals(name)) {
-                        value = BigDecimal.valueOf(vmStats.getOverallCpuUsage());
-
-                    } else if ("Overall CPU Demand".equals(name)) {
-                        value = BigDecimal.valueOf(vmStats.getOverallCpuDemand());
-
-                    } else if ("Private Memory".equals(name)) {
-                        value = BigDecimal.valueOf(vmStats.getPrivateMemory());
-
-                    } else if ("Shared Memory".equals(name)) {
-                        value = BigDecimal.valueOf(vmStats.getSharedMemory());
+                double value = applyDelta(virtualMachine.getId(), i, metric, metric.extract(virtualMachine, counters), now);
 
-                    } else if ("Static CPU Entitlement".equals(name)) {
-                        value = BigDecimal.valueOf(vmStats.getStaticCpuEntitlement());
-                    } else if ("Static Memory Entitlement".equals(name)) {
-                        value = BigDecimal.valueOf(vmStats.getStaticMemoryEntitlement());
-
-                    } else if ("Swapped Memory".equals(name)) {
-                        value = BigDecimal.valueOf(vmStats.getSwappedMemory());
-
-                    } else if ("Up Time".equals(name)) {
-                        value = BigDecimal.valueOf(vmStats.getUptimeSeconds());
-
-                    } else if ("Memory MB".equals(name)) {
-                        value = BigDecimal.valueOf(virtualMachine.getConfig().getHardware().getMemoryMB());
-
-                    } else if ("Num CPU".equals(name)) {
-                        value = BigDecimal.valueOf(virtualMachine.getConfig().getHardware().getNumCPU());
-                    }
-                } catch (Exception e) {
-                    logger.debug("Error collecting metric [{}] on vm [{}]", name, virtualMachineName, e);
+                if (Double.isNaN(value)) {
+                    logger.debug("No value for metric [{}] on vm [{}]", name, virtualMachineName);
+                    continue;
                 }
-
-                Map<String, String> propertiesMap = getObjectMapper().convertValue(metric, Map.class);
-
-                StringBuilder sb = new StringBuilder(baseMetricName);
-                sb.append("|").append(name);
-
-                String fullMetricPath = sb.toString();
-
-                com.appdynamics.extensions.metrics.Metric thisMetric = new com.appdynamics.extensions.metrics.Metric(name, value.toString(), fullMetricPath, propertiesMap);
-                getCollectedMetrics().add(thisMetric);
+                if (values != null) {
+                    values[i] = value;
+                }
+                addValue(vmTable, row, i, metric, value, vmPaths, batch);
+            }
+            if (values != null) {
+                rollupValues.add(values);
             }
 
             logger.info("Finished collecting metrics for vm [{}]", virtualMachineName);
         } catch (Exception e) {
             logger.error("Error while collection vm [{}] metrics", virtualMachineName, e);
-        } finally {
-            getMetricCollectorsPhaser().arriveAndDeregister();
+            getBudget().fail();
         }
+        return row;
     }
-}
\ No newline at end of file
+}
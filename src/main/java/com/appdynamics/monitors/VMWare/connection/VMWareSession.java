@@ -0,0 +1,108 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.connection;
+
+import com.appdynamics.monitors.VMWare.instrumentation.ExtensionMetrics;
+import com.appdynamics.monitors.VMWare.performance.PerfCounterCache;
+import com.vmware.vim25.mo.Folder;
+import com.vmware.vim25.mo.ServiceInstance;
+import com.vmware.vim25.ws.Client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A logged in vCenter session which is kept alive across task runs by {@link VMWareSessionPool}.
+ */
+public class VMWareSession {
+
+    private static final int MAX_CONNECT_TIMEOUT_MILLIS = 30000;
+
+    private final ServiceInstance serviceInstance;
+    private final long createdTime;
+    private final long loginCount;
+    private final AtomicLong reuseCount = new AtomicLong();
+    private PerfCounterCache perfCounters;
+    private int requestTimeoutMillis;
+
+    VMWareSession(ServiceInstance serviceInstance, long loginCount, int requestTimeoutMillis) {
+        this.serviceInstance = serviceInstance;
+        this.createdTime = System.currentTimeMillis();
+        this.loginCount = loginCount;
+        this.requestTimeoutMillis = requestTimeoutMillis;
+    }
+
+    /**
+     * The connect timeout of the requests, no longer than the read timeout but not waiting more than 30 seconds for a
+     * connection.
+     */
+    static int getConnectTimeout(int requestTimeoutMillis) {
+        return Math.min(requestTimeoutMillis, MAX_CONNECT_TIMEOUT_MILLIS);
+    }
+
+    public ServiceInstance getServiceInstance() {
+        return serviceInstance;
+    }
+
+    public Folder getRootFolder() {
+        return serviceInstance.getRootFolder();
+    }
+
+    public long getAgeInSeconds() {
+        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - createdTime);
+    }
+
+    /**
+     * Number of times this session was handed out again without a new login.
+     */
+    public long getReuseCount() {
+        return reuseCount.get();
+    }
+
+    /**
+     * Number of logins performed for the pool key this session belongs to, including this one.
+     */
+    public long getLoginCount() {
+        return loginCount;
+    }
+
+    /**
+     * Performance counters of the vCenter, read on first use and kept for the life of the session.
+     *
+     * @param extensionMetrics counts the request when the counters are read, may be null
+     */
+    public synchronized PerfCounterCache getPerfCounters(ExtensionMetrics extensionMetrics) {
+        if (perfCounters == null) {
+            perfCounters = PerfCounterCache.load(serviceInstance.getPerformanceManager());
+            if (extensionMetrics != null) {
+                extensionMetrics.addRoundTrip(perfCounters.size());
+            }
+        }
+        return perfCounters;
+    }
+
+    /**
+     * Sets the connect and read timeout of the web service client of the session, e.g. after the entity collection
+     * timeout changed. An interrupt does not unblock a socket read, the timeout makes a request vCenter does not answer
+     * fail and free its thread and its request permit.
+     */
+    synchronized void setRequestTimeout(int requestTimeoutMillis) {
+        if (this.requestTimeoutMillis == requestTimeoutMillis) {
+            return;
+        }
+        Client client = serviceInstance.getServerConnection().getVimService().getWsc();
+        client.setConnectTimeout(getConnectTimeout(requestTimeoutMillis));
+        client.setReadTimeout(requestTimeoutMillis);
+        this.requestTimeoutMillis = requestTimeoutMillis;
+    }
+
+    void markReused() {
+        reuseCount.incrementAndGet();
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.connection;
+
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.appdynamics.monitors.VMWare.instrumentation.ExtensionMetrics;
+import com.vmware.vim25.NotAuthenticated;
+import com.vmware.vim25.mo.ServiceInstance;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.rmi.RemoteException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps one {@link VMWareSession} per vCenter host and username so that the TLS handshake and the SOAP login
+ * are not repeated on every task run. A pooled session is probed with <code>CurrentTime</code> before it is
+ * handed out and is replaced transparently when vCenter reports it as not authenticated.
+ */
+public class VMWareSessionPool {
+
+    private static final Logger logger = ExtensionsLoggerFactory.getLogger(VMWareSessionPool.class);
+
+    private final Map<String, VMWareSession> sessions = new ConcurrentHashMap<>();
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> loginCounts = new ConcurrentHashMap<>();
+
+    /**
+     * @param requestTimeoutMillis bounds the connect and the read of every request of the session, so that a request
+     *                             vCenter does not answer fails instead of blocking its thread
+     * @param extensionMetrics     counts the probe, logout and login requests, may be null
+     */
+    public VMWareSession acquire(String host, String username, String password, int requestTimeoutMillis, ExtensionMetrics extensionMetrics) throws Exception {
+        String key = getKey(host, username);
+
+        synchronized (locks.computeIfAbsent(key, k -> new Object())) {
+            VMWareSession session = sessions.get(key);
+
+            if (session != null) {
+                session.setRequestTimeout(requestTimeoutMillis);
+                if (isActive(session, host, extensionMetrics)) {
+                    session.markReused();
+                    logger.debug("Reusing session for [{}], age [{}]s, reused [{}] times", host, session.getAgeInSeconds(), session.getReuseCount());
+                    return session;
+                }
+                sessions.remove(key);
+                logout(session, host);
+                addRoundTrip(extensionMetrics, 1);
+            }
+
+            session = login(key, host, username, password, requestTimeoutMillis, extensionMetrics);
+            sessions.put(key, session);
+            return session;
+        }
+    }
+
+    /**
+     * Drops the pooled session for the host, e.g. after a call failed in a way that leaves the session unusable, see
+     * {@link #isSessionFailure(Throwable)}. Waits for an {@link #acquire} of the same host and username in progress.
+     */
+    public void invalidate(String host, String username) {
+        String key = getKey(host, username);
+
+        synchronized (locks.computeIfAbsent(key, k -> new Object())) {
+            VMWareSession session = sessions.remove(key);
+            if (session != null) {
+                logout(session, host);
+            }
+        }
+    }
+
+    /**
+     * A fault vCenter answers with, such as <code>InvalidProperty</code>, leaves the session usable; only a session
+     * vCenter no longer knows or a failed connection to vCenter does not.
+     *
+     * @return true if the session of the failed call should be invalidated
+     */
+    public static boolean isSessionFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof NotAuthenticated) {
+                return true;
+            }
+            //yavijava wraps the I/O errors of a request in a RemoteException, the faults of vCenter are RemoteExceptions too
+            if (cause instanceof IOException && !(cause instanceof RemoteException)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void closeAll() {
+        for (Map.Entry<String, VMWareSession> entry : sessions.entrySet()) {
+            sessions.remove(entry.getKey());
+            logout(entry.getValue(), entry.getKey());
+        }
+    }
+
+    private VMWareSession login(String key, String host, String username, String password, int requestTimeoutMillis, ExtensionMetrics extensionMetrics) throws Exception {
+        URL url = getUrl(host);
+        //RetrieveServiceContent and Login, counted even if the login fails
+        addRoundTrip(extensionMetrics, 2);
+        ServiceInstance serviceInstance = new ServiceInstance(url, username, password, true,
+                VMWareSession.getConnectTimeout(requestTimeoutMillis), requestTimeoutMillis);
+        long loginCount = loginCounts.computeIfAbsent(key, k -> new AtomicLong()).incrementAndGet();
+        logger.info("Logged in to [{}], login count [{}]", url, loginCount);
+        return new VMWareSession(serviceInstance, loginCount, requestTimeoutMillis);
+    }
+
+    /**
+     * @return the SDK endpoint of the vCenter or ESXi host
+     */
+    protected URL getUrl(String host) throws MalformedURLException {
+        return new URL("https://" + host + "/sdk");
+    }
+
+    private boolean isActive(VMWareSession session, String host, ExtensionMetrics extensionMetrics) {
+        addRoundTrip(extensionMetrics, 1);
+        try {
+            session.getServiceInstance().currentTime();
+            return true;
+        } catch (NotAuthenticated e) {
+            logger.info("Session for [{}] is no longer authenticated, logging in again", host);
+        } catch (Exception e) {
+            logger.warn("Session probe for [{}] failed, logging in again", host, e);
+        }
+        return false;
+    }
+
+    private void logout(VMWareSession session, String host) {
+        try {
+            session.getServiceInstance().getServerConnection().logout();
+        } catch (Exception e) {
+            logger.debug("Unable to close the session for [{}]", host, e);
+        }
+    }
+
+    private static void addRoundTrip(ExtensionMetrics extensionMetrics, int count) {
+        if (extensionMetrics != null) {
+            extensionMetrics.addRoundTrips(count, 0);
+        }
+    }
+
+    private String getKey(String host, String username) {
+        return host.toLowerCase(Locale.ROOT) + "|" + username;
+    }
+}
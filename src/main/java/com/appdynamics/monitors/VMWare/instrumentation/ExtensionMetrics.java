@@ -0,0 +1,99 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.instrumentation;
+
+import com.appdynamics.extensions.metrics.Metric;
+import com.appdynamics.monitors.VMWare.collectors.MetricSink;
+import com.appdynamics.monitors.VMWare.util.Constants;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The extension's own performance in one run of a server, reported under <code>&lt;prefix&gt;|Extension|</code> to
+ * see where a slow cycle spends its time. Counters are {@link LongAdder}s and durations go to a
+ * {@link LatencyHistogram}, so the collectors can record from any thread without contention.
+ */
+public class ExtensionMetrics {
+
+    private final LongAdder roundTrips = new LongAdder();
+    private final LongAdder objectsReceived = new LongAdder();
+    private final LatencyHistogram hostCollectionTimes = new LatencyHistogram();
+    private volatile long connectMillis = -1;
+    private volatile long inventoryMillis = -1;
+
+    /**
+     * Counts one request to vCenter.
+     *
+     * @param objects the objects, property sets or counter series in the response
+     */
+    public void addRoundTrip(int objects) {
+        addRoundTrips(1, objects);
+    }
+
+    public void addRoundTrips(int count, int objects) {
+        roundTrips.add(count);
+        objectsReceived.add(objects);
+    }
+
+    public long getRoundTrips() {
+        return roundTrips.sum();
+    }
+
+    public long getObjectsReceived() {
+        return objectsReceived.sum();
+    }
+
+    public void setConnectMillis(long connectMillis) {
+        this.connectMillis = connectMillis;
+    }
+
+    public void setInventoryMillis(long inventoryMillis) {
+        this.inventoryMillis = inventoryMillis;
+    }
+
+    /**
+     * @return the time from the start of a host collector until the last collector of the host finished
+     */
+    public LatencyHistogram getHostCollectionTimes() {
+        return hostCollectionTimes;
+    }
+
+    /**
+     * Adds the metrics of the run to the sink.
+     *
+     * @param metricsEmitted metrics printed in the run before this report
+     * @param timedOut       collectors which did not finish before the deadline
+     * @param failed         collectors which ended with an error
+     * @param queueDepth     collectors which waited for a thread at once, at most
+     */
+    public void report(String metricPrefix, long metricsEmitted, int timedOut, int failed, int queueDepth, MetricSink collectedMetrics) {
+        String extensionMetricPath = metricPrefix + "|" + Constants.EXTENSION + "|";
+        if (connectMillis >= 0) {
+            add(extensionMetricPath, Constants.CONNECT_TIME, connectMillis, collectedMetrics);
+        }
+        if (inventoryMillis >= 0) {
+            add(extensionMetricPath, Constants.INVENTORY_TIME, inventoryMillis, collectedMetrics);
+        }
+        if (hostCollectionTimes.getCount() > 0) {
+            add(extensionMetricPath, Constants.HOST_COLLECTION_TIME_P50, hostCollectionTimes.getPercentile(50), collectedMetrics);
+            add(extensionMetricPath, Constants.HOST_COLLECTION_TIME_P95, hostCollectionTimes.getPercentile(95), collectedMetrics);
+            add(extensionMetricPath, Constants.HOST_COLLECTION_TIME_MAX, hostCollectionTimes.getMax(), collectedMetrics);
+        }
+        add(extensionMetricPath, Constants.SOAP_ROUND_TRIPS, roundTrips.sum(), collectedMetrics);
+        add(extensionMetricPath, Constants.OBJECTS_RECEIVED, objectsReceived.sum(), collectedMetrics);
+        add(extensionMetricPath, Constants.METRICS_EMITTED, metricsEmitted, collectedMetrics);
+        add(extensionMetricPath, Constants.COLLECTORS_TIMED_OUT, timedOut, collectedMetrics);
+        add(extensionMetricPath, Constants.COLLECTORS_FAILED, failed, collectedMetrics);
+        add(extensionMetricPath, Constants.COLLECTOR_QUEUE_DEPTH, queueDepth, collectedMetrics);
+    }
+
+    private static void add(String metricPath, String name, long value, MetricSink collectedMetrics) {
+        collectedMetrics.add(new Metric(name, String.valueOf(value), metricPath + name));
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.inventory;
+
+import com.vmware.vim25.ManagedEntityStatus;
+import com.vmware.vim25.ManagedObjectReference;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Property values of a single managed entity as returned by the property collector, keyed by property path.
+ */
+public class EntityData {
+
+    private final ManagedObjectReference mor;
+    private final Map<String, Object> properties;
+
+    public EntityData(ManagedObjectReference mor) {
+        this(mor, new HashMap<String, Object>());
+    }
+
+    public EntityData(ManagedObjectReference mor, Map<String, Object> properties) {
+        this.mor = mor;
+        this.properties = properties;
+    }
+
+    public ManagedObjectReference getMor() {
+        return mor;
+    }
+
+    public String getId() {
+        return mor.getVal();
+    }
+
+    public String getType() {
+        return mor.getType();
+    }
+
+    public String getName() {
+        return (String) properties.get(PropertyPaths.NAME);
+    }
+
+    public ManagedEntityStatus getOverallStatus() {
+        return (ManagedEntityStatus) properties.get(PropertyPaths.OVERALL_STATUS);
+    }
+
+    public Object getProperty(String path) {
+        return properties.get(path);
+    }
+
+    public void setProperty(String path, Object value) {
+        properties.put(path, value);
+    }
+
+    public void removeProperty(String path) {
+        properties.remove(path);
+    }
+
+    public Map<String, Object> getProperties() {
+        return properties;
+    }
+
+    @Override
+    public String toString() {
+        return getType() + ":" + getId() + "[" + getName() + "]";
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.inventory;
+
+import com.appdynamics.monitors.VMWare.util.Constants;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The <code>hostConfig</code> section of a server compiled into hash lookups and precompiled patterns, see
+ * {@link NameMatcher} for the name syntax.
+ * <p>
+ * A host is monitored if an entry matches it and it is not in <code>excludeHosts</code>. Its VMs are selected by the
+ * <code>vms</code> and <code>excludeVms</code> of the entry naming the host exactly, or else of the first entry whose
+ * pattern matches it.
+ */
+public class HostConfigMatcher {
+
+    private final Map<String, HostRule> exactRules = new HashMap<>();
+    private final List<HostRule> patternRules = new ArrayList<>();
+    private final NameMatcher excludedHosts;
+
+    private HostConfigMatcher(NameMatcher excludedHosts) {
+        this.excludedHosts = excludedHosts;
+    }
+
+    /**
+     * @param hostConfig   the hostConfig entries of the server
+     * @param excludeHosts host names or patterns never to monitor, may be null
+     */
+    public static HostConfigMatcher compile(List<Map<String, Object>> hostConfig, List<String> excludeHosts) {
+        HostConfigMatcher matcher = new HostConfigMatcher(NameMatcher.compile(excludeHosts));
+        if (hostConfig != null) {
+            for (Map<String, Object> entry : hostConfig) {
+                String host = (String) entry.get(com.appdynamics.extensions.Constants.HOST);
+                if (host == null) {
+                    continue;
+                }
+                HostRule rule = new HostRule(NameMatcher.compile(Collections.singletonList(host)),
+                        NameMatcher.compile((List<String>) entry.get(Constants.VMS)),
+                        NameMatcher.compile((List<String>) entry.get(Constants.EXCLUDE_VMS)));
+                if ("*".equals(host) || host.startsWith(NameMatcher.REGEX_PREFIX) || NameMatcher.isGlob(host)) {
+                    matcher.patternRules.add(rule);
+                } else if (!matcher.exactRules.containsKey(host.toLowerCase(Locale.ROOT))) {
+                    matcher.exactRules.put(host.toLowerCase(Locale.ROOT), rule);
+                }
+            }
+        }
+        return matcher;
+    }
+
+    public boolean isHostSelected(String hostName) {
+        return hostName != null && !excludedHosts.matches(hostName) && getRule(hostName) != null;
+    }
+
+    /**
+     * @return the rule selecting the VMs of the host, or null if the host is not configured
+     */
+    public HostRule getRule(String hostName) {
+        HostRule rule = exactRules.get(hostName.toLowerCase(Locale.ROOT));
+        if (rule != null) {
+            return rule;
+        }
+        for (HostRule patternRule : patternRules) {
+            if (patternRule.hosts.matches(hostName)) {
+                return patternRule;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the plain host names configured, lower case, to report hosts which were not found
+     */
+    public Set<String> getHostNames() {
+        return Collections.unmodifiableSet(exactRules.keySet());
+    }
+
+    public static class HostRule {
+
+        private final NameMatcher hosts;
+        private final NameMatcher vms;
+        private final NameMatcher excludedVms;
+
+        HostRule(NameMatcher hosts, NameMatcher vms, NameMatcher excludedVms) {
+            this.hosts = hosts;
+            this.vms = vms;
+            this.excludedVms = excludedVms;
+        }
+
+        public boolean hasVMs() {
+            return !vms.isEmpty();
+        }
+
+        public boolean isVMSelected(String vmName) {
+            return vms.matches(vmName) && !excludedVms.matches(vmName);
+        }
+
+        /**
+         * @return the plain VM names configured, lower case, to report VMs which were not found
+         */
+        public Set<String> getVMNames() {
+            return vms.getNames();
+        }
+    }
+}
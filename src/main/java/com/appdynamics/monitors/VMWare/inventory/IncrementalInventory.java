@@ -0,0 +1,312 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.inventory;
+
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.appdynamics.monitors.VMWare.instrumentation.ExtensionMetrics;
+import com.vmware.vim25.InvalidCollectorVersion;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.ObjectUpdateKind;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.WaitOptions;
+import com.vmware.vim25.mo.ContainerView;
+import com.vmware.vim25.mo.PropertyCollector;
+import com.vmware.vim25.mo.ServiceInstance;
+import com.vmware.vim25.mo.util.PropertyCollectorUtil;
+import org.slf4j.Logger;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In memory model of the monitored hosts and VMs which is kept up to date with <code>WaitForUpdatesEx</code>.
+ * The first update after a (re)connect returns the full inventory; later updates only carry the properties that
+ * changed since the stored version. The model outlives a single task run and is rebuilt from scratch when the
+ * session changes, the requested properties change or vCenter invalidates the version.
+ * <p>
+ * Entities are replaced rather than modified in place, so a list returned by {@link #update} is not affected by
+ * later updates.
+ * <p>
+ * vCenter reports a change of an array element or a nested property under its own path, e.g.
+ * <code>config.hardware.device[4000]</code> for <code>config.hardware.device</code>. Such a change marks the tracked
+ * property as stale, and the stale properties are read again whole with one property retrieval after the updates.
+ */
+public class IncrementalInventory {
+
+    private static final Logger logger = ExtensionsLoggerFactory.getLogger(IncrementalInventory.class);
+
+    private final Map<String, EntityData> entities = new HashMap<>();
+    //the tracked paths to read again by entity id, after a change below them
+    private final Map<String, Set<String>> staleProperties = new HashMap<>();
+    private final int maxObjectUpdates;
+
+    private ServiceInstance serviceInstance;
+    private Map<String, String[]> pathsByType;
+    private PropertyCollector propertyCollector;
+    private ContainerView containerView;
+    private String version;
+
+    public IncrementalInventory(int maxObjectUpdates) {
+        this.maxObjectUpdates = maxObjectUpdates > 0 ? maxObjectUpdates : PropertyRetriever.DEFAULT_PAGE_SIZE;
+    }
+
+    /**
+     * Applies all pending changes and returns the current entities.
+     *
+     * @param pathsByType      property paths to track, keyed by managed object type
+     * @param extensionMetrics counts the requests to vCenter and the object updates received, may be null
+     */
+    public synchronized List<EntityData> update(ServiceInstance serviceInstance, Map<String, String[]> pathsByType, ExtensionMetrics extensionMetrics) throws RemoteException {
+        if (serviceInstance != this.serviceInstance || !samePaths(pathsByType)) {
+            resync(serviceInstance, pathsByType, extensionMetrics);
+        }
+
+        try {
+            waitForUpdates(extensionMetrics);
+        } catch (InvalidCollectorVersion e) {
+            logger.info("Collector version [{}] is no longer valid, doing a full resync", version);
+            resync(serviceInstance, pathsByType, extensionMetrics);
+            waitForUpdates(extensionMetrics);
+        } catch (RemoteException e) {
+            //The filter may be gone with the session, start over on the next run.
+            this.serviceInstance = null;
+            throw e;
+        }
+        refreshStaleProperties(extensionMetrics);
+        return getEntities();
+    }
+
+    synchronized List<EntityData> getEntities() {
+        return new ArrayList<>(entities.values());
+    }
+
+    private void waitForUpdates(ExtensionMetrics extensionMetrics) throws RemoteException {
+        WaitOptions waitOptions = new WaitOptions();
+        waitOptions.setMaxWaitSeconds(0);
+        waitOptions.setMaxObjectUpdates(maxObjectUpdates);
+
+        int updates = 0;
+        UpdateSet updateSet = propertyCollector.waitForUpdatesEx(version, waitOptions);
+        while (updateSet != null) {
+            int applied = applyUpdateSet(updateSet);
+            if (extensionMetrics != null) {
+                extensionMetrics.addRoundTrip(applied);
+            }
+            updates += applied;
+            version = updateSet.getVersion();
+            if (!Boolean.TRUE.equals(updateSet.getTruncated())) {
+                break;
+            }
+            updateSet = propertyCollector.waitForUpdatesEx(version, waitOptions);
+        }
+        logger.debug("Applied [{}] object updates, [{}] entities in the model, version [{}]", updates, entities.size(), version);
+    }
+
+    int applyUpdateSet(UpdateSet updateSet) {
+        int updates = 0;
+        PropertyFilterUpdate[] filterSet = updateSet.getFilterSet();
+        if (filterSet == null) {
+            return updates;
+        }
+        for (PropertyFilterUpdate filterUpdate : filterSet) {
+            ObjectUpdate[] objectSet = filterUpdate.getObjectSet();
+            if (objectSet == null) {
+                continue;
+            }
+            for (ObjectUpdate objectUpdate : objectSet) {
+                applyObjectUpdate(objectUpdate);
+                updates++;
+            }
+        }
+        return updates;
+    }
+
+    private void applyObjectUpdate(ObjectUpdate objectUpdate) {
+        String id = objectUpdate.getObj().getVal();
+
+        if (ObjectUpdateKind.leave.equals(objectUpdate.getKind())) {
+            entities.remove(id);
+            staleProperties.remove(id);
+            return;
+        }
+
+        EntityData existing = entities.get(id);
+        EntityData entity;
+        if (existing == null || ObjectUpdateKind.enter.equals(objectUpdate.getKind())) {
+            entity = new EntityData(objectUpdate.getObj());
+        } else {
+            entity = new EntityData(existing.getMor(), new HashMap<>(existing.getProperties()));
+        }
+
+        PropertyChange[] changeSet = objectUpdate.getChangeSet();
+        if (changeSet != null) {
+            for (PropertyChange change : changeSet) {
+                String trackedPath = getTrackedPath(entity.getType(), change.getName());
+                if (!change.getName().equals(trackedPath)) {
+                    markStale(id, trackedPath);
+                } else if (PropertyChangeOp.remove.equals(change.getOp()) || PropertyChangeOp.indirectRemove.equals(change.getOp())) {
+                    entity.removeProperty(change.getName());
+                } else {
+                    entity.setProperty(change.getName(), PropertyCollectorUtil.convertProperty(change.getVal()));
+                }
+            }
+        }
+        entities.put(id, entity);
+    }
+
+    /**
+     * @return the tracked path the change belongs to: the path itself, the tracked property an element or nested
+     * property such as <code>config.network.pnic["key-vim.host.PhysicalNic-vmnic0"]</code> is part of, or the name
+     * of the change if the type is not tracked
+     */
+    private String getTrackedPath(String type, String changeName) {
+        String[] paths = pathsByType == null ? null : pathsByType.get(type);
+        if (paths == null) {
+            return changeName;
+        }
+        for (String path : paths) {
+            if (changeName.equals(path)) {
+                return path;
+            }
+        }
+        for (String path : paths) {
+            if (changeName.startsWith(path) && (changeName.charAt(path.length()) == '[' || changeName.charAt(path.length()) == '.')) {
+                return path;
+            }
+        }
+        return changeName;
+    }
+
+    private void markStale(String id, String trackedPath) {
+        Set<String> paths = staleProperties.get(id);
+        if (paths == null) {
+            paths = new HashSet<>();
+            staleProperties.put(id, paths);
+        }
+        paths.add(trackedPath);
+    }
+
+    /**
+     * Reads the properties marked stale by an element or nested change again, for all entities in one property
+     * retrieval. If it fails, e.g. because an entity was just removed, they are read again on the next run.
+     */
+    private void refreshStaleProperties(ExtensionMetrics extensionMetrics) {
+        if (staleProperties.isEmpty()) {
+            return;
+        }
+        List<ManagedObjectReference> mors = new ArrayList<>();
+        Map<String, Set<String>> stalePathsByType = new LinkedHashMap<>();
+        for (Map.Entry<String, Set<String>> stale : staleProperties.entrySet()) {
+            EntityData entity = entities.get(stale.getKey());
+            if (entity == null) {
+                continue;
+            }
+            mors.add(entity.getMor());
+            Set<String> paths = stalePathsByType.get(entity.getType());
+            if (paths == null) {
+                paths = new LinkedHashSet<>();
+                stalePathsByType.put(entity.getType(), paths);
+            }
+            paths.addAll(stale.getValue());
+        }
+        Map<String, String[]> pathsByType = new LinkedHashMap<>();
+        for (Map.Entry<String, Set<String>> paths : stalePathsByType.entrySet()) {
+            pathsByType.put(paths.getKey(), paths.getValue().toArray(new String[paths.getValue().size()]));
+        }
+
+        List<EntityData> refreshed;
+        try {
+            refreshed = new PropertyRetriever(serviceInstance, maxObjectUpdates, extensionMetrics).retrieve(mors, pathsByType);
+        } catch (RemoteException e) {
+            logger.warn("Unable to read [{}] changed properties again, retrying on the next run", staleProperties.size(), e);
+            return;
+        }
+        for (EntityData update : refreshed) {
+            EntityData existing = entities.get(update.getId());
+            Set<String> paths = staleProperties.remove(update.getId());
+            if (existing == null || paths == null) {
+                continue;
+            }
+            EntityData entity = new EntityData(existing.getMor(), new HashMap<>(existing.getProperties()));
+            for (String path : paths) {
+                if (update.getProperty(path) == null) {
+                    entity.removeProperty(path);
+                } else {
+                    entity.setProperty(path, update.getProperty(path));
+                }
+            }
+            entities.put(update.getId(), entity);
+        }
+        logger.debug("Read the changed properties of [{}] entities again", refreshed.size());
+    }
+
+    private void resync(ServiceInstance serviceInstance, Map<String, String[]> pathsByType, ExtensionMetrics extensionMetrics) throws RemoteException {
+        destroy();
+        entities.clear();
+        staleProperties.clear();
+        version = null;
+
+        String[] types = pathsByType.keySet().toArray(new String[pathsByType.size()]);
+        propertyCollector = serviceInstance.getPropertyCollector().createPropertyCollector();
+        containerView = serviceInstance.getViewManager().createContainerView(serviceInstance.getRootFolder(), types, true);
+        propertyCollector.createFilter(PropertyRetriever.createFilterSpec(containerView, pathsByType), false);
+        if (extensionMetrics != null) {
+            //CreatePropertyCollector, CreateContainerView and CreateFilter
+            extensionMetrics.addRoundTrips(3, 0);
+        }
+
+        this.serviceInstance = serviceInstance;
+        this.pathsByType = pathsByType;
+        logger.info("Created property filter for types {}", Arrays.toString(types));
+    }
+
+    private boolean samePaths(Map<String, String[]> pathsByType) {
+        if (this.pathsByType == null || !this.pathsByType.keySet().equals(pathsByType.keySet())) {
+            return false;
+        }
+        for (Map.Entry<String, String[]> entry : pathsByType.entrySet()) {
+            if (!Arrays.equals(entry.getValue(), this.pathsByType.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void destroy() {
+        //Destroying the collector also destroys its filters
+        try {
+            if (propertyCollector != null) {
+                propertyCollector.destroyPropertyCollector();
+            }
+        } catch (Exception e) {
+            logger.debug("Unable to destroy the property collector", e);
+        }
+        try {
+            if (containerView != null) {
+                containerView.destroyView();
+            }
+        } catch (Exception e) {
+            logger.debug("Unable to destroy the container view", e);
+        }
+        propertyCollector = null;
+        containerView = null;
+    }
+}
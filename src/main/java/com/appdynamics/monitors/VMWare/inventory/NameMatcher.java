@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.inventory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Case-insensitive matcher for the host and VM names of config.yml. Plain names are looked up in a hash set, names
+ * with <code>*</code> or <code>?</code> are globs (e.g. <code>prod-db-*</code>) and names starting with
+ * <code>regex:</code> are regular expressions. <code>*</code> alone matches every name.
+ */
+public class NameMatcher {
+
+    static final String REGEX_PREFIX = "regex:";
+
+    private static final NameMatcher NONE = new NameMatcher(false, Collections.<String>emptySet(), new Pattern[0]);
+
+    private final boolean matchAll;
+    private final Set<String> names;
+    private final Pattern[] patterns;
+
+    private NameMatcher(boolean matchAll, Set<String> names, Pattern[] patterns) {
+        this.matchAll = matchAll;
+        this.names = names;
+        this.patterns = patterns;
+    }
+
+    /**
+     * @throws java.util.regex.PatternSyntaxException if a <code>regex:</code> expression is invalid
+     */
+    public static NameMatcher compile(Collection<String> expressions) {
+        if (expressions == null || expressions.isEmpty()) {
+            return NONE;
+        }
+        boolean matchAll = false;
+        Set<String> names = new HashSet<>();
+        List<Pattern> patterns = new ArrayList<>();
+        for (String expression : expressions) {
+            if (expression == null) {
+                continue;
+            }
+            if ("*".equals(expression)) {
+                matchAll = true;
+            } else if (expression.startsWith(REGEX_PREFIX)) {
+                patterns.add(Pattern.compile(expression.substring(REGEX_PREFIX.length()), Pattern.CASE_INSENSITIVE));
+            } else if (isGlob(expression)) {
+                patterns.add(Pattern.compile(toRegex(expression), Pattern.CASE_INSENSITIVE));
+            } else {
+                names.add(expression.toLowerCase(Locale.ROOT));
+            }
+        }
+        return new NameMatcher(matchAll, names, patterns.toArray(new Pattern[patterns.size()]));
+    }
+
+    public boolean matches(String name) {
+        if (matchAll) {
+            return true;
+        }
+        if (name == null) {
+            return false;
+        }
+        if (!names.isEmpty() && names.contains(name.toLowerCase(Locale.ROOT))) {
+            return true;
+        }
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(name).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return !matchAll && names.isEmpty() && patterns.length == 0;
+    }
+
+    /**
+     * @return the plain names, lower case, to report configured entities which were not found
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(names);
+    }
+
+    static boolean isGlob(String expression) {
+        return expression.indexOf('*') >= 0 || expression.indexOf('?') >= 0;
+    }
+
+    private static String toRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (i > start) {
+                    regex.append(Pattern.quote(glob.substring(start, i)));
+                }
+                regex.append(c == '*' ? ".*" : ".");
+                start = i + 1;
+            }
+        }
+        if (start < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(start)));
+        }
+        return regex.toString();
+    }
+}
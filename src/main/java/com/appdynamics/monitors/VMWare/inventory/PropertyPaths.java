@@ -0,0 +1,173 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.inventory;
+
+import com.appdynamics.monitors.VMWare.metrics.CompiledMetric;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * vSphere property paths read by the collectors, and the minimal set of paths needed for the configured metrics.
+ * <p>
+ * A metric in metrics.xml names its source with the <code>property</code> attribute, e.g.
+ * <code>summary.quickStats.balloonedMemory</code>, or a <code>formula</code> over several properties. Metrics with a
+ * performance <code>counter</code> need no property. Metrics
+ * without either attribute fall back to the defaults below, so older metrics.xml files keep working.
+ */
+public class PropertyPaths {
+
+    public static final String NAME = "name";
+    public static final String OVERALL_STATUS = "overallStatus";
+
+    public static final String VM_HOST = "runtime.host";
+    public static final String DATASTORE_URL = "summary.url";
+    public static final String PARENT = "parent";
+    public static final String RESOURCE_POOL_OWNER = "owner";
+    public static final String HOST_PHYSICAL_NICS = "config.network.pnic";
+    public static final String HOST_VSWITCHES = "config.network.vswitch";
+    public static final String VM_DEVICES = "config.hardware.device";
+    public static final String PORTGROUP_KEY = "key";
+
+    public static final Map<String, String> DEFAULT_HOST_METRICS = ImmutableMap.<String, String>builder()
+            .put("Distributed CPU Fairness", "summary.quickStats.distributedCpuFairness")
+            .put("Distributed Memory Fairness", "summary.quickStats.distributedMemoryFairness")
+            .put("Overall CPU Usage", "summary.quickStats.overallCpuUsage")
+            .put("Overall CPU Usage %", "round(summary.quickStats.overallCpuUsage * 100 / (hardware.cpuInfo.hz * hardware.cpuInfo.numCpuCores * 0.000001))")
+            .put("Overall Memory Usage", "summary.quickStats.overallMemoryUsage")
+            .put("Up Time", "summary.quickStats.uptime")
+            .put("Memory Size", "hardware.memorySize")
+            .put("CPU Cores", "hardware.cpuInfo.numCpuCores")
+            .build();
+
+    public static final Map<String, String> DEFAULT_VM_METRICS = ImmutableMap.<String, String>builder()
+            .put("Ballooned Memory", "summary.quickStats.balloonedMemory")
+            .put("Compressed Memory", "summary.quickStats.compressedMemory")
+            .put("Overhead Memory Consumed", "summary.quickStats.consumedOverheadMemory")
+            .put("Distributed CPU Entitlement", "summary.quickStats.distributedCpuEntitlement")
+            .put("Distributed Memory Entitlement", "summary.quickStats.distributedMemoryEntitlement")
+            .put("Guest Memory Usage", "summary.quickStats.guestMemoryUsage")
+            .put("Host Memory Usage", "summary.quickStats.hostMemoryUsage")
+            .put("Overall CPU Usage", "summary.quickStats.overallCpuUsage")
+            .put("Overall CPU Demand", "summary.quickStats.overallCpuDemand")
+            .put("Private Memory", "summary.quickStats.privateMemory")
+            .put("Shared Memory", "summary.quickStats.sharedMemory")
+            .put("Static CPU Entitlement", "summary.quickStats.staticCpuEntitlement")
+            .put("Static Memory Entitlement", "summary.quickStats.staticMemoryEntitlement")
+            .put("Swapped Memory", "summary.quickStats.swappedMemory")
+            .put("Up Time", "summary.quickStats.uptimeSeconds")
+            .put("Memory MB", "config.hardware.memoryMB")
+            .put("Num CPU", "config.hardware.numCPU")
+            .build();
+
+    public static final Map<String, String> DEFAULT_DATASTORE_METRICS = ImmutableMap.<String, String>builder()
+            .put("Capacity", "summary.capacity")
+            .put("Free Space", "summary.freeSpace")
+            .put("Uncommitted", "summary.uncommitted")
+            .put("Used Space", "summary.capacity - summary.freeSpace")
+            .put("Used %", "round((summary.capacity - summary.freeSpace) * 100 / summary.capacity)")
+            .build();
+
+    public static String[] getHostPropertyPaths(CompiledMetric[] metrics) {
+        return getPropertyPaths(metrics, NAME, OVERALL_STATUS);
+    }
+
+    public static String[] getVMPropertyPaths(CompiledMetric[] metrics) {
+        return getPropertyPaths(metrics, NAME, OVERALL_STATUS, VM_HOST);
+    }
+
+    public static final Map<String, String> DEFAULT_CLUSTER_METRICS = ImmutableMap.<String, String>builder()
+            .put("Total CPU", "summary.totalCpu")
+            .put("Effective CPU", "summary.effectiveCpu")
+            .put("Total Memory", "summary.totalMemory")
+            .put("Effective Memory", "summary.effectiveMemory")
+            .put("Hosts", "summary.numHosts")
+            .put("Effective Hosts", "summary.numEffectiveHosts")
+            .put("DRS Enabled", "configuration.drsConfig.enabled")
+            .put("HA Enabled", "configuration.dasConfig.enabled")
+            .build();
+
+    public static final Map<String, String> DEFAULT_RESOURCE_POOL_METRICS = ImmutableMap.<String, String>builder()
+            .put("CPU Usage", "runtime.cpu.overallUsage")
+            .put("CPU Max Usage", "runtime.cpu.maxUsage")
+            .put("CPU Reservation Used", "runtime.cpu.reservationUsed")
+            .put("Memory Usage", "runtime.memory.overallUsage")
+            .put("Memory Max Usage", "runtime.memory.maxUsage")
+            .put("Memory Reservation Used", "runtime.memory.reservationUsed")
+            .put("CPU Reservation", "config.cpuAllocation.reservation")
+            .put("CPU Limit", "config.cpuAllocation.limit")
+            .put("Memory Reservation", "config.memoryAllocation.reservation")
+            .put("Memory Limit", "config.memoryAllocation.limit")
+            .build();
+
+    /**
+     * The datastore url is read to match the datastore with the instance of its host performance counters.
+     */
+    public static String[] getDatastorePropertyPaths(CompiledMetric[] metrics) {
+        return getPropertyPaths(metrics, NAME, OVERALL_STATUS, DATASTORE_URL);
+    }
+
+    public static String[] getClusterPropertyPaths(CompiledMetric[] metrics) {
+        return getPropertyPaths(metrics, NAME, OVERALL_STATUS);
+    }
+
+    /**
+     * The parent and the owner of a pool place it in the metric tree, under its parent pools and its cluster.
+     */
+    public static String[] getResourcePoolPropertyPaths(CompiledMetric[] metrics) {
+        return getPropertyPaths(metrics, NAME, OVERALL_STATUS, PARENT, RESOURCE_POOL_OWNER);
+    }
+
+    /**
+     * Port groups only report performance counters, their key matches them with the NICs of the VMs.
+     */
+    public static String[] getPortGroupPropertyPaths() {
+        return new String[]{NAME, PORTGROUP_KEY};
+    }
+
+    private static String[] getPropertyPaths(CompiledMetric[] metrics, String... requiredPaths) {
+        Set<String> paths = new LinkedHashSet<>(Arrays.asList(requiredPaths));
+        if (metrics != null) {
+            for (CompiledMetric metric : metrics) {
+                //Counters are read from the PerformanceManager, not the property collector
+                if (metric.getCounter() == null) {
+                    metric.getExpression().collectPropertyPaths(paths);
+                }
+            }
+        }
+        return minimize(paths);
+    }
+
+    /**
+     * Drops paths which are already covered by an enclosing path, e.g. <code>summary.quickStats.uptime</code> when
+     * <code>summary.quickStats</code> is requested as well.
+     */
+    static String[] minimize(Collection<String> paths) {
+        List<String> minimal = new ArrayList<>();
+        for (String path : paths) {
+            boolean covered = false;
+            for (String other : paths) {
+                if (path.startsWith(other + ".")) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered) {
+                minimal.add(path);
+            }
+        }
+        return minimal.toArray(new String[minimal.size()]);
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.inventory;
+
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.appdynamics.monitors.VMWare.instrumentation.ExtensionMetrics;
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.RetrieveOptions;
+import com.vmware.vim25.RetrieveResult;
+import com.vmware.vim25.SelectionSpec;
+import com.vmware.vim25.TraversalSpec;
+import com.vmware.vim25.mo.ContainerView;
+import com.vmware.vim25.mo.PropertyCollector;
+import com.vmware.vim25.mo.ServiceInstance;
+import com.vmware.vim25.mo.util.PropertyCollectorUtil;
+import org.slf4j.Logger;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Reads the requested properties of every entity of the given types with a single property filter over a
+ * <code>ContainerView</code> of the root folder, paging through the result with
+ * <code>RetrievePropertiesEx</code>/<code>ContinueRetrievePropertiesEx</code>. This replaces the per entity
+ * lazy getters of the managed object API, each of which is a separate SOAP round trip.
+ * <p>
+ * When the entities are already known (see {@link TopologyCache}) their properties are read directly from the
+ * managed object references, without traversing the inventory.
+ */
+public class PropertyRetriever {
+
+    private static final Logger logger = ExtensionsLoggerFactory.getLogger(PropertyRetriever.class);
+
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+
+    private final ServiceInstance serviceInstance;
+    private final int pageSize;
+    private final Semaphore requestPermits;
+    private final ExtensionMetrics extensionMetrics;
+
+    public PropertyRetriever(ServiceInstance serviceInstance, int pageSize) {
+        this(serviceInstance, pageSize, null);
+    }
+
+    /**
+     * @param extensionMetrics counts the requests to vCenter and the objects received, may be null
+     */
+    public PropertyRetriever(ServiceInstance serviceInstance, int pageSize, ExtensionMetrics extensionMetrics) {
+        this(serviceInstance, pageSize, null, extensionMetrics);
+    }
+
+    /**
+     * @param requestPermits taken for every page, so that the inventory counts against the requests in flight to
+     *                       vCenter like the QueryPerf calls of the collectors, may be null
+     */
+    public PropertyRetriever(ServiceInstance serviceInstance, int pageSize, Semaphore requestPermits, ExtensionMetrics extensionMetrics) {
+        this.serviceInstance = serviceInstance;
+        this.pageSize = pageSize > 0 ? pageSize : DEFAULT_PAGE_SIZE;
+        this.requestPermits = requestPermits;
+        this.extensionMetrics = extensionMetrics;
+    }
+
+    /**
+     * A retriever on the same session and permits that does not count its requests, for reads outside of a run.
+     */
+    public PropertyRetriever withoutMetrics() {
+        return new PropertyRetriever(serviceInstance, pageSize, requestPermits, null);
+    }
+
+    /**
+     * @param pathsByType property paths to read, keyed by managed object type (e.g. HostSystem)
+     */
+    public List<EntityData> retrieve(Map<String, String[]> pathsByType) throws RemoteException {
+        String[] types = pathsByType.keySet().toArray(new String[pathsByType.size()]);
+        ContainerView containerView = serviceInstance.getViewManager().createContainerView(serviceInstance.getRootFolder(), types, true);
+        countRoundTrip(0);
+
+        try {
+            return retrieve(createFilterSpec(containerView, pathsByType), Arrays.toString(types));
+        } finally {
+            destroy(containerView);
+        }
+    }
+
+    /**
+     * Reads the properties of the given entities only. Fails with <code>ManagedObjectNotFound</code> if one of them
+     * no longer exists.
+     *
+     * @param pathsByType property paths to read, keyed by managed object type (e.g. HostSystem)
+     */
+    public List<EntityData> retrieve(List<ManagedObjectReference> mors, Map<String, String[]> pathsByType) throws RemoteException {
+        if (mors.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return retrieve(createFilterSpec(mors, pathsByType), mors.size() + " known entities");
+    }
+
+    private List<EntityData> retrieve(PropertyFilterSpec filterSpec, String description) throws RemoteException {
+        RetrieveOptions options = new RetrieveOptions();
+        options.setMaxObjects(pageSize);
+
+        PropertyCollector propertyCollector = serviceInstance.getPropertyCollector();
+        List<EntityData> entities = new ArrayList<>();
+        int pages = 0;
+
+        RetrieveResult result = retrievePage(propertyCollector, filterSpec, options, null);
+        while (result != null) {
+            pages++;
+            countRoundTrip(result.getObjects() == null ? 0 : result.getObjects().length);
+            addEntities(result.getObjects(), entities);
+            String token = result.getToken();
+            result = token == null ? null : retrievePage(propertyCollector, filterSpec, options, token);
+        }
+
+        logger.debug("Retrieved [{}] entities of {} in [{}] pages", entities.size(), description, pages);
+        return entities;
+    }
+
+    /**
+     * @param token the token of the previous page, null for the first one
+     */
+    private RetrieveResult retrievePage(PropertyCollector propertyCollector, PropertyFilterSpec filterSpec, RetrieveOptions options, String token) throws RemoteException {
+        if (requestPermits != null) {
+            try {
+                requestPermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RemoteException("Interrupted waiting to retrieve the inventory", e);
+            }
+        }
+        try {
+            return token == null ? propertyCollector.retrievePropertiesEx(new PropertyFilterSpec[]{filterSpec}, options)
+                    : propertyCollector.continueRetrievePropertiesEx(token);
+        } finally {
+            if (requestPermits != null) {
+                requestPermits.release();
+            }
+        }
+    }
+
+    static PropertyFilterSpec createFilterSpec(ContainerView containerView, Map<String, String[]> pathsByType) {
+        TraversalSpec traversalSpec = new TraversalSpec();
+        traversalSpec.setName("traverseEntities");
+        traversalSpec.setType("ContainerView");
+        traversalSpec.setPath("view");
+        traversalSpec.setSkip(false);
+
+        ObjectSpec objectSpec = new ObjectSpec();
+        objectSpec.setObj(containerView.getMOR());
+        objectSpec.setSkip(true);
+        objectSpec.setSelectSet(new SelectionSpec[]{traversalSpec});
+
+        return createFilterSpec(new ObjectSpec[]{objectSpec}, pathsByType);
+    }
+
+    static PropertyFilterSpec createFilterSpec(List<ManagedObjectReference> mors, Map<String, String[]> pathsByType) {
+        ObjectSpec[] objectSpecs = new ObjectSpec[mors.size()];
+        for (int i = 0; i < objectSpecs.length; i++) {
+            objectSpecs[i] = new ObjectSpec();
+            objectSpecs[i].setObj(mors.get(i));
+            objectSpecs[i].setSkip(false);
+        }
+        return createFilterSpec(objectSpecs, pathsByType);
+    }
+
+    private static PropertyFilterSpec createFilterSpec(ObjectSpec[] objectSpecs, Map<String, String[]> pathsByType) {
+        List<PropertySpec> propertySpecs = new ArrayList<>();
+        for (Map.Entry<String, String[]> entry : pathsByType.entrySet()) {
+            PropertySpec propertySpec = new PropertySpec();
+            propertySpec.setType(entry.getKey());
+            propertySpec.setAll(false);
+            propertySpec.setPathSet(entry.getValue());
+            propertySpecs.add(propertySpec);
+        }
+
+        PropertyFilterSpec filterSpec = new PropertyFilterSpec();
+        filterSpec.setObjectSet(objectSpecs);
+        filterSpec.setPropSet(propertySpecs.toArray(new PropertySpec[propertySpecs.size()]));
+        return filterSpec;
+    }
+
+    static void addEntities(ObjectContent[] objectContents, List<EntityData> entities) {
+        if (objectContents == null) {
+            return;
+        }
+        for (ObjectContent objectContent : objectContents) {
+            EntityData entity = new EntityData(objectContent.getObj());
+            DynamicProperty[] propSet = objectContent.getPropSet();
+            if (propSet != null) {
+                for (DynamicProperty property : propSet) {
+                    entity.setProperty(property.getName(), PropertyCollectorUtil.convertProperty(property.getVal()));
+                }
+            }
+            if (objectContent.getMissingSet() != null && logger.isDebugEnabled()) {
+                logger.debug("[{}] properties could not be read for [{}]", objectContent.getMissingSet().length, entity);
+            }
+            entities.add(entity);
+        }
+    }
+
+    private void countRoundTrip(int objects) {
+        if (extensionMetrics != null) {
+            extensionMetrics.addRoundTrip(objects);
+        }
+    }
+
+    private void destroy(ContainerView containerView) {
+        try {
+            containerView.destroyView();
+            countRoundTrip(0);
+        } catch (Exception e) {
+            logger.debug("Unable to destroy the container view", e);
+        }
+    }
+}
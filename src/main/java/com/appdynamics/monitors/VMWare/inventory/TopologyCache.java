@@ -0,0 +1,282 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.inventory;
+
+import com.appdynamics.extensions.executorservice.MonitorExecutorService;
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.appdynamics.monitors.VMWare.instrumentation.ExtensionMetrics;
+import com.appdynamics.monitors.VMWare.util.Constants;
+import com.vmware.vim25.Event;
+import com.vmware.vim25.EventFilterSpec;
+import com.vmware.vim25.EventFilterSpecByTime;
+import com.vmware.vim25.ManagedObjectNotFound;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.mo.ServiceInstance;
+import org.slf4j.Logger;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the topology of a vCenter, i.e. the references of the hosts, VMs and the other collected entities, so that a
+ * run only reads the properties of the known entities instead of traversing the whole inventory. The names and the
+ * host of every VM are read with the other properties on every run, so renames, vMotions and HA restarts on another
+ * host are reported right away without a reload. The network configuration, i.e. the physical NICs and vSwitches of
+ * the hosts and the devices of the VMs, is only read with the topology and kept with it, as it is large and seldom
+ * changes.
+ * <p>
+ * The topology is reloaded in the background once it is older than the TTL, while runs keep using the previous one.
+ * It is reloaded by the run when the session changes, when one of the known entities no longer exists, or when vCenter
+ * reports a VM, host, datastore, cluster, resource pool or distributed port group being added or removed since the
+ * last load. The events are queried at most once per event interval, as QueryEvents searches the event history of
+ * vCenter, so such a change is only seen up to an event interval later.
+ */
+public class TopologyCache {
+
+    private static final Logger logger = ExtensionsLoggerFactory.getLogger(TopologyCache.class);
+
+    public static final long DEFAULT_EVENT_INTERVAL_SECONDS = 300;
+
+    static final String[] TOPOLOGY_EVENTS = {"VmCreatedEvent", "VmClonedEvent", "VmDeployedEvent", "VmRegisteredEvent",
+            "VmRemovedEvent", "HostAddedEvent", "HostRemovedEvent", "DatastoreDiscoveredEvent", "VmfsDatastoreCreatedEvent",
+            "NASDatastoreCreatedEvent", "LocalDatastoreCreatedEvent", "DatastoreDestroyedEvent",
+            "ClusterCreatedEvent", "ClusterDestroyedEvent", "ResourcePoolCreatedEvent", "ResourcePoolDestroyedEvent",
+            "DVPortgroupCreatedEvent", "DVPortgroupDestroyedEvent"};
+
+    static final List<String> CACHED_PATHS = Arrays.asList(PropertyPaths.HOST_PHYSICAL_NICS, PropertyPaths.HOST_VSWITCHES, PropertyPaths.VM_DEVICES);
+
+    private final long ttlMillis;
+    private final long eventIntervalMillis;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private volatile Topology topology;
+    private int lastEventKey = -1;
+
+    public TopologyCache(long ttlSeconds) {
+        this(ttlSeconds, DEFAULT_EVENT_INTERVAL_SECONDS);
+    }
+
+    /**
+     * @param eventIntervalSeconds the time between two queries for topology events, 0 to query them on every run
+     */
+    public TopologyCache(long ttlSeconds, long eventIntervalSeconds) {
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        this.eventIntervalMillis = TimeUnit.SECONDS.toMillis(eventIntervalSeconds);
+    }
+
+    /**
+     * Reads the <code>pathsByType</code> properties of the known entities. The network configuration comes from the
+     * cached topology.
+     *
+     * @param executorService  runs the background reload once the topology expired
+     * @param extensionMetrics counts the event queries and the time requests of the reloads of this run, may be null
+     */
+    public List<EntityData> retrieve(ServiceInstance serviceInstance, PropertyRetriever propertyRetriever, Map<String, String[]> pathsByType, MonitorExecutorService executorService,
+                                     ExtensionMetrics extensionMetrics) throws RemoteException {
+        Map<String, String[]> topologyPaths = getTopologyPaths(pathsByType);
+
+        Topology current = topology;
+        if (current == null || current.serviceInstance != serviceInstance || !samePaths(current.paths, topologyPaths)) {
+            current = load(serviceInstance, propertyRetriever, topologyPaths, extensionMetrics);
+        } else if (hasChanged(current, extensionMetrics)) {
+            logger.debug("Topology changed since the last load, reloading");
+            current = load(serviceInstance, propertyRetriever, topologyPaths, extensionMetrics);
+        } else if (System.currentTimeMillis() - current.loadedTime > ttlMillis) {
+            refreshInBackground(serviceInstance, propertyRetriever.withoutMetrics(), topologyPaths, executorService);
+        }
+
+        Map<String, String[]> metricPaths = getMetricPaths(pathsByType);
+        List<EntityData> entities;
+        try {
+            entities = propertyRetriever.retrieve(current.mors, metricPaths);
+        } catch (ManagedObjectNotFound e) {
+            logger.debug("A known entity no longer exists, reloading the topology");
+            current = load(serviceInstance, propertyRetriever, topologyPaths, extensionMetrics);
+            entities = propertyRetriever.retrieve(current.mors, metricPaths);
+        }
+
+        for (EntityData entity : entities) {
+            EntityData known = current.entities.get(entity.getId());
+            if (known == null) {
+                continue;
+            }
+            for (String path : CACHED_PATHS) {
+                Object value = known.getProperty(path);
+                if (value != null) {
+                    entity.setProperty(path, value);
+                }
+            }
+        }
+        return entities;
+    }
+
+    public void invalidate() {
+        topology = null;
+    }
+
+    private Topology load(ServiceInstance serviceInstance, PropertyRetriever propertyRetriever, Map<String, String[]> topologyPaths, ExtensionMetrics extensionMetrics) throws RemoteException {
+        Calendar eventsSince = serviceInstance.currentTime();
+        if (extensionMetrics != null) {
+            extensionMetrics.addRoundTrip(0);
+        }
+        List<EntityData> entities = propertyRetriever.retrieve(topologyPaths);
+        Topology loaded = new Topology(serviceInstance, topologyPaths, entities, eventsSince);
+        topology = loaded;
+        logger.debug("Loaded topology of [{}] entities", entities.size());
+        return loaded;
+    }
+
+    /**
+     * The reload may end after the run that started it reported its metrics, so its requests are not counted.
+     */
+    private void refreshInBackground(final ServiceInstance serviceInstance, final PropertyRetriever propertyRetriever, final Map<String, String[]> topologyPaths, MonitorExecutorService executorService) {
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        executorService.execute("TopologyCacheRefresh", new Runnable() {
+            public void run() {
+                try {
+                    load(serviceInstance, propertyRetriever, topologyPaths, null);
+                } catch (Exception e) {
+                    logger.error("Unable to refresh the topology, using the previous one", e);
+                } finally {
+                    refreshing.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Asks the event manager for topology changes since the last load, or the last change seen, unless it was asked
+     * less than the event interval ago.
+     */
+    private boolean hasChanged(Topology current, ExtensionMetrics extensionMetrics) {
+        long now = System.currentTimeMillis();
+        if (now - current.eventsQueriedTime < eventIntervalMillis) {
+            return false;
+        }
+        current.eventsQueriedTime = now;
+        EventFilterSpecByTime time = new EventFilterSpecByTime();
+        time.setBeginTime(current.eventsSince);
+        EventFilterSpec filter = new EventFilterSpec();
+        filter.setEventTypeId(TOPOLOGY_EVENTS);
+        filter.setTime(time);
+
+        try {
+            Event[] events = current.serviceInstance.getEventManager().queryEvents(filter);
+            if (extensionMetrics != null) {
+                extensionMetrics.addRoundTrip(events == null ? 0 : events.length);
+            }
+            return events != null && addEvents(current, events);
+        } catch (Exception e) {
+            logger.debug("Unable to query the topology events, relying on the TTL", e);
+            return false;
+        }
+    }
+
+    /**
+     * The begin time of the event query is inclusive, so events already seen are skipped by their key, also across
+     * reloads.
+     *
+     * @return true if one of the events was not seen before
+     */
+    private synchronized boolean addEvents(Topology current, Event[] events) {
+        boolean changed = false;
+        for (Event event : events) {
+            if (event.getKey() > lastEventKey) {
+                changed = true;
+                lastEventKey = event.getKey();
+                if (event.getCreatedTime() != null && (current.eventsSince == null || event.getCreatedTime().after(current.eventsSince))) {
+                    current.eventsSince = event.getCreatedTime();
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return the name and the network configuration paths of every type
+     */
+    static Map<String, String[]> getTopologyPaths(Map<String, String[]> pathsByType) {
+        Map<String, String[]> paths = new LinkedHashMap<>();
+        for (Map.Entry<String, String[]> entry : pathsByType.entrySet()) {
+            List<String> topologyPaths = new ArrayList<>();
+            topologyPaths.add(PropertyPaths.NAME);
+            for (String path : entry.getValue()) {
+                if (CACHED_PATHS.contains(path)) {
+                    topologyPaths.add(path);
+                }
+            }
+            paths.put(entry.getKey(), topologyPaths.toArray(new String[topologyPaths.size()]));
+        }
+        return paths;
+    }
+
+    /**
+     * @return the paths read on every run, all but the network configuration
+     */
+    static Map<String, String[]> getMetricPaths(Map<String, String[]> pathsByType) {
+        Map<String, String[]> metricPaths = new LinkedHashMap<>();
+        for (Map.Entry<String, String[]> entry : pathsByType.entrySet()) {
+            List<String> paths = new ArrayList<>();
+            for (String path : entry.getValue()) {
+                if (!CACHED_PATHS.contains(path)) {
+                    paths.add(path);
+                }
+            }
+            metricPaths.put(entry.getKey(), paths.toArray(new String[paths.size()]));
+        }
+        return metricPaths;
+    }
+
+    private static boolean samePaths(Map<String, String[]> paths, Map<String, String[]> otherPaths) {
+        if (!paths.keySet().equals(otherPaths.keySet())) {
+            return false;
+        }
+        for (Map.Entry<String, String[]> entry : paths.entrySet()) {
+            if (!Arrays.equals(entry.getValue(), otherPaths.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class Topology {
+
+        private final ServiceInstance serviceInstance;
+        private final Map<String, String[]> paths;
+        private final Map<String, EntityData> entities;
+        private final List<ManagedObjectReference> mors;
+        private final long loadedTime = System.currentTimeMillis();
+        private Calendar eventsSince;
+        private long eventsQueriedTime = loadedTime;
+
+        Topology(ServiceInstance serviceInstance, Map<String, String[]> paths, List<EntityData> entities, Calendar eventsSince) {
+            this.serviceInstance = serviceInstance;
+            this.paths = paths;
+            this.eventsSince = eventsSince;
+            Map<String, EntityData> entitiesById = new HashMap<>();
+            List<ManagedObjectReference> references = new ArrayList<>(entities.size());
+            for (EntityData entity : entities) {
+                entitiesById.put(entity.getId(), entity);
+                references.add(entity.getMor());
+            }
+            this.entities = Collections.unmodifiableMap(entitiesById);
+            this.mors = Collections.unmodifiableList(references);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.metrics;
+
+import com.appdynamics.monitors.VMWare.inventory.PropertyPaths;
+import com.google.common.base.Strings;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlTransient;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Metrics of the ClusterComputeResource entities. Metrics with a <code>rollup</code> attribute are aggregated from the
+ * collected host and VM metrics, the others are read from the cluster like the host metrics.
+ */
+@XmlAccessorType(XmlAccessType.FIELD)
+public class ClusterMetrics {
+
+    @XmlElement(name = "metric")
+    private Metric[] metrics;
+
+    @XmlTransient
+    private CompiledMetric[] compiledMetrics = new CompiledMetric[0];
+
+    @XmlTransient
+    private CompiledRollup[] compiledRollups = new CompiledRollup[0];
+
+    public Metric[] getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(Metric[] metrics) {
+        this.metrics = metrics;
+    }
+
+    public CompiledMetric[] getCompiledMetrics() {
+        return compiledMetrics;
+    }
+
+    public CompiledRollup[] getCompiledRollups() {
+        return compiledRollups;
+    }
+
+    /**
+     * @param hostMetrics the compiled host metrics the rollups refer to
+     * @param vmMetrics   the compiled VM metrics the rollups refer to
+     */
+    public void compile(CompiledMetric[] hostMetrics, CompiledMetric[] vmMetrics) {
+        List<CompiledMetric> compiled = new ArrayList<>();
+        List<CompiledRollup> rollups = new ArrayList<>();
+        if (metrics != null) {
+            for (Metric metric : metrics) {
+                if (Strings.isNullOrEmpty(metric.getRollup())) {
+                    compiled.add(CompiledMetric.compile(metric, PropertyPaths.DEFAULT_CLUSTER_METRICS));
+                } else {
+                    rollups.add(CompiledRollup.compile(metric, hostMetrics, vmMetrics));
+                }
+            }
+        }
+        compiledMetrics = compiled.toArray(new CompiledMetric[compiled.size()]);
+        compiledRollups = rollups.toArray(new CompiledRollup[rollups.size()]);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.metrics;
+
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A metric from metrics.xml together with the {@link MetricExpression} which extracts its value and the metric
+ * properties (alias, multiplier, rollup types, ...) passed on with every value. Compiled once when metrics.xml is
+ * loaded so that the collectors only walk an array per entity.
+ */
+public class CompiledMetric {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final Metric metric;
+    private final MetricExpression expression;
+    private final String counter;
+    private final DeltaCalculator.Mode deltaMode;
+    private final Map<String, ?> properties;
+
+    CompiledMetric(Metric metric, MetricExpression expression, String counter) {
+        this.metric = metric;
+        this.expression = expression;
+        this.counter = counter;
+        this.deltaMode = DeltaCalculator.Mode.parse(metric.getDelta());
+        Map<String, ?> properties = toProperties(metric);
+        if (deltaMode != null) {
+            //The delta is computed by the extension, the value must not be turned into a delta again when printed
+            Map<String, Object> withoutDelta = new LinkedHashMap<>(properties);
+            withoutDelta.remove("delta");
+            properties = ImmutableMap.copyOf(withoutDelta);
+        }
+        this.properties = properties;
+    }
+
+    /**
+     * Uses the <code>formula</code> of the metric, its <code>property</code>, its performance <code>counter</code>, or
+     * the default for the metric name in that order.
+     *
+     * @param defaults property paths or formulas keyed by metric name, for metrics.xml files without the attributes
+     */
+    public static CompiledMetric compile(Metric metric, Map<String, String> defaults) {
+        MetricExpression expression;
+        String counter = null;
+        if (!Strings.isNullOrEmpty(metric.getFormula())) {
+            expression = MetricExpressionParser.parse(metric.getFormula());
+        } else if (!Strings.isNullOrEmpty(metric.getProperty())) {
+            expression = MetricExpressionParser.property(metric.getProperty());
+        } else if (!Strings.isNullOrEmpty(metric.getCounter())) {
+            //Read from the samples of the run, see extract
+            counter = metric.getCounter();
+            expression = null;
+        } else if (defaults.containsKey(metric.getName())) {
+            expression = MetricExpressionParser.parse(defaults.get(metric.getName()));
+        } else {
+            throw new IllegalArgumentException("Metric [" + metric.getName() + "] has neither a property, a formula nor a counter");
+        }
+        return new CompiledMetric(metric, expression, counter);
+    }
+
+    public Metric getMetric() {
+        return metric;
+    }
+
+    public String getName() {
+        return metric.getName();
+    }
+
+    /**
+     * @return the expression on the vSphere properties, null for a performance counter
+     */
+    public MetricExpression getExpression() {
+        return expression;
+    }
+
+    /**
+     * @return the performance counter name, or null if the value is read from vSphere properties
+     */
+    public String getCounter() {
+        return counter;
+    }
+
+    /**
+     * @return how the value is computed against the previous sample, null if it is reported as is
+     */
+    public DeltaCalculator.Mode getDeltaMode() {
+        return deltaMode;
+    }
+
+    /**
+     * @return the immutable metric properties, shared by all values of this metric
+     */
+    public Map<String, ?> getProperties() {
+        return properties;
+    }
+
+    /**
+     * @param counters the performance counter samples of the entity in this run by counter name, null if none were read
+     * @return the value, or NaN if it can not be computed for the entity
+     */
+    public double extract(EntityData entity, Map<String, Long> counters) {
+        if (counter != null) {
+            Long sample = counters == null ? null : counters.get(counter);
+            return sample == null ? Double.NaN : sample;
+        }
+        double value = expression.evaluate(entity);
+        return Double.isInfinite(value) ? Double.NaN : value;
+    }
+
+    /**
+     * Formats the value the way it is reported, without a fraction for whole numbers.
+     */
+    public static String toMetricValue(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < Long.MAX_VALUE) {
+            return String.valueOf((long) value);
+        }
+        return BigDecimal.valueOf(value).toPlainString();
+    }
+
+    static Map<String, ?> toProperties(Metric metric) {
+        Map<String, Object> converted = OBJECT_MAPPER.convertValue(metric, Map.class);
+        ImmutableMap.Builder<String, Object> properties = ImmutableMap.builder();
+        for (Map.Entry<String, Object> entry : converted.entrySet()) {
+            if (entry.getValue() != null) {
+                properties.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return properties.build();
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.metrics;
+
+import com.appdynamics.monitors.VMWare.util.Constants;
+import com.google.common.base.Strings;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A metric from metrics.xml with a <code>rollup</code> attribute, computed in memory from the values the host and VM
+ * collectors collected for the entities of a cluster instead of being read from vCenter. The <code>source</code>
+ * names the entity type and the metric, e.g. <code>HostSystem|Overall CPU Usage</code>; it is resolved to the index of
+ * the compiled host or VM metric when metrics.xml is loaded.
+ */
+public class CompiledRollup {
+
+    public enum Function {
+        SUM, AVG, MIN, MAX, COUNT, PERCENTILE
+    }
+
+    private final Metric metric;
+    private final Function function;
+    private final double percentile;
+    private final String sourceType;
+    private final int sourceIndex;
+    private final Map<String, ?> properties;
+
+    private CompiledRollup(Metric metric, Function function, double percentile, String sourceType, int sourceIndex) {
+        this.metric = metric;
+        this.function = function;
+        this.percentile = percentile;
+        this.sourceType = sourceType;
+        this.sourceIndex = sourceIndex;
+        this.properties = CompiledMetric.toProperties(metric);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the rollup function or the source metric is unknown
+     */
+    public static CompiledRollup compile(Metric metric, CompiledMetric[] hostMetrics, CompiledMetric[] vmMetrics) {
+        String rollup = metric.getRollup().trim().toLowerCase(Locale.ROOT);
+        Function function;
+        double percentile = 0;
+        if (rollup.startsWith("p")) {
+            function = Function.PERCENTILE;
+            try {
+                percentile = Double.parseDouble(rollup.substring(1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Metric [" + metric.getName() + "] has an invalid percentile [" + metric.getRollup() + "]");
+            }
+            if (percentile <= 0 || percentile > 100) {
+                throw new IllegalArgumentException("Metric [" + metric.getName() + "] has an invalid percentile [" + metric.getRollup() + "]");
+            }
+        } else {
+            try {
+                function = Function.valueOf(rollup.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Metric [" + metric.getName() + "] has an unknown rollup [" + metric.getRollup() + "]");
+            }
+        }
+
+        String source = Strings.nullToEmpty(metric.getSource());
+        int separator = source.indexOf('|');
+        String sourceType = separator < 0 ? source : source.substring(0, separator);
+        String sourceName = separator < 0 ? null : source.substring(separator + 1);
+        CompiledMetric[] sourceMetrics;
+        if (Constants.HOSTSYSTEM.equals(sourceType)) {
+            sourceMetrics = hostMetrics;
+        } else if (Constants.VIRTUALMACHINE.equals(sourceType)) {
+            sourceMetrics = vmMetrics;
+        } else {
+            throw new IllegalArgumentException("Metric [" + metric.getName() + "] has an unknown source [" + metric.getSource() + "], expected HostSystem|<metric> or VirtualMachine|<metric>");
+        }
+
+        int sourceIndex = -1;
+        if (sourceName != null) {
+            for (int i = 0; sourceMetrics != null && i < sourceMetrics.length; i++) {
+                if (sourceMetrics[i].getName().equals(sourceName)) {
+                    sourceIndex = i;
+                    break;
+                }
+            }
+            if (sourceIndex < 0) {
+                throw new IllegalArgumentException("Metric [" + metric.getName() + "] rolls up [" + sourceName + "] which is not a " + sourceType + " metric");
+            }
+        } else if (function != Function.COUNT) {
+            throw new IllegalArgumentException("Metric [" + metric.getName() + "] needs a source metric for rollup [" + metric.getRollup() + "]");
+        }
+        return new CompiledRollup(metric, function, percentile, sourceType, sourceIndex);
+    }
+
+    public String getName() {
+        return metric.getName();
+    }
+
+    public Function getFunction() {
+        return function;
+    }
+
+    /**
+     * @return {@link Constants#HOSTSYSTEM} or {@link Constants#VIRTUALMACHINE}
+     */
+    public String getSourceType() {
+        return sourceType;
+    }
+
+    /**
+     * @return the index of the source metric in the compiled host or VM metrics, -1 for a count of the entities
+     */
+    public int getSourceIndex() {
+        return sourceIndex;
+    }
+
+    public Map<String, ?> getProperties() {
+        return properties;
+    }
+
+    /**
+     * @param sortedValues the values of the source metric in ascending order, in the first <code>count</code> slots
+     * @param entities     the entities of the source type collected in the cluster
+     * @return the rollup, or NaN if there is no value to aggregate
+     */
+    public double apply(double[] sortedValues, int count, int entities) {
+        if (function == Function.COUNT) {
+            return sourceIndex < 0 ? entities : count;
+        }
+        //a sum over no value is unknown, not 0
+        if (count == 0) {
+            return Double.NaN;
+        }
+        switch (function) {
+            case SUM:
+                double sum = 0;
+                for (int i = 0; i < count; i++) {
+                    sum += sortedValues[i];
+                }
+                return sum;
+            case MIN:
+                return sortedValues[0];
+            case MAX:
+                return sortedValues[count - 1];
+            case AVG:
+                double total = 0;
+                for (int i = 0; i < count; i++) {
+                    total += sortedValues[i];
+                }
+                return total / count;
+            default:
+                //Nearest rank
+                int rank = (int) Math.ceil(percentile / 100 * count);
+                return sortedValues[Math.max(1, rank) - 1];
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.metrics;
+
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.appdynamics.monitors.VMWare.util.RunCycles;
+import org.slf4j.Logger;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Computes the metrics with a <code>delta</code> attribute from the previous sample of the same entity and metric,
+ * kept across the runs of a server. Every entity key (the MoRef of the entity) gets an integer id, and the samples are
+ * kept in an open addressing table keyed by <code>id &lt;&lt; 32 | metric index</code> with the values and times in
+ * primitive arrays, so a sample takes no object.
+ * <p>
+ * A value lower than the previous one is a counter reset, e.g. a host reboot for the uptime, and is not reported. The
+ * samples of entities which were not collected for {@link RunCycles#EVICT_AFTER_CYCLES} runs are dropped, and no new samples
+ * are kept once <code>maxEntries</code> are. All methods are synchronized, a computation only takes a table lookup.
+ * <p>
+ * A metric index is only stable as long as metrics.xml is not reloaded, a reload may add, remove or reorder metrics.
+ * The task passes the compiled metrics of every run to {@link #useMetrics(VMWareMetrics)}, which drops all samples
+ * when they changed.
+ */
+public class DeltaCalculator {
+
+    private static final Logger logger = ExtensionsLoggerFactory.getLogger(DeltaCalculator.class);
+
+    public static final int DEFAULT_MAX_ENTRIES = 1 << 19;
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final long EMPTY = 0;
+
+    public enum Mode {
+        /**
+         * The difference to the previous value.
+         */
+        DELTA,
+        /**
+         * The difference to the previous value per second.
+         */
+        RATE;
+
+        /**
+         * @param delta the <code>delta</code> attribute of a metric
+         * @return null if the metric is reported as is
+         */
+        public static Mode parse(String delta) {
+            if (delta == null || delta.isEmpty() || "false".equalsIgnoreCase(delta)) {
+                return null;
+            }
+            if ("true".equalsIgnoreCase(delta) || "delta".equalsIgnoreCase(delta)) {
+                return DELTA;
+            }
+            if ("rate".equalsIgnoreCase(delta)) {
+                return RATE;
+            }
+            throw new IllegalArgumentException("Unknown delta [" + delta + "], expected true, false or rate");
+        }
+    }
+
+    private final int maxEntries;
+    private final Map<String, Integer> entityIds = new HashMap<>();
+    private String[] entityKeys = new String[64];
+    private int[] lastSeen = new int[64];
+    private int[] freeIds = new int[16];
+    private int freeCount;
+    private int nextEntityId = 1;
+    private final RunCycles cycles = new RunCycles();
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private double[] values = new double[INITIAL_CAPACITY];
+    private long[] times = new long[INITIAL_CAPACITY];
+    private int size;
+    private boolean full;
+    private VMWareMetrics metrics;
+
+    public DeltaCalculator() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries the most (entity, metric) samples kept
+     */
+    public DeltaCalculator(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    /**
+     * Drops all samples if the metrics are not those of the previous run, so that no delta is computed against the
+     * sample of a metric which had the same index before metrics.xml was reloaded.
+     */
+    public synchronized void useMetrics(VMWareMetrics metrics) {
+        if (this.metrics != null && this.metrics != metrics) {
+            logger.info("The metrics changed, dropping the [{}] delta samples", size);
+            entityIds.clear();
+            entityKeys = new String[64];
+            lastSeen = new int[64];
+            freeCount = 0;
+            nextEntityId = 1;
+            keys = new long[INITIAL_CAPACITY];
+            values = new double[INITIAL_CAPACITY];
+            times = new long[INITIAL_CAPACITY];
+            size = 0;
+            full = false;
+        }
+        this.metrics = metrics;
+    }
+
+    /**
+     * Keeps the value as the sample of the entity and metric and computes it against the previous sample.
+     *
+     * @param entityKey   identifies the entity in the server, e.g. its MoRef
+     * @param metricIndex identifies the metric among the metrics of the entity, e.g. its index in metrics.xml
+     * @return the difference or rate, NaN for the first sample, after a reset, or when no more samples can be kept
+     */
+    public synchronized double compute(String entityKey, int metricIndex, double value, Mode mode, long timeMillis) {
+        long key = ((long) getEntityId(entityKey) << 32) | (metricIndex & 0xFFFFFFFFL);
+        int slot = indexOf(key);
+        if (keys[slot] == EMPTY) {
+            if (size >= maxEntries) {
+                if (!full) {
+                    logger.warn("Keeping the maximum of [{}] delta samples, further delta metrics are not reported", maxEntries);
+                    full = true;
+                }
+                return Double.NaN;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            times[slot] = timeMillis;
+            if (++size * 2 > keys.length) {
+                resize(keys.length * 2, false);
+            }
+            return Double.NaN;
+        }
+
+        double previousValue = values[slot];
+        long previousTime = times[slot];
+        values[slot] = value;
+        times[slot] = timeMillis;
+        if (value < previousValue) {
+            return Double.NaN;
+        }
+        if (mode == Mode.RATE) {
+            return timeMillis > previousTime ? (value - previousValue) * 1000 / (timeMillis - previousTime) : Double.NaN;
+        }
+        return value - previousValue;
+    }
+
+    /**
+     * Ends a run of the server, dropping the samples of the entities not collected in the last
+     * {@link RunCycles#EVICT_AFTER_CYCLES} runs.
+     */
+    public synchronized void completeCycle() {
+        cycles.complete();
+        boolean evicted = false;
+        for (int id = 1; id < nextEntityId; id++) {
+            if (entityKeys[id] != null && cycles.isStale(lastSeen[id])) {
+                entityIds.remove(entityKeys[id]);
+                entityKeys[id] = null;
+                if (freeCount == freeIds.length) {
+                    freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+                }
+                freeIds[freeCount++] = id;
+                evicted = true;
+            }
+        }
+        if (evicted) {
+            resize(keys.length, true);
+            full = false;
+        }
+    }
+
+    /**
+     * @return the (entity, metric) samples kept
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    synchronized int getEntityCount() {
+        return entityIds.size();
+    }
+
+    private int getEntityId(String entityKey) {
+        Integer id = entityIds.get(entityKey);
+        if (id == null) {
+            id = freeCount > 0 ? freeIds[--freeCount] : nextEntityId++;
+            if (id >= entityKeys.length) {
+                entityKeys = Arrays.copyOf(entityKeys, entityKeys.length * 2);
+                lastSeen = Arrays.copyOf(lastSeen, lastSeen.length * 2);
+            }
+            entityKeys[id] = entityKey;
+            entityIds.put(entityKey, id);
+        }
+        lastSeen[id] = cycles.current();
+        return id;
+    }
+
+    /**
+     * @return the slot of the key, or the empty slot where it belongs
+     */
+    private int indexOf(long key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Rehashes the samples into a table of the given capacity, leaving out those of evicted entities if asked.
+     */
+    private void resize(int capacity, boolean dropEvicted) {
+        long[] oldKeys = keys;
+        double[] oldValues = values;
+        long[] oldTimes = times;
+        keys = new long[capacity];
+        values = new double[capacity];
+        times = new long[capacity];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY || (dropEvicted && entityKeys[(int) (oldKeys[i] >>> 32)] == null)) {
+                continue;
+            }
+            int slot = indexOf(oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+            times[slot] = oldTimes[i];
+            size++;
+        }
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -7,9 +7,12 @@
 
 package com.appdynamics.monitors.VMWare.metrics;
 
+import com.appdynamics.monitors.VMWare.inventory.PropertyPaths;
+
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlTransient;
 
 @XmlAccessorType(XmlAccessType.FIELD)
 public class HostMetrics {
@@ -17,6 +20,9 @@ public class HostMetrics {
     @XmlElement(name = "metric")
     private Metric[] metrics;
 
+    @XmlTransient
+    private CompiledMetric[] compiledMetrics = new CompiledMetric[0];
+
     public Metric[] getMetrics() {
         return metrics;
     }
@@ -24,4 +30,16 @@ public class HostMetrics {
     public void setMetrics(Metric[] metrics) {
         this.metrics = metrics;
     }
+
+    public CompiledMetric[] getCompiledMetrics() {
+        return compiledMetrics;
+    }
+
+    public void compile() {
+        CompiledMetric[] compiled = new CompiledMetric[metrics == null ? 0 : metrics.length];
+        for (int i = 0; i < compiled.length; i++) {
+            compiled[i] = CompiledMetric.compile(metrics[i], PropertyPaths.DEFAULT_HOST_METRICS);
+        }
+        compiledMetrics = compiled;
+    }
 }
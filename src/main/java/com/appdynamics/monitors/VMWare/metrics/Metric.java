@@ -28,6 +28,16 @@ public class Metric implements Cloneable {
     @XmlAttribute
     private String alias;
     @XmlAttribute
+    private String property;
+    @XmlAttribute
+    private String formula;
+    @XmlAttribute
+    private String counter;
+    @XmlAttribute
+    private String rollup;
+    @XmlAttribute
+    private String source;
+    @XmlAttribute
     private String delta;
     @XmlAttribute
     private String aggregationType;
@@ -58,6 +68,63 @@ public class Metric implements Cloneable {
         this.alias = alias;
     }
 
+    /**
+     * vSphere property path the metric value is read from, e.g. summary.quickStats.overallCpuUsage
+     */
+    public String getProperty() {
+        return property;
+    }
+
+    public void setProperty(String property) {
+        this.property = property;
+    }
+
+    /**
+     * Arithmetic expression over property paths, used instead of property for derived metrics
+     */
+    public String getFormula() {
+        return formula;
+    }
+
+    public void setFormula(String formula) {
+        this.formula = formula;
+    }
+
+    /**
+     * Real-time performance counter the value is read from, e.g. cpu.ready.summation
+     */
+    public String getCounter() {
+        return counter;
+    }
+
+    public void setCounter(String counter) {
+        this.counter = counter;
+    }
+
+    /**
+     * Aggregation of the collected values of <code>source</code> over the entities of a cluster: sum, avg, min, max,
+     * count or a percentile such as p95
+     */
+    public String getRollup() {
+        return rollup;
+    }
+
+    public void setRollup(String rollup) {
+        this.rollup = rollup;
+    }
+
+    /**
+     * Entity type and metric name the rollup is computed from, e.g. HostSystem|Overall CPU Usage. The metric name is
+     * not needed to count the entities
+     */
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+
     public BigDecimal getMultiplier() {
         return multiplier;
     }
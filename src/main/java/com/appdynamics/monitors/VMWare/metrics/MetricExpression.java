@@ -0,0 +1,29 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.metrics;
+
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+
+import java.util.Set;
+
+/**
+ * Precompiled accessor which computes a metric value from the retrieved properties of an entity.
+ */
+public interface MetricExpression {
+
+    /**
+     * @return the value, or NaN if a property the expression depends on is not available
+     */
+    double evaluate(EntityData entity);
+
+    /**
+     * Adds the vSphere property paths the expression reads to the set.
+     */
+    void collectPropertyPaths(Set<String> paths);
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.metrics;
+
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiles the <code>property</code> and <code>formula</code> attributes of metrics.xml into {@link MetricExpression}s.
+ * <p>
+ * A formula is an arithmetic expression over property paths and numbers with <code>+ - * /</code>, parentheses
+ * and the <code>round(...)</code> function, e.g.
+ * <code>round(summary.quickStats.overallCpuUsage * 100 / (hardware.cpuInfo.hz * hardware.cpuInfo.numCpuCores * 0.000001))</code>
+ */
+public class MetricExpressionParser {
+
+    private final String formula;
+    private int position;
+
+    private MetricExpressionParser(String formula) {
+        this.formula = formula;
+    }
+
+    public static MetricExpression parse(String formula) {
+        MetricExpressionParser parser = new MetricExpressionParser(formula);
+        MetricExpression expression = parser.parseSum();
+        parser.skipWhitespace();
+        if (parser.position < formula.length()) {
+            throw parser.error("Unexpected '" + formula.charAt(parser.position) + "'");
+        }
+        return expression;
+    }
+
+    public static MetricExpression property(String path) {
+        return new PropertyExpression(path);
+    }
+
+    private MetricExpression parseSum() {
+        MetricExpression left = parseProduct();
+        while (true) {
+            if (consume('+')) {
+                left = new BinaryExpression('+', left, parseProduct());
+            } else if (consume('-')) {
+                left = new BinaryExpression('-', left, parseProduct());
+            } else {
+                return left;
+            }
+        }
+    }
+
+    private MetricExpression parseProduct() {
+        MetricExpression left = parseFactor();
+        while (true) {
+            if (consume('*')) {
+                left = new BinaryExpression('*', left, parseFactor());
+            } else if (consume('/')) {
+                left = new BinaryExpression('/', left, parseFactor());
+            } else {
+                return left;
+            }
+        }
+    }
+
+    private MetricExpression parseFactor() {
+        if (consume('(')) {
+            MetricExpression expression = parseSum();
+            expect(')');
+            return expression;
+        }
+        if (consume('-')) {
+            return new BinaryExpression('-', new ConstantExpression(0), parseFactor());
+        }
+
+        skipWhitespace();
+        int start = position;
+        if (position < formula.length() && (Character.isDigit(formula.charAt(position)) || formula.charAt(position) == '.')) {
+            while (position < formula.length() && (Character.isDigit(formula.charAt(position)) || formula.charAt(position) == '.')) {
+                position++;
+            }
+            return new ConstantExpression(Double.parseDouble(formula.substring(start, position)));
+        }
+
+        while (position < formula.length() && (Character.isLetterOrDigit(formula.charAt(position)) || formula.charAt(position) == '.' || formula.charAt(position) == '_')) {
+            position++;
+        }
+        if (start == position) {
+            throw error(position < formula.length() ? "Unexpected '" + formula.charAt(position) + "'" : "Unexpected end of formula");
+        }
+
+        String identifier = formula.substring(start, position);
+        if (consume('(')) {
+            if (!"round".equals(identifier)) {
+                throw error("Unknown function " + identifier);
+            }
+            MetricExpression argument = parseSum();
+            expect(')');
+            return new RoundExpression(argument);
+        }
+        return new PropertyExpression(identifier);
+    }
+
+    private boolean consume(char c) {
+        skipWhitespace();
+        if (position < formula.length() && formula.charAt(position) == c) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if (!consume(c)) {
+            throw error("Expected '" + c + "'");
+        }
+    }
+
+    private void skipWhitespace() {
+        while (position < formula.length() && Character.isWhitespace(formula.charAt(position))) {
+            position++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + position + " in formula [" + formula + "]");
+    }
+
+    private static class ConstantExpression implements MetricExpression {
+
+        private final double value;
+
+        ConstantExpression(double value) {
+            this.value = value;
+        }
+
+        public double evaluate(EntityData entity) {
+            return value;
+        }
+
+        public void collectPropertyPaths(Set<String> paths) {
+        }
+    }
+
+    private static class BinaryExpression implements MetricExpression {
+
+        private final char operator;
+        private final MetricExpression left;
+        private final MetricExpression right;
+
+        BinaryExpression(char operator, MetricExpression left, MetricExpression right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        public double evaluate(EntityData entity) {
+            double l = left.evaluate(entity);
+            double r = right.evaluate(entity);
+            switch (operator) {
+                case '+':
+                    return l + r;
+                case '-':
+                    return l - r;
+                case '*':
+                    return l * r;
+                default:
+                    return l / r;
+            }
+        }
+
+        public void collectPropertyPaths(Set<String> paths) {
+            left.collectPropertyPaths(paths);
+            right.collectPropertyPaths(paths);
+        }
+    }
+
+    private static class RoundExpression implements MetricExpression {
+
+        private final MetricExpression argument;
+
+        RoundExpression(MetricExpression argument) {
+            this.argument = argument;
+        }
+
+        public double evaluate(EntityData entity) {
+            double value = argument.evaluate(entity);
+            return Double.isNaN(value) || Double.isInfinite(value) ? value : Math.round(value);
+        }
+
+        public void collectPropertyPaths(Set<String> paths) {
+            argument.collectPropertyPaths(paths);
+        }
+    }
+
+    /**
+     * Reads a numeric property, or a boolean one as 1 or 0. If only an enclosing property was retrieved (e.g. <code>summary.quickStats</code>
+     * for <code>summary.quickStats.uptime</code>) the rest of the path is read from the data object with its getters.
+     */
+    private static class PropertyExpression implements MetricExpression {
+
+        private static final Map<String, Method> GETTERS = new ConcurrentHashMap<>();
+
+        private final String path;
+        private final String[] enclosingPaths;
+        private final String[][] nestedProperties;
+
+        PropertyExpression(String path) {
+            this.path = path;
+            int count = 0;
+            for (int i = 0; i < path.length(); i++) {
+                if (path.charAt(i) == '.') {
+                    count++;
+                }
+            }
+            enclosingPaths = new String[count];
+            nestedProperties = new String[count][];
+            int index = path.lastIndexOf('.');
+            for (int i = 0; i < count; i++) {
+                enclosingPaths[i] = path.substring(0, index);
+                nestedProperties[i] = path.substring(index + 1).split("\\.");
+                index = path.lastIndexOf('.', index - 1);
+            }
+        }
+
+        public double evaluate(EntityData entity) {
+            Object value = entity.getProperty(path);
+            for (int i = 0; value == null && i < enclosingPaths.length; i++) {
+                Object enclosing = entity.getProperty(enclosingPaths[i]);
+                if (enclosing != null) {
+                    value = readNested(enclosing, nestedProperties[i]);
+                    break;
+                }
+            }
+            if (value instanceof Boolean) {
+                return (Boolean) value ? 1 : 0;
+            }
+            return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+        }
+
+        public void collectPropertyPaths(Set<String> paths) {
+            paths.add(path);
+        }
+
+        private static Object readNested(Object value, String[] properties) {
+            try {
+                for (String property : properties) {
+                    if (value == null) {
+                        return null;
+                    }
+                    value = getGetter(value.getClass(), property).invoke(value);
+                }
+                return value;
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        private static Method getGetter(Class<?> type, String property) throws NoSuchMethodException {
+            String key = type.getName() + "#" + property;
+            Method getter = GETTERS.get(key);
+            if (getter == null) {
+                getter = type.getMethod("get" + Character.toUpperCase(property.charAt(0)) + property.substring(1));
+                GETTERS.put(key, getter);
+            }
+            return getter;
+        }
+    }
+}
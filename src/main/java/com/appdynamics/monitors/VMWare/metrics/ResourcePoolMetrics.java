@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ */
+
+package com.appdynamics.monitors.VMWare.metrics;
+
+import com.appdynamics.monitors.VMWare.inventory.PropertyPaths;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlTransient;
+
+@XmlAccessorType(XmlAccessType.FIELD)
+public class ResourcePoolMetrics {
+
+    @XmlElement(name = "metric")
+    private Metric[] metrics;
+
+    @XmlTransient
+    private CompiledMetric[] compiledMetrics = new CompiledMetric[0];
+
+    public Metric[] getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(Metric[] metrics) {
+        this.metrics = metrics;
+    }
+
+    public CompiledMetric[] getCompiledMetrics() {
+        return compiledMetrics;
+    }
+
+    public void compile() {
+        CompiledMetric[] compiled = new CompiledMetric[metrics == null ? 0 : metrics.length];
+        for (int i = 0; i < compiled.length; i++) {
+            compiled[i] = CompiledMetric.compile(metrics[i], PropertyPaths.DEFAULT_RESOURCE_POOL_METRICS);
+        }
+        compiledMetrics = compiled;
+    }
+}
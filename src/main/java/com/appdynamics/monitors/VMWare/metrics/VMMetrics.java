@@ -8,9 +8,12 @@
 
 package com.appdynamics.monitors.VMWare.metrics;
 
+import com.appdynamics.monitors.VMWare.inventory.PropertyPaths;
+
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlTransient;
 
 @XmlAccessorType(XmlAccessType.FIELD)
 public class VMMetrics {
@@ -18,6 +21,9 @@ public class VMMetrics {
     @XmlElement(name = "metric")
     private Metric[] metrics;
 
+    @XmlTransient
+    private CompiledMetric[] compiledMetrics = new CompiledMetric[0];
+
     public Metric[] getMetrics() {
         return metrics;
     }
@@ -25,4 +31,16 @@ public class VMMetrics {
     public void setMetrics(Metric[] metrics) {
         this.metrics = metrics;
     }
+
+    public CompiledMetric[] getCompiledMetrics() {
+        return compiledMetrics;
+    }
+
+    public void compile() {
+        CompiledMetric[] compiled = new CompiledMetric[metrics == null ? 0 : metrics.length];
+        for (int i = 0; i < compiled.length; i++) {
+            compiled[i] = CompiledMetric.compile(metrics[i], PropertyPaths.DEFAULT_VM_METRICS);
+        }
+        compiledMetrics = compiled;
+    }
 }
@@ -23,6 +23,18 @@ public class VMWareMetrics {
     @XmlElement(name = "VMMetrics")
     private VMMetrics vmMetrics;
 
+    @XmlElement(name = "DatastoreMetrics")
+    private DatastoreMetrics datastoreMetrics;
+
+    @XmlElement(name = "ClusterMetrics")
+    private ClusterMetrics clusterMetrics;
+
+    @XmlElement(name = "ResourcePoolMetrics")
+    private ResourcePoolMetrics resourcePoolMetrics;
+
+    @XmlElement(name = "NetworkMetrics")
+    private NetworkMetrics networkMetrics;
+
     public HostMetrics getHostMetrics() {
         return hostMetrics;
     }
@@ -38,4 +50,72 @@ public class VMWareMetrics {
     public void setVmMetrics(VMMetrics vmMetrics) {
         this.vmMetrics = vmMetrics;
     }
+
+    /**
+     * @return the datastore metrics, null if metrics.xml has no DatastoreMetrics section
+     */
+    public DatastoreMetrics getDatastoreMetrics() {
+        return datastoreMetrics;
+    }
+
+    public void setDatastoreMetrics(DatastoreMetrics datastoreMetrics) {
+        this.datastoreMetrics = datastoreMetrics;
+    }
+
+    /**
+     * @return the cluster metrics, null if metrics.xml has no ClusterMetrics section
+     */
+    public ClusterMetrics getClusterMetrics() {
+        return clusterMetrics;
+    }
+
+    public void setClusterMetrics(ClusterMetrics clusterMetrics) {
+        this.clusterMetrics = clusterMetrics;
+    }
+
+    /**
+     * @return the resource pool and vApp metrics, null if metrics.xml has no ResourcePoolMetrics section
+     */
+    public ResourcePoolMetrics getResourcePoolMetrics() {
+        return resourcePoolMetrics;
+    }
+
+    public void setResourcePoolMetrics(ResourcePoolMetrics resourcePoolMetrics) {
+        this.resourcePoolMetrics = resourcePoolMetrics;
+    }
+
+    /**
+     * @return the physical NIC, vSwitch and port group metrics, null if metrics.xml has no NetworkMetrics section
+     */
+    public NetworkMetrics getNetworkMetrics() {
+        return networkMetrics;
+    }
+
+    public void setNetworkMetrics(NetworkMetrics networkMetrics) {
+        this.networkMetrics = networkMetrics;
+    }
+
+    /**
+     * Compiles the metric extractors. Called once after metrics.xml is loaded.
+     */
+    public void compile() {
+        if (hostMetrics != null) {
+            hostMetrics.compile();
+        }
+        if (vmMetrics != null) {
+            vmMetrics.compile();
+        }
+        if (datastoreMetrics != null) {
+            datastoreMetrics.compile();
+        }
+        if (resourcePoolMetrics != null) {
+            resourcePoolMetrics.compile();
+        }
+        if (networkMetrics != null) {
+            networkMetrics.compile();
+        }
+        if (clusterMetrics != null) {
+            clusterMetrics.compile(hostMetrics == null ? null : hostMetrics.getCompiledMetrics(), vmMetrics == null ? null : vmMetrics.getCompiledMetrics());
+        }
+    }
 }
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.performance;
+
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.vmware.vim25.PerfCounterInfo;
+import com.vmware.vim25.mo.PerformanceManager;
+import org.slf4j.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lookup between performance counter names (<code>group.name.rollup</code>, e.g. <code>cpu.ready.summation</code>)
+ * and the counter ids of a vCenter. The ids differ between vCenters but not over the life of one, so the counters are
+ * read once per session instead of before every query.
+ */
+public class PerfCounterCache {
+
+    private static final Logger logger = ExtensionsLoggerFactory.getLogger(PerfCounterCache.class);
+
+    private final Map<String, Integer> idsByName = new HashMap<>();
+    private final Map<Integer, String> namesById = new HashMap<>();
+
+    public PerfCounterCache(PerfCounterInfo[] counters) {
+        if (counters != null) {
+            for (PerfCounterInfo counter : counters) {
+                String name = getCounterName(counter);
+                idsByName.put(name, counter.getKey());
+                namesById.put(counter.getKey(), name);
+            }
+        }
+    }
+
+    public static PerfCounterCache load(PerformanceManager performanceManager) {
+        PerfCounterCache cache = new PerfCounterCache(performanceManager.getPerfCounter());
+        logger.debug("Loaded {} performance counters", cache.size());
+        return cache;
+    }
+
+    public static String getCounterName(PerfCounterInfo counter) {
+        return counter.getGroupInfo().getKey() + "." + counter.getNameInfo().getKey() + "." + counter.getRollupType();
+    }
+
+    /**
+     * @return the counter id, or null if the vCenter has no such counter
+     */
+    public Integer getCounterId(String name) {
+        return idsByName.get(name);
+    }
+
+    public String getCounterName(int id) {
+        return namesById.get(id);
+    }
+
+    public int size() {
+        return idsByName.size();
+    }
+}
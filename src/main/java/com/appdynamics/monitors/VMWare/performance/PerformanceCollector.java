@@ -0,0 +1,301 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.performance;
+
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.appdynamics.monitors.VMWare.instrumentation.ExtensionMetrics;
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.metrics.CompiledMetric;
+import com.google.common.base.Strings;
+import com.vmware.vim25.PerfEntityMetric;
+import com.vmware.vim25.PerfEntityMetricBase;
+import com.vmware.vim25.PerfMetricId;
+import com.vmware.vim25.PerfMetricIntSeries;
+import com.vmware.vim25.PerfMetricSeries;
+import com.vmware.vim25.PerfQuerySpec;
+import com.vmware.vim25.mo.PerformanceManager;
+import org.slf4j.Logger;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Reads the real-time (20 second) performance counters of hosts and VMs for the metrics.xml metrics with a
+ * <code>counter</code> attribute. One {@link PerfQuerySpec} is built per entity and the specs are sent in batches of
+ * <code>batchSize</code> per QueryPerf call, so a host and all its VMs usually take a single round trip.
+ * <p>
+ * The latest samples are returned by entity and counter name for the run and are never stored on the entities, which
+ * the inventory keeps across runs. Datastore counters, which vSphere keeps per host with the datastore as instance, are
+ * read with {@link #collectInstances(List, CompiledMetric[])}, the network counters of every NIC with
+ * {@link #collectInstancesByEntity(List, CompiledMetric[])}.
+ */
+public class PerformanceCollector {
+
+    private static final Logger logger = ExtensionsLoggerFactory.getLogger(PerformanceCollector.class);
+
+    public static final int REALTIME_INTERVAL = 20;
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    private static final String AGGREGATE_INSTANCE = "";
+    private static final String ALL_INSTANCES = "*";
+
+    private final PerformanceManager performanceManager;
+    private final PerfCounterCache counters;
+    private final int batchSize;
+    private final Semaphore requestPermits;
+    private final ExtensionMetrics extensionMetrics;
+
+    public PerformanceCollector(PerformanceManager performanceManager, PerfCounterCache counters, int batchSize) {
+        this(performanceManager, counters, batchSize, null);
+    }
+
+    /**
+     * @param requestPermits taken for every QueryPerf call to cap the requests in flight to vCenter, may be null
+     */
+    public PerformanceCollector(PerformanceManager performanceManager, PerfCounterCache counters, int batchSize, Semaphore requestPermits) {
+        this(performanceManager, counters, batchSize, requestPermits, null);
+    }
+
+    /**
+     * @param extensionMetrics counts the QueryPerf calls and the entity series received, may be null
+     */
+    public PerformanceCollector(PerformanceManager performanceManager, PerfCounterCache counters, int batchSize, Semaphore requestPermits, ExtensionMetrics extensionMetrics) {
+        this.performanceManager = performanceManager;
+        this.counters = counters;
+        this.batchSize = Math.max(1, batchSize);
+        this.requestPermits = requestPermits;
+        this.extensionMetrics = extensionMetrics;
+    }
+
+    public static boolean hasCounters(CompiledMetric[] metrics) {
+        if (metrics != null) {
+            for (CompiledMetric metric : metrics) {
+                if (metric.getCounter() != null) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Queries the counters of <code>hostMetrics</code> for the hosts and of <code>vmMetrics</code> for the VMs.
+     * Counters without a current sample are left out, so the metric is skipped like a missing property.
+     *
+     * @return the latest sample of each counter by entity id and counter name
+     */
+    public Map<String, Map<String, Long>> collect(List<EntityData> hosts, CompiledMetric[] hostMetrics, List<EntityData> vms, CompiledMetric[] vmMetrics) throws RemoteException {
+        List<PerfQuerySpec> specs = new ArrayList<>();
+        addQuerySpecs(hosts, getMetricIds(hostMetrics), specs);
+        addQuerySpecs(vms, getMetricIds(vmMetrics), specs);
+
+        Map<String, Map<String, Long>> valuesByEntity = new HashMap<>();
+        for (int from = 0; from < specs.size(); from += batchSize) {
+            List<PerfQuerySpec> batch = specs.subList(from, Math.min(specs.size(), from + batchSize));
+            try {
+                applyResults(query(batch), valuesByEntity);
+            } catch (InterruptedException e) {
+                logger.debug("Interrupted waiting to query the performance counters, the collection was abandoned");
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return valuesByEntity;
+    }
+
+    /**
+     * Queries the counters of <code>metrics</code> for every instance of the <code>sources</code>, e.g. the datastore
+     * counters of the hosts, which vSphere only keeps per host with the datastore as instance.
+     *
+     * @return the highest latest sample of each counter over the sources, by instance and counter name
+     */
+    public Map<String, Map<String, Long>> collectInstances(List<EntityData> sources, CompiledMetric[] metrics) throws RemoteException {
+        Map<String, Map<String, Long>> valuesByInstance = new HashMap<>();
+        for (Map<String, Map<String, Long>> sourceValues : collectInstancesByEntity(sources, metrics).values()) {
+            for (Map.Entry<String, Map<String, Long>> instance : sourceValues.entrySet()) {
+                Map<String, Long> instanceValues = valuesByInstance.get(instance.getKey());
+                if (instanceValues == null) {
+                    instanceValues = new HashMap<>();
+                    valuesByInstance.put(instance.getKey(), instanceValues);
+                }
+                for (Map.Entry<String, Long> value : instance.getValue().entrySet()) {
+                    Long previous = instanceValues.get(value.getKey());
+                    if (previous == null || previous < value.getValue()) {
+                        instanceValues.put(value.getKey(), value.getValue());
+                    }
+                }
+            }
+        }
+        return valuesByInstance;
+    }
+
+    /**
+     * Queries the counters of <code>metrics</code> for every instance of the <code>sources</code>, e.g. the network
+     * counters of the physical NICs of the hosts or the virtual NICs of the VMs.
+     *
+     * @return the latest sample of each counter by entity id, instance and counter name, without the aggregate instance
+     */
+    public Map<String, Map<String, Map<String, Long>>> collectInstancesByEntity(List<EntityData> sources, CompiledMetric[] metrics) throws RemoteException {
+        Map<String, Map<String, Map<String, Long>>> valuesByEntity = new HashMap<>();
+        PerfMetricId[] metricIds = getMetricIds(metrics, ALL_INSTANCES);
+        if (sources == null || metricIds.length == 0) {
+            return valuesByEntity;
+        }
+        List<PerfQuerySpec> specs = new ArrayList<>(sources.size());
+        for (EntityData source : sources) {
+            specs.add(createQuerySpec(source, metricIds));
+        }
+
+        for (int from = 0; from < specs.size(); from += batchSize) {
+            List<PerfQuerySpec> batch = specs.subList(from, Math.min(specs.size(), from + batchSize));
+            try {
+                applyInstanceResults(query(batch), valuesByEntity);
+            } catch (InterruptedException e) {
+                logger.debug("Interrupted waiting to query the performance counters, the collection was abandoned");
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return valuesByEntity;
+    }
+
+    private PerfEntityMetricBase[] query(List<PerfQuerySpec> batch) throws RemoteException, InterruptedException {
+        logger.debug("Querying performance counters of {} entities", batch.size());
+        if (requestPermits != null) {
+            requestPermits.acquire();
+        }
+        PerfEntityMetricBase[] results;
+        try {
+            results = performanceManager.queryPerf(batch.toArray(new PerfQuerySpec[batch.size()]));
+        } finally {
+            if (requestPermits != null) {
+                requestPermits.release();
+            }
+        }
+        if (extensionMetrics != null) {
+            extensionMetrics.addRoundTrip(results == null ? 0 : results.length);
+        }
+        return results;
+    }
+
+    PerfMetricId[] getMetricIds(CompiledMetric[] metrics) {
+        return getMetricIds(metrics, AGGREGATE_INSTANCE);
+    }
+
+    private PerfMetricId[] getMetricIds(CompiledMetric[] metrics, String instance) {
+        Set<Integer> counterIds = new LinkedHashSet<>();
+        if (metrics != null) {
+            for (CompiledMetric metric : metrics) {
+                if (metric.getCounter() == null) {
+                    continue;
+                }
+                Integer counterId = counters.getCounterId(metric.getCounter());
+                if (counterId == null) {
+                    logger.debug("Performance counter [{}] of metric [{}] is not available", metric.getCounter(), metric.getName());
+                } else {
+                    counterIds.add(counterId);
+                }
+            }
+        }
+
+        PerfMetricId[] metricIds = new PerfMetricId[counterIds.size()];
+        int i = 0;
+        for (Integer counterId : counterIds) {
+            PerfMetricId metricId = new PerfMetricId();
+            metricId.setCounterId(counterId);
+            metricId.setInstance(instance);
+            metricIds[i++] = metricId;
+        }
+        return metricIds;
+    }
+
+    private void addQuerySpecs(List<EntityData> entities, PerfMetricId[] metricIds, List<PerfQuerySpec> specs) {
+        if (entities == null || metricIds.length == 0) {
+            return;
+        }
+        for (EntityData entity : entities) {
+            specs.add(createQuerySpec(entity, metricIds));
+        }
+    }
+
+    private static PerfQuerySpec createQuerySpec(EntityData entity, PerfMetricId[] metricIds) {
+        PerfQuerySpec spec = new PerfQuerySpec();
+        spec.setEntity(entity.getMor());
+        spec.setMetricId(metricIds);
+        spec.setIntervalId(REALTIME_INTERVAL);
+        spec.setMaxSample(1);
+        spec.setFormat("normal");
+        return spec;
+    }
+
+    void applyResults(PerfEntityMetricBase[] results, Map<String, Map<String, Long>> valuesByEntity) {
+        if (results == null) {
+            return;
+        }
+        for (PerfEntityMetricBase result : results) {
+            if (!(result instanceof PerfEntityMetric) || ((PerfEntityMetric) result).getValue() == null) {
+                continue;
+            }
+            Map<String, Long> values = valuesByEntity.get(result.getEntity().getVal());
+            for (PerfMetricSeries series : ((PerfEntityMetric) result).getValue()) {
+                if (!(series instanceof PerfMetricIntSeries)) {
+                    continue;
+                }
+                long[] samples = ((PerfMetricIntSeries) series).getValue();
+                String counterName = counters.getCounterName(series.getId().getCounterId());
+                //-1 is reported when there is no sample for the interval
+                if (counterName != null && samples != null && samples.length > 0 && samples[samples.length - 1] >= 0) {
+                    if (values == null) {
+                        values = new HashMap<>();
+                        valuesByEntity.put(result.getEntity().getVal(), values);
+                    }
+                    values.put(counterName, samples[samples.length - 1]);
+                }
+            }
+        }
+    }
+
+    void applyInstanceResults(PerfEntityMetricBase[] results, Map<String, Map<String, Map<String, Long>>> valuesByEntity) {
+        if (results == null) {
+            return;
+        }
+        for (PerfEntityMetricBase result : results) {
+            if (!(result instanceof PerfEntityMetric) || ((PerfEntityMetric) result).getValue() == null) {
+                continue;
+            }
+            Map<String, Map<String, Long>> valuesByInstance = valuesByEntity.get(result.getEntity().getVal());
+            for (PerfMetricSeries series : ((PerfEntityMetric) result).getValue()) {
+                if (!(series instanceof PerfMetricIntSeries) || Strings.isNullOrEmpty(series.getId().getInstance())) {
+                    continue;
+                }
+                long[] values = ((PerfMetricIntSeries) series).getValue();
+                String counterName = counters.getCounterName(series.getId().getCounterId());
+                if (counterName == null || values == null || values.length == 0 || values[values.length - 1] < 0) {
+                    continue;
+                }
+                if (valuesByInstance == null) {
+                    valuesByInstance = new HashMap<>();
+                    valuesByEntity.put(result.getEntity().getVal(), valuesByInstance);
+                }
+                Map<String, Long> instanceValues = valuesByInstance.get(series.getId().getInstance());
+                if (instanceValues == null) {
+                    instanceValues = new HashMap<>();
+                    valuesByInstance.put(series.getId().getInstance(), instanceValues);
+                }
+                instanceValues.put(counterName, values[values.length - 1]);
+            }
+        }
+    }
+}
@@ -18,7 +18,68 @@ public class Constants {
 
 
     public static final String HOSTCONFIG = "hostConfig";
+    public static final String VMS = "vms";
+    public static final String EXCLUDE_HOSTS = "excludeHosts";
+    public static final String EXCLUDE_VMS = "excludeVms";
     public static final String HOSTSYSTEM = "HostSystem";
+    public static final String VIRTUALMACHINE = "VirtualMachine";
+    public static final String DATASTORE = "Datastore";
+    public static final String DATASTORES = "datastores";
+    public static final String EXCLUDE_DATASTORES = "excludeDatastores";
+    public static final String CLUSTER_COMPUTE_RESOURCE = "ClusterComputeResource";
+    public static final String CLUSTER = "Cluster";
+    public static final String CLUSTERS = "clusters";
+    public static final String EXCLUDE_CLUSTERS = "excludeClusters";
+    public static final String COMPUTE_RESOURCE = "ComputeResource";
+    public static final String RESOURCEPOOL = "ResourcePool";
+    public static final String VIRTUALAPP = "VirtualApp";
+    public static final String RESOURCE_POOLS = "resourcePools";
+    public static final String EXCLUDE_RESOURCE_POOLS = "excludeResourcePools";
+    public static final String RESOURCE_POOL_METRIC_PATH = "resourcePoolMetricPath";
+    public static final String DEFAULT_RESOURCE_POOL_METRIC_PATH = "Cluster|{cluster}|ResourcePool|{path}";
+    public static final String DISTRIBUTED_PORTGROUP = "DistributedVirtualPortgroup";
+    public static final String NETWORK = "Network";
+    public static final String NETWORKS = "networks";
+    public static final String EXCLUDE_NETWORKS = "excludeNetworks";
+    public static final String NIC = "NIC";
+    public static final String VSWITCH = "vSwitch";
+    public static final String PORT_GROUP = "PortGroup";
+    public static final String PROPERTY_COLLECTOR_PAGE_SIZE = "propertyCollectorPageSize";
+    public static final String INCREMENTAL_UPDATES = "incrementalUpdates";
+    public static final String PERF_QUERY_BATCH_SIZE = "perfQueryBatchSize";
+    public static final String TOPOLOGY_CACHE_TTL = "topologyCacheTtlSeconds";
+    public static final String TOPOLOGY_EVENT_INTERVAL = "topologyEventIntervalSeconds";
+    public static final String METRIC_CHUNK_SIZE = "metricChunkSize";
+    public static final String MAX_DELTA_SAMPLES = "maxDeltaSamples";
+    public static final String COLLECTION_TIMEOUT = "collectionTimeoutSeconds";
+    public static final String ENTITY_COLLECTION_TIMEOUT = "entityCollectionTimeoutSeconds";
+    public static final String COLLECTOR_THREADS = "collectorThreads";
+    public static final String COLLECTOR_QUEUE_CAPACITY = "collectorQueueCapacity";
+    public static final String MAX_CONCURRENT_COLLECTORS = "maxConcurrentCollectors";
+    public static final String MAX_CONCURRENT_REQUESTS = "maxConcurrentRequests";
+    public static final String TASK_SCHEDULE = "taskSchedule";
+    public static final String TASK_DELAY_SECONDS = "taskDelaySeconds";
+    public static final int DEFAULT_TASK_DELAY_SECONDS = 60;
 
     public static final String HEARTBEAT = "HeartBeat";
+    public static final String COLLECTION_TIMED_OUT = "Collection Timed Out";
+    public static final String CYCLE_DURATION = "Cycle Duration (ms)";
+
+    public static final String EXTENSION = "Extension";
+    public static final String CONNECT_TIME = "Connect Time (ms)";
+    public static final String INVENTORY_TIME = "Inventory Time (ms)";
+    public static final String HOST_COLLECTION_TIME_P50 = "Host Collection Time p50 (ms)";
+    public static final String HOST_COLLECTION_TIME_P95 = "Host Collection Time p95 (ms)";
+    public static final String HOST_COLLECTION_TIME_MAX = "Host Collection Time Max (ms)";
+    public static final String SOAP_ROUND_TRIPS = "SOAP Round Trips";
+    public static final String OBJECTS_RECEIVED = "Objects Received";
+    public static final String METRICS_EMITTED = "Metrics Emitted";
+    public static final String COLLECTORS_TIMED_OUT = "Collectors Timed Out";
+    public static final String COLLECTORS_FAILED = "Collectors Failed";
+    public static final String COLLECTOR_QUEUE_DEPTH = "Collector Queue Depth";
+
+    public static final String SESSION = "Session";
+    public static final String SESSION_AGE = "Age (seconds)";
+    public static final String SESSION_REUSE_COUNT = "Reuse Count";
+    public static final String SESSION_LOGIN_COUNT = "Login Count";
 }
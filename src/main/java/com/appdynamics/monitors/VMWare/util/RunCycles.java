@@ -0,0 +1,42 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the runs of a server for state kept across them, e.g. the delta samples and the metric paths of an entity.
+ * An entry is stamped with {@link #current()} when its entity is collected and is stale once the entity was not
+ * collected for {@link #EVICT_AFTER_CYCLES} runs, so an entity missing from one run because of a timeout keeps its
+ * state.
+ */
+public class RunCycles {
+
+    public static final int EVICT_AFTER_CYCLES = 3;
+
+    private final AtomicInteger cycle = new AtomicInteger();
+
+    public int current() {
+        return cycle.get();
+    }
+
+    /**
+     * Ends the current run.
+     */
+    public void complete() {
+        cycle.incrementAndGet();
+    }
+
+    /**
+     * @param lastSeen the run in which the entity was last collected
+     */
+    public boolean isStale(int lastSeen) {
+        return cycle.get() - lastSeen >= EVICT_AFTER_CYCLES;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare;
+
+import com.appdynamics.extensions.metrics.Metric;
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.inventory.PropertyPaths;
+import com.vmware.vim25.ManagedEntityStatus;
+import com.vmware.vim25.ManagedObjectReference;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The entities and metric comparisons shared by the collector, inventory and performance tests and the benchmarks.
+ */
+public final class TestFixtures {
+
+    private TestFixtures() {
+    }
+
+    public static ManagedObjectReference createMor(String type, String id) {
+        ManagedObjectReference mor = new ManagedObjectReference();
+        mor.setType(type);
+        mor.setVal(id);
+        return mor;
+    }
+
+    public static EntityData createEntity(String type, String id, String name) {
+        EntityData entity = new EntityData(createMor(type, id));
+        entity.setProperty(PropertyPaths.NAME, name);
+        return entity;
+    }
+
+    /**
+     * An entity with a status, so its collector reports the Status metric.
+     */
+    public static EntityData createEntity(String type, String id, String name, ManagedEntityStatus overallStatus) {
+        EntityData entity = createEntity(type, id, name);
+        entity.setProperty(PropertyPaths.OVERALL_STATUS, overallStatus);
+        return entity;
+    }
+
+    /**
+     * The values of the metrics by path.
+     */
+    public static Map<String, String> toMap(List<Metric> metrics) {
+        Map<String, String> values = new HashMap<>();
+        for (Metric metric : metrics) {
+            values.put(metric.getMetricPath(), metric.getMetricValue());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare;
+
+import com.appdynamics.extensions.MetricWriteHelper;
+import com.appdynamics.extensions.TasksExecutionServiceProvider;
+import com.appdynamics.extensions.conf.MonitorContextConfiguration;
+import com.appdynamics.extensions.metrics.Metric;
+import com.appdynamics.monitors.VMWare.collectors.CollectorScheduler;
+import com.appdynamics.monitors.VMWare.connection.VMWareSessionPool;
+import com.appdynamics.monitors.VMWare.inventory.PropertyPaths;
+import com.appdynamics.monitors.VMWare.metrics.DeltaCalculator;
+import com.appdynamics.monitors.VMWare.metrics.HostMetrics;
+import com.appdynamics.monitors.VMWare.metrics.VMMetrics;
+import com.appdynamics.monitors.VMWare.metrics.VMWareMetrics;
+import com.appdynamics.monitors.VMWare.simulator.SimulatedInventory;
+import com.appdynamics.monitors.VMWare.simulator.VSphereSimulator;
+import com.appdynamics.monitors.VMWare.util.Constants;
+import com.google.common.collect.Lists;
+import com.google.common.collect.ObjectArrays;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.appdynamics.monitors.VMWare.TestFixtures.toMap;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the task against the vSphere simulator, so that the login through yavijava, the paged inventory of the
+ * {@link com.appdynamics.monitors.VMWare.inventory.PropertyRetriever} and the counter queries are tested end to end.
+ */
+public class VMWareMonitorTaskSimulatorTest {
+
+    private static final String METRIC_PREFIX = "Custom Metrics|vmware|Simulator";
+
+    private VSphereSimulator simulator;
+    private VMWareSessionPool sessionPool;
+    private CollectorScheduler collectorScheduler;
+    private TasksExecutionServiceProvider tasksExecutionServiceProvider;
+    private MonitorContextConfiguration configuration;
+    private final List<Metric> printed = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        simulator = new VSphereSimulator(new SimulatedInventory(2, 3));
+        simulator.start();
+        sessionPool = new VMWareSessionPool() {
+            @Override
+            protected URL getUrl(String host) {
+                try {
+                    return simulator.getUrl();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        collectorScheduler = new CollectorScheduler(2, CollectorScheduler.DEFAULT_QUEUE_CAPACITY);
+
+        MetricWriteHelper metricWriteHelper = Mockito.mock(MetricWriteHelper.class);
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation) {
+                printed.addAll((List<Metric>) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(metricWriteHelper).transformAndPrintMetrics(anyList());
+        tasksExecutionServiceProvider = Mockito.mock(TasksExecutionServiceProvider.class);
+        when(tasksExecutionServiceProvider.getMetricWriteHelper()).thenReturn(metricWriteHelper);
+
+        configuration = Mockito.mock(MonitorContextConfiguration.class);
+        when(configuration.getMetricsXml()).thenReturn(createMetrics());
+        when(configuration.getMetricPrefix()).thenReturn("Custom Metrics|vmware");
+    }
+
+    @After
+    public void tearDown() {
+        sessionPool.closeAll();
+        collectorScheduler.shutdown();
+        simulator.stop();
+    }
+
+    @Test
+    public void shouldCollectTheSelectedHostAndItsVMs() {
+        Map<String, Object> vmWareServer = setupVMWareServer();
+        DeltaCalculator deltaCalculator = new DeltaCalculator();
+
+        new VMWareMonitorTask(tasksExecutionServiceProvider, configuration, vmWareServer, sessionPool, null, null, collectorScheduler.forServer("simulator", 2, 2), deltaCalculator, null).run();
+
+        Map<String, String> metrics = toMap(printed);
+        SimulatedInventory inventory = simulator.getInventory();
+        Assert.assertEquals("1", metrics.get(METRIC_PREFIX + "|" + Constants.HEARTBEAT));
+        assertValue(inventory.get("host-1").getValue("summary.quickStats.overallCpuUsage"), metrics.get(METRIC_PREFIX + "|HostSystem|esx-1|Overall CPU Usage"));
+        for (int vm = 1; vm <= 3; vm++) {
+            String vmPath = METRIC_PREFIX + "|HostSystem|esx-1|VirtualMachine|vm-1-" + vm;
+            SimulatedInventory.Entity entity = inventory.get("vm-1-" + vm);
+            assertValue(entity.getValue("summary.quickStats.balloonedMemory"), metrics.get(vmPath + "|Ballooned Memory"));
+            assertValue(entity.getValue("cpu.usage.average"), metrics.get(vmPath + "|CPU Usage"));
+        }
+        for (String path : metrics.keySet()) {
+            Assert.assertFalse("The host [esx-2] is not configured: " + path, path.contains("|esx-2|"));
+        }
+
+        printed.clear();
+        new VMWareMonitorTask(tasksExecutionServiceProvider, configuration, vmWareServer, sessionPool, null, null, collectorScheduler.forServer("simulator", 2, 2), deltaCalculator, null).run();
+        Assert.assertEquals("1", toMap(printed).get(METRIC_PREFIX + "|" + Constants.HEARTBEAT));
+        Assert.assertEquals("The session should be reused by the second run", 1, simulator.getCalls("Login"));
+    }
+
+    @Test
+    public void shouldFreeTheRequestPermitsOfAQueryPerfVCenterDoesNotAnswer() throws InterruptedException {
+        Map<String, Object> configYml = new HashMap<>();
+        configYml.put(Constants.COLLECTION_TIMEOUT, 10);
+        configYml.put(Constants.ENTITY_COLLECTION_TIMEOUT, 1);
+        Mockito.doReturn(configYml).when(configuration).getConfigYml();
+        Map<String, Object> vmWareServer = setupVMWareServer();
+        CollectorScheduler.ServerExecutor collectorExecutor = collectorScheduler.forServer("simulator", 2, 2);
+        DeltaCalculator deltaCalculator = new DeltaCalculator();
+
+        simulator.setLatency("QueryPerf", 60000);
+        long start = System.currentTimeMillis();
+        new VMWareMonitorTask(tasksExecutionServiceProvider, configuration, vmWareServer, sessionPool, null, null, collectorExecutor, deltaCalculator, null).run();
+        Assert.assertTrue("The run should end with the collection timeout", System.currentTimeMillis() - start < 10000);
+        Assert.assertTrue("The read timeout should end the QueryPerf and free its permit", collectorExecutor.getRequestPermits().tryAcquire(2, 5, TimeUnit.SECONDS));
+        collectorExecutor.getRequestPermits().release(2);
+
+        simulator.setLatency("QueryPerf", 0);
+        printed.clear();
+        new VMWareMonitorTask(tasksExecutionServiceProvider, configuration, vmWareServer, sessionPool, null, null, collectorExecutor, deltaCalculator, null).run();
+        Map<String, String> metrics = toMap(printed);
+        assertValue(simulator.getInventory().get("vm-1-1").getValue("cpu.usage.average"), metrics.get(METRIC_PREFIX + "|HostSystem|esx-1|VirtualMachine|vm-1-1|CPU Usage"));
+    }
+
+    @Test
+    public void shouldOnlyLogInAgainWhenTheSessionIsLost() {
+        Map<String, Object> vmWareServer = setupVMWareServer();
+        CollectorScheduler.ServerExecutor collectorExecutor = collectorScheduler.forServer("simulator", 2, 2);
+        DeltaCalculator deltaCalculator = new DeltaCalculator();
+
+        simulator.injectFault("RetrievePropertiesEx", "InvalidProperty", 1);
+        new VMWareMonitorTask(tasksExecutionServiceProvider, configuration, vmWareServer, sessionPool, null, null, collectorExecutor, deltaCalculator, null).run();
+        new VMWareMonitorTask(tasksExecutionServiceProvider, configuration, vmWareServer, sessionPool, null, null, collectorExecutor, deltaCalculator, null).run();
+        Assert.assertEquals("A fault of vCenter should keep the session", 1, simulator.getCalls("Login"));
+
+        simulator.injectFault("RetrievePropertiesEx", "NotAuthenticated", 2);
+        new VMWareMonitorTask(tasksExecutionServiceProvider, configuration, vmWareServer, sessionPool, null, null, collectorExecutor, deltaCalculator, null).run();
+        new VMWareMonitorTask(tasksExecutionServiceProvider, configuration, vmWareServer, sessionPool, null, null, collectorExecutor, deltaCalculator, null).run();
+        Assert.assertEquals("A session vCenter no longer knows should be replaced", 3, simulator.getCalls("Login"));
+    }
+
+    private void assertValue(long expected, String value) {
+        Assert.assertNotNull(value);
+        Assert.assertEquals(expected, Double.parseDouble(value), 0);
+    }
+
+    /**
+     * The default host and VM metrics, and a VM metric read with a performance counter.
+     */
+    private VMWareMetrics createMetrics() {
+        HostMetrics hostMetrics = new HostMetrics();
+        hostMetrics.setMetrics(toMetrics(PropertyPaths.DEFAULT_HOST_METRICS));
+        com.appdynamics.monitors.VMWare.metrics.Metric cpuUsage = new com.appdynamics.monitors.VMWare.metrics.Metric();
+        cpuUsage.setName("CPU Usage");
+        cpuUsage.setCounter("cpu.usage.average");
+        VMMetrics vmMetrics = new VMMetrics();
+        vmMetrics.setMetrics(ObjectArrays.concat(toMetrics(PropertyPaths.DEFAULT_VM_METRICS), cpuUsage));
+        VMWareMetrics vmWareMetrics = new VMWareMetrics();
+        vmWareMetrics.setHostMetrics(hostMetrics);
+        vmWareMetrics.setVmMetrics(vmMetrics);
+        vmWareMetrics.compile();
+        return vmWareMetrics;
+    }
+
+    private com.appdynamics.monitors.VMWare.metrics.Metric[] toMetrics(Map<String, String> defaults) {
+        List<com.appdynamics.monitors.VMWare.metrics.Metric> metrics = new ArrayList<>();
+        for (String name : defaults.keySet()) {
+            com.appdynamics.monitors.VMWare.metrics.Metric metric = new com.appdynamics.monitors.VMWare.metrics.Metric();
+            metric.setName(name);
+            metrics.add(metric);
+        }
+        return metrics.toArray(new com.appdynamics.monitors.VMWare.metrics.Metric[metrics.size()]);
+    }
+
+    private Map<String, Object> setupVMWareServer() {
+        Map<String, Object> vmWareServer = new HashMap<>();
+        vmWareServer.put("displayName", "Simulator");
+        vmWareServer.put("host", "simulator");
+        vmWareServer.put("username", "user");
+        vmWareServer.put("password", "password");
+
+        Map<String, Object> hostConfig = new HashMap<>();
+        hostConfig.put("host", "esx-1");
+        hostConfig.put("vms", Lists.newArrayList("*"));
+        List<Map<String, Object>> hostConfigs = new ArrayList<>();
+        hostConfigs.add(hostConfig);
+        vmWareServer.put("hostConfig", hostConfigs);
+        return vmWareServer;
+    }
+}
@@ -13,33 +13,42 @@ import com.appdynamics.extensions.TasksExecutionServiceProvider;
 import com.appdynamics.extensions.conf.MonitorContext;
 import com.appdynamics.extensions.conf.MonitorContextConfiguration;
 import com.appdynamics.extensions.executorservice.MonitorExecutorService;
+import com.appdynamics.monitors.VMWare.collectors.CollectorScheduler;
 import com.appdynamics.monitors.VMWare.collectors.HostMetricCollector;
+import com.appdynamics.monitors.VMWare.connection.VMWareSessionPool;
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.inventory.PropertyRetriever;
+import com.appdynamics.monitors.VMWare.metrics.DeltaCalculator;
 import com.appdynamics.monitors.VMWare.metrics.HostMetrics;
 import com.appdynamics.monitors.VMWare.metrics.VMMetrics;
 import com.appdynamics.monitors.VMWare.metrics.VMWareMetrics;
 import com.appdynamics.monitors.VMWare.util.Constants;
 import com.google.common.collect.Lists;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.NotAuthenticated;
 import com.vmware.vim25.mo.Folder;
-import com.vmware.vim25.mo.InventoryNavigator;
-import com.vmware.vim25.mo.ManagedEntity;
 import com.vmware.vim25.mo.ServerConnection;
 import com.vmware.vim25.mo.ServiceInstance;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.net.URL;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyMap;
 import static org.mockito.Matchers.anyString;
-import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -49,7 +58,7 @@ import static org.mockito.Mockito.when;
  */
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({VMWareMonitorTask.class})
+@PrepareForTest({VMWareMonitorTask.class, VMWareSessionPool.class})
 public class VMWareMonitorTaskTest {
 
     @Mock
@@ -80,10 +89,7 @@ public class VMWareMonitorTaskTest {
     private VMMetrics vmMetrics;
 
     @Mock
-    private InventoryNavigator inventoryNavigator;
-
-    @Mock
-    private ManagedEntity managedEntity;
+    private PropertyRetriever propertyRetriever;
 
     @Mock
     private HostMetricCollector hostMetricCollector;
@@ -96,7 +102,7 @@ public class VMWareMonitorTaskTest {
 
 
     @Test
-    public void shouldCloseConnectionAfterMetricCollection() throws Exception {
+    public void shouldKeepSessionOpenAndReuseItAcrossRuns() throws Exception {
         Map<String, Object> vmWareServers = setupVMWareServer();
         when(configuration.getMetricsXml()).thenReturn(vmWareMetrics);
         when(vmWareMetrics.getHostMetrics()).thenReturn(hostMetrics);
@@ -109,9 +115,11 @@ public class VMWareMonitorTaskTest {
 
         PowerMockito.whenNew(ServiceInstance.class).withAnyArguments().thenReturn(serviceInstance);
         when(serviceInstance.getRootFolder()).thenReturn(rootFolder);
+        when(serviceInstance.getServerConnection()).thenReturn(serverConnection);
+        when(serviceInstance.currentTime()).thenReturn(Calendar.getInstance());
 
-        PowerMockito.whenNew(InventoryNavigator.class).withAnyArguments().thenReturn(inventoryNavigator);
-        when(inventoryNavigator.searchManagedEntity(eq(Constants.HOSTSYSTEM), anyString())).thenReturn(managedEntity);
+        PowerMockito.whenNew(PropertyRetriever.class).withAnyArguments().thenReturn(propertyRetriever);
+        when(propertyRetriever.retrieve(anyMap())).thenReturn(Lists.newArrayList(createHost("host-1", "host1")));
 
         PowerMockito.whenNew(HostMetricCollector.class).withAnyArguments().thenReturn(hostMetricCollector);
 
@@ -120,12 +128,63 @@ public class VMWareMonitorTaskTest {
         when(tasksExecutionServiceProvider.getMetricWriteHelper()).thenReturn(metricWriteHelper);
         doNothing().when(metricWriteHelper).transformAndPrintMetrics(anyList());
 
-        VMWareMonitorTask vmWareMonitorTask = new VMWareMonitorTask(tasksExecutionServiceProvider, configuration, vmWareServers);
-        vmWareMonitorTask.run();
+        VMWareSessionPool sessionPool = new VMWareSessionPool();
+        CollectorScheduler collectorScheduler = new CollectorScheduler(1, CollectorScheduler.DEFAULT_QUEUE_CAPACITY);
+
+        new VMWareMonitorTask(tasksExecutionServiceProvider, configuration, vmWareServers, sessionPool, null, null, collectorScheduler.forServer("vmhost", 1, 1), new DeltaCalculator(), null).run();
+        new VMWareMonitorTask(tasksExecutionServiceProvider, configuration, vmWareServers, sessionPool, null, null, collectorScheduler.forServer("vmhost", 1, 1), new DeltaCalculator(), null).run();
+
+        PowerMockito.verifyNew(ServiceInstance.class, times(1)).withArguments(Mockito.any(URL.class), anyString(), anyString(), Mockito.anyBoolean(), Mockito.anyInt(), Mockito.anyInt());
+        verify(serviceInstance, times(1)).currentTime();
+        verify(serverConnection, never()).logout();
 
+        sessionPool.closeAll();
         verify(serverConnection, times(1)).logout();
     }
 
+    @Test
+    public void shouldRetryTheInventoryOnceWithANewSessionWhenNotAuthenticated() throws Exception {
+        Map<String, Object> vmWareServers = setupVMWareServer();
+        when(configuration.getMetricsXml()).thenReturn(vmWareMetrics);
+        when(vmWareMetrics.getHostMetrics()).thenReturn(hostMetrics);
+        when(vmWareMetrics.getVmMetrics()).thenReturn(vmMetrics);
+
+        when(configuration.getContext()).thenReturn(monitorContext);
+        when(monitorContext.getExecutorService()).thenReturn(executorService);
+
+        when(configuration.getMetricPrefix()).thenReturn("Custom Metrics|vmware|Status|");
+
+        PowerMockito.whenNew(ServiceInstance.class).withAnyArguments().thenReturn(serviceInstance);
+        when(serviceInstance.getRootFolder()).thenReturn(rootFolder);
+        when(serviceInstance.getServerConnection()).thenReturn(serverConnection);
+
+        PowerMockito.whenNew(PropertyRetriever.class).withAnyArguments().thenReturn(propertyRetriever);
+        when(propertyRetriever.retrieve(anyMap())).thenThrow(new NotAuthenticated()).thenReturn(Lists.newArrayList(createHost("host-1", "host1")));
+
+        PowerMockito.whenNew(HostMetricCollector.class).withAnyArguments().thenReturn(hostMetricCollector);
+
+        when(tasksExecutionServiceProvider.getMetricWriteHelper()).thenReturn(metricWriteHelper);
+        doNothing().when(metricWriteHelper).transformAndPrintMetrics(anyList());
+
+        VMWareSessionPool sessionPool = new VMWareSessionPool();
+        CollectorScheduler collectorScheduler = new CollectorScheduler(1, CollectorScheduler.DEFAULT_QUEUE_CAPACITY);
+
+        new VMWareMonitorTask(tasksExecutionServiceProvider, configuration, vmWareServers, sessionPool, null, null, collectorScheduler.forServer("vmhost", 1, 1), new DeltaCalculator(), null).run();
+
+        PowerMockito.verifyNew(ServiceInstance.class, times(2)).withArguments(Mockito.any(URL.class), anyString(), anyString(), Mockito.anyBoolean(), Mockito.anyInt(), Mockito.anyInt());
+        verify(propertyRetriever, times(2)).retrieve(anyMap());
+        verify(serverConnection, times(1)).logout();
+    }
+
+    private EntityData createHost(String id, String name) {
+        ManagedObjectReference mor = new ManagedObjectReference();
+        mor.setType(Constants.HOSTSYSTEM);
+        mor.setVal(id);
+        EntityData host = new EntityData(mor);
+        host.setProperty("name", name);
+        return host;
+    }
+
     private Map<String, Object> setupVMWareServer() {
         Map<String, Object> vmWareServers = new HashMap<>();
         vmWareServers.put("displayName", "TestVMWare");
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.benchmark;
+
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.inventory.PropertyPaths;
+import com.appdynamics.monitors.VMWare.metrics.HostMetrics;
+import com.appdynamics.monitors.VMWare.metrics.Metric;
+import com.appdynamics.monitors.VMWare.metrics.VMMetrics;
+import com.appdynamics.monitors.VMWare.metrics.VMWareMetrics;
+import com.vmware.vim25.ManagedEntityStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.appdynamics.monitors.VMWare.TestFixtures.createEntity;
+
+/**
+ * In memory hosts and VMs with every property of the default host and VM metrics set, and the compiled default
+ * metrics, shared by the benchmarks which do not go over the wire.
+ */
+class BenchmarkInventory {
+
+    static final String METRIC_PREFIX = "Custom Metrics|vmware|vcenter1";
+
+    private BenchmarkInventory() {
+    }
+
+    static VMWareMetrics createMetrics() {
+        HostMetrics hostMetrics = new HostMetrics();
+        hostMetrics.setMetrics(toMetrics(PropertyPaths.DEFAULT_HOST_METRICS));
+        VMMetrics vmMetrics = new VMMetrics();
+        vmMetrics.setMetrics(toMetrics(PropertyPaths.DEFAULT_VM_METRICS));
+        VMWareMetrics vmWareMetrics = new VMWareMetrics();
+        vmWareMetrics.setHostMetrics(hostMetrics);
+        vmWareMetrics.setVmMetrics(vmMetrics);
+        vmWareMetrics.compile();
+        return vmWareMetrics;
+    }
+
+    static EntityData createHost(int host) {
+        EntityData hostEntity = createEntity("HostSystem", "host-" + host, "esx-" + host, ManagedEntityStatus.green);
+        hostEntity.setProperty("summary.quickStats.distributedCpuFairness", 900);
+        hostEntity.setProperty("summary.quickStats.distributedMemoryFairness", 950);
+        hostEntity.setProperty("summary.quickStats.overallCpuUsage", 12000 + host);
+        hostEntity.setProperty("summary.quickStats.overallMemoryUsage", 190000 + host);
+        hostEntity.setProperty("summary.quickStats.uptime", 864000);
+        hostEntity.setProperty("hardware.memorySize", 412316860416L);
+        hostEntity.setProperty("hardware.cpuInfo.hz", 2600000000L);
+        hostEntity.setProperty("hardware.cpuInfo.numCpuCores", (short) 32);
+        return hostEntity;
+    }
+
+    /**
+     * @return the VMs <code>vm-&lt;host&gt;-&lt;j&gt;</code> of the host, with every VM metric property set
+     */
+    static List<EntityData> createVMs(EntityData host, int count) {
+        String hostNumber = host.getId().substring("host-".length());
+        List<EntityData> vms = new ArrayList<>(count);
+        for (int j = 1; j <= count; j++) {
+            EntityData vm = createEntity("VirtualMachine", "vm-" + hostNumber + "-" + j, "vm-" + hostNumber + "-" + j, ManagedEntityStatus.green);
+            vm.setProperty(PropertyPaths.VM_HOST, host.getMor());
+            int i = 0;
+            for (String path : PropertyPaths.DEFAULT_VM_METRICS.values()) {
+                vm.setProperty(path, 1000 * j + i++);
+            }
+            vms.add(vm);
+        }
+        return vms;
+    }
+
+    private static Metric[] toMetrics(Map<String, String> defaults) {
+        Metric[] metrics = new Metric[defaults.size()];
+        int i = 0;
+        for (String name : defaults.keySet()) {
+            Metric metric = new Metric();
+            metric.setName(name);
+            metrics[i++] = metric;
+        }
+        return metrics;
+    }
+}
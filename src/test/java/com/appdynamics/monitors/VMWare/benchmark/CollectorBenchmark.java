@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.benchmark;
+
+import com.appdynamics.extensions.metrics.Metric;
+import com.appdynamics.monitors.VMWare.collectors.CollectionDeadline;
+import com.appdynamics.monitors.VMWare.collectors.CollectorContext;
+import com.appdynamics.monitors.VMWare.collectors.HostMetricCollector;
+import com.appdynamics.monitors.VMWare.collectors.MetricSink;
+import com.appdynamics.monitors.VMWare.collectors.VMMetricCollector;
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.inventory.HostConfigMatcher;
+import com.appdynamics.monitors.VMWare.metrics.DeltaCalculator;
+import com.appdynamics.monitors.VMWare.metrics.VMWareMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metric extraction of <code>VMMetricCollector.run()</code> and <code>HostMetricCollector.run()</code> for one host
+ * with <code>vms</code> VMs and the default metrics, on the calling thread. The host collector collects its VMs on
+ * its own thread as well, so it covers the VM filtering and the whole host.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CollectorBenchmark {
+
+    @Param({"100", "5000"})
+    private int vms;
+
+    private VMWareMetrics vmWareMetrics;
+    private EntityData host;
+    private List<EntityData> hostVMs;
+    private HostConfigMatcher hostConfigMatcher;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        vmWareMetrics = BenchmarkInventory.createMetrics();
+        host = BenchmarkInventory.createHost(1);
+        hostVMs = BenchmarkInventory.createVMs(host, vms);
+
+        Map<String, Object> hostConfig = new HashMap<>();
+        hostConfig.put("host", host.getName());
+        hostConfig.put("vms", Collections.singletonList("*"));
+        hostConfigMatcher = HostConfigMatcher.compile(Collections.<Map<String, Object>>singletonList(hostConfig), null);
+    }
+
+    @Benchmark
+    public List<Metric> vmCollectors() {
+        MetricSink collectedMetrics = new MetricSink();
+        Phaser phaser = new Phaser(1);
+        CollectionDeadline collectionDeadline = new CollectionDeadline(TimeUnit.MINUTES.toMillis(1));
+        String baseMetricName = BenchmarkInventory.METRIC_PREFIX + "|HostSystem|" + host.getName();
+        CollectorContext context = new CollectorContext(BenchmarkInventory.METRIC_PREFIX, phaser, collectedMetrics, collectionDeadline, new DeltaCalculator(), null, null);
+        new VMMetricCollector(context, hostVMs, baseMetricName, vmWareMetrics.getVmMetrics(), null, collectionDeadline.register(host.getId(), host.getName()), null, null).run();
+        return collectedMetrics.drain();
+    }
+
+    @Benchmark
+    public List<Metric> hostCollector() {
+        MetricSink collectedMetrics = new MetricSink();
+        Phaser phaser = new Phaser(1);
+        CollectorContext context = new CollectorContext(BenchmarkInventory.METRIC_PREFIX, phaser, collectedMetrics, new CollectionDeadline(TimeUnit.MINUTES.toMillis(1)),
+                new DeltaCalculator(), null, null);
+        new HostMetricCollector(context, host, hostVMs, hostConfigMatcher, vmWareMetrics, null, null, null).run();
+        return collectedMetrics.drain();
+    }
+}
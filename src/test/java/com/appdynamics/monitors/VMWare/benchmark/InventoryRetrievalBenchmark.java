@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.benchmark;
+
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.inventory.PropertyPaths;
+import com.appdynamics.monitors.VMWare.inventory.PropertyRetriever;
+import com.appdynamics.monitors.VMWare.metrics.VMWareMetrics;
+import com.appdynamics.monitors.VMWare.simulator.SimulatedInventory;
+import com.appdynamics.monitors.VMWare.simulator.VSphereSimulator;
+import com.appdynamics.monitors.VMWare.util.Constants;
+import com.vmware.vim25.mo.ServiceInstance;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the hosts and VMs with {@link PropertyRetriever} through yavijava from a {@link VSphereSimulator} with
+ * <code>hosts</code> hosts of 100 VMs, answering every call after <code>latencyMillis</code>, so the SOAP
+ * serialization and the page size are measured end to end.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InventoryRetrievalBenchmark {
+
+    @Param({"10", "50"})
+    private int hosts;
+
+    @Param({"0", "5"})
+    private int latencyMillis;
+
+    @Param({"1000"})
+    private int pageSize;
+
+    private VSphereSimulator simulator;
+    private ServiceInstance serviceInstance;
+    private Map<String, String[]> pathsByType;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        //without it the simulator answers every request after a delayed ACK of 40ms, set in the fork of the benchmark
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        simulator = new VSphereSimulator(new SimulatedInventory(hosts, 100));
+        simulator.setLatency(latencyMillis);
+        simulator.start();
+        serviceInstance = new ServiceInstance(simulator.getUrl(), "user", "password", true);
+
+        VMWareMetrics vmWareMetrics = BenchmarkInventory.createMetrics();
+        pathsByType = new LinkedHashMap<>();
+        pathsByType.put(Constants.HOSTSYSTEM, PropertyPaths.getHostPropertyPaths(vmWareMetrics.getHostMetrics().getCompiledMetrics()));
+        pathsByType.put(Constants.VIRTUALMACHINE, PropertyPaths.getVMPropertyPaths(vmWareMetrics.getVmMetrics().getCompiledMetrics()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        serviceInstance.getServerConnection().logout();
+        simulator.stop();
+    }
+
+    @Benchmark
+    public List<EntityData> retrieve() throws Exception {
+        return new PropertyRetriever(serviceInstance, pageSize).retrieve(pathsByType);
+    }
+}
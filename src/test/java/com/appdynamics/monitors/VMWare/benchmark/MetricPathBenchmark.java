@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.benchmark;
+
+import com.appdynamics.monitors.VMWare.collectors.MetricPathRegistry;
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.inventory.PropertyPaths;
+import com.appdynamics.monitors.VMWare.metrics.CompiledMetric;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the metric paths of 5000 VMs with the default VM metrics the way the collectors do, a base path per VM and a
+ * <code>StringBuilder</code> per metric, next to a builder reused across the metrics of a VM and the paths kept across
+ * runs by the {@link MetricPathRegistry} the collectors use now.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MetricPathBenchmark {
+
+    private static final int VMS = 5000;
+    private static final String HOST_PATH = BenchmarkInventory.METRIC_PREFIX + "|HostSystem|esx-1";
+
+    private String[] vmNames;
+    private String[] metricNames;
+    private List<EntityData> vms;
+    private CompiledMetric[] metrics;
+    private MetricPathRegistry pathRegistry;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        vmNames = new String[VMS];
+        for (int i = 0; i < VMS; i++) {
+            vmNames[i] = "vm-" + (i / 100 + 1) + "-" + (i % 100 + 1);
+        }
+        metricNames = PropertyPaths.DEFAULT_VM_METRICS.keySet().toArray(new String[0]);
+        vms = BenchmarkInventory.createVMs(BenchmarkInventory.createHost(1), VMS);
+        metrics = BenchmarkInventory.createMetrics().getVmMetrics().getCompiledMetrics();
+        pathRegistry = new MetricPathRegistry();
+    }
+
+    @Benchmark
+    public void collectorPaths(Blackhole blackhole) {
+        for (String vmName : vmNames) {
+            String baseMetricName = BenchmarkInventory.METRIC_PREFIX + "|HostSystem|esx-1" + "|" + "VirtualMachine" + "|" + vmName;
+            for (String name : metricNames) {
+                StringBuilder sb = new StringBuilder(baseMetricName);
+                sb.append("|").append(name);
+                blackhole.consume(sb.toString());
+            }
+        }
+    }
+
+    @Benchmark
+    public void reusedBuilder(Blackhole blackhole) {
+        StringBuilder sb = new StringBuilder(256);
+        for (String vmName : vmNames) {
+            sb.setLength(0);
+            sb.append(BenchmarkInventory.METRIC_PREFIX).append("|HostSystem|esx-1|VirtualMachine|").append(vmName).append('|');
+            int baseLength = sb.length();
+            for (String name : metricNames) {
+                sb.setLength(baseLength);
+                blackhole.consume(sb.append(name).toString());
+            }
+        }
+    }
+
+    @Benchmark
+    public void pathRegistry(Blackhole blackhole) {
+        for (EntityData vm : vms) {
+            MetricPathRegistry.EntityPaths paths = pathRegistry.get(HOST_PATH, "VirtualMachine", vm, metrics);
+            for (int i = 0; i < metrics.length; i++) {
+                blackhole.consume(paths.getMetricPath(i));
+            }
+        }
+    }
+}
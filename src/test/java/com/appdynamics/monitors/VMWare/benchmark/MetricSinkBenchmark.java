@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.benchmark;
+
+import com.appdynamics.extensions.metrics.Metric;
+import com.appdynamics.monitors.VMWare.collectors.MetricSink;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adds the metrics of a run from <code>writers</code> collector threads, the way the host and VM collectors do, to the
+ * <code>CopyOnWriteArrayList</code> used before and to {@link MetricSink}. Run with <code>-prof gc</code> to compare the
+ * allocation per run as well, see the benchmark section of the README.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MetricSinkBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    private int metricCount;
+
+    @Param({"1", "8", "32"})
+    private int writers;
+
+    private Metric[] metrics;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        metrics = new Metric[metricCount];
+        for (int i = 0; i < metricCount; i++) {
+            metrics[i] = new Metric("Overall CPU Usage", String.valueOf(i), "Custom Metrics|vmware|HostSystem|host" + i + "|Overall CPU Usage");
+        }
+        executor = Executors.newFixedThreadPool(writers);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public List<Metric> copyOnWriteArrayList() throws Exception {
+        final List<Metric> collectedMetrics = new CopyOnWriteArrayList<>();
+        collect(new MetricConsumer() {
+            public void add(Metric metric) {
+                collectedMetrics.add(metric);
+            }
+        });
+        return collectedMetrics;
+    }
+
+    @Benchmark
+    public List<Metric> metricSink() throws Exception {
+        final MetricSink collectedMetrics = new MetricSink();
+        collect(new MetricConsumer() {
+            public void add(Metric metric) {
+                collectedMetrics.add(metric);
+            }
+        });
+        return collectedMetrics.drain();
+    }
+
+    private void collect(final MetricConsumer consumer) throws Exception {
+        List<Future<?>> futures = new ArrayList<>(writers);
+        for (int t = 0; t < writers; t++) {
+            final int offset = t;
+            futures.add(executor.submit(new Callable<Void>() {
+                public Void call() {
+                    for (int i = offset; i < metrics.length; i += writers) {
+                        consumer.add(metrics[i]);
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+    }
+
+    private interface MetricConsumer {
+        void add(Metric metric);
+    }
+}
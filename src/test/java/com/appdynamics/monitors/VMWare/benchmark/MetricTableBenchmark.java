@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.benchmark;
+
+import com.appdynamics.extensions.metrics.Metric;
+import com.appdynamics.monitors.VMWare.collectors.CollectionDeadline;
+import com.appdynamics.monitors.VMWare.collectors.CollectorContext;
+import com.appdynamics.monitors.VMWare.collectors.MetricPathRegistry;
+import com.appdynamics.monitors.VMWare.collectors.MetricSink;
+import com.appdynamics.monitors.VMWare.collectors.MetricTable;
+import com.appdynamics.monitors.VMWare.collectors.VMMetricCollector;
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.metrics.DeltaCalculator;
+import com.appdynamics.monitors.VMWare.metrics.VMWareMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The VM collectors of <code>vms</code> VMs with the default metrics, adding {@link Metric}s to the sink as before and
+ * writing {@link MetricTable} rows, which are converted when the sink is drained, both with the paths of a
+ * {@link MetricPathRegistry} kept across iterations. Run with <code>-prof gc</code>:
+ * <code>gc.alloc.rate.norm</code> is the allocation of one cycle, the <code>Drained</code> variants include the
+ * conversion when the metrics are printed. See the benchmark section of the README for the heap held until then.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MetricTableBenchmark {
+
+    private static final String BASE_METRIC_NAME = BenchmarkInventory.METRIC_PREFIX + "|HostSystem|esx-1";
+
+    @Param({"10000"})
+    private int vms;
+
+    private VMWareMetrics vmWareMetrics;
+    private List<EntityData> hostVMs;
+    private MetricPathRegistry pathRegistry;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        vmWareMetrics = BenchmarkInventory.createMetrics();
+        hostVMs = BenchmarkInventory.createVMs(BenchmarkInventory.createHost(1), vms);
+        pathRegistry = new MetricPathRegistry();
+    }
+
+    @Benchmark
+    public MetricSink metricObjects() {
+        return collect(null);
+    }
+
+    /**
+     * The metric objects including the drain, to compare with {@link #metricTableDrained()}.
+     */
+    @Benchmark
+    public List<Metric> metricObjectsDrained() {
+        return collect(null).drain();
+    }
+
+    @Benchmark
+    public MetricSink metricTable() {
+        return collect(new MetricTable(vmWareMetrics.getVmMetrics().getCompiledMetrics(), hostVMs.size()));
+    }
+
+    /**
+     * The table including the conversion of all rows, as when the metrics are printed.
+     */
+    @Benchmark
+    public List<Metric> metricTableDrained() {
+        return collect(new MetricTable(vmWareMetrics.getVmMetrics().getCompiledMetrics(), hostVMs.size())).drain();
+    }
+
+    private MetricSink collect(MetricTable vmTable) {
+        MetricSink collectedMetrics = new MetricSink();
+        Phaser phaser = new Phaser(1);
+        CollectionDeadline collectionDeadline = new CollectionDeadline(TimeUnit.MINUTES.toMillis(1));
+        CollectorContext context = new CollectorContext(BenchmarkInventory.METRIC_PREFIX, phaser, collectedMetrics, collectionDeadline, new DeltaCalculator(), pathRegistry, null);
+        new VMMetricCollector(context, hostVMs, BASE_METRIC_NAME, vmWareMetrics.getVmMetrics(), null, collectionDeadline.register("host-1", "esx-1"), null, vmTable).run();
+        return collectedMetrics;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.benchmark;
+
+import com.appdynamics.extensions.MetricWriteHelper;
+import com.appdynamics.extensions.metrics.Metric;
+import com.appdynamics.monitors.VMWare.VMWareMonitor;
+import com.appdynamics.monitors.VMWare.collectors.MetricSink;
+import com.appdynamics.monitors.VMWare.metrics.CompiledMetric;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <code>MetricWriteHelper.transformAndPrintMetrics</code> of 100k VM metrics with the properties of the default
+ * metrics, once as a single list and once streamed through {@link MetricSink} in chunks of <code>chunkSize</code>.
+ * The metrics are transformed by the real helper; only the final print, which needs a machine agent, goes to a
+ * {@link Blackhole}. The metrics are copied per invocation since the transformation changes them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PrintMetricsBenchmark {
+
+    private static final int METRIC_COUNT = 100000;
+
+    @Param({"1000", "10000"})
+    private int chunkSize;
+
+    private CompiledMetric[] compiledMetrics;
+    private String[] paths;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        compiledMetrics = BenchmarkInventory.createMetrics().getVmMetrics().getCompiledMetrics();
+        paths = new String[METRIC_COUNT];
+        for (int i = 0; i < METRIC_COUNT; i++) {
+            String vmName = "vm-" + (i / compiledMetrics.length / 100 + 1) + "-" + (i / compiledMetrics.length % 100 + 1);
+            paths[i] = BenchmarkInventory.METRIC_PREFIX + "|HostSystem|esx-1|VirtualMachine|" + vmName + "|" + compiledMetrics[i % compiledMetrics.length].getName();
+        }
+    }
+
+    @Benchmark
+    public void transformAndPrintMetrics(Blackhole blackhole) {
+        new BlackholeMetricWriteHelper(blackhole).transformAndPrintMetrics(createMetrics());
+    }
+
+    @Benchmark
+    public long streamedThroughSink(Blackhole blackhole) {
+        MetricSink collectedMetrics = new MetricSink(new BlackholeMetricWriteHelper(blackhole), chunkSize);
+        collectedMetrics.addAll(createMetrics());
+        collectedMetrics.flush();
+        return collectedMetrics.getPrintedCount();
+    }
+
+    private List<Metric> createMetrics() {
+        List<Metric> metrics = new ArrayList<>(METRIC_COUNT);
+        for (int i = 0; i < METRIC_COUNT; i++) {
+            CompiledMetric compiledMetric = compiledMetrics[i % compiledMetrics.length];
+            metrics.add(new Metric(compiledMetric.getName(), String.valueOf(i), paths[i], compiledMetric.getProperties()));
+        }
+        return metrics;
+    }
+
+    private static class BlackholeMetricWriteHelper extends MetricWriteHelper {
+
+        private final Blackhole blackhole;
+
+        BlackholeMetricWriteHelper(Blackhole blackhole) {
+            super(new VMWareMonitor());
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void printMetric(String metricPath, String metricValue, String aggregationType, String timeRollup, String clusterRollup) {
+            blackhole.consume(metricPath);
+            blackhole.consume(metricValue);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.benchmark;
+
+import com.appdynamics.monitors.VMWare.collectors.HostMetricCollector;
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.inventory.HostConfigMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The VM selection of {@link HostMetricCollector#getVMs} for hosts with <code>vmsPerHost</code> VMs, with a
+ * hostConfig of <code>configSize</code> entries, each naming <code>configSize</code> VMs and excluding a pattern. Most
+ * lookups thus miss the exact names and fall through to the patterns, as in large configurations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VMFilterBenchmark {
+
+    private static final int HOSTS = 10;
+
+    @Param({"1", "100", "1000"})
+    private int configSize;
+
+    @Param({"100"})
+    private int vmsPerHost;
+
+    private List<EntityData> hosts;
+    private Map<String, List<EntityData>> vmsByHost;
+    private HostConfigMatcher hostConfigMatcher;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        hosts = new ArrayList<>();
+        vmsByHost = new HashMap<>();
+        for (int i = 1; i <= HOSTS; i++) {
+            EntityData host = BenchmarkInventory.createHost(i);
+            hosts.add(host);
+            vmsByHost.put(host.getName(), BenchmarkInventory.createVMs(host, vmsPerHost));
+        }
+
+        List<Map<String, Object>> hostConfig = new ArrayList<>();
+        for (int i = 1; i <= configSize; i++) {
+            List<String> vms = new ArrayList<>();
+            for (int j = 1; j <= configSize; j++) {
+                vms.add("vm-" + i + "-" + (2 * j));
+            }
+            List<String> excludeVms = new ArrayList<>();
+            excludeVms.add("vm-" + i + "-*5");
+            Map<String, Object> entry = new HashMap<>();
+            entry.put("host", "esx-" + i);
+            entry.put("vms", vms);
+            entry.put("excludeVms", excludeVms);
+            hostConfig.add(entry);
+        }
+        Map<String, Object> others = new HashMap<>();
+        others.put("host", "esx-*");
+        List<String> allVMs = new ArrayList<>();
+        allVMs.add("regex:vm-\\d+-\\d*[02468]");
+        others.put("vms", allVMs);
+        hostConfig.add(others);
+        hostConfigMatcher = HostConfigMatcher.compile(hostConfig, null);
+    }
+
+    @Benchmark
+    public int selectVMs() {
+        int selected = 0;
+        for (EntityData host : hosts) {
+            selected += HostMetricCollector.getVMs(hostConfigMatcher, host.getName(), vmsByHost.get(host.getName())).size();
+        }
+        return selected;
+    }
+}
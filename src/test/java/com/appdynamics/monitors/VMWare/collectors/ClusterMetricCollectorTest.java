@@ -0,0 +1,142 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.collectors;
+
+import com.appdynamics.extensions.metrics.Metric;
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.inventory.NameMatcher;
+import com.appdynamics.monitors.VMWare.metrics.ClusterMetrics;
+import com.appdynamics.monitors.VMWare.metrics.CompiledMetric;
+import com.appdynamics.monitors.VMWare.metrics.DeltaCalculator;
+import com.appdynamics.monitors.VMWare.metrics.VMMetrics;
+import com.google.common.collect.ImmutableMap;
+import com.vmware.vim25.ManagedEntityStatus;
+import com.vmware.vim25.ManagedObjectReference;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Phaser;
+
+import static com.appdynamics.monitors.VMWare.TestFixtures.createEntity;
+import static com.appdynamics.monitors.VMWare.TestFixtures.createMor;
+import static com.appdynamics.monitors.VMWare.TestFixtures.toMap;
+
+public class ClusterMetricCollectorTest {
+
+    private static final String METRIC_PREFIX = "Custom Metrics|vmware|Status|TestVMWare";
+
+    @Test
+    public void shouldReportTheClusterPropertiesAndTheRollupsOfItsHosts() {
+        CompiledMetric[] hostMetrics = {compile("Overall CPU Usage", "summary.quickStats.overallCpuUsage")};
+        CompiledMetric[] vmMetrics = {compile("Host Memory Usage", "summary.quickStats.hostMemoryUsage")};
+        ClusterMetrics clusterMetrics = new ClusterMetrics();
+        clusterMetrics.setMetrics(new com.appdynamics.monitors.VMWare.metrics.Metric[]{
+                createMetric("Total CPU", null, null), createMetric("DRS Enabled", null, null),
+                createMetric("Used CPU", "sum", "HostSystem|Overall CPU Usage"), createMetric("Host CPU Max", "max", "HostSystem|Overall CPU Usage"),
+                createMetric("VM Count", "count", "VirtualMachine"), createMetric("VM Memory p50", "p50", "VirtualMachine|Host Memory Usage")});
+        clusterMetrics.compile(hostMetrics, vmMetrics);
+
+        EntityData cluster = createEntity("ClusterComputeResource", "domain-c7", "prod", ManagedEntityStatus.green);
+        cluster.setProperty("summary.totalCpu", 48000);
+        cluster.setProperty("configuration.drsConfig.enabled", Boolean.TRUE);
+        EntityData lab = createEntity("ClusterComputeResource", "domain-c8", "lab", ManagedEntityStatus.green);
+
+        ClusterRollups clusterRollups = new ClusterRollups(clusterMetrics.getCompiledRollups(), hostMetrics.length, vmMetrics.length);
+        EntityData host = createEntity("HostSystem", "host-1", "esx-1", ManagedEntityStatus.green);
+        host.setProperty("parent", createMor("ClusterComputeResource", "domain-c7"));
+        ClusterRollups.Values values = clusterRollups.forHost(host);
+        for (int cpu : new int[]{1200, 3000, 800}) {
+            values.addHost(new double[]{cpu});
+        }
+        for (int memory : new int[]{512, 2048, 1024, 4096}) {
+            values.addVM(new double[]{memory});
+        }
+
+        MetricSink collectedMetrics = new MetricSink();
+        CollectorContext context = new CollectorContext(METRIC_PREFIX, new Phaser(), collectedMetrics, new CollectionDeadline(60000), new DeltaCalculator(), null, null);
+        new ClusterMetricCollector(context, Arrays.asList(cluster, lab), NameMatcher.compile(Collections.singletonList("*")),
+                NameMatcher.compile(Collections.singletonList("lab")), clusterMetrics, clusterRollups).run();
+
+        Map<String, String> metrics = toMap(collectedMetrics.drain());
+        String clusterPath = METRIC_PREFIX + "|Cluster|prod|";
+        Assert.assertEquals("Only the status and the 6 metrics of prod should be collected", 7, metrics.size());
+        Assert.assertEquals("48000", metrics.get(clusterPath + "Total CPU"));
+        Assert.assertEquals("1", metrics.get(clusterPath + "DRS Enabled"));
+        Assert.assertEquals("5000", metrics.get(clusterPath + "Used CPU"));
+        Assert.assertEquals("3000", metrics.get(clusterPath + "Host CPU Max"));
+        Assert.assertEquals("4", metrics.get(clusterPath + "VM Count"));
+        Assert.assertEquals("1024", metrics.get(clusterPath + "VM Memory p50"));
+    }
+
+    @Test
+    public void shouldNotRollUpTheValuesOfAnAbandonedVM() {
+        VMMetrics vmMetrics = new VMMetrics();
+        com.appdynamics.monitors.VMWare.metrics.Metric memory = new com.appdynamics.monitors.VMWare.metrics.Metric();
+        memory.setName("Host Memory Usage");
+        memory.setProperty("summary.quickStats.hostMemoryUsage");
+        vmMetrics.setMetrics(new com.appdynamics.monitors.VMWare.metrics.Metric[]{memory});
+        vmMetrics.compile();
+        ClusterMetrics clusterMetrics = new ClusterMetrics();
+        clusterMetrics.setMetrics(new com.appdynamics.monitors.VMWare.metrics.Metric[]{
+                createMetric("VM Count", "count", "VirtualMachine"), createMetric("VM Memory Max", "max", "VirtualMachine|Host Memory Usage")});
+        clusterMetrics.compile(new CompiledMetric[0], vmMetrics.getCompiledMetrics());
+        ClusterRollups clusterRollups = new ClusterRollups(clusterMetrics.getCompiledRollups(), 0, 1);
+        EntityData host = createEntity("HostSystem", "host-1", "esx-1", ManagedEntityStatus.green);
+        host.setProperty("parent", createMor("ClusterComputeResource", "domain-c7"));
+        ClusterRollups.Values values = clusterRollups.forHost(host);
+
+        final CollectionDeadline collectionDeadline = new CollectionDeadline(60000);
+        CollectorContext context = new CollectorContext(METRIC_PREFIX, new Phaser(), new MetricSink(), collectionDeadline, new DeltaCalculator(), null, null);
+        EntityData collected = createEntity("VirtualMachine", "vm-1", "web01", ManagedEntityStatus.green);
+        collected.setProperty("summary.quickStats.hostMemoryUsage", 1024);
+        new VMMetricCollector(context, Collections.singletonList(collected), METRIC_PREFIX, vmMetrics, null, collectionDeadline.register("host-1", "esx-1"), values, null).run();
+
+        //the deadline passes while the VM is collected
+        EntityData abandoned = new EntityData(createMor("VirtualMachine", "vm-2")) {
+            @Override
+            public Object getProperty(String path) {
+                collectionDeadline.abandon();
+                return 4096;
+            }
+        };
+        abandoned.setProperty("name", "web02");
+        abandoned.setProperty("overallStatus", ManagedEntityStatus.green);
+        new VMMetricCollector(context, Collections.singletonList(abandoned), METRIC_PREFIX, vmMetrics, null, collectionDeadline.register("host-1", "esx-1"), values, null).run();
+
+        Assert.assertEquals(1, values.compute(clusterMetrics.getCompiledRollups()[0]), 0);
+        Assert.assertEquals(1024, values.compute(clusterMetrics.getCompiledRollups()[1]), 0);
+    }
+
+    @Test
+    public void shouldNotRollUpStandaloneHosts() {
+        ClusterRollups clusterRollups = new ClusterRollups(new com.appdynamics.monitors.VMWare.metrics.CompiledRollup[0], 0, 0);
+        EntityData host = createEntity("HostSystem", "host-1", "esx-1", ManagedEntityStatus.green);
+        host.setProperty("parent", createMor("ComputeResource", "domain-s9"));
+
+        Assert.assertNull(clusterRollups.forHost(host));
+    }
+
+    private com.appdynamics.monitors.VMWare.metrics.Metric createMetric(String name, String rollup, String source) {
+        com.appdynamics.monitors.VMWare.metrics.Metric metric = new com.appdynamics.monitors.VMWare.metrics.Metric();
+        metric.setName(name);
+        metric.setRollup(rollup);
+        metric.setSource(source);
+        return metric;
+    }
+
+    private CompiledMetric compile(String name, String property) {
+        com.appdynamics.monitors.VMWare.metrics.Metric metric = new com.appdynamics.monitors.VMWare.metrics.Metric();
+        metric.setName(name);
+        metric.setProperty(property);
+        return CompiledMetric.compile(metric, ImmutableMap.<String, String>of());
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.collectors;
+
+import com.appdynamics.extensions.metrics.Metric;
+import com.appdynamics.monitors.VMWare.instrumentation.LatencyHistogram;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class CollectionDeadlineTest {
+
+    @Test
+    public void shouldDropAndCountCollectorsFinishingAfterTheDeadline() throws InterruptedException {
+        final CollectionDeadline collectionDeadline = new CollectionDeadline(60000);
+        final MetricSink collectedMetrics = new MetricSink();
+
+        CollectionDeadline.Budget finished = collectionDeadline.register("host-1", "host1");
+        Assert.assertTrue(finished.enter());
+        finished.exit(collectedMetrics, Collections.singletonList(new Metric("status", "1", "host1|Status")));
+
+        final CollectionDeadline.Budget hung = collectionDeadline.register("host-1", "host1");
+        final CountDownLatch entered = new CountDownLatch(1);
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        final AtomicBoolean interruptCleared = new AtomicBoolean();
+        Thread collector = new Thread(new Runnable() {
+            public void run() {
+                hung.enter();
+                entered.countDown();
+                try {
+                    Thread.sleep(60000);
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+                hung.exit(collectedMetrics, Collections.singletonList(new Metric("status", "1", "vm1|Status")));
+                interruptCleared.set(!Thread.currentThread().isInterrupted());
+            }
+        });
+        collector.start();
+        entered.await();
+
+        collectionDeadline.abandon();
+        collector.join(10000);
+
+        Assert.assertTrue("The hung collector should be interrupted", interrupted.get());
+        Assert.assertTrue(interruptCleared.get());
+        Assert.assertEquals("Only the metrics of the finished collector should be kept", 1, collectedMetrics.size());
+        Assert.assertEquals(Integer.valueOf(1), collectionDeadline.getTimedOutCounts().get("host1"));
+    }
+
+    @Test
+    public void shouldNotEnterAfterTheDeadline() {
+        CollectionDeadline collectionDeadline = new CollectionDeadline(0);
+        MetricSink collectedMetrics = new MetricSink();
+
+        CollectionDeadline.Budget budget = collectionDeadline.register("host-1", "host1");
+        Assert.assertTrue(collectionDeadline.isExpired());
+        Assert.assertFalse(budget.enter());
+        budget.exit(collectedMetrics, Collections.singletonList(new Metric("status", "1", "vm1|Status")));
+
+        Assert.assertEquals(0, collectedMetrics.size());
+        Assert.assertEquals(Integer.valueOf(1), collectionDeadline.getTimedOutCounts().get("host1"));
+    }
+
+    @Test
+    public void shouldRecordTheHostTimeOnceAllItsCollectorsFinished() throws InterruptedException {
+        LatencyHistogram hostCollectionTimes = new LatencyHistogram();
+        CollectionDeadline collectionDeadline = new CollectionDeadline(60000, hostCollectionTimes);
+        MetricSink collectedMetrics = new MetricSink();
+
+        CollectionDeadline.Budget host = collectionDeadline.register("host-1", "host1");
+        Assert.assertTrue(host.enter());
+        CollectionDeadline.Budget vm = collectionDeadline.register("host-1", "host1");
+        host.exit(collectedMetrics, Collections.<Metric>emptyList());
+        Assert.assertEquals("The host is not collected while its VM is running", 0, hostCollectionTimes.getCount());
+
+        Assert.assertTrue(vm.enter());
+        Thread.sleep(20);
+        vm.fail();
+        vm.exit(collectedMetrics, Collections.<Metric>emptyList());
+
+        Assert.assertEquals(1, hostCollectionTimes.getCount());
+        Assert.assertTrue(hostCollectionTimes.getMax() >= 20);
+        Assert.assertEquals(1, collectionDeadline.getFailedCount());
+    }
+
+    @Test
+    public void shouldKeepHostsWithTheSameNameApart() {
+        LatencyHistogram hostCollectionTimes = new LatencyHistogram();
+        CollectionDeadline collectionDeadline = new CollectionDeadline(60000, hostCollectionTimes);
+        MetricSink collectedMetrics = new MetricSink();
+
+        CollectionDeadline.Budget first = collectionDeadline.register("host-1", "esx");
+        CollectionDeadline.Budget second = collectionDeadline.register("host-2", "esx");
+        Assert.assertTrue(first.enter());
+        first.exit(collectedMetrics, Collections.<Metric>emptyList());
+        Assert.assertEquals("The first host is collected although the second did not start", 1, hostCollectionTimes.getCount());
+
+        Assert.assertEquals(1, (int) collectionDeadline.getTimedOutCounts().get("esx"));
+        Assert.assertTrue(second.enter());
+        second.exit(collectedMetrics, Collections.<Metric>emptyList());
+        Assert.assertEquals(2, hostCollectionTimes.getCount());
+    }
+
+    @Test
+    public void shouldCountCollectorBudgetsApartFromTheHosts() {
+        LatencyHistogram hostCollectionTimes = new LatencyHistogram();
+        CollectionDeadline collectionDeadline = new CollectionDeadline(60000, hostCollectionTimes);
+        MetricSink collectedMetrics = new MetricSink();
+
+        CollectionDeadline.Budget datastores = collectionDeadline.registerCollector("Datastore");
+        Assert.assertTrue(datastores.enter());
+        datastores.exit(collectedMetrics, Collections.singletonList(new Metric("Capacity", "100", "Datastore|ds1|Capacity")));
+        collectionDeadline.registerCollector("Datastore");
+
+        Assert.assertEquals(1, collectedMetrics.size());
+        Assert.assertEquals(Integer.valueOf(1), collectionDeadline.getTimedOutCollectorCounts().get("Datastore"));
+        Assert.assertTrue(collectionDeadline.getTimedOutCounts().isEmpty());
+        Assert.assertEquals("A collector budget is not a host collection", 0, hostCollectionTimes.getCount());
+    }
+
+    @Test
+    public void shouldReportThePartialMetricsOfACollectorOverItsEntityTimeout() throws InterruptedException {
+        final CollectionDeadline collectionDeadline = new CollectionDeadline(60000, 10, null);
+        final MetricSink collectedMetrics = new MetricSink();
+
+        final CollectionDeadline.Budget hung = collectionDeadline.register("host-1", "host1");
+        final CountDownLatch entered = new CountDownLatch(1);
+        Thread collector = new Thread(new Runnable() {
+            public void run() {
+                hung.enter();
+                entered.countDown();
+                try {
+                    Thread.sleep(60000);
+                } catch (InterruptedException e) {
+                    //interrupted by abandonExpired
+                }
+                hung.exit(collectedMetrics, Collections.singletonList(new Metric("status", "1", "vm1|Status")));
+            }
+        });
+        collector.start();
+        entered.await();
+        Thread.sleep(20);
+
+        Assert.assertTrue(hung.isExpired());
+        Assert.assertFalse("Only the entity timeout passed", collectionDeadline.isExpired());
+        collectionDeadline.abandonExpired();
+        collector.join(10000);
+
+        Assert.assertFalse("The collector over its entity timeout should be interrupted", collector.isAlive());
+        Assert.assertEquals("What it collected should still be reported", 1, collectedMetrics.size());
+        Assert.assertEquals(Integer.valueOf(1), collectionDeadline.getTimedOutCounts().get("host1"));
+
+        CollectionDeadline.Budget next = collectionDeadline.register("host-2", "host2");
+        Assert.assertTrue("Other collectors go on", next.enter());
+    }
+
+    @Test
+    public void shouldHandTheMetricsToTheSinkOutsideTheLock() {
+        final CollectionDeadline collectionDeadline = new CollectionDeadline(60000);
+        final AtomicBoolean lockHeld = new AtomicBoolean();
+        MetricSink collectedMetrics = new MetricSink() {
+            @Override
+            public void addAll(Collection<Metric> metrics) {
+                lockHeld.set(Thread.holdsLock(collectionDeadline));
+                super.addAll(metrics);
+            }
+        };
+
+        CollectionDeadline.Budget budget = collectionDeadline.register("host-1", "host1");
+        Assert.assertTrue(budget.enter());
+        budget.exit(collectedMetrics, Collections.singletonList(new Metric("status", "1", "host1|Status")));
+
+        Assert.assertEquals(1, collectedMetrics.size());
+        Assert.assertFalse("A printing sink must not block the other collectors", lockHeld.get());
+    }
+}
@@ -0,0 +1,21 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.collectors;
+
+import org.junit.Test;
+
+import java.util.concurrent.Phaser;
+
+public class CollectorContextTest {
+
+    @Test(expected = NullPointerException.class)
+    public void shouldNotCollectDeltaMetricsWithoutADeltaCalculator() {
+        new CollectorContext("Custom Metrics|vmware", new Phaser(1), new MetricSink(1), new CollectionDeadline(60000), null, null, null);
+    }
+}
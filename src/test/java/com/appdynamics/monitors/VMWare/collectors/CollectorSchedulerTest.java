@@ -0,0 +1,212 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.collectors;
+
+import com.appdynamics.monitors.VMWare.metrics.DeltaCalculator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CollectorSchedulerTest {
+
+    private CollectorScheduler collectorScheduler;
+
+    @After
+    public void tearDown() {
+        collectorScheduler.shutdown();
+    }
+
+    @Test
+    public void shouldNotRunMoreCollectorsOfAServerThanItsLimit() throws InterruptedException {
+        collectorScheduler = new CollectorScheduler(8, CollectorScheduler.DEFAULT_QUEUE_CAPACITY);
+        CollectorScheduler.ServerExecutor serverExecutor = collectorScheduler.forServer("vcenter1", 2, 2);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch finished = new CountDownLatch(50);
+
+        for (int i = 0; i < 50; i++) {
+            serverExecutor.execute("collector-" + i, new Runnable() {
+                public void run() {
+                    int now = running.incrementAndGet();
+                    maxRunning.accumulateAndGet(now, Math::max);
+                    try {
+                        Thread.sleep(2);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    finished.countDown();
+                }
+            });
+        }
+
+        Assert.assertTrue(finished.await(30, TimeUnit.SECONDS));
+        Assert.assertTrue("At most 2 collectors should run at once but saw " + maxRunning.get(), maxRunning.get() <= 2);
+    }
+
+    @Test
+    public void shouldRunInTheCallerWithinTheLimitWhenTheQueueIsFull() throws InterruptedException {
+        collectorScheduler = new CollectorScheduler(8, 2);
+        final CollectorScheduler.ServerExecutor serverExecutor = collectorScheduler.forServer("vcenter1", 1, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(3);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        Runnable blocked = new Runnable() {
+            public void run() {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                finished.countDown();
+            }
+        };
+        serverExecutor.execute("running", blocked);
+        serverExecutor.execute("waiting-1", blocked);
+        serverExecutor.execute("waiting-2", blocked);
+
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                release.countDown();
+            }
+        }).start();
+
+        final Thread caller = Thread.currentThread();
+        final AtomicInteger ranInCaller = new AtomicInteger();
+        serverExecutor.execute("overflow", new Runnable() {
+            public void run() {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                if (Thread.currentThread() == caller) {
+                    ranInCaller.incrementAndGet();
+                }
+                running.decrementAndGet();
+            }
+        });
+
+        Assert.assertEquals("The collector over the queue capacity should run in the caller", 1, ranInCaller.get());
+        Assert.assertTrue(finished.await(30, TimeUnit.SECONDS));
+        Assert.assertEquals("The caller should wait for a slot of the server", 1, maxRunning.get());
+    }
+
+    @Test
+    public void shouldRunInTheSlotOfACollectorSubmittingWithAFullQueue() throws InterruptedException {
+        collectorScheduler = new CollectorScheduler(8, 1);
+        final CollectorScheduler.ServerExecutor serverExecutor = collectorScheduler.forServer("vcenter1", 1, 1);
+        final CountDownLatch finished = new CountDownLatch(3);
+        final Runnable vm = new Runnable() {
+            public void run() {
+                finished.countDown();
+            }
+        };
+        serverExecutor.execute("host", new Runnable() {
+            public void run() {
+                //the first is queued, the others run in the slot of the host
+                for (int i = 0; i < 3; i++) {
+                    serverExecutor.execute("vm-" + i, vm);
+                }
+            }
+        });
+
+        Assert.assertTrue("A collector holding the only slot should not wait for another one", finished.await(30, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldFreeTheSlotOfAnAbandonedCollector() throws InterruptedException {
+        collectorScheduler = new CollectorScheduler(8, CollectorScheduler.DEFAULT_QUEUE_CAPACITY);
+        CollectorScheduler.ServerExecutor serverExecutor = collectorScheduler.forServer("vcenter1", 1, 1);
+        CollectionDeadline collectionDeadline = new CollectionDeadline(60000);
+        CollectorContext context = new CollectorContext("vcenter1", new Phaser(1), new MetricSink(), collectionDeadline, new DeltaCalculator(), null, null);
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch hang = new CountDownLatch(1);
+        serverExecutor.execute("hung", new BaseMetricCollector(context, "vcenter1", collectionDeadline.register("host-1", "host1")) {
+            public void run() {
+                getBudget().enter();
+                entered.countDown();
+                //a vCenter call which ignores the interrupt
+                while (hang.getCount() > 0) {
+                    try {
+                        hang.await();
+                    } catch (InterruptedException e) {
+                        //keeps blocking
+                    }
+                }
+                getBudget().exit(getCollectedMetrics(), Collections.<com.appdynamics.extensions.metrics.Metric>emptyList());
+            }
+        });
+        final CountDownLatch next = new CountDownLatch(1);
+        serverExecutor.execute("next", new Runnable() {
+            public void run() {
+                next.countDown();
+            }
+        });
+        Assert.assertTrue(entered.await(30, TimeUnit.SECONDS));
+        Assert.assertEquals(1, serverExecutor.getRunning());
+
+        collectionDeadline.abandon();
+
+        Assert.assertTrue("The next collector should get the slot of the abandoned one", next.await(30, TimeUnit.SECONDS));
+        hang.countDown();
+    }
+
+    @Test
+    public void shouldKeepTheExecutorOfAServerWhenItsLimitsChange() throws InterruptedException {
+        collectorScheduler = new CollectorScheduler(8, CollectorScheduler.DEFAULT_QUEUE_CAPACITY);
+        CollectorScheduler.ServerExecutor serverExecutor = collectorScheduler.forServer("vcenter1", 4, 4);
+        Semaphore requestPermits = serverExecutor.getRequestPermits();
+        Assert.assertTrue(requestPermits.tryAcquire(3));
+
+        Assert.assertSame("A run in flight should keep sharing the limits with the next one", serverExecutor, collectorScheduler.forServer("vcenter1", 2, 2));
+        Assert.assertEquals(2, serverExecutor.getMaxConcurrentCollectors());
+        Assert.assertEquals(2, serverExecutor.getLimit());
+        Assert.assertFalse("The permits held should count against the lower limit", requestPermits.tryAcquire());
+
+        requestPermits.release(3);
+        Assert.assertEquals(2, requestPermits.availablePermits());
+
+        collectorScheduler.forServer("vcenter1", 4, 6);
+        Assert.assertEquals(6, requestPermits.availablePermits());
+        Assert.assertEquals(4, serverExecutor.getLimit());
+    }
+
+
+    @Test
+    public void shouldShareTheThreadsByCollectionTimeKeepingAnEvenShare() {
+        collectorScheduler = new CollectorScheduler(8, CollectorScheduler.DEFAULT_QUEUE_CAPACITY);
+        CollectorScheduler.ServerExecutor large = collectorScheduler.forServer("large", 8, 8);
+        CollectorScheduler.ServerExecutor small = collectorScheduler.forServer("small", 8, 8);
+        Assert.assertEquals("Servers without a cycle should share evenly", 4, large.getLimit());
+        Assert.assertEquals(4, small.getLimit());
+
+        large.addBusyNanos(TimeUnit.MILLISECONDS.toNanos(900));
+        Assert.assertEquals(900, large.completeCycle());
+        small.addBusyNanos(TimeUnit.MILLISECONDS.toNanos(100));
+        small.completeCycle();
+
+        Assert.assertEquals(6, large.getLimit());
+        Assert.assertEquals("The small server should keep its even share of half the threads", 2, small.getLimit());
+
+        collectorScheduler.retainServers(Collections.singletonList("small"));
+        Assert.assertEquals("The remaining server may use all threads", 8, small.getLimit());
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.collectors;
+
+import com.appdynamics.extensions.metrics.Metric;
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.inventory.NameMatcher;
+import com.appdynamics.monitors.VMWare.metrics.DatastoreMetrics;
+import com.appdynamics.monitors.VMWare.metrics.DeltaCalculator;
+import com.appdynamics.monitors.VMWare.performance.PerfCounterCache;
+import com.appdynamics.monitors.VMWare.performance.PerformanceCollector;
+import com.vmware.vim25.ElementDescription;
+import com.vmware.vim25.ManagedEntityStatus;
+import com.vmware.vim25.PerfCounterInfo;
+import com.vmware.vim25.PerfEntityMetric;
+import com.vmware.vim25.PerfEntityMetricBase;
+import com.vmware.vim25.PerfMetricId;
+import com.vmware.vim25.PerfMetricIntSeries;
+import com.vmware.vim25.PerfMetricSeries;
+import com.vmware.vim25.PerfQuerySpec;
+import com.vmware.vim25.PerfSummaryType;
+import com.vmware.vim25.mo.PerformanceManager;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Phaser;
+
+import static com.appdynamics.monitors.VMWare.TestFixtures.createEntity;
+import static com.appdynamics.monitors.VMWare.TestFixtures.toMap;
+
+public class DatastoreMetricCollectorTest {
+
+    private static final String METRIC_PREFIX = "Custom Metrics|vmware|Status|TestVMWare";
+
+    @Test
+    public void shouldCollectTheSelectedDatastoresWithTheirHostLatency() {
+        PerformanceManager performanceManager = new PerformanceManager(null, null) {
+            @Override
+            public PerfEntityMetricBase[] queryPerf(PerfQuerySpec[] querySpecs) {
+                PerfMetricIntSeries series = new PerfMetricIntSeries();
+                PerfMetricId id = new PerfMetricId();
+                id.setCounterId(querySpecs[0].getMetricId()[0].getCounterId());
+                id.setInstance("5a1b2c3d-0001");
+                series.setId(id);
+                series.setValue(new long[]{7});
+                PerfEntityMetric result = new PerfEntityMetric();
+                result.setEntity(querySpecs[0].getEntity());
+                result.setValue(new PerfMetricSeries[]{series});
+                return new PerfEntityMetricBase[]{result};
+            }
+        };
+        PerformanceCollector performanceCollector = new PerformanceCollector(performanceManager, createCounters(), 64);
+
+        List<EntityData> datastores = Arrays.asList(
+                createDatastore("ds-prod-1", "ds:///vmfs/volumes/5a1b2c3d-0001/", 1000L, 250L),
+                createDatastore("ds-prod-local", "ds:///vmfs/volumes/5a1b2c3d-0002/", 100L, 50L),
+                createDatastore("ds-test", "ds:///vmfs/volumes/5a1b2c3d-0003/", 100L, 50L));
+        MetricSink collectedMetrics = new MetricSink();
+
+        CollectorContext context = new CollectorContext(METRIC_PREFIX, new Phaser(), collectedMetrics, new CollectionDeadline(60000), new DeltaCalculator(), null, performanceCollector);
+        new DatastoreMetricCollector(context, datastores, Collections.singletonList(createEntity("HostSystem", "host-1", "host-1")),
+                NameMatcher.compile(Collections.singletonList("ds-prod-*")), NameMatcher.compile(Collections.singletonList("*-local")),
+                createDatastoreMetrics()).run();
+
+        Map<String, String> metrics = toMap(collectedMetrics.drain());
+        String datastorePath = METRIC_PREFIX + "|Datastore|ds-prod-1|";
+        Assert.assertEquals("Only the status and the 4 metrics of ds-prod-1 should be collected", 5, metrics.size());
+        Assert.assertEquals("1", metrics.get(datastorePath + "Status"));
+        Assert.assertEquals("1000", metrics.get(datastorePath + "Capacity"));
+        Assert.assertEquals("250", metrics.get(datastorePath + "Free Space"));
+        Assert.assertEquals("75", metrics.get(datastorePath + "Used %"));
+        Assert.assertEquals("7", metrics.get(datastorePath + "Read Latency"));
+        Assert.assertEquals("The latency sample should not be kept on the datastore", 5, datastores.get(0).getProperties().size());
+    }
+
+    @Test
+    public void shouldReadTheCounterInstanceFromTheUrl() {
+        Assert.assertEquals("5a1b2c3d-0001", DatastoreMetricCollector.getInstanceId(createDatastore("ds1", "ds:///vmfs/volumes/5a1b2c3d-0001/", 0L, 0L)));
+        Assert.assertEquals("f1e2d3c4-aabb", DatastoreMetricCollector.getInstanceId(createDatastore("ds2", "ds:///vmfs/volumes/f1e2d3c4-aabb", 0L, 0L)));
+        Assert.assertNull(DatastoreMetricCollector.getInstanceId(createEntity("Datastore", "datastore-3", "datastore-3")));
+    }
+
+    private DatastoreMetrics createDatastoreMetrics() {
+        DatastoreMetrics datastoreMetrics = new DatastoreMetrics();
+        datastoreMetrics.setMetrics(new com.appdynamics.monitors.VMWare.metrics.Metric[]{
+                createMetric("Capacity", null), createMetric("Free Space", null), createMetric("Used %", null),
+                createMetric("Read Latency", "datastore.totalReadLatency.average")});
+        datastoreMetrics.compile();
+        return datastoreMetrics;
+    }
+
+    private com.appdynamics.monitors.VMWare.metrics.Metric createMetric(String name, String counter) {
+        com.appdynamics.monitors.VMWare.metrics.Metric metric = new com.appdynamics.monitors.VMWare.metrics.Metric();
+        metric.setName(name);
+        metric.setCounter(counter);
+        return metric;
+    }
+
+    private PerfCounterCache createCounters() {
+        ElementDescription group = new ElementDescription();
+        group.setKey("datastore");
+        ElementDescription name = new ElementDescription();
+        name.setKey("totalReadLatency");
+        PerfCounterInfo counter = new PerfCounterInfo();
+        counter.setKey(21);
+        counter.setGroupInfo(group);
+        counter.setNameInfo(name);
+        counter.setRollupType(PerfSummaryType.average);
+        return new PerfCounterCache(new PerfCounterInfo[]{counter});
+    }
+
+    private EntityData createDatastore(String name, String url, long capacity, long freeSpace) {
+        EntityData datastore = createEntity("Datastore", name, name);
+        datastore.setProperty("overallStatus", ManagedEntityStatus.green);
+        datastore.setProperty("summary.url", url);
+        datastore.setProperty("summary.capacity", capacity);
+        datastore.setProperty("summary.freeSpace", freeSpace);
+        return datastore;
+    }
+}
@@ -1,15 +1,14 @@
 package com.appdynamics.monitors.VMWare.collectors;
 
-import com.appdynamics.extensions.executorservice.MonitorExecutorService;
 import com.appdynamics.extensions.metrics.Metric;
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.inventory.HostConfigMatcher;
+import com.appdynamics.monitors.VMWare.inventory.PropertyPaths;
+import com.appdynamics.monitors.VMWare.metrics.DeltaCalculator;
 import com.appdynamics.monitors.VMWare.metrics.HostMetrics;
 import com.appdynamics.monitors.VMWare.metrics.VMWareMetrics;
-import com.vmware.vim25.HostCpuInfo;
-import com.vmware.vim25.HostHardwareInfo;
-import com.vmware.vim25.HostListSummary;
-import com.vmware.vim25.HostListSummaryQuickStats;
 import com.vmware.vim25.ManagedEntityStatus;
-import com.vmware.vim25.mo.HostSystem;
+import com.vmware.vim25.ManagedObjectReference;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -28,33 +27,12 @@ import java.util.concurrent.Phaser;
 @PrepareForTest({HostMetricCollector.class})
 public class HostMetricCollectorTest {
 
-    @Mock
-    private HostSystem hostEntity;
-
     @Mock
     private Phaser metricCollectorsPhaser;
 
-    @Mock
-    private MonitorExecutorService executorService;
-
     @Mock
     private VMWareMetrics vmWareMetrics;
 
-    @Mock
-    private HostListSummary hostListSummary;
-
-    @Mock
-    private HostListSummaryQuickStats hostListSummaryQuickStats;
-
-    @Mock
-    private HostHardwareInfo hostHardwareInfo;
-
-    @Mock
-    private HostCpuInfo hostCpuInfo;
-
-    @Mock
-    private HostMetrics hostMetrics;
-
 
     @Test
     public void shouldNotCollectHostMetricsWhenStatusIsRed() {
@@ -63,20 +41,18 @@ public class HostMetricCollectorTest {
         hostConfig.put("host", "host1");
         hostConfigs.add(hostConfig);
 
-        List<Metric> collectedMetrics = new ArrayList<>();
+        MetricSink collectedMetrics = new MetricSink();
 
         String metricPrefix = "Custom Metrics|vmware|Status|TestVMWare";
 
-        Mockito.when(hostEntity.getName()).thenReturn("host1");
-
-        Mockito.when(hostEntity.getOverallStatus()).thenReturn(ManagedEntityStatus.red);
+        EntityData hostEntity = createHost(ManagedEntityStatus.red);
 
-
-        HostMetricCollector hostMetricCollector = new HostMetricCollector(metricPrefix, hostEntity, hostConfigs, metricCollectorsPhaser, executorService, collectedMetrics, vmWareMetrics);
+        HostMetricCollector hostMetricCollector = new HostMetricCollector(new CollectorContext(metricPrefix, metricCollectorsPhaser, collectedMetrics, new CollectionDeadline(60000), new DeltaCalculator(), null, null), hostEntity, new ArrayList<EntityData>(), HostConfigMatcher.compile(hostConfigs, null), vmWareMetrics, null, null, null);
         hostMetricCollector.run();
 
-        Assert.assertEquals("Collected metrics should be 1", 1, collectedMetrics.size());
-        Metric metric = collectedMetrics.get(0);
+        List<Metric> metrics = collectedMetrics.drain();
+        Assert.assertEquals("Collected metrics should be 1", 1, metrics.size());
+        Metric metric = metrics.get(0);
         String metricName = metric.getMetricPath();
         String metricValue = metric.getMetricValue();
         Assert.assertEquals("Metric name should be the host status", "Custom Metrics|vmware|Status|TestVMWare|HostSystem|host1|Status", metricName);
@@ -90,41 +66,30 @@ public class HostMetricCollectorTest {
         hostConfig.put("host", "host1");
         hostConfigs.add(hostConfig);
 
-        List<Metric> collectedMetrics = new ArrayList<>();
+        MetricSink collectedMetrics = new MetricSink();
 
         String metricPrefix = "Custom Metrics|vmware|Status|TestVMWare";
 
-        Mockito.when(hostEntity.getName()).thenReturn("host1");
-
-        Mockito.when(hostEntity.getOverallStatus()).thenReturn(ManagedEntityStatus.green);
-
-        Mockito.when(hostEntity.getSummary()).thenReturn(hostListSummary);
-
-        Mockito.when(hostListSummary.getQuickStats()).thenReturn(hostListSummaryQuickStats);
-
-        Mockito.when(hostListSummaryQuickStats.getOverallCpuUsage()).thenReturn(3);
-        Mockito.when(hostListSummaryQuickStats.getOverallMemoryUsage()).thenReturn(20);
-
-        Mockito.when(hostEntity.getHardware()).thenReturn(hostHardwareInfo);
-
-        Mockito.when(hostHardwareInfo.getCpuInfo()).thenReturn(hostCpuInfo);
-
-        Mockito.when(hostCpuInfo.getHz()).thenReturn(2l);
-
-        Mockito.when(hostCpuInfo.getNumCpuCores()).thenReturn((short) 4);
-
-        Mockito.when(vmWareMetrics.getHostMetrics()).thenReturn(hostMetrics);
+        EntityData hostEntity = createHost(ManagedEntityStatus.green);
+        hostEntity.setProperty("summary.quickStats.overallCpuUsage", 3);
+        hostEntity.setProperty("summary.quickStats.overallMemoryUsage", 20);
+        hostEntity.setProperty("hardware.cpuInfo.hz", 2L);
+        hostEntity.setProperty("hardware.cpuInfo.numCpuCores", (short) 4);
 
         com.appdynamics.monitors.VMWare.metrics.Metric[] metrics = setupMetrics();
 
-        Mockito.when(hostMetrics.getMetrics()).thenReturn(metrics);
+        HostMetrics hostMetrics = new HostMetrics();
+        hostMetrics.setMetrics(metrics);
+        hostMetrics.compile();
+        Mockito.when(vmWareMetrics.getHostMetrics()).thenReturn(hostMetrics);
 
-        HostMetricCollector hostMetricCollector = new HostMetricCollector(metricPrefix, hostEntity, hostConfigs, metricCollectorsPhaser, executorService, collectedMetrics, vmWareMetrics);
+        HostMetricCollector hostMetricCollector = new HostMetricCollector(new CollectorContext(metricPrefix, metricCollectorsPhaser, collectedMetrics, new CollectionDeadline(60000), new DeltaCalculator(), null, null), hostEntity, new ArrayList<EntityData>(), HostConfigMatcher.compile(hostConfigs, null), vmWareMetrics, null, null, null);
         hostMetricCollector.run();
 
-        Assert.assertTrue("Collected metrics should be > 1", collectedMetrics.size() > 1);
+        List<Metric> collected = collectedMetrics.drain();
+        Assert.assertEquals("Status and the 3 configured metrics should be collected", 4, collected.size());
 
-        for (Metric metric : collectedMetrics) {
+        for (Metric metric : collected) {
 
             String metricName = metric.getMetricName();
             if ("status".equals(metricName)) {
@@ -139,6 +104,16 @@ public class HostMetricCollectorTest {
         }
     }
 
+    private EntityData createHost(ManagedEntityStatus status) {
+        ManagedObjectReference mor = new ManagedObjectReference();
+        mor.setType("HostSystem");
+        mor.setVal("host-1");
+        EntityData hostEntity = new EntityData(mor);
+        hostEntity.setProperty(PropertyPaths.NAME, "host1");
+        hostEntity.setProperty(PropertyPaths.OVERALL_STATUS, status);
+        return hostEntity;
+    }
+
     private com.appdynamics.monitors.VMWare.metrics.Metric[] setupMetrics() {
         com.appdynamics.monitors.VMWare.metrics.Metric metric1 = new com.appdynamics.monitors.VMWare.metrics.Metric();
         metric1.setName("Overall CPU Usage");
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.collectors;
+
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.inventory.PropertyPaths;
+import com.appdynamics.monitors.VMWare.metrics.CompiledMetric;
+import com.appdynamics.monitors.VMWare.metrics.DeltaCalculator;
+import com.appdynamics.monitors.VMWare.metrics.Metric;
+import com.appdynamics.monitors.VMWare.metrics.VMMetrics;
+import com.appdynamics.monitors.VMWare.util.RunCycles;
+import com.vmware.vim25.ManagedEntityStatus;
+import com.vmware.vim25.ManagedObjectReference;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Phaser;
+
+public class MetricPathRegistryTest {
+
+    private static final String HOST_PATH = "Custom Metrics|vmware|vcenter1|HostSystem|esx-1";
+
+    @Test
+    public void shouldBuildThePathsOfAnEntityOnce() {
+        CompiledMetric[] metrics = createVMMetrics().getCompiledMetrics();
+        MetricPathRegistry pathRegistry = new MetricPathRegistry();
+        EntityData vm = createVM("vm-1", "web|01");
+
+        MetricPathRegistry.EntityPaths paths = pathRegistry.get(HOST_PATH, "VirtualMachine", vm, metrics);
+        pathRegistry.completeCycle();
+
+        Assert.assertSame(paths, pathRegistry.get(HOST_PATH, "VirtualMachine", vm, metrics));
+        Assert.assertEquals("A | in the name should not add a level", HOST_PATH + "|VirtualMachine|web-01", paths.getBasePath());
+        Assert.assertEquals(HOST_PATH + "|VirtualMachine|web-01|Status", paths.getStatusPath());
+        Assert.assertEquals(HOST_PATH + "|VirtualMachine|web-01|Up Time", paths.getMetricPath(1));
+    }
+
+    @Test
+    public void shouldRebuildThePathsOnRenameAndMove() {
+        CompiledMetric[] metrics = createVMMetrics().getCompiledMetrics();
+        MetricPathRegistry pathRegistry = new MetricPathRegistry();
+        EntityData vm = createVM("vm-1", "web01");
+        pathRegistry.get(HOST_PATH, "VirtualMachine", vm, metrics);
+
+        vm.setProperty(PropertyPaths.NAME, "web02");
+        Assert.assertEquals(HOST_PATH + "|VirtualMachine|web02|Ballooned Memory", pathRegistry.get(HOST_PATH, "VirtualMachine", vm, metrics).getMetricPath(0));
+
+        String otherHostPath = "Custom Metrics|vmware|vcenter1|HostSystem|esx-2";
+        Assert.assertEquals(otherHostPath + "|VirtualMachine|web02|Ballooned Memory", pathRegistry.get(otherHostPath, "VirtualMachine", vm, metrics).getMetricPath(0));
+        Assert.assertEquals(1, pathRegistry.size());
+    }
+
+    @Test
+    public void shouldEvictEntitiesNotCollectedForThreeRuns() {
+        CompiledMetric[] metrics = createVMMetrics().getCompiledMetrics();
+        MetricPathRegistry pathRegistry = new MetricPathRegistry();
+        EntityData vm1 = createVM("vm-1", "web01");
+        EntityData vm2 = createVM("vm-2", "web02");
+        pathRegistry.get(HOST_PATH, "VirtualMachine", vm1, metrics);
+        for (int run = 0; run < RunCycles.EVICT_AFTER_CYCLES; run++) {
+            pathRegistry.get(HOST_PATH, "VirtualMachine", vm2, metrics);
+            pathRegistry.completeCycle();
+        }
+        Assert.assertEquals(1, pathRegistry.size());
+    }
+
+    @Test
+    public void shouldReuseThePathsAcrossRuns() {
+        VMMetrics vmMetrics = createVMMetrics();
+        MetricPathRegistry pathRegistry = new MetricPathRegistry();
+        EntityData vm = createVM("vm-1", "web01");
+
+        Map<String, String> firstRun = toPaths(collect(vm, vmMetrics, pathRegistry, true));
+        Map<String, String> secondRun = toPaths(collect(vm, vmMetrics, pathRegistry, false));
+        Map<String, String> withoutRegistry = toPaths(collect(vm, vmMetrics, null, true));
+
+        Assert.assertEquals(withoutRegistry, firstRun);
+        Assert.assertEquals(3, secondRun.size());
+        for (Map.Entry<String, String> path : secondRun.entrySet()) {
+            Assert.assertSame(firstRun.get(path.getKey()), path.getValue());
+        }
+    }
+
+    private List<com.appdynamics.extensions.metrics.Metric> collect(EntityData vm, VMMetrics vmMetrics, MetricPathRegistry pathRegistry, boolean withTable) {
+        MetricSink collectedMetrics = new MetricSink(1);
+        MetricTable vmTable = withTable ? new MetricTable(vmMetrics.getCompiledMetrics(), 1) : null;
+        CollectionDeadline collectionDeadline = new CollectionDeadline(60000);
+        CollectorContext context = new CollectorContext(HOST_PATH, new Phaser(1), collectedMetrics, collectionDeadline, new DeltaCalculator(), pathRegistry, null);
+        new VMMetricCollector(context, Collections.singletonList(vm), HOST_PATH, vmMetrics, null, collectionDeadline.register("host-1", "esx-1"), null, vmTable).run();
+        return collectedMetrics.drain();
+    }
+
+    private Map<String, String> toPaths(List<com.appdynamics.extensions.metrics.Metric> metrics) {
+        Map<String, String> paths = new HashMap<>();
+        for (com.appdynamics.extensions.metrics.Metric metric : metrics) {
+            paths.put(metric.getMetricPath(), metric.getMetricPath());
+        }
+        return paths;
+    }
+
+    private VMMetrics createVMMetrics() {
+        Metric balloonedMemory = new Metric();
+        balloonedMemory.setName("Ballooned Memory");
+        Metric upTime = new Metric();
+        upTime.setName("Up Time");
+
+        VMMetrics vmMetrics = new VMMetrics();
+        vmMetrics.setMetrics(new Metric[]{balloonedMemory, upTime});
+        vmMetrics.compile();
+        return vmMetrics;
+    }
+
+    private EntityData createVM(String id, String name) {
+        ManagedObjectReference mor = new ManagedObjectReference();
+        mor.setType("VirtualMachine");
+        mor.setVal(id);
+        EntityData vm = new EntityData(mor);
+        vm.setProperty(PropertyPaths.NAME, name);
+        vm.setProperty(PropertyPaths.OVERALL_STATUS, ManagedEntityStatus.green);
+        vm.setProperty("summary.quickStats.balloonedMemory", 10);
+        vm.setProperty("summary.quickStats.uptimeSeconds", 3600);
+        return vm;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.collectors;
+
+import com.appdynamics.extensions.MetricWriteHelper;
+import com.appdynamics.extensions.metrics.Metric;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+
+public class MetricSinkTest {
+
+    @Test
+    public void shouldKeepAllMetricsAddedConcurrently() throws InterruptedException {
+        final MetricSink sink = new MetricSink(4);
+        final int threads = 8;
+        final int metricsPerThread = 5000;
+        final CountDownLatch start = new CountDownLatch(1);
+
+        Thread[] writers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int writer = i;
+            writers[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < metricsPerThread; j++) {
+                        sink.add(new Metric("m", String.valueOf(j), "Custom Metrics|" + writer + "|" + j));
+                    }
+                }
+            });
+            writers[i].start();
+        }
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        Assert.assertEquals(threads * metricsPerThread, sink.size());
+
+        List<Metric> metrics = sink.drain();
+        Set<String> paths = new HashSet<>();
+        for (Metric metric : metrics) {
+            paths.add(metric.getMetricPath());
+        }
+        Assert.assertEquals(threads * metricsPerThread, paths.size());
+        Assert.assertEquals("Drain should empty the sink", 0, sink.size());
+    }
+
+    @Test
+    public void shouldPrintInChunksAsBatchesComplete() throws InterruptedException {
+        MetricWriteHelper metricWriteHelper = Mockito.mock(MetricWriteHelper.class);
+        final List<Integer> printed = new ArrayList<>();
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation) {
+                printed.add(((List<?>) invocation.getArguments()[0]).size());
+                return null;
+            }
+        }).when(metricWriteHelper).transformAndPrintMetrics(anyList());
+
+        MetricSink sink = new MetricSink(metricWriteHelper, 3);
+        sink.addAll(batch(2));
+        Assert.assertFalse("Nothing should be printed below the chunk size", sink.awaitFlushRequest(0));
+
+        sink.addAll(batch(5));
+        Assert.assertTrue("The collectors should not print themselves", printed.isEmpty());
+        Assert.assertTrue(sink.awaitFlushRequest(0));
+        sink.flush();
+        Assert.assertEquals(Arrays.asList(3, 3, 1), printed);
+        Assert.assertEquals(0, sink.size());
+
+        sink.add(new Metric("m", "1", "Custom Metrics|last"));
+        sink.flush();
+        Assert.assertEquals(Arrays.asList(3, 3, 1, 1), printed);
+        Assert.assertEquals(8, sink.getPrintedCount());
+    }
+
+    @Test
+    public void shouldWakeTheWaitingTaskWhenAChunkIsAdded() throws InterruptedException {
+        final MetricSink sink = new MetricSink(Mockito.mock(MetricWriteHelper.class), 3);
+        Thread collector = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                sink.addAll(batch(3));
+            }
+        });
+        collector.start();
+
+        long start = System.currentTimeMillis();
+        Assert.assertTrue(sink.awaitFlushRequest(30000));
+        Assert.assertTrue(System.currentTimeMillis() - start < 30000);
+        collector.join();
+
+        sink.wakeUp();
+        Assert.assertFalse("A wake up is not a flush request", sink.awaitFlushRequest(30000));
+    }
+
+    private List<Metric> batch(int size) {
+        List<Metric> metrics = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            metrics.add(new Metric("m", String.valueOf(i), "Custom Metrics|" + i));
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.collectors;
+
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.inventory.PropertyPaths;
+import com.appdynamics.monitors.VMWare.metrics.DeltaCalculator;
+import com.appdynamics.monitors.VMWare.metrics.Metric;
+import com.appdynamics.monitors.VMWare.metrics.VMMetrics;
+import com.vmware.vim25.ManagedEntityStatus;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Phaser;
+
+import static com.appdynamics.monitors.VMWare.TestFixtures.createEntity;
+import static com.appdynamics.monitors.VMWare.TestFixtures.toMap;
+
+public class MetricTableTest {
+
+    private static final String BASE_METRIC_PATH = "Custom Metrics|vmware|HostSystem|host1";
+    private static final int VMS = 2000;
+
+    @Test
+    public void shouldReportTheSameMetricsAsWithoutTable() {
+        VMMetrics vmMetrics = createVMMetrics();
+        List<EntityData> vms = createVMs(3);
+        vms.get(2).setProperty(PropertyPaths.OVERALL_STATUS, ManagedEntityStatus.red);
+        vms.get(1).setProperty("summary.quickStats.uptimeSeconds", null);
+
+        List<com.appdynamics.extensions.metrics.Metric> expected = collect(vms, vmMetrics, null);
+        List<com.appdynamics.extensions.metrics.Metric> actual = collect(vms, vmMetrics, new MetricTable(vmMetrics.getCompiledMetrics(), vms.size()));
+
+        Assert.assertEquals("3 statuses, 3 values of vm0 and 2 of vm1", 8, expected.size());
+        Assert.assertEquals(toMap(expected), toMap(actual));
+        for (com.appdynamics.extensions.metrics.Metric metric : actual) {
+            if (metric.getMetricPath().endsWith("|Ballooned Memory")) {
+                Assert.assertEquals("Ballooned", metric.getMetricProperties().get("alias"));
+            }
+        }
+    }
+
+    @Test
+    public void shouldAddTheMetricsOfEntitiesBeyondTheCapacity() {
+        VMMetrics vmMetrics = createVMMetrics();
+        List<EntityData> vms = createVMs(3);
+        MetricTable vmTable = new MetricTable(vmMetrics.getCompiledMetrics(), 1);
+
+        MetricSink collectedMetrics = collectUndrained(vms, vmMetrics, vmTable, null);
+        Assert.assertEquals(MetricTable.NO_ROW, vmTable.addRow(new MetricPathRegistry.EntityPaths(BASE_METRIC_PATH, "VirtualMachine", "vm0", vmMetrics.getCompiledMetrics())));
+        Assert.assertEquals(toMap(collect(vms, vmMetrics, null)), toMap(collectedMetrics.drain()));
+    }
+
+    @Test
+    public void shouldNotReportTheRowsOfAbandonedCollectors() {
+        VMMetrics vmMetrics = createVMMetrics();
+        MetricTable vmTable = new MetricTable(vmMetrics.getCompiledMetrics(), 1);
+        MetricSink collectedMetrics = new MetricSink(1);
+        CollectionDeadline collectionDeadline = new CollectionDeadline(60000);
+        CollectionDeadline.Budget budget = collectionDeadline.register("host-1", "host1");
+
+        Assert.assertTrue(budget.enter());
+        int row = vmTable.addRow(new MetricPathRegistry.EntityPaths(BASE_METRIC_PATH, "VirtualMachine", "vm0", vmMetrics.getCompiledMetrics()));
+        vmTable.set(row, 0, 10);
+        collectionDeadline.abandon();
+        budget.exit(collectedMetrics, new ArrayList<com.appdynamics.extensions.metrics.Metric>(), vmTable, row);
+
+        Assert.assertEquals(0, collectedMetrics.size());
+        Assert.assertTrue(collectedMetrics.drain().isEmpty());
+    }
+
+    @Test
+    public void shouldAllocateLessThanMetricObjectsIncludingThePrintedConversion() {
+        com.sun.management.ThreadMXBean threadMXBean = getThreadMXBean();
+        Assume.assumeTrue(threadMXBean != null && threadMXBean.isThreadAllocatedMemoryEnabled());
+
+        VMMetrics vmMetrics = createVMMetrics();
+        List<EntityData> vms = createVMs(VMS);
+        MetricPathRegistry pathRegistry = new MetricPathRegistry();
+        collectUndrained(vms, vmMetrics, null, pathRegistry).drain();
+        collectUndrained(vms, vmMetrics, new MetricTable(vmMetrics.getCompiledMetrics(), VMS), pathRegistry).drain();
+
+        long threadId = Thread.currentThread().getId();
+        long start = threadMXBean.getThreadAllocatedBytes(threadId);
+        List<com.appdynamics.extensions.metrics.Metric> fromObjects = collectUndrained(vms, vmMetrics, null, pathRegistry).drain();
+        long metricBytes = threadMXBean.getThreadAllocatedBytes(threadId) - start;
+
+        start = threadMXBean.getThreadAllocatedBytes(threadId);
+        List<com.appdynamics.extensions.metrics.Metric> fromTable = collectUndrained(vms, vmMetrics, new MetricTable(vmMetrics.getCompiledMetrics(), VMS), pathRegistry).drain();
+        long tableBytes = threadMXBean.getThreadAllocatedBytes(threadId) - start;
+
+        Assert.assertEquals(fromObjects.size(), fromTable.size());
+        Assert.assertTrue("Collecting into the table and converting the rows [" + tableBytes + " bytes] should allocate less than the metric objects [" + metricBytes + " bytes]", tableBytes < metricBytes);
+    }
+
+    @Test
+    public void shouldReuseThePrintedRows() {
+        VMMetrics vmMetrics = createVMMetrics();
+        List<EntityData> vms = createVMs(4);
+        MetricTable vmTable = new MetricTable(vmMetrics.getCompiledMetrics(), 2);
+        MetricSink collectedMetrics = new MetricSink(1);
+        CollectionDeadline collectionDeadline = new CollectionDeadline(60000);
+        CollectorContext context = new CollectorContext(BASE_METRIC_PATH, new Phaser(1), collectedMetrics, collectionDeadline, new DeltaCalculator(), null, null);
+
+        List<com.appdynamics.extensions.metrics.Metric> printed = new ArrayList<>();
+        for (EntityData vm : vms) {
+            new VMMetricCollector(context, Collections.singletonList(vm), BASE_METRIC_PATH, vmMetrics, null, collectionDeadline.register("host-1", "host1"), null, vmTable).run();
+            printed.addAll(collectedMetrics.drain());
+        }
+
+        Assert.assertEquals(toMap(collect(vms, vmMetrics, null)), toMap(printed));
+        int row = vmTable.addRow(new MetricPathRegistry.EntityPaths(BASE_METRIC_PATH, "VirtualMachine", "vm4", vmMetrics.getCompiledMetrics()));
+        Assert.assertTrue("Printing should free the row for the next VM", row != MetricTable.NO_ROW);
+    }
+
+    private List<com.appdynamics.extensions.metrics.Metric> collect(List<EntityData> vms, VMMetrics vmMetrics, MetricTable vmTable) {
+        return collectUndrained(vms, vmMetrics, vmTable, null).drain();
+    }
+
+    private MetricSink collectUndrained(List<EntityData> vms, VMMetrics vmMetrics, MetricTable vmTable, MetricPathRegistry pathRegistry) {
+        MetricSink collectedMetrics = new MetricSink(1);
+        Phaser phaser = new Phaser(1);
+        CollectionDeadline collectionDeadline = new CollectionDeadline(60000);
+        CollectorContext context = new CollectorContext(BASE_METRIC_PATH, phaser, collectedMetrics, collectionDeadline, new DeltaCalculator(), pathRegistry, null);
+        new VMMetricCollector(context, vms, BASE_METRIC_PATH, vmMetrics, null, collectionDeadline.register("host-1", "host1"), null, vmTable).run();
+        return collectedMetrics;
+    }
+
+    private com.sun.management.ThreadMXBean getThreadMXBean() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        return threadMXBean instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) threadMXBean : null;
+    }
+
+    private VMMetrics createVMMetrics() {
+        List<Metric> metrics = new ArrayList<>();
+        for (String name : new String[]{"Ballooned Memory", "Overall CPU Usage", "Up Time"}) {
+            Metric metric = new Metric();
+            metric.setName(name);
+            metric.setAlias(name.split(" ")[0]);
+            metrics.add(metric);
+        }
+
+        VMMetrics vmMetrics = new VMMetrics();
+        vmMetrics.setMetrics(metrics.toArray(new Metric[metrics.size()]));
+        vmMetrics.compile();
+        return vmMetrics;
+    }
+
+    private List<EntityData> createVMs(int count) {
+        List<EntityData> vms = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            EntityData vm = createEntity("VirtualMachine", "vm-" + i, "vm" + i);
+            vm.setProperty(PropertyPaths.OVERALL_STATUS, ManagedEntityStatus.green);
+            vm.setProperty("summary.quickStats.balloonedMemory", 10 + i);
+            vm.setProperty("summary.quickStats.overallCpuUsage", 300.5);
+            vm.setProperty("summary.quickStats.uptimeSeconds", 3600);
+            vms.add(vm);
+        }
+        return vms;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.collectors;
+
+import com.appdynamics.extensions.metrics.Metric;
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.inventory.NameMatcher;
+import com.appdynamics.monitors.VMWare.metrics.DeltaCalculator;
+import com.appdynamics.monitors.VMWare.metrics.NetworkMetrics;
+import com.appdynamics.monitors.VMWare.performance.PerfCounterCache;
+import com.appdynamics.monitors.VMWare.performance.PerformanceCollector;
+import com.google.common.collect.ImmutableMap;
+import com.vmware.vim25.DistributedVirtualSwitchPortConnection;
+import com.vmware.vim25.ElementDescription;
+import com.vmware.vim25.HostVirtualSwitch;
+import com.vmware.vim25.PerfCounterInfo;
+import com.vmware.vim25.PerfEntityMetric;
+import com.vmware.vim25.PerfEntityMetricBase;
+import com.vmware.vim25.PerfMetricId;
+import com.vmware.vim25.PerfMetricIntSeries;
+import com.vmware.vim25.PerfMetricSeries;
+import com.vmware.vim25.PerfQuerySpec;
+import com.vmware.vim25.PerfSummaryType;
+import com.vmware.vim25.PhysicalNic;
+import com.vmware.vim25.VirtualDevice;
+import com.vmware.vim25.VirtualDisk;
+import com.vmware.vim25.VirtualEthernetCardDistributedVirtualPortBackingInfo;
+import com.vmware.vim25.VirtualVmxnet3;
+import com.vmware.vim25.mo.PerformanceManager;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Phaser;
+
+import static com.appdynamics.monitors.VMWare.TestFixtures.createEntity;
+import static com.appdynamics.monitors.VMWare.TestFixtures.toMap;
+
+public class NetworkMetricCollectorTest {
+
+    private static final String METRIC_PREFIX = "Custom Metrics|vmware|Status|TestVMWare";
+    private static final int BYTES_RX = 31;
+    private static final int DROPPED_RX = 32;
+
+    private static final Map<String, Map<String, Long>> BYTES_BY_ENTITY = ImmutableMap.<String, Map<String, Long>>of(
+            "host-1", ImmutableMap.of("vmnic0", 100L, "vmnic1", 40L, "", 140L),
+            "vm-1", ImmutableMap.of("4000", 10L, "4001", 99L, "", 109L),
+            "vm-2", ImmutableMap.of("4000", 5L, "", 5L));
+
+    @Test
+    public void shouldReportThePhysicalNicsAndTheVSwitchUplinks() {
+        EntityData host = createEntity("HostSystem", "host-1", "host-1");
+        host.setProperty("config.network.pnic", new PhysicalNic[]{createPhysicalNic("vmnic0"), createPhysicalNic("vmnic1")});
+        host.setProperty("config.network.vswitch", new HostVirtualSwitch[]{
+                createVSwitch("vSwitch0", "key-vim.host.PhysicalNic-vmnic0", "key-vim.host.PhysicalNic-vmnic1"),
+                createVSwitch("vSwitch-internal"), createVSwitch("vSwitch-test", "key-vim.host.PhysicalNic-vmnic1")});
+
+        Map<String, String> metrics = collect(Collections.singletonList(host), Collections.<EntityData>emptyList(), Collections.<EntityData>emptyList(), new ArrayList<String>());
+
+        String hostPath = METRIC_PREFIX + "|HostSystem|host-1|";
+        Assert.assertEquals("2 metrics of the 2 NICs and of vSwitch0", 6, metrics.size());
+        Assert.assertEquals("100", metrics.get(hostPath + "NIC|vmnic0|Bytes Received"));
+        Assert.assertEquals("4", metrics.get(hostPath + "NIC|vmnic1|Packets Received Dropped"));
+        Assert.assertEquals("140", metrics.get(hostPath + "vSwitch|vSwitch0|Bytes Received"));
+        Assert.assertEquals("14", metrics.get(hostPath + "vSwitch|vSwitch0|Packets Received Dropped"));
+    }
+
+    @Test
+    public void shouldSumTheVMNicsOfTheSelectedPortGroups() {
+        EntityData production = createEntity("DistributedVirtualPortgroup", "dvpg-prod", "dvpg-prod");
+        production.setProperty("key", "dvportgroup-10");
+        EntityData test = createEntity("DistributedVirtualPortgroup", "dvpg-test", "dvpg-test");
+        test.setProperty("key", "dvportgroup-11");
+
+        EntityData vm1 = createEntity("VirtualMachine", "vm-1", "vm-1");
+        vm1.setProperty("config.hardware.device", new VirtualDevice[]{new VirtualDisk(), createNic(4000, "dvportgroup-10"), createNic(4001, "dvportgroup-11")});
+        EntityData vm2 = createEntity("VirtualMachine", "vm-2", "vm-2");
+        vm2.setProperty("config.hardware.device", new VirtualDevice[]{createNic(4000, "dvportgroup-10")});
+        EntityData vm3 = createEntity("VirtualMachine", "vm-3", "vm-3");
+        vm3.setProperty("config.hardware.device", new VirtualDevice[]{new VirtualDisk()});
+
+        List<String> queried = new ArrayList<>();
+        Map<String, String> metrics = collect(Collections.<EntityData>emptyList(), Arrays.asList(vm1, vm2, vm3), Arrays.asList(production, test), queried);
+
+        Assert.assertEquals("Only the VMs with a NIC on a selected port group should be queried", Arrays.asList("vm-1", "vm-2"), queried);
+        Assert.assertEquals(2, metrics.size());
+        Assert.assertEquals("15", metrics.get(METRIC_PREFIX + "|PortGroup|dvpg-prod|Bytes Received"));
+        Assert.assertEquals("1", metrics.get(METRIC_PREFIX + "|PortGroup|dvpg-prod|Packets Received Dropped"));
+    }
+
+    private Map<String, String> collect(List<EntityData> hosts, List<EntityData> vms, List<EntityData> portGroups, final List<String> queried) {
+        PerformanceManager performanceManager = new PerformanceManager(null, null) {
+            @Override
+            public PerfEntityMetricBase[] queryPerf(PerfQuerySpec[] querySpecs) {
+                PerfEntityMetricBase[] results = new PerfEntityMetricBase[querySpecs.length];
+                for (int i = 0; i < querySpecs.length; i++) {
+                    queried.add(querySpecs[i].getEntity().getVal());
+                    results[i] = createResult(querySpecs[i], BYTES_BY_ENTITY.get(querySpecs[i].getEntity().getVal()));
+                }
+                return results;
+            }
+        };
+        PerformanceCollector performanceCollector = new PerformanceCollector(performanceManager, createCounters(), 64);
+
+        MetricSink collectedMetrics = new MetricSink();
+        CollectorContext context = new CollectorContext(METRIC_PREFIX, new Phaser(), collectedMetrics, new CollectionDeadline(60000), new DeltaCalculator(), null, performanceCollector);
+        new NetworkMetricCollector(context, hosts, vms, portGroups, NameMatcher.compile(Collections.singletonList("*")), NameMatcher.compile(Collections.singletonList("*-test")),
+                createNetworkMetrics()).run();
+        return toMap(collectedMetrics.drain());
+    }
+
+    /**
+     * Every NIC of the entity reports its bytes and a tenth of them as dropped packets.
+     */
+    private PerfEntityMetric createResult(PerfQuerySpec spec, Map<String, Long> bytesByNic) {
+        List<PerfMetricSeries> series = new ArrayList<>();
+        for (Map.Entry<String, Long> nic : bytesByNic.entrySet()) {
+            series.add(createSeries(BYTES_RX, nic.getKey(), nic.getValue()));
+            series.add(createSeries(DROPPED_RX, nic.getKey(), nic.getValue() / 10));
+        }
+        PerfEntityMetric result = new PerfEntityMetric();
+        result.setEntity(spec.getEntity());
+        result.setValue(series.toArray(new PerfMetricSeries[series.size()]));
+        return result;
+    }
+
+    private PerfMetricIntSeries createSeries(int counterId, String instance, long value) {
+        PerfMetricId id = new PerfMetricId();
+        id.setCounterId(counterId);
+        id.setInstance(instance);
+        PerfMetricIntSeries series = new PerfMetricIntSeries();
+        series.setId(id);
+        series.setValue(new long[]{value});
+        return series;
+    }
+
+    private NetworkMetrics createNetworkMetrics() {
+        NetworkMetrics networkMetrics = new NetworkMetrics();
+        networkMetrics.setMetrics(new com.appdynamics.monitors.VMWare.metrics.Metric[]{
+                createMetric("Bytes Received", "net.bytesRx.average"), createMetric("Packets Received Dropped", "net.droppedRx.summation")});
+        networkMetrics.compile();
+        return networkMetrics;
+    }
+
+    private com.appdynamics.monitors.VMWare.metrics.Metric createMetric(String name, String counter) {
+        com.appdynamics.monitors.VMWare.metrics.Metric metric = new com.appdynamics.monitors.VMWare.metrics.Metric();
+        metric.setName(name);
+        metric.setCounter(counter);
+        return metric;
+    }
+
+    private PerfCounterCache createCounters() {
+        return new PerfCounterCache(new PerfCounterInfo[]{
+                createCounter(BYTES_RX, "bytesRx", PerfSummaryType.average), createCounter(DROPPED_RX, "droppedRx", PerfSummaryType.summation)});
+    }
+
+    private PerfCounterInfo createCounter(int key, String name, PerfSummaryType rollup) {
+        ElementDescription group = new ElementDescription();
+        group.setKey("net");
+        ElementDescription nameInfo = new ElementDescription();
+        nameInfo.setKey(name);
+        PerfCounterInfo counter = new PerfCounterInfo();
+        counter.setKey(key);
+        counter.setGroupInfo(group);
+        counter.setNameInfo(nameInfo);
+        counter.setRollupType(rollup);
+        return counter;
+    }
+
+    private PhysicalNic createPhysicalNic(String device) {
+        PhysicalNic physicalNic = new PhysicalNic();
+        physicalNic.setKey("key-vim.host.PhysicalNic-" + device);
+        physicalNic.setDevice(device);
+        return physicalNic;
+    }
+
+    private HostVirtualSwitch createVSwitch(String name, String... uplinks) {
+        HostVirtualSwitch virtualSwitch = new HostVirtualSwitch();
+        virtualSwitch.setName(name);
+        virtualSwitch.setPnic(uplinks.length == 0 ? null : uplinks);
+        return virtualSwitch;
+    }
+
+    private VirtualVmxnet3 createNic(int key, String portGroupKey) {
+        DistributedVirtualSwitchPortConnection port = new DistributedVirtualSwitchPortConnection();
+        port.setPortgroupKey(portGroupKey);
+        VirtualEthernetCardDistributedVirtualPortBackingInfo backing = new VirtualEthernetCardDistributedVirtualPortBackingInfo();
+        backing.setPort(port);
+        VirtualVmxnet3 nic = new VirtualVmxnet3();
+        nic.setKey(key);
+        nic.setBacking(backing);
+        return nic;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.collectors;
+
+import com.appdynamics.extensions.metrics.Metric;
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.inventory.NameMatcher;
+import com.appdynamics.monitors.VMWare.metrics.DeltaCalculator;
+import com.appdynamics.monitors.VMWare.metrics.ResourcePoolMetrics;
+import com.google.common.collect.ImmutableMap;
+import com.vmware.vim25.ManagedEntityStatus;
+import com.vmware.vim25.ManagedObjectReference;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Phaser;
+
+import static com.appdynamics.monitors.VMWare.TestFixtures.createMor;
+import static com.appdynamics.monitors.VMWare.TestFixtures.toMap;
+
+public class ResourcePoolMetricCollectorTest {
+
+    private static final String METRIC_PREFIX = "Custom Metrics|vmware|Status|TestVMWare";
+
+    @Test
+    public void shouldNestThePoolsUnderTheirCluster() {
+        Map<String, String> metrics = collect("Cluster|{cluster}|ResourcePool|{path}");
+
+        Assert.assertEquals("Status and CPU Usage of the 2 pools below the excluded root pool", 4, metrics.size());
+        Assert.assertEquals("1200", metrics.get(METRIC_PREFIX + "|Cluster|prod|ResourcePool|Production|CPU Usage"));
+        Assert.assertEquals("800", metrics.get(METRIC_PREFIX + "|Cluster|prod|ResourcePool|Production|Web|CPU Usage"));
+        Assert.assertEquals("1", metrics.get(METRIC_PREFIX + "|Cluster|prod|ResourcePool|Production|Web|Status"));
+    }
+
+    @Test
+    public void shouldListThePoolsWithAFlatLayout() {
+        Map<String, String> metrics = collect("ResourcePool|{pool}");
+
+        Assert.assertEquals("1200", metrics.get(METRIC_PREFIX + "|ResourcePool|Production|CPU Usage"));
+        Assert.assertEquals("800", metrics.get(METRIC_PREFIX + "|ResourcePool|Web|CPU Usage"));
+    }
+
+    @Test
+    public void shouldUseTheNameOfTheRootPoolAsItsPath() {
+        EntityData root = createPool("resgroup-8", "Resources", createMor("ClusterComputeResource", "domain-c7"));
+        ResourcePoolMetricCollector collector = new ResourcePoolMetricCollector(createContext(new MetricSink()), Collections.singletonList(root), Collections.<String, String>emptyMap(),
+                NameMatcher.compile(Collections.singletonList("*")), NameMatcher.compile(null), "Cluster|{cluster}|ResourcePool|{path}",
+                new ResourcePoolMetrics());
+
+        Assert.assertEquals("Unknown clusters are named by their id", METRIC_PREFIX + "|Cluster|domain-c7|ResourcePool|Resources",
+                collector.getMetricPath(root, Collections.singletonMap(root.getId(), root), new HashMap<String, String>()));
+    }
+
+    @Test
+    public void shouldNotAddALevelForABarInAName() {
+        EntityData root = createPool("resgroup-8", "Resources", createMor("ClusterComputeResource", "domain-c7"));
+        EntityData production = createPool("resgroup-9", "Production|EU", root.getMor());
+        EntityData web = createPool("resgroup-10", "Web|Tier", production.getMor());
+        Map<String, EntityData> resourcePoolsById = ImmutableMap.of(root.getId(), root, production.getId(), production, web.getId(), web);
+        ResourcePoolMetricCollector collector = new ResourcePoolMetricCollector(createContext(new MetricSink()), Arrays.asList(root, production, web), ImmutableMap.of("domain-c7", "prod|east"),
+                NameMatcher.compile(Collections.singletonList("*")), NameMatcher.compile(null), "Cluster|{cluster}|{pool}|{path}",
+                new ResourcePoolMetrics());
+        Map<String, String> poolPaths = new HashMap<>();
+
+        Assert.assertEquals(METRIC_PREFIX + "|Cluster|prod-east|Web-Tier|Production-EU|Web-Tier", collector.getMetricPath(web, resourcePoolsById, poolPaths));
+        Assert.assertEquals("The path of the parent pool should be built once", "Production-EU", poolPaths.get(production.getId()));
+    }
+
+    private Map<String, String> collect(String metricPathLayout) {
+        ResourcePoolMetrics resourcePoolMetrics = new ResourcePoolMetrics();
+        com.appdynamics.monitors.VMWare.metrics.Metric cpuUsage = new com.appdynamics.monitors.VMWare.metrics.Metric();
+        cpuUsage.setName("CPU Usage");
+        resourcePoolMetrics.setMetrics(new com.appdynamics.monitors.VMWare.metrics.Metric[]{cpuUsage});
+        resourcePoolMetrics.compile();
+
+        EntityData root = createPool("resgroup-8", "Resources", createMor("ClusterComputeResource", "domain-c7"));
+        EntityData production = createPool("resgroup-9", "Production", root.getMor());
+        production.setProperty("runtime.cpu.overallUsage", 1200L);
+        EntityData web = createPool("resgroup-10", "Web", production.getMor());
+        web.setProperty("runtime.cpu.overallUsage", 800L);
+
+        MetricSink collectedMetrics = new MetricSink();
+        new ResourcePoolMetricCollector(createContext(collectedMetrics), Arrays.asList(root, production, web), ImmutableMap.of("domain-c7", "prod"),
+                NameMatcher.compile(Collections.singletonList("*")), NameMatcher.compile(Collections.singletonList("Resources")), metricPathLayout,
+                resourcePoolMetrics).run();
+        return toMap(collectedMetrics.drain());
+    }
+
+    private CollectorContext createContext(MetricSink collectedMetrics) {
+        return new CollectorContext(METRIC_PREFIX, new Phaser(), collectedMetrics, new CollectionDeadline(60000), new DeltaCalculator(), null, null);
+    }
+
+    private EntityData createPool(String id, String name, ManagedObjectReference parent) {
+        EntityData pool = new EntityData(createMor("ResourcePool", id));
+        pool.setProperty("name", name);
+        pool.setProperty("overallStatus", ManagedEntityStatus.green);
+        pool.setProperty("parent", parent);
+        pool.setProperty("owner", createMor("ClusterComputeResource", "domain-c7"));
+        return pool;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.collectors;
+
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.inventory.PropertyPaths;
+import com.appdynamics.monitors.VMWare.metrics.CompiledMetric;
+import com.appdynamics.monitors.VMWare.metrics.DeltaCalculator;
+import com.appdynamics.monitors.VMWare.metrics.Metric;
+import com.appdynamics.monitors.VMWare.metrics.VMMetrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vmware.vim25.ManagedEntityStatus;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Phaser;
+
+import static com.appdynamics.monitors.VMWare.TestFixtures.createEntity;
+import static com.appdynamics.monitors.VMWare.TestFixtures.createMor;
+
+public class VMMetricCollectorTest {
+
+    private static final String BASE_METRIC_PATH = "Custom Metrics|vmware|HostSystem|host1";
+    private static final int RUNS = 2000;
+
+    @Test
+    public void shouldShareTheMetricPropertiesOfACompiledMetric() {
+        VMMetrics vmMetrics = createVMMetrics();
+        CompiledMetric metric = vmMetrics.getCompiledMetrics()[0];
+
+        Assert.assertSame(metric.getProperties(), metric.getProperties());
+        Assert.assertEquals("Ballooned", metric.getProperties().get("alias"));
+        Assert.assertEquals("AVERAGE", metric.getProperties().get("aggregationType"));
+        Assert.assertFalse("Unset attributes should not be passed on", metric.getProperties().containsKey("delta"));
+    }
+
+    @Test
+    public void shouldOnlyReportTheBatchesHandedOverBeforeTheHostWasAbandoned() {
+        VMMetrics vmMetrics = createVMMetrics();
+        final CollectionDeadline collectionDeadline = new CollectionDeadline(60000);
+        List<EntityData> vms = new ArrayList<>();
+        for (int i = 0; i < VMMetricCollector.HAND_OVER_BATCH_SIZE * 2 + 1; i++) {
+            vms.add(createEntity("VirtualMachine", "vm-" + i, "vm" + i, ManagedEntityStatus.green));
+        }
+        //the deadline passes while the second batch is collected
+        EntityData abandoned = new EntityData(createMor("VirtualMachine", "vm-abandoned")) {
+            @Override
+            public Object getProperty(String path) {
+                collectionDeadline.abandon();
+                return null;
+            }
+        };
+        abandoned.setProperty(PropertyPaths.NAME, "abandoned");
+        abandoned.setProperty(PropertyPaths.OVERALL_STATUS, ManagedEntityStatus.green);
+        vms.set(VMMetricCollector.HAND_OVER_BATCH_SIZE + 1, abandoned);
+        MetricSink collectedMetrics = new MetricSink(1);
+        CollectorContext context = new CollectorContext(BASE_METRIC_PATH, new Phaser(1), collectedMetrics, collectionDeadline, new DeltaCalculator(), null, null);
+        CollectionDeadline.Budget budget = collectionDeadline.register("host-1", "host1");
+
+        Assert.assertTrue(budget.enter());
+        int collected = new VMMetricCollector(context, vms, BASE_METRIC_PATH, vmMetrics, null, budget, null, null).collect();
+
+        Assert.assertEquals("The VMs after the abandoned batch should be skipped", VMMetricCollector.HAND_OVER_BATCH_SIZE * 2, collected);
+        Assert.assertEquals("Only the status of the VMs of the first batch should be reported", VMMetricCollector.HAND_OVER_BATCH_SIZE, collectedMetrics.size());
+    }
+
+    @Test
+    public void shouldAllocateLessPerCycleThanConvertingTheMetricPerDatapoint() {
+        com.sun.management.ThreadMXBean threadMXBean = getThreadMXBean();
+        Assume.assumeTrue(threadMXBean != null && threadMXBean.isThreadAllocatedMemoryEnabled());
+
+        VMMetrics vmMetrics = createVMMetrics();
+        EntityData vm = createVM();
+        ObjectMapper objectMapper = new ObjectMapper();
+
+        collect(vm, vmMetrics, RUNS);
+        collectConvertingPerDatapoint(objectMapper, vm, vmMetrics, RUNS);
+
+        long threadId = Thread.currentThread().getId();
+        long start = threadMXBean.getThreadAllocatedBytes(threadId);
+        collect(vm, vmMetrics, RUNS);
+        long collectorBytes = threadMXBean.getThreadAllocatedBytes(threadId) - start;
+
+        start = threadMXBean.getThreadAllocatedBytes(threadId);
+        collectConvertingPerDatapoint(objectMapper, vm, vmMetrics, RUNS);
+        long convertBytes = threadMXBean.getThreadAllocatedBytes(threadId) - start;
+
+        Assert.assertTrue("A collection cycle [" + collectorBytes + " bytes] should allocate less than the same cycle converting the properties per datapoint [" + convertBytes + " bytes]", collectorBytes < convertBytes);
+    }
+
+    private void collect(EntityData vm, VMMetrics vmMetrics, int runs) {
+        Phaser phaser = new Phaser(1);
+        CollectionDeadline collectionDeadline = new CollectionDeadline(60000);
+        DeltaCalculator deltaCalculator = new DeltaCalculator();
+        for (int i = 0; i < runs; i++) {
+            MetricSink collectedMetrics = new MetricSink(1);
+            CollectorContext context = new CollectorContext(BASE_METRIC_PATH, phaser, collectedMetrics, collectionDeadline, deltaCalculator, null, null);
+            new VMMetricCollector(context, Collections.singletonList(vm), BASE_METRIC_PATH, vmMetrics, null, collectionDeadline.register("host-1", "host1"), null, null).run();
+            Assert.assertEquals(vmMetrics.getCompiledMetrics().length + 1, collectedMetrics.size());
+        }
+    }
+
+    /**
+     * The collection path of a VM as it was before the property maps were compiled: the same status and values, with
+     * the properties of the metric converted and the path built for every datapoint.
+     */
+    private void collectConvertingPerDatapoint(ObjectMapper objectMapper, EntityData vm, VMMetrics vmMetrics, int runs) {
+        for (int i = 0; i < runs; i++) {
+            MetricSink collectedMetrics = new MetricSink(1);
+            String baseMetricName = BASE_METRIC_PATH + "|" + "VirtualMachine" + "|" + vm.getName();
+            collectedMetrics.add(new com.appdynamics.extensions.metrics.Metric("status", String.valueOf(vm.getOverallStatus().ordinal()), baseMetricName + "|Status"));
+            for (CompiledMetric metric : vmMetrics.getCompiledMetrics()) {
+                double value = metric.extract(vm, null);
+                if (Double.isNaN(value)) {
+                    continue;
+                }
+                Map<String, String> propertiesMap = objectMapper.convertValue(metric.getMetric(), Map.class);
+                String fullMetricPath = new StringBuilder(baseMetricName).append("|").append(metric.getName()).toString();
+                collectedMetrics.add(new com.appdynamics.extensions.metrics.Metric(metric.getName(), CompiledMetric.toMetricValue(value), fullMetricPath, propertiesMap));
+            }
+            Assert.assertEquals(vmMetrics.getCompiledMetrics().length + 1, collectedMetrics.size());
+        }
+    }
+
+    private com.sun.management.ThreadMXBean getThreadMXBean() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        return threadMXBean instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) threadMXBean : null;
+    }
+
+    private VMMetrics createVMMetrics() {
+        List<Metric> metrics = new ArrayList<>();
+        for (String name : new String[]{"Ballooned Memory", "Guest Memory Usage", "Host Memory Usage", "Overall CPU Usage", "Up Time"}) {
+            Metric metric = new Metric();
+            metric.setName(name);
+            metric.setAlias(name.split(" ")[0]);
+            metric.setAggregationType("AVERAGE");
+            metric.setMultiplier(BigDecimal.ONE);
+            metrics.add(metric);
+        }
+
+        VMMetrics vmMetrics = new VMMetrics();
+        vmMetrics.setMetrics(metrics.toArray(new Metric[metrics.size()]));
+        vmMetrics.compile();
+        return vmMetrics;
+    }
+
+    private EntityData createVM() {
+        EntityData vm = createEntity("VirtualMachine", "vm-1", "vm1", ManagedEntityStatus.green);
+        vm.setProperty("summary.quickStats.balloonedMemory", 10);
+        vm.setProperty("summary.quickStats.guestMemoryUsage", 512);
+        vm.setProperty("summary.quickStats.hostMemoryUsage", 1024);
+        vm.setProperty("summary.quickStats.overallCpuUsage", 300);
+        vm.setProperty("summary.quickStats.uptimeSeconds", 3600);
+        return vm;
+    }
+}
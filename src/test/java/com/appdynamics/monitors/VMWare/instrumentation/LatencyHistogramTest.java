@@ -0,0 +1,53 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.instrumentation;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void shouldReportPercentilesWithinTheBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int millis = 1; millis <= 1000; millis++) {
+            histogram.record(millis);
+        }
+
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1000, histogram.getMax());
+        assertWithin(500, histogram.getPercentile(50));
+        assertWithin(950, histogram.getPercentile(95));
+        Assert.assertEquals("The percentile should not exceed the maximum", 1000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void shouldKeepSmallAndHugeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getPercentile(50));
+
+        histogram.record(7);
+        histogram.record(Long.MAX_VALUE);
+        Assert.assertEquals(7, histogram.getPercentile(50));
+        Assert.assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void shouldMapEveryValueToABucketWhoseBoundIsNotBelowIt() {
+        for (long value = 0; value < 100000; value += 7) {
+            long upperBound = LatencyHistogram.upperBoundOf(LatencyHistogram.indexOf(value));
+            Assert.assertTrue(value + " <= " + upperBound, value <= upperBound);
+            Assert.assertTrue(value + " bound " + upperBound, upperBound - value <= Math.max(1, value / 32));
+        }
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        Assert.assertTrue("Expected about " + expected + " but was " + actual, Math.abs(actual - expected) <= expected / 32 + 1);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.inventory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class HostConfigMatcherTest {
+
+    @Test
+    public void shouldMatchExactNamesIgnoringCase() {
+        HostConfigMatcher matcher = HostConfigMatcher.compile(hostConfig(entry("Host1", "vm1", "VM2")), null);
+
+        Assert.assertTrue(matcher.isHostSelected("host1"));
+        Assert.assertFalse(matcher.isHostSelected("host2"));
+
+        HostConfigMatcher.HostRule rule = matcher.getRule("HOST1");
+        Assert.assertTrue(rule.isVMSelected("VM1"));
+        Assert.assertTrue(rule.isVMSelected("vm2"));
+        Assert.assertFalse(rule.isVMSelected("vm3"));
+        Assert.assertEquals(2, rule.getVMNames().size());
+    }
+
+    @Test
+    public void shouldMatchGlobsRegexAndExclusions() {
+        Map<String, Object> prod = entry("prod-esx-*", "prod-db-*", "regex:app-\\d+");
+        prod.put("excludeVms", Arrays.asList("prod-db-test?"));
+        HostConfigMatcher matcher = HostConfigMatcher.compile(hostConfig(prod), Arrays.asList("prod-esx-maint*"));
+
+        Assert.assertTrue(matcher.isHostSelected("PROD-ESX-01"));
+        Assert.assertFalse(matcher.isHostSelected("prod-esx-maint-01"));
+        Assert.assertFalse(matcher.isHostSelected("dev-esx-01"));
+
+        HostConfigMatcher.HostRule rule = matcher.getRule("prod-esx-01");
+        Assert.assertTrue(rule.isVMSelected("prod-db-01"));
+        Assert.assertTrue(rule.isVMSelected("app-42"));
+        Assert.assertFalse(rule.isVMSelected("app-x"));
+        Assert.assertFalse(rule.isVMSelected("prod-db-test1"));
+        Assert.assertFalse("Glob characters only, the dot is literal", NameMatcher.compile(Arrays.asList("a.b*")).matches("axb1"));
+    }
+
+    @Test
+    public void shouldPreferTheExactEntryOverAWildcard() {
+        HostConfigMatcher matcher = HostConfigMatcher.compile(hostConfig(entry("*", "*"), entry("host1", "vm1")), null);
+
+        Assert.assertTrue(matcher.isHostSelected("any-host"));
+        Assert.assertTrue(matcher.getRule("any-host").isVMSelected("any-vm"));
+        Assert.assertFalse(matcher.getRule("host1").isVMSelected("vm2"));
+    }
+
+    @Test
+    public void shouldNotSelectVMsOfHostWithoutVMs() {
+        Map<String, Object> entry = new HashMap<>();
+        entry.put("host", "host1");
+        HostConfigMatcher matcher = HostConfigMatcher.compile(hostConfig(entry), null);
+
+        Assert.assertTrue(matcher.isHostSelected("host1"));
+        Assert.assertFalse(matcher.getRule("host1").hasVMs());
+    }
+
+    private List<Map<String, Object>> hostConfig(Map<String, Object>... entries) {
+        return new ArrayList<>(Arrays.asList(entries));
+    }
+
+    private Map<String, Object> entry(String host, String... vms) {
+        Map<String, Object> entry = new HashMap<>();
+        entry.put("host", host);
+        entry.put("vms", Arrays.asList(vms));
+        return entry;
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.inventory;
+
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.InvalidCollectorVersion;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.ObjectUpdateKind;
+import com.vmware.vim25.PhysicalNic;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.RetrieveOptions;
+import com.vmware.vim25.RetrieveResult;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.VirtualDevice;
+import com.vmware.vim25.WaitOptions;
+import com.vmware.vim25.mo.ContainerView;
+import com.vmware.vim25.mo.ManagedEntity;
+import com.vmware.vim25.mo.PropertyCollector;
+import com.vmware.vim25.mo.PropertyFilter;
+import com.vmware.vim25.mo.ServiceInstance;
+import com.vmware.vim25.mo.ViewManager;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.appdynamics.monitors.VMWare.TestFixtures.createMor;
+
+public class IncrementalInventoryTest {
+
+    @Test
+    public void shouldApplyEnterModifyAndLeaveUpdates() {
+        IncrementalInventory inventory = new IncrementalInventory(100);
+
+        inventory.applyUpdateSet(updateSet(objectUpdate("vm-1", ObjectUpdateKind.enter,
+                change("name", PropertyChangeOp.assign, "vm1"), change("overallStatus", PropertyChangeOp.assign, "green"))));
+        inventory.applyUpdateSet(updateSet(objectUpdate("vm-2", ObjectUpdateKind.enter, change("name", PropertyChangeOp.assign, "vm2"))));
+        inventory.applyUpdateSet(updateSet(objectUpdate("vm-1", ObjectUpdateKind.modify, change("name", PropertyChangeOp.assign, "vm1-renamed"))));
+        inventory.applyUpdateSet(updateSet(objectUpdate("vm-2", ObjectUpdateKind.leave)));
+
+        Assert.assertEquals(1, inventory.getEntities().size());
+        EntityData vm = inventory.getEntities().get(0);
+        Assert.assertEquals("vm1-renamed", vm.getName());
+        Assert.assertEquals("Unchanged properties should be kept", "green", vm.getProperty("overallStatus"));
+    }
+
+    @Test
+    public void shouldNotModifyPreviouslyReturnedEntities() {
+        IncrementalInventory inventory = new IncrementalInventory(100);
+
+        inventory.applyUpdateSet(updateSet(objectUpdate("vm-1", ObjectUpdateKind.enter, change("name", PropertyChangeOp.assign, "vm1"))));
+        EntityData before = inventory.getEntities().get(0);
+
+        inventory.applyUpdateSet(updateSet(objectUpdate("vm-1", ObjectUpdateKind.modify, change("name", PropertyChangeOp.remove, null))));
+
+        Assert.assertEquals("vm1", before.getName());
+        Assert.assertNull(inventory.getEntities().get(0).getName());
+    }
+
+    @Test
+    public void shouldReadAPropertyAgainAfterAChangeOfOneOfItsElements() throws Exception {
+        FakePropertyCollector propertyCollector = new FakePropertyCollector();
+        IncrementalInventory inventory = new IncrementalInventory(100);
+        Map<String, String[]> pathsByType = new LinkedHashMap<>();
+        pathsByType.put("HostSystem", new String[]{PropertyPaths.NAME, PropertyPaths.HOST_PHYSICAL_NICS});
+        pathsByType.put("VirtualMachine", new String[]{PropertyPaths.NAME, PropertyPaths.VM_DEVICES});
+
+        PhysicalNic vmnic0 = physicalNic("vmnic0");
+        propertyCollector.updates.add(updateSet(
+                objectUpdate("HostSystem", "host-1", ObjectUpdateKind.enter, change(PropertyPaths.NAME, PropertyChangeOp.assign, "esx1"),
+                        change(PropertyPaths.HOST_PHYSICAL_NICS, PropertyChangeOp.assign, new PhysicalNic[]{vmnic0})),
+                objectUpdate("VirtualMachine", "vm-1", ObjectUpdateKind.enter, change(PropertyPaths.NAME, PropertyChangeOp.assign, "vm1"),
+                        change(PropertyPaths.VM_DEVICES, PropertyChangeOp.assign, new VirtualDevice[]{virtualDevice(4000), virtualDevice(4001)}))));
+        inventory.update(propertyCollector.serviceInstance, pathsByType, null);
+
+        PhysicalNic[] physicalNics = new PhysicalNic[]{vmnic0, physicalNic("vmnic1")};
+        VirtualDevice[] devices = new VirtualDevice[]{virtualDevice(4001)};
+        propertyCollector.updates.add(updateSet(
+                objectUpdate("HostSystem", "host-1", ObjectUpdateKind.modify,
+                        change(PropertyPaths.HOST_PHYSICAL_NICS + "[\"key-vim.host.PhysicalNic-vmnic1\"]", PropertyChangeOp.add, physicalNics[1])),
+                objectUpdate("VirtualMachine", "vm-1", ObjectUpdateKind.modify,
+                        change(PropertyPaths.VM_DEVICES + "[4000]", PropertyChangeOp.remove, null),
+                        change(PropertyPaths.VM_DEVICES + "[4001].backing", PropertyChangeOp.assign, null))));
+        propertyCollector.currentValues.put("host-1", physicalNics);
+        propertyCollector.currentValues.put("vm-1", devices);
+        Map<String, EntityData> entities = toMap(inventory.update(propertyCollector.serviceInstance, pathsByType, null));
+
+        Assert.assertEquals("The changed properties of both entities should be read in one retrieval", 1, propertyCollector.retrievals);
+        Assert.assertArrayEquals(physicalNics, (Object[]) entities.get("host-1").getProperty(PropertyPaths.HOST_PHYSICAL_NICS));
+        Assert.assertArrayEquals(devices, (Object[]) entities.get("vm-1").getProperty(PropertyPaths.VM_DEVICES));
+        Assert.assertEquals("The element paths should not be stored", 2, entities.get("vm-1").getProperties().size());
+        Assert.assertEquals("vm1", entities.get("vm-1").getName());
+    }
+
+    @Test
+    public void shouldResyncWhenTheCollectorVersionIsNoLongerValid() throws Exception {
+        FakePropertyCollector propertyCollector = new FakePropertyCollector();
+        IncrementalInventory inventory = new IncrementalInventory(100);
+        Map<String, String[]> pathsByType = new LinkedHashMap<>();
+        pathsByType.put("VirtualMachine", new String[]{PropertyPaths.NAME});
+
+        propertyCollector.updates.add(updateSet(objectUpdate("VirtualMachine", "vm-1", ObjectUpdateKind.enter, change(PropertyPaths.NAME, PropertyChangeOp.assign, "vm1")),
+                objectUpdate("VirtualMachine", "vm-2", ObjectUpdateKind.enter, change(PropertyPaths.NAME, PropertyChangeOp.assign, "vm2"))));
+        inventory.update(propertyCollector.serviceInstance, pathsByType, null);
+
+        propertyCollector.updates.add(new InvalidCollectorVersion());
+        propertyCollector.updates.add(updateSet(objectUpdate("VirtualMachine", "vm-2", ObjectUpdateKind.enter, change(PropertyPaths.NAME, PropertyChangeOp.assign, "vm2"))));
+        List<EntityData> entities = inventory.update(propertyCollector.serviceInstance, pathsByType, null);
+
+        Assert.assertEquals("A new collector and filter should be created", 2, propertyCollector.created);
+        Assert.assertEquals(Arrays.asList(null, "1", null), propertyCollector.versions);
+        Assert.assertEquals("The model should be rebuilt from the full update", 1, entities.size());
+        Assert.assertEquals("vm-2", entities.get(0).getId());
+    }
+
+    private Map<String, EntityData> toMap(List<EntityData> entities) {
+        Map<String, EntityData> entitiesById = new HashMap<>();
+        for (EntityData entity : entities) {
+            entitiesById.put(entity.getId(), entity);
+        }
+        return entitiesById;
+    }
+
+    private PhysicalNic physicalNic(String device) {
+        PhysicalNic physicalNic = new PhysicalNic();
+        physicalNic.setKey("key-vim.host.PhysicalNic-" + device);
+        physicalNic.setDevice(device);
+        return physicalNic;
+    }
+
+    private VirtualDevice virtualDevice(int key) {
+        VirtualDevice virtualDevice = new VirtualDevice();
+        virtualDevice.setKey(key);
+        return virtualDevice;
+    }
+
+    private UpdateSet updateSet(ObjectUpdate... objectUpdates) {
+        PropertyFilterUpdate filterUpdate = new PropertyFilterUpdate();
+        filterUpdate.setObjectSet(objectUpdates);
+        UpdateSet updateSet = new UpdateSet();
+        updateSet.setVersion("1");
+        updateSet.setFilterSet(new PropertyFilterUpdate[]{filterUpdate});
+        return updateSet;
+    }
+
+    private ObjectUpdate objectUpdate(String id, ObjectUpdateKind kind, PropertyChange... changes) {
+        return objectUpdate("VirtualMachine", id, kind, changes);
+    }
+
+    private ObjectUpdate objectUpdate(String type, String id, ObjectUpdateKind kind, PropertyChange... changes) {
+        ObjectUpdate objectUpdate = new ObjectUpdate();
+        objectUpdate.setObj(createMor(type, id));
+        objectUpdate.setKind(kind);
+        objectUpdate.setChangeSet(changes);
+        return objectUpdate;
+    }
+
+    private PropertyChange change(String name, PropertyChangeOp op, Object value) {
+        PropertyChange change = new PropertyChange();
+        change.setName(name);
+        change.setOp(op);
+        change.setVal(value);
+        return change;
+    }
+
+    /**
+     * Answers WaitForUpdatesEx with the queued update sets or faults, and RetrievePropertiesEx with the current value
+     * of the requested property of every object.
+     */
+    private static class FakePropertyCollector extends PropertyCollector {
+
+        private final List<Object> updates = new ArrayList<>();
+        private final List<String> versions = new ArrayList<>();
+        private final Map<String, Object> currentValues = new HashMap<>();
+        private final ServiceInstance serviceInstance;
+        private int created;
+        private int retrievals;
+
+        FakePropertyCollector() {
+            super(null, null);
+            final ViewManager viewManager = new ViewManager(null, null) {
+                @Override
+                public ContainerView createContainerView(ManagedEntity container, String[] type, boolean recursive) {
+                    return new ContainerView(null, createMor("ContainerView", "session[1]"));
+                }
+            };
+            serviceInstance = new ServiceInstance(null) {
+                @Override
+                public PropertyCollector getPropertyCollector() {
+                    return FakePropertyCollector.this;
+                }
+
+                @Override
+                public ViewManager getViewManager() {
+                    return viewManager;
+                }
+            };
+        }
+
+        @Override
+        public PropertyCollector createPropertyCollector() {
+            created++;
+            return this;
+        }
+
+        @Override
+        public PropertyFilter createFilter(PropertyFilterSpec spec, boolean partialUpdates) {
+            return null;
+        }
+
+        @Override
+        public void destroyPropertyCollector() {
+        }
+
+        @Override
+        public UpdateSet waitForUpdatesEx(String version, WaitOptions options) throws RemoteException {
+            versions.add(version);
+            Object update = updates.isEmpty() ? null : updates.remove(0);
+            if (update instanceof RemoteException) {
+                throw (RemoteException) update;
+            }
+            return (UpdateSet) update;
+        }
+
+        @Override
+        public RetrieveResult retrievePropertiesEx(PropertyFilterSpec[] specSet, RetrieveOptions options) {
+            retrievals++;
+            List<ObjectContent> objects = new ArrayList<>();
+            for (ObjectSpec objectSpec : specSet[0].getObjectSet()) {
+                for (PropertySpec propertySpec : specSet[0].getPropSet()) {
+                    if (!propertySpec.getType().equals(objectSpec.getObj().getType())) {
+                        continue;
+                    }
+                    DynamicProperty property = new DynamicProperty();
+                    property.setName(propertySpec.getPathSet()[0]);
+                    property.setVal(currentValues.get(objectSpec.getObj().getVal()));
+                    ObjectContent objectContent = new ObjectContent();
+                    objectContent.setObj(objectSpec.getObj());
+                    objectContent.setPropSet(new DynamicProperty[]{property});
+                    objects.add(objectContent);
+                }
+            }
+            RetrieveResult result = new RetrieveResult();
+            result.setObjects(objects.toArray(new ObjectContent[objects.size()]));
+            return result;
+        }
+    }
+}
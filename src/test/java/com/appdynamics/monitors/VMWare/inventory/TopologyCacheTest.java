@@ -0,0 +1,221 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.inventory;
+
+import com.appdynamics.monitors.VMWare.instrumentation.ExtensionMetrics;
+import com.vmware.vim25.Event;
+import com.vmware.vim25.EventFilterSpec;
+import com.vmware.vim25.ManagedEntityStatus;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.PhysicalNic;
+import com.vmware.vim25.mo.EventManager;
+import com.vmware.vim25.mo.ServiceInstance;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.appdynamics.monitors.VMWare.TestFixtures.createEntity;
+import static com.appdynamics.monitors.VMWare.TestFixtures.createMor;
+
+public class TopologyCacheTest {
+
+    private List<Event> events;
+    private int eventQueries;
+    private ServiceInstance serviceInstance;
+    private FakePropertyRetriever propertyRetriever;
+    private Map<String, String[]> pathsByType;
+
+    @Before
+    public void setUp() {
+        events = new ArrayList<>();
+        final EventManager eventManager = new EventManager(null, null) {
+            @Override
+            public Event[] queryEvents(EventFilterSpec filter) {
+                eventQueries++;
+                return events.toArray(new Event[events.size()]);
+            }
+        };
+        serviceInstance = new ServiceInstance(null) {
+            @Override
+            public Calendar currentTime() {
+                return Calendar.getInstance();
+            }
+
+            @Override
+            public EventManager getEventManager() {
+                return eventManager;
+            }
+        };
+        propertyRetriever = new FakePropertyRetriever();
+
+        pathsByType = new LinkedHashMap<>();
+        pathsByType.put("HostSystem", new String[]{PropertyPaths.NAME, PropertyPaths.OVERALL_STATUS});
+        pathsByType.put("VirtualMachine", new String[]{PropertyPaths.NAME, PropertyPaths.OVERALL_STATUS, PropertyPaths.VM_HOST});
+    }
+
+    @Test
+    public void shouldOnlyReadThePropertiesOfKnownEntities() throws Exception {
+        TopologyCache topologyCache = new TopologyCache(3600, 0);
+
+        topologyCache.retrieve(serviceInstance, propertyRetriever, pathsByType, null, null);
+        List<EntityData> entities = topologyCache.retrieve(serviceInstance, propertyRetriever, pathsByType, null, null);
+
+        Assert.assertEquals("The inventory should be traversed once", 1, propertyRetriever.traversals);
+        Assert.assertEquals(2, propertyRetriever.knownEntityReads);
+        Assert.assertArrayEquals(pathsByType.get("VirtualMachine"), propertyRetriever.lastKnownEntityPaths.get("VirtualMachine"));
+
+        Assert.assertEquals(2, entities.size());
+        EntityData vm = entities.get(1);
+        Assert.assertEquals("vm1", vm.getName());
+        Assert.assertEquals("host-1", ((ManagedObjectReference) vm.getProperty(PropertyPaths.VM_HOST)).getVal());
+        Assert.assertEquals(ManagedEntityStatus.green, vm.getOverallStatus());
+    }
+
+    @Test
+    public void shouldOnlyReadTheNetworkConfigurationWithTheTopology() throws Exception {
+        TopologyCache topologyCache = new TopologyCache(3600, 0);
+        pathsByType.put("HostSystem", new String[]{PropertyPaths.NAME, PropertyPaths.OVERALL_STATUS, PropertyPaths.HOST_PHYSICAL_NICS});
+
+        topologyCache.retrieve(serviceInstance, propertyRetriever, pathsByType, null, null);
+        List<EntityData> entities = topologyCache.retrieve(serviceInstance, propertyRetriever, pathsByType, null, null);
+
+        Assert.assertArrayEquals(new String[]{PropertyPaths.NAME, PropertyPaths.HOST_PHYSICAL_NICS}, propertyRetriever.lastTopologyPaths.get("HostSystem"));
+        Assert.assertArrayEquals(new String[]{PropertyPaths.NAME, PropertyPaths.OVERALL_STATUS}, propertyRetriever.lastKnownEntityPaths.get("HostSystem"));
+        Assert.assertEquals(1, propertyRetriever.traversals);
+        Assert.assertEquals("vmnic0", ((PhysicalNic[]) entities.get(0).getProperty(PropertyPaths.HOST_PHYSICAL_NICS))[0].getDevice());
+    }
+
+    @Test
+    public void shouldReportAVMRestartedOnAnotherHostWithoutReload() throws Exception {
+        TopologyCache topologyCache = new TopologyCache(3600, 0);
+        topologyCache.retrieve(serviceInstance, propertyRetriever, pathsByType, null, null);
+
+        propertyRetriever.vmHost = "host-2";
+        List<EntityData> entities = topologyCache.retrieve(serviceInstance, propertyRetriever, pathsByType, null, null);
+
+        Assert.assertEquals(1, propertyRetriever.traversals);
+        Assert.assertEquals("host-2", ((ManagedObjectReference) entities.get(1).getProperty(PropertyPaths.VM_HOST)).getVal());
+    }
+
+    @Test
+    public void shouldQueryTheEventsOncePerInterval() throws Exception {
+        TopologyCache topologyCache = new TopologyCache(3600, 3600);
+        topologyCache.retrieve(serviceInstance, propertyRetriever, pathsByType, null, null);
+
+        events.add(new Event());
+        topologyCache.retrieve(serviceInstance, propertyRetriever, pathsByType, null, null);
+
+        Assert.assertEquals(0, eventQueries);
+        Assert.assertEquals("The event is only seen after the interval", 1, propertyRetriever.traversals);
+    }
+
+    @Test
+    public void shouldReloadWhenAVMWasMigrated() throws Exception {
+        TopologyCache topologyCache = new TopologyCache(3600, 0);
+
+        topologyCache.retrieve(serviceInstance, propertyRetriever, pathsByType, null, null);
+
+        Event migrated = new Event();
+        migrated.setKey(42);
+        events.add(migrated);
+        topologyCache.retrieve(serviceInstance, propertyRetriever, pathsByType, null, null);
+        Assert.assertEquals(2, propertyRetriever.traversals);
+
+        topologyCache.retrieve(serviceInstance, propertyRetriever, pathsByType, null, null);
+        Assert.assertEquals("An event seen before should not reload again", 2, propertyRetriever.traversals);
+    }
+
+    @Test
+    public void shouldCountTheTimeAndEventRequests() throws Exception {
+        TopologyCache topologyCache = new TopologyCache(3600, 0);
+        ExtensionMetrics extensionMetrics = new ExtensionMetrics();
+
+        topologyCache.retrieve(serviceInstance, propertyRetriever, pathsByType, null, extensionMetrics);
+        events.add(new Event());
+        topologyCache.retrieve(serviceInstance, propertyRetriever, pathsByType, null, extensionMetrics);
+
+        Assert.assertEquals("CurrentTime of both loads and the event query", 3, extensionMetrics.getRoundTrips());
+        Assert.assertEquals(1, extensionMetrics.getObjectsReceived());
+    }
+
+    @Test
+    public void shouldReloadWhenTheSessionChanged() throws Exception {
+        TopologyCache topologyCache = new TopologyCache(3600, 0);
+
+        topologyCache.retrieve(serviceInstance, propertyRetriever, pathsByType, null, null);
+        ServiceInstance newSession = new ServiceInstance(null) {
+            @Override
+            public Calendar currentTime() {
+                return Calendar.getInstance();
+            }
+        };
+        topologyCache.retrieve(newSession, propertyRetriever, pathsByType, null, null);
+
+        Assert.assertEquals(2, propertyRetriever.traversals);
+    }
+
+    private static class FakePropertyRetriever extends PropertyRetriever {
+
+        private int traversals;
+        private int knownEntityReads;
+        private Map<String, String[]> lastKnownEntityPaths;
+        private Map<String, String[]> lastTopologyPaths;
+        private String vmHost = "host-1";
+
+        FakePropertyRetriever() {
+            super(null, PropertyRetriever.DEFAULT_PAGE_SIZE);
+        }
+
+        @Override
+        public PropertyRetriever withoutMetrics() {
+            return this;
+        }
+
+        @Override
+        public List<EntityData> retrieve(Map<String, String[]> pathsByType) {
+            traversals++;
+            lastTopologyPaths = pathsByType;
+            EntityData host = createEntity("HostSystem", "host-1", "host1");
+            if (Arrays.asList(pathsByType.get("HostSystem")).contains(PropertyPaths.HOST_PHYSICAL_NICS)) {
+                PhysicalNic physicalNic = new PhysicalNic();
+                physicalNic.setDevice("vmnic0");
+                host.setProperty(PropertyPaths.HOST_PHYSICAL_NICS, new PhysicalNic[]{physicalNic});
+            }
+            EntityData vm = createEntity("VirtualMachine", "vm-1", "vm1");
+            vm.setProperty(PropertyPaths.VM_HOST, host.getMor());
+
+            List<EntityData> entities = new ArrayList<>();
+            entities.add(host);
+            entities.add(vm);
+            return entities;
+        }
+
+        @Override
+        public List<EntityData> retrieve(List<ManagedObjectReference> mors, Map<String, String[]> pathsByType) {
+            knownEntityReads++;
+            lastKnownEntityPaths = pathsByType;
+            List<EntityData> entities = new ArrayList<>();
+            for (ManagedObjectReference mor : mors) {
+                EntityData entity = createEntity(mor.getType(), mor.getVal(), "HostSystem".equals(mor.getType()) ? "host1" : "vm1", ManagedEntityStatus.green);
+                if ("VirtualMachine".equals(mor.getType())) {
+                    entity.setProperty(PropertyPaths.VM_HOST, createMor("HostSystem", vmHost));
+                }
+                entities.add(entity);
+            }
+            return entities;
+        }
+    }
+}
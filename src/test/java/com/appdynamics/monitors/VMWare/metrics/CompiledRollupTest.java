@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.metrics;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompiledRollupTest {
+
+    private static final double[] SORTED_VALUES = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+
+    @Test
+    public void shouldComputeTheRollupsFromTheSortedValues() {
+        CompiledMetric[] hostMetrics = {compile("Overall CPU Usage")};
+
+        Assert.assertEquals(55, compileRollup("sum", "HostSystem|Overall CPU Usage", hostMetrics).apply(SORTED_VALUES, 10, 12), 0);
+        Assert.assertEquals(5.5, compileRollup("avg", "HostSystem|Overall CPU Usage", hostMetrics).apply(SORTED_VALUES, 10, 12), 0);
+        Assert.assertEquals(1, compileRollup("min", "HostSystem|Overall CPU Usage", hostMetrics).apply(SORTED_VALUES, 10, 12), 0);
+        Assert.assertEquals(10, compileRollup("max", "HostSystem|Overall CPU Usage", hostMetrics).apply(SORTED_VALUES, 10, 12), 0);
+        Assert.assertEquals(5, compileRollup("p50", "HostSystem|Overall CPU Usage", hostMetrics).apply(SORTED_VALUES, 10, 12), 0);
+        Assert.assertEquals(10, compileRollup("P95", "HostSystem|Overall CPU Usage", hostMetrics).apply(SORTED_VALUES, 10, 12), 0);
+        Assert.assertEquals("Hosts with a value", 10, compileRollup("count", "HostSystem|Overall CPU Usage", hostMetrics).apply(SORTED_VALUES, 10, 12), 0);
+        Assert.assertEquals("Collected hosts", 12, compileRollup("count", "HostSystem", hostMetrics).apply(new double[0], 0, 12), 0);
+    }
+
+    @Test
+    public void shouldHaveNoValueWithoutSamples() {
+        CompiledRollup max = compileRollup("max", "HostSystem|Overall CPU Usage", new CompiledMetric[]{compile("Overall CPU Usage")});
+
+        CompiledRollup sum = compileRollup("sum", "HostSystem|Overall CPU Usage", new CompiledMetric[]{compile("Overall CPU Usage")});
+
+        Assert.assertTrue(Double.isNaN(max.apply(new double[0], 0, 0)));
+        Assert.assertTrue("Hosts without a value should not sum to 0", Double.isNaN(sum.apply(new double[0], 0, 3)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectAnUnknownSourceMetric() {
+        compileRollup("sum", "VirtualMachine|Overall CPU Usage", new CompiledMetric[]{compile("Overall CPU Usage")});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectAnUnknownRollup() {
+        compileRollup("median", "HostSystem|Overall CPU Usage", new CompiledMetric[]{compile("Overall CPU Usage")});
+    }
+
+    private CompiledRollup compileRollup(String rollup, String source, CompiledMetric[] hostMetrics) {
+        Metric metric = new Metric();
+        metric.setName("Rollup");
+        metric.setRollup(rollup);
+        metric.setSource(source);
+        return CompiledRollup.compile(metric, hostMetrics, new CompiledMetric[0]);
+    }
+
+    private CompiledMetric compile(String name) {
+        Metric metric = new Metric();
+        metric.setName(name);
+        return CompiledMetric.compile(metric, ImmutableMap.of(name, "summary.quickStats.overallCpuUsage"));
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.metrics;
+
+import com.appdynamics.monitors.VMWare.util.RunCycles;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DeltaCalculatorTest {
+
+    private static final double DELTA = 0.0001;
+
+    @Test
+    public void shouldReportTheDifferenceFromTheSecondSample() {
+        DeltaCalculator deltaCalculator = new DeltaCalculator();
+        Assert.assertTrue(Double.isNaN(deltaCalculator.compute("vm-1", 0, 100, DeltaCalculator.Mode.DELTA, 1000)));
+        Assert.assertTrue(Double.isNaN(deltaCalculator.compute("vm-2", 0, 500, DeltaCalculator.Mode.DELTA, 1000)));
+        deltaCalculator.completeCycle();
+
+        Assert.assertEquals(25, deltaCalculator.compute("vm-1", 0, 125, DeltaCalculator.Mode.DELTA, 61000), DELTA);
+        Assert.assertEquals(0, deltaCalculator.compute("vm-2", 0, 500, DeltaCalculator.Mode.DELTA, 61000), DELTA);
+        Assert.assertTrue("Another metric of the entity has its own sample",
+                Double.isNaN(deltaCalculator.compute("vm-1", 1, 125, DeltaCalculator.Mode.DELTA, 61000)));
+    }
+
+    @Test
+    public void shouldDropTheSamplesWhenTheMetricsChanged() {
+        DeltaCalculator deltaCalculator = new DeltaCalculator();
+        deltaCalculator.useMetrics(new VMWareMetrics());
+        deltaCalculator.compute("vm-1", 0, 100, DeltaCalculator.Mode.DELTA, 1000);
+        deltaCalculator.completeCycle();
+
+        VMWareMetrics reloaded = new VMWareMetrics();
+        deltaCalculator.useMetrics(reloaded);
+        Assert.assertEquals(0, deltaCalculator.size());
+        Assert.assertTrue("Index 0 may be another metric after the reload",
+                Double.isNaN(deltaCalculator.compute("vm-1", 0, 300, DeltaCalculator.Mode.DELTA, 61000)));
+        deltaCalculator.completeCycle();
+
+        deltaCalculator.useMetrics(reloaded);
+        Assert.assertEquals(50, deltaCalculator.compute("vm-1", 0, 350, DeltaCalculator.Mode.DELTA, 121000), DELTA);
+    }
+
+    @Test
+    public void shouldReportTheRatePerSecond() {
+        DeltaCalculator deltaCalculator = new DeltaCalculator();
+        deltaCalculator.compute("host-1", 0, 1000, DeltaCalculator.Mode.RATE, 1000);
+        Assert.assertEquals(50, deltaCalculator.compute("host-1", 0, 4000, DeltaCalculator.Mode.RATE, 61000), DELTA);
+        Assert.assertTrue("No time elapsed", Double.isNaN(deltaCalculator.compute("host-1", 0, 5000, DeltaCalculator.Mode.RATE, 61000)));
+    }
+
+    @Test
+    public void shouldSkipACounterReset() {
+        DeltaCalculator deltaCalculator = new DeltaCalculator();
+        deltaCalculator.compute("host-1", 0, 90000, DeltaCalculator.Mode.DELTA, 1000);
+        Assert.assertTrue(Double.isNaN(deltaCalculator.compute("host-1", 0, 30, DeltaCalculator.Mode.DELTA, 61000)));
+        Assert.assertEquals(60, deltaCalculator.compute("host-1", 0, 90, DeltaCalculator.Mode.DELTA, 121000), DELTA);
+    }
+
+    @Test
+    public void shouldEvictEntitiesNotCollectedForThreeRuns() {
+        DeltaCalculator deltaCalculator = new DeltaCalculator();
+        deltaCalculator.compute("vm-1", 0, 1, DeltaCalculator.Mode.DELTA, 1000);
+        deltaCalculator.compute("vm-1", 1, 1, DeltaCalculator.Mode.DELTA, 1000);
+        deltaCalculator.compute("vm-2", 0, 1, DeltaCalculator.Mode.DELTA, 1000);
+        deltaCalculator.completeCycle();
+        for (int run = 1; run < RunCycles.EVICT_AFTER_CYCLES; run++) {
+            deltaCalculator.compute("vm-2", 0, 1, DeltaCalculator.Mode.DELTA, 1000);
+            deltaCalculator.completeCycle();
+        }
+        Assert.assertEquals(1, deltaCalculator.getEntityCount());
+        Assert.assertEquals(1, deltaCalculator.size());
+
+        Assert.assertTrue("The sample of vm-1 was dropped",
+                Double.isNaN(deltaCalculator.compute("vm-1", 0, 2, DeltaCalculator.Mode.DELTA, 2000)));
+        Assert.assertEquals(0, deltaCalculator.compute("vm-2", 0, 1, DeltaCalculator.Mode.DELTA, 2000), DELTA);
+    }
+
+    @Test
+    public void shouldKeepAtMostMaxEntriesSamples() {
+        DeltaCalculator deltaCalculator = new DeltaCalculator(2);
+        for (int i = 0; i < 3; i++) {
+            deltaCalculator.compute("vm-" + i, 0, i, DeltaCalculator.Mode.DELTA, 1000);
+        }
+        Assert.assertEquals(2, deltaCalculator.size());
+        Assert.assertEquals(1, deltaCalculator.compute("vm-1", 0, 2, DeltaCalculator.Mode.DELTA, 2000), DELTA);
+        Assert.assertTrue(Double.isNaN(deltaCalculator.compute("vm-2", 0, 3, DeltaCalculator.Mode.DELTA, 2000)));
+    }
+
+    @Test
+    public void shouldGrowAndKeepAllSamples() {
+        DeltaCalculator deltaCalculator = new DeltaCalculator();
+        for (int i = 0; i < 10000; i++) {
+            deltaCalculator.compute("vm-" + i / 10, i % 10, i, DeltaCalculator.Mode.DELTA, 1000);
+        }
+        Assert.assertEquals(10000, deltaCalculator.size());
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertEquals(1, deltaCalculator.compute("vm-" + i / 10, i % 10, i + 1, DeltaCalculator.Mode.DELTA, 2000), DELTA);
+        }
+    }
+
+    @Test
+    public void shouldParseTheDeltaAttribute() {
+        Assert.assertNull(DeltaCalculator.Mode.parse(null));
+        Assert.assertNull(DeltaCalculator.Mode.parse("false"));
+        Assert.assertEquals(DeltaCalculator.Mode.DELTA, DeltaCalculator.Mode.parse("true"));
+        Assert.assertEquals(DeltaCalculator.Mode.RATE, DeltaCalculator.Mode.parse("Rate"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectAnUnknownDeltaAttribute() {
+        DeltaCalculator.Mode.parse("per-minute");
+    }
+}
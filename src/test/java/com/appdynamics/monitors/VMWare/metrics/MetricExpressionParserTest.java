@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.metrics;
+
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.inventory.PropertyPaths;
+import com.vmware.vim25.HostListSummaryQuickStats;
+import com.vmware.vim25.ManagedObjectReference;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+public class MetricExpressionParserTest {
+
+    @Test
+    public void shouldEvaluateHostCpuUsagePercentFormula() {
+        EntityData host = createHost();
+        host.setProperty("summary.quickStats.overallCpuUsage", 1000);
+        host.setProperty("hardware.cpuInfo.hz", 2000000000L);
+        host.setProperty("hardware.cpuInfo.numCpuCores", (short) 4);
+
+        MetricExpression expression = MetricExpressionParser.parse(PropertyPaths.DEFAULT_HOST_METRICS.get("Overall CPU Usage %"));
+
+        Assert.assertEquals(13, expression.evaluate(host), 0);
+
+        Set<String> paths = new LinkedHashSet<>();
+        expression.collectPropertyPaths(paths);
+        Assert.assertEquals(3, paths.size());
+    }
+
+    @Test
+    public void shouldReadNestedValueFromEnclosingProperty() {
+        HostListSummaryQuickStats quickStats = new HostListSummaryQuickStats();
+        quickStats.setUptime(1200);
+
+        EntityData host = createHost();
+        host.setProperty("summary.quickStats", quickStats);
+
+        Assert.assertEquals(1200, MetricExpressionParser.property("summary.quickStats.uptime").evaluate(host), 0);
+    }
+
+    @Test
+    public void shouldReturnNaNWhenPropertyIsMissing() {
+        Assert.assertTrue(Double.isNaN(MetricExpressionParser.parse("(a.b + 1) * 2").evaluate(createHost())));
+    }
+
+    @Test
+    public void shouldReadBooleansAsOneOrZero() {
+        EntityData cluster = createHost();
+        cluster.setProperty("configuration.drsConfig.enabled", Boolean.TRUE);
+        cluster.setProperty("configuration.dasConfig.enabled", Boolean.FALSE);
+
+        Assert.assertEquals(1, MetricExpressionParser.property("configuration.drsConfig.enabled").evaluate(cluster), 0);
+        Assert.assertEquals(0, MetricExpressionParser.property("configuration.dasConfig.enabled").evaluate(cluster), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnknownFunction() {
+        MetricExpressionParser.parse("max(a.b, 1)");
+    }
+
+    private EntityData createHost() {
+        ManagedObjectReference mor = new ManagedObjectReference();
+        mor.setType("HostSystem");
+        mor.setVal("host-1");
+        return new EntityData(mor);
+    }
+}
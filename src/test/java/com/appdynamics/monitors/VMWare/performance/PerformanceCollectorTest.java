@@ -0,0 +1,215 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.performance;
+
+import com.appdynamics.monitors.VMWare.inventory.EntityData;
+import com.appdynamics.monitors.VMWare.metrics.CompiledMetric;
+import com.appdynamics.monitors.VMWare.metrics.Metric;
+import com.google.common.collect.ImmutableMap;
+import com.vmware.vim25.ElementDescription;
+import com.vmware.vim25.PerfCounterInfo;
+import com.vmware.vim25.PerfEntityMetric;
+import com.vmware.vim25.PerfEntityMetricBase;
+import com.vmware.vim25.PerfMetricId;
+import com.vmware.vim25.PerfMetricIntSeries;
+import com.vmware.vim25.PerfMetricSeries;
+import com.vmware.vim25.PerfQuerySpec;
+import com.vmware.vim25.PerfSummaryType;
+import com.vmware.vim25.mo.PerformanceManager;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import static com.appdynamics.monitors.VMWare.TestFixtures.createEntity;
+
+public class PerformanceCollectorTest {
+
+    private static final int CPU_READY = 12;
+    private static final int CPU_COSTOP = 13;
+    private static final int DATASTORE_READ_LATENCY = 14;
+
+    @Test
+    public void shouldResolveCounterNamesToIds() {
+        PerfCounterCache counters = createCounters();
+
+        Assert.assertEquals(Integer.valueOf(CPU_READY), counters.getCounterId("cpu.ready.summation"));
+        Assert.assertEquals("cpu.costop.summation", counters.getCounterName(CPU_COSTOP));
+        Assert.assertNull(counters.getCounterId("cpu.unknown.average"));
+    }
+
+    @Test
+    public void shouldQueryHostAndVMsInBatches() throws Exception {
+        final List<PerfQuerySpec[]> queries = new ArrayList<>();
+        PerformanceManager performanceManager = new PerformanceManager(null, null) {
+            @Override
+            public PerfEntityMetricBase[] queryPerf(PerfQuerySpec[] querySpecs) {
+                queries.add(querySpecs);
+                PerfEntityMetricBase[] results = new PerfEntityMetricBase[querySpecs.length];
+                for (int i = 0; i < querySpecs.length; i++) {
+                    results[i] = createResult(querySpecs[i], 150);
+                }
+                return results;
+            }
+        };
+
+        EntityData host = createEntity("HostSystem", "host-1", "host-1");
+        List<EntityData> vms = Arrays.asList(createEntity("VirtualMachine", "vm-1", "vm-1"), createEntity("VirtualMachine", "vm-2", "vm-2"), createEntity("VirtualMachine", "vm-3", "vm-3"));
+
+        CompiledMetric[] hostMetrics = {compile("CPU Ready", "cpu.ready.summation"), compile("Up Time", null)};
+        CompiledMetric[] vmMetrics = {compile("CPU Ready", "cpu.ready.summation"), compile("CPU Co-Stop", "cpu.costop.summation"), compile("Not Available", "cpu.unknown.average")};
+
+        int hostProperties = host.getProperties().size();
+        Map<String, Map<String, Long>> counters = new PerformanceCollector(performanceManager, createCounters(), 3).collect(Collections.singletonList(host), hostMetrics, vms, vmMetrics);
+
+        Assert.assertEquals("4 entities should take 2 queries of up to 3 specs", 2, queries.size());
+        Assert.assertEquals(3, queries.get(0).length);
+        Assert.assertEquals(1, queries.get(1).length);
+        Assert.assertEquals("Only the known host counter should be queried", 1, queries.get(0)[0].getMetricId().length);
+        Assert.assertEquals(2, queries.get(0)[1].getMetricId().length);
+        Assert.assertEquals(Integer.valueOf(PerformanceCollector.REALTIME_INTERVAL), queries.get(0)[0].getIntervalId());
+
+        Assert.assertEquals(150, hostMetrics[0].extract(host, counters.get("host-1")), 0);
+        Assert.assertEquals(150, vmMetrics[1].extract(vms.get(2), counters.get("vm-3")), 0);
+        Assert.assertTrue(Double.isNaN(vmMetrics[2].extract(vms.get(0), counters.get("vm-1"))));
+        Assert.assertEquals("The samples of the run should not be kept on the entity", hostProperties, host.getProperties().size());
+    }
+
+    @Test
+    public void shouldClearValuesWithoutSample() throws Exception {
+        PerformanceManager performanceManager = new PerformanceManager(null, null) {
+            @Override
+            public PerfEntityMetricBase[] queryPerf(PerfQuerySpec[] querySpecs) {
+                return new PerfEntityMetricBase[]{createResult(querySpecs[0], -1)};
+            }
+        };
+
+        EntityData vm = createEntity("VirtualMachine", "vm-1", "vm-1");
+        CompiledMetric[] vmMetrics = {compile("CPU Ready", "cpu.ready.summation")};
+
+        Map<String, Map<String, Long>> counters = new PerformanceCollector(performanceManager, createCounters(), 10).collect(null, null, Collections.singletonList(vm), vmMetrics);
+
+        Assert.assertFalse(counters.containsKey("vm-1"));
+        Assert.assertTrue("A missing sample should not be reported", Double.isNaN(vmMetrics[0].extract(vm, counters.get("vm-1"))));
+    }
+
+    @Test
+    public void shouldHoldARequestPermitPerQuery() throws Exception {
+        final Semaphore requestPermits = new Semaphore(1);
+        final List<Integer> permitsDuringQuery = new ArrayList<>();
+        PerformanceManager performanceManager = new PerformanceManager(null, null) {
+            @Override
+            public PerfEntityMetricBase[] queryPerf(PerfQuerySpec[] querySpecs) {
+                permitsDuringQuery.add(requestPermits.availablePermits());
+                return null;
+            }
+        };
+
+        List<EntityData> vms = Arrays.asList(createEntity("VirtualMachine", "vm-1", "vm-1"), createEntity("VirtualMachine", "vm-2", "vm-2"));
+        new PerformanceCollector(performanceManager, createCounters(), 1, requestPermits).collect(null, null, vms, new CompiledMetric[]{compile("CPU Ready", "cpu.ready.summation")});
+
+        Assert.assertEquals(Arrays.asList(0, 0), permitsDuringQuery);
+        Assert.assertEquals("The permits should be released after every query", 1, requestPermits.availablePermits());
+    }
+
+    @Test
+    public void shouldReportTheHighestValueOfEachInstance() throws Exception {
+        final List<PerfQuerySpec[]> queries = new ArrayList<>();
+        PerformanceManager performanceManager = new PerformanceManager(null, null) {
+            @Override
+            public PerfEntityMetricBase[] queryPerf(PerfQuerySpec[] querySpecs) {
+                queries.add(querySpecs);
+                PerfEntityMetricBase[] results = new PerfEntityMetricBase[querySpecs.length];
+                for (int i = 0; i < querySpecs.length; i++) {
+                    long latency = "host-1".equals(querySpecs[i].getEntity().getVal()) ? 5 : 12;
+                    results[i] = createInstanceResult(querySpecs[i], new String[]{"ds-a", "ds-b", ""}, new long[]{latency, 3, 99});
+                }
+                return results;
+            }
+        };
+
+        List<EntityData> hosts = Arrays.asList(createEntity("HostSystem", "host-1", "host-1"), createEntity("HostSystem", "host-2", "host-2"));
+        CompiledMetric[] datastoreMetrics = {compile("Read Latency", "datastore.totalReadLatency.average"), compile("Up Time", null)};
+
+        Map<String, Map<String, Long>> valuesByInstance = new PerformanceCollector(performanceManager, createCounters(), 64).collectInstances(hosts, datastoreMetrics);
+
+        Assert.assertEquals("Both hosts should be queried at once", 1, queries.size());
+        Assert.assertEquals("*", queries.get(0)[0].getMetricId()[0].getInstance());
+        Assert.assertEquals(Long.valueOf(12), valuesByInstance.get("ds-a").get("datastore.totalReadLatency.average"));
+        Assert.assertEquals(Long.valueOf(3), valuesByInstance.get("ds-b").get("datastore.totalReadLatency.average"));
+        Assert.assertFalse("The aggregate of all instances should be skipped", valuesByInstance.containsKey(""));
+    }
+
+    private PerfEntityMetric createInstanceResult(PerfQuerySpec spec, String[] instances, long[] values) {
+        PerfMetricSeries[] series = new PerfMetricSeries[instances.length];
+        for (int i = 0; i < series.length; i++) {
+            PerfMetricIntSeries intSeries = new PerfMetricIntSeries();
+            PerfMetricId id = new PerfMetricId();
+            id.setCounterId(spec.getMetricId()[0].getCounterId());
+            id.setInstance(instances[i]);
+            intSeries.setId(id);
+            intSeries.setValue(new long[]{values[i]});
+            series[i] = intSeries;
+        }
+        PerfEntityMetric result = new PerfEntityMetric();
+        result.setEntity(spec.getEntity());
+        result.setValue(series);
+        return result;
+    }
+
+    private PerfEntityMetric createResult(PerfQuerySpec spec, long value) {
+        PerfMetricSeries[] series = new PerfMetricSeries[spec.getMetricId().length];
+        for (int i = 0; i < series.length; i++) {
+            PerfMetricIntSeries intSeries = new PerfMetricIntSeries();
+            PerfMetricId id = new PerfMetricId();
+            id.setCounterId(spec.getMetricId()[i].getCounterId());
+            intSeries.setId(id);
+            intSeries.setValue(new long[]{value});
+            series[i] = intSeries;
+        }
+        PerfEntityMetric result = new PerfEntityMetric();
+        result.setEntity(spec.getEntity());
+        result.setValue(series);
+        return result;
+    }
+
+    private CompiledMetric compile(String name, String counter) {
+        Metric metric = new Metric();
+        metric.setName(name);
+        metric.setCounter(counter);
+        return CompiledMetric.compile(metric, ImmutableMap.of("Up Time", "summary.quickStats.uptime"));
+    }
+
+    private PerfCounterCache createCounters() {
+        return new PerfCounterCache(new PerfCounterInfo[]{
+                createCounter(CPU_READY, "cpu", "ready", PerfSummaryType.summation),
+                createCounter(CPU_COSTOP, "cpu", "costop", PerfSummaryType.summation),
+                createCounter(DATASTORE_READ_LATENCY, "datastore", "totalReadLatency", PerfSummaryType.average)});
+    }
+
+    private PerfCounterInfo createCounter(int key, String group, String name, PerfSummaryType rollup) {
+        PerfCounterInfo counter = new PerfCounterInfo();
+        counter.setKey(key);
+        counter.setGroupInfo(createDescription(group));
+        counter.setNameInfo(createDescription(name));
+        counter.setRollupType(rollup);
+        return counter;
+    }
+
+    private ElementDescription createDescription(String key) {
+        ElementDescription description = new ElementDescription();
+        description.setKey(key);
+        return description;
+    }
+}
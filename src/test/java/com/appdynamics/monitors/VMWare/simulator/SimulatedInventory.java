@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.simulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Synthetic inventory served by {@link VSphereSimulator}: <code>hosts</code> hosts named <code>esx-&lt;i&gt;</code>,
+ * each with <code>vmsPerHost</code> VMs named <code>vm-&lt;i&gt;-&lt;j&gt;</code>. Property values are derived from the
+ * entity and the path, so every run of a test sees the same numbers.
+ */
+public class SimulatedInventory {
+
+    /**
+     * Counters known to the simulated performance manager, the id of a counter is its index + 1.
+     */
+    public static final List<String> PERF_COUNTERS = Collections.unmodifiableList(Arrays.asList(
+            "cpu.usage.average", "cpu.ready.summation", "cpu.costop.summation", "mem.usage.average",
+            "disk.maxTotalLatency.latest", "net.usage.average", "net.droppedRx.summation", "net.droppedTx.summation",
+            "net.packetsRx.summation", "net.packetsTx.summation", "net.received.average", "net.transmitted.average"));
+
+    private static final List<String> LONG_PATHS = Arrays.asList("hardware.memorySize", "hardware.cpuInfo.hz");
+    private static final List<String> SHORT_PATHS = Collections.singletonList("hardware.cpuInfo.numCpuCores");
+
+    private final Map<String, Entity> entities = new LinkedHashMap<>();
+
+    public SimulatedInventory(int hosts, int vmsPerHost) {
+        for (int i = 1; i <= hosts; i++) {
+            Entity host = new Entity("HostSystem", "host-" + i, "esx-" + i, null);
+            entities.put(host.id, host);
+            for (int j = 1; j <= vmsPerHost; j++) {
+                Entity vm = new Entity("VirtualMachine", "vm-" + i + "-" + j, "vm-" + i + "-" + j, host);
+                entities.put(vm.id, vm);
+            }
+        }
+    }
+
+    public Entity get(String id) {
+        return entities.get(id);
+    }
+
+    public List<Entity> getEntities(List<String> types) {
+        List<Entity> matching = new ArrayList<>();
+        for (Entity entity : entities.values()) {
+            if (types.contains(entity.type)) {
+                matching.add(entity);
+            }
+        }
+        return matching;
+    }
+
+    public int size() {
+        return entities.size();
+    }
+
+    public static int getCounterId(String counter) {
+        return PERF_COUNTERS.indexOf(counter) + 1;
+    }
+
+    public static class Entity {
+
+        private final String type;
+        private final String id;
+        private final String name;
+        private final Entity host;
+
+        Entity(String type, String id, String name, Entity host) {
+            this.type = type;
+            this.id = id;
+            this.name = name;
+            this.host = host;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Entity getHost() {
+            return host;
+        }
+
+        /**
+         * @return the xsi:type and the text of the property, or null for a path the simulator does not know
+         */
+        String[] getProperty(String path) {
+            if ("name".equals(path)) {
+                return new String[]{"xsd:string", name};
+            }
+            if ("overallStatus".equals(path)) {
+                return new String[]{"ManagedEntityStatus", "green"};
+            }
+            if ("runtime.host".equals(path)) {
+                return host == null ? null : new String[]{"ManagedObjectReference", host.id};
+            }
+            if (!path.startsWith("summary.") && !path.startsWith("hardware.") && !path.startsWith("config.")) {
+                return null;
+            }
+            String value = String.valueOf(getValue(path));
+            if (LONG_PATHS.contains(path)) {
+                return new String[]{"xsd:long", value};
+            }
+            return new String[]{SHORT_PATHS.contains(path) ? "xsd:short" : "xsd:int", value};
+        }
+
+        /**
+         * @return a value between 1 and 1000 which only depends on the entity and the path or counter
+         */
+        public long getValue(String key) {
+            return Math.abs((id + "|" + key).hashCode() % 1000) + 1;
+        }
+    }
+}
@@ -0,0 +1,481 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.simulator;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embedded HTTP server speaking enough of the vSphere <code>/sdk</code> SOAP API to collect a
+ * {@link SimulatedInventory} with yavijava: RetrieveServiceContent, Login, Logout, CurrentTime, CreateContainerView,
+ * DestroyView, RetrieveProperties, RetrievePropertiesEx (paged), ContinueRetrievePropertiesEx, QueryPerf and
+ * QueryEvents. Every call can be delayed and made to fail, and the calls and bytes sent are counted, so tests and
+ * benchmarks can measure the wire path without a vCenter.
+ * <pre>
+ * VSphereSimulator simulator = new VSphereSimulator(new SimulatedInventory(50, 100));
+ * simulator.setLatency(5);
+ * simulator.start();
+ * ServiceInstance serviceInstance = new ServiceInstance(simulator.getUrl(), "user", "password", true);
+ * </pre>
+ */
+public class VSphereSimulator {
+
+    public static final String SESSION_COOKIE = "vmware_soap_session";
+
+    private static final String ENVELOPE_START = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<soapenv:Envelope xmlns:soapenc=\"http://schemas.xmlsoap.org/soap/encoding/\""
+            + " xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\""
+            + " xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\""
+            + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"><soapenv:Body>";
+    private static final String ENVELOPE_END = "</soapenv:Body></soapenv:Envelope>";
+    private static final String API_VERSION = "6.0";
+
+    private final SimulatedInventory inventory;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+
+    private final ConcurrentMap<String, List<String>> views = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, List<String>> pages = new ConcurrentHashMap<>();
+    private final AtomicInteger ids = new AtomicInteger();
+
+    private volatile long latencyMillis;
+    private final ConcurrentMap<String, Long> methodLatencies = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Fault> faults = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> calls = new ConcurrentHashMap<>();
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    public VSphereSimulator(SimulatedInventory inventory) throws IOException {
+        this.inventory = inventory;
+        documentBuilderFactory.setNamespaceAware(true);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.setExecutor(executor);
+        server.createContext("/sdk", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                VSphereSimulator.this.handle(exchange);
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public URL getUrl() throws IOException {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/sdk");
+    }
+
+    public SimulatedInventory getInventory() {
+        return inventory;
+    }
+
+    /**
+     * Delays every call by <code>latencyMillis</code>, unless the method has a latency of its own.
+     */
+    public void setLatency(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    public void setLatency(String method, long latencyMillis) {
+        methodLatencies.put(method, latencyMillis);
+    }
+
+    /**
+     * Makes the next <code>times</code> calls of the method fail with the fault, e.g. <code>NotAuthenticated</code>.
+     */
+    public void injectFault(String method, String faultType, int times) {
+        faults.put(method, new Fault(faultType, times));
+    }
+
+    public long getCalls(String method) {
+        AtomicLong count = calls.get(method);
+        return count == null ? 0 : count.get();
+    }
+
+    public long getTotalCalls() {
+        long total = 0;
+        for (AtomicLong count : calls.values()) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if ("GET".equals(exchange.getRequestMethod()) && exchange.getRequestURI().getPath().endsWith("vimServiceVersions.xml")) {
+                send(exchange, 200, "<?xml version=\"1.0\" encoding=\"UTF-8\"?><namespaces version=\"1.0\"><namespace>"
+                        + "<name>urn:vim25</name><version>" + API_VERSION + "</version><priorVersions><version>5.5</version></priorVersions>"
+                        + "</namespace></namespaces>");
+                return;
+            }
+
+            Element request = getRequest(exchange.getRequestBody());
+            String method = request.getLocalName();
+            count(method);
+            delay(method);
+
+            Fault fault = faults.get(method);
+            if (fault != null && fault.remaining.getAndDecrement() > 0) {
+                send(exchange, 500, fault(fault.type, "Injected " + fault.type + " for " + method, ""));
+                return;
+            }
+
+            if ("Login".equals(method)) {
+                exchange.getResponseHeaders().add("Set-Cookie", SESSION_COOKIE + "=\"" + ids.incrementAndGet() + "-simulator\"; Path=/; HttpOnly");
+            }
+            send(exchange, 200, dispatch(method, request));
+        } catch (SimulatedFault e) {
+            send(exchange, 500, fault(e.type, e.getMessage(), e.detail));
+        } catch (Exception e) {
+            send(exchange, 500, fault("RuntimeFault", String.valueOf(e), ""));
+        }
+    }
+
+    private String dispatch(String method, Element request) {
+        if ("RetrieveServiceContent".equals(method)) {
+            return response(method, "<returnval>" + serviceContent() + "</returnval>");
+        } else if ("Login".equals(method)) {
+            return response(method, "<returnval>" + userSession(text(request, "userName")) + "</returnval>");
+        } else if ("Logout".equals(method) || "DestroyView".equals(method)) {
+            if ("DestroyView".equals(method)) {
+                views.remove(text(request, "_this"));
+            }
+            return response(method, "");
+        } else if ("CurrentTime".equals(method)) {
+            return response(method, "<returnval>" + now() + "</returnval>");
+        } else if ("CreateContainerView".equals(method)) {
+            String view = "session[simulator]view-" + ids.incrementAndGet();
+            List<String> types = new ArrayList<>();
+            for (Element type : children(request, "type")) {
+                types.add(type.getTextContent());
+            }
+            views.put(view, types);
+            return response(method, "<returnval type=\"ContainerView\">" + view + "</returnval>");
+        } else if ("RetrieveProperties".equals(method)) {
+            StringBuilder returnvals = new StringBuilder();
+            for (String objectContent : retrieveObjects(request)) {
+                returnvals.append("<returnval>").append(objectContent).append("</returnval>");
+            }
+            return response(method, returnvals.toString());
+        } else if ("RetrievePropertiesEx".equals(method)) {
+            Element options = child(request, "options");
+            String maxObjects = options == null ? null : text(options, "maxObjects");
+            return response(method, retrieveResult(retrieveObjects(request), maxObjects == null ? Integer.MAX_VALUE : Integer.parseInt(maxObjects)));
+        } else if ("ContinueRetrievePropertiesEx".equals(method)) {
+            List<String> remaining = pages.remove(text(request, "token"));
+            if (remaining == null) {
+                throw new SimulatedFault("InvalidArgument", "Unknown token", "<invalidProperty>token</invalidProperty>");
+            }
+            return response(method, retrieveResult(remaining, Integer.MAX_VALUE));
+        } else if ("CancelRetrievePropertiesEx".equals(method)) {
+            pages.remove(text(request, "token"));
+            return response(method, "");
+        } else if ("QueryPerf".equals(method)) {
+            return response(method, queryPerf(request));
+        } else if ("QueryEvents".equals(method)) {
+            return response(method, "");
+        }
+        throw new SimulatedFault("NotImplemented", method + " is not simulated", "");
+    }
+
+    private String serviceContent() {
+        return mor("rootFolder", "Folder", "group-d1")
+                + mor("propertyCollector", "PropertyCollector", "propertyCollector")
+                + mor("viewManager", "ViewManager", "ViewManager")
+                + "<about><name>VMware vCenter Server</name><fullName>VMware vCenter Server 6.0.0 (simulated)</fullName>"
+                + "<vendor>VMware, Inc.</vendor><version>6.0.0</version><build>0</build><localeVersion>INTL</localeVersion>"
+                + "<localeBuild>000</localeBuild><osType>linux-x64</osType><productLineId>vpx</productLineId>"
+                + "<apiType>VirtualCenter</apiType><apiVersion>" + API_VERSION + "</apiVersion>"
+                + "<instanceUuid>00000000-0000-0000-0000-000000000000</instanceUuid></about>"
+                + mor("setting", "OptionManager", "VpxSettings")
+                + mor("userDirectory", "UserDirectory", "UserDirectory")
+                + mor("sessionManager", "SessionManager", "SessionManager")
+                + mor("authorizationManager", "AuthorizationManager", "AuthorizationManager")
+                + mor("perfManager", "PerformanceManager", "PerfMgr")
+                + mor("eventManager", "EventManager", "EventManager")
+                + mor("taskManager", "TaskManager", "TaskManager");
+    }
+
+    private String userSession(String userName) {
+        String now = now();
+        return "<key>" + ids.incrementAndGet() + "</key><userName>" + escape(userName) + "</userName><fullName>"
+                + escape(userName) + "</fullName><loginTime>" + now + "</loginTime><lastActiveTime>" + now
+                + "</lastActiveTime><locale>en</locale><messageLocale>en</messageLocale><extensionSession>false</extensionSession>";
+    }
+
+    /**
+     * @return the ObjectContent of every object selected by the specs, without the enclosing element
+     */
+    private List<String> retrieveObjects(Element request) {
+        List<String> objectContents = new ArrayList<>();
+        for (Element specSet : children(request, "specSet")) {
+            Map<String, List<String>> propertySpecs = new HashMap<>();
+            for (Element propSet : children(specSet, "propSet")) {
+                List<String> paths = new ArrayList<>();
+                for (Element path : children(propSet, "pathSet")) {
+                    paths.add(path.getTextContent());
+                }
+                propertySpecs.put(text(propSet, "type"), paths);
+            }
+
+            for (Element objectSet : children(specSet, "objectSet")) {
+                Element obj = child(objectSet, "obj");
+                String type = obj.getAttribute("type");
+                String id = obj.getTextContent();
+                if ("ContainerView".equals(type)) {
+                    List<String> types = views.get(id);
+                    if (types == null) {
+                        throw new SimulatedFault("ManagedObjectNotFound", "The view was destroyed", mor("obj", type, id));
+                    }
+                    for (SimulatedInventory.Entity entity : inventory.getEntities(types)) {
+                        addObjectContent(entity, propertySpecs.get(entity.getType()), objectContents);
+                    }
+                } else if ("PerformanceManager".equals(type)) {
+                    objectContents.add(mor("obj", type, id) + "<propSet><name>perfCounter</name><val xsi:type=\"ArrayOfPerfCounterInfo\">" + perfCounters() + "</val></propSet>");
+                } else {
+                    SimulatedInventory.Entity entity = inventory.get(id);
+                    if (entity == null || !entity.getType().equals(type)) {
+                        throw new SimulatedFault("ManagedObjectNotFound", "The object " + id + " has already been deleted or has not been completely created", mor("obj", type, id));
+                    }
+                    addObjectContent(entity, propertySpecs.get(type), objectContents);
+                }
+            }
+        }
+        return objectContents;
+    }
+
+    private void addObjectContent(SimulatedInventory.Entity entity, List<String> paths, List<String> objectContents) {
+        if (paths == null) {
+            return;
+        }
+        StringBuilder objectContent = new StringBuilder(mor("obj", entity.getType(), entity.getId()));
+        for (String path : paths) {
+            String[] property = entity.getProperty(path);
+            if (property == null) {
+                continue;
+            }
+            objectContent.append("<propSet><name>").append(path).append("</name>");
+            if ("ManagedObjectReference".equals(property[0])) {
+                objectContent.append("<val xsi:type=\"ManagedObjectReference\" type=\"HostSystem\">").append(property[1]).append("</val>");
+            } else {
+                objectContent.append("<val xsi:type=\"").append(property[0]).append("\">").append(escape(property[1])).append("</val>");
+            }
+            objectContent.append("</propSet>");
+        }
+        objectContents.add(objectContent.toString());
+    }
+
+    private String retrieveResult(List<String> objectContents, int maxObjects) {
+        if (objectContents.isEmpty()) {
+            return "";
+        }
+        StringBuilder result = new StringBuilder("<returnval>");
+        List<String> page = objectContents;
+        if (objectContents.size() > maxObjects) {
+            page = objectContents.subList(0, maxObjects);
+            String token = String.valueOf(ids.incrementAndGet());
+            pages.put(token, new ArrayList<>(objectContents.subList(maxObjects, objectContents.size())));
+            result.append("<token>").append(token).append("</token>");
+        }
+        for (String objectContent : page) {
+            result.append("<objects>").append(objectContent).append("</objects>");
+        }
+        return result.append("</returnval>").toString();
+    }
+
+    private String perfCounters() {
+        StringBuilder counters = new StringBuilder();
+        for (String counter : SimulatedInventory.PERF_COUNTERS) {
+            String[] parts = counter.split("\\.");
+            counters.append("<PerfCounterInfo xsi:type=\"PerfCounterInfo\"><key>").append(SimulatedInventory.getCounterId(counter)).append("</key>")
+                    .append(description("nameInfo", parts[1])).append(description("groupInfo", parts[0])).append(description("unitInfo", "number"))
+                    .append("<rollupType>").append(parts[2]).append("</rollupType><statsType>")
+                    .append("summation".equals(parts[2]) ? "delta" : "absolute").append("</statsType><level>1</level></PerfCounterInfo>");
+        }
+        return counters.toString();
+    }
+
+    private String queryPerf(Element request) {
+        StringBuilder returnvals = new StringBuilder();
+        for (Element querySpec : children(request, "querySpec")) {
+            Element entityElement = child(querySpec, "entity");
+            SimulatedInventory.Entity entity = inventory.get(entityElement.getTextContent());
+            if (entity == null) {
+                throw new SimulatedFault("ManagedObjectNotFound", "Unknown entity", mor("obj", entityElement.getAttribute("type"), entityElement.getTextContent()));
+            }
+            returnvals.append("<returnval xsi:type=\"PerfEntityMetric\">").append(mor("entity", entity.getType(), entity.getId()))
+                    .append("<sampleInfo><timestamp>").append(now()).append("</timestamp><interval>20</interval></sampleInfo>");
+            for (Element metricId : children(querySpec, "metricId")) {
+                int counterId = Integer.parseInt(text(metricId, "counterId"));
+                String instance = text(metricId, "instance");
+                if (counterId < 1 || counterId > SimulatedInventory.PERF_COUNTERS.size()) {
+                    continue;
+                }
+                returnvals.append("<value xsi:type=\"PerfMetricIntSeries\"><id><counterId>").append(counterId).append("</counterId><instance>")
+                        .append(instance == null ? "" : escape(instance)).append("</instance></id><value>")
+                        .append(entity.getValue(SimulatedInventory.PERF_COUNTERS.get(counterId - 1))).append("</value></value>");
+            }
+            returnvals.append("</returnval>");
+        }
+        return returnvals.toString();
+    }
+
+    private Element getRequest(InputStream body) throws Exception {
+        DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
+        Document document = documentBuilder.parse(body);
+        Element soapBody = null;
+        for (Element element : children(document.getDocumentElement(), "Body")) {
+            soapBody = element;
+        }
+        if (soapBody == null) {
+            throw new IllegalArgumentException("No SOAP body");
+        }
+        for (Node node = soapBody.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element) {
+                return (Element) node;
+            }
+        }
+        throw new IllegalArgumentException("Empty SOAP body");
+    }
+
+    private void count(String method) {
+        AtomicLong count = calls.get(method);
+        if (count == null) {
+            AtomicLong existing = calls.putIfAbsent(method, count = new AtomicLong());
+            if (existing != null) {
+                count = existing;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    private void delay(String method) throws InterruptedException {
+        Long methodLatency = methodLatencies.get(method);
+        long delay = methodLatency == null ? latencyMillis : methodLatency;
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+    }
+
+    private void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+        bytesSent.addAndGet(bytes.length);
+    }
+
+    private static String response(String method, String content) {
+        return ENVELOPE_START + "<" + method + "Response xmlns=\"urn:vim25\">" + content + "</" + method + "Response>" + ENVELOPE_END;
+    }
+
+    private static String fault(String type, String message, String detail) {
+        return ENVELOPE_START + "<soapenv:Fault><faultcode>ServerFaultCode</faultcode><faultstring>" + escape(message)
+                + "</faultstring><detail><" + type + "Fault xmlns=\"urn:vim25\" xsi:type=\"" + type + "\">" + detail
+                + "</" + type + "Fault></detail></soapenv:Fault>" + ENVELOPE_END;
+    }
+
+    private static String mor(String element, String type, String value) {
+        return "<" + element + " type=\"" + type + "\">" + escape(value) + "</" + element + ">";
+    }
+
+    private static String description(String element, String key) {
+        return "<" + element + "><label>" + key + "</label><summary>" + key + "</summary><key>" + key + "</key></" + element + ">";
+    }
+
+    private static String now() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date());
+    }
+
+    private static String escape(String text) {
+        return text == null ? "" : text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static List<Element> children(Element parent, String localName) {
+        List<Element> children = new ArrayList<>();
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element && localName.equals(node.getLocalName())) {
+                children.add((Element) node);
+            }
+        }
+        return children;
+    }
+
+    private static Element child(Element parent, String localName) {
+        List<Element> children = children(parent, localName);
+        return children.isEmpty() ? null : children.get(0);
+    }
+
+    private static String text(Element parent, String localName) {
+        Element child = child(parent, localName);
+        return child == null ? null : child.getTextContent();
+    }
+
+    private static class Fault {
+
+        private final String type;
+        private final AtomicInteger remaining;
+
+        Fault(String type, int times) {
+            this.type = type;
+            this.remaining = new AtomicInteger(times);
+        }
+    }
+
+    private static class SimulatedFault extends RuntimeException {
+
+        private final String type;
+        private final String detail;
+
+        SimulatedFault(String type, String message, String detail) {
+            super(message);
+            this.type = type;
+            this.detail = detail;
+        }
+    }
+}
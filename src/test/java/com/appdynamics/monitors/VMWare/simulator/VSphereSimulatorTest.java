@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.monitors.VMWare.simulator;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+
+public class VSphereSimulatorTest {
+
+    private VSphereSimulator simulator;
+
+    @Before
+    public void setUp() throws IOException {
+        simulator = new VSphereSimulator(new SimulatedInventory(3, 4));
+        simulator.start();
+    }
+
+    @After
+    public void tearDown() {
+        simulator.stop();
+    }
+
+    @Test
+    public void shouldServeTheServiceContentAndASession() throws Exception {
+        Document serviceContent = call("<RetrieveServiceContent xmlns=\"urn:vim25\"><_this type=\"ServiceInstance\">ServiceInstance</_this></RetrieveServiceContent>");
+        Assert.assertEquals("PerfMgr", serviceContent.getElementsByTagName("perfManager").item(0).getTextContent());
+        Assert.assertEquals("6.0", serviceContent.getElementsByTagName("apiVersion").item(0).getTextContent());
+
+        Document session = call("<Login xmlns=\"urn:vim25\"><_this type=\"SessionManager\">SessionManager</_this><userName>user</userName><password>secret</password></Login>");
+        Assert.assertEquals("user", session.getElementsByTagName("userName").item(0).getTextContent());
+        Assert.assertEquals(2, simulator.getTotalCalls());
+        Assert.assertTrue(simulator.getBytesSent() > 0);
+    }
+
+    @Test
+    public void shouldPageTheObjectsOfAContainerView() throws Exception {
+        String view = call("<CreateContainerView xmlns=\"urn:vim25\"><_this type=\"ViewManager\">ViewManager</_this>"
+                + "<container type=\"Folder\">group-d1</container><type>VirtualMachine</type><recursive>true</recursive></CreateContainerView>")
+                .getElementsByTagName("returnval").item(0).getTextContent();
+
+        Document firstPage = call("<RetrievePropertiesEx xmlns=\"urn:vim25\"><_this type=\"PropertyCollector\">propertyCollector</_this>"
+                + "<specSet><propSet><type>VirtualMachine</type><pathSet>name</pathSet><pathSet>runtime.host</pathSet></propSet>"
+                + "<objectSet><obj type=\"ContainerView\">" + view + "</obj><skip>true</skip></objectSet></specSet>"
+                + "<options><maxObjects>5</maxObjects></options></RetrievePropertiesEx>");
+        Assert.assertEquals(5, firstPage.getElementsByTagName("objects").getLength());
+        Assert.assertEquals("vm-1-1", firstPage.getElementsByTagName("val").item(0).getTextContent());
+        Assert.assertEquals("host-1", firstPage.getElementsByTagName("val").item(1).getTextContent());
+
+        String token = firstPage.getElementsByTagName("token").item(0).getTextContent();
+        Document lastPage = call("<ContinueRetrievePropertiesEx xmlns=\"urn:vim25\"><_this type=\"PropertyCollector\">propertyCollector</_this>"
+                + "<token>" + token + "</token></ContinueRetrievePropertiesEx>");
+        Assert.assertEquals(7, lastPage.getElementsByTagName("objects").getLength());
+        Assert.assertEquals(0, lastPage.getElementsByTagName("token").getLength());
+    }
+
+    @Test
+    public void shouldAnswerQueryPerfWithTheInventoryValues() throws Exception {
+        int counterId = SimulatedInventory.getCounterId("cpu.usage.average");
+        Document metrics = call("<QueryPerf xmlns=\"urn:vim25\"><_this type=\"PerformanceManager\">PerfMgr</_this><querySpec>"
+                + "<entity type=\"VirtualMachine\">vm-2-3</entity><maxSample>1</maxSample>"
+                + "<metricId><counterId>" + counterId + "</counterId><instance></instance></metricId></querySpec></QueryPerf>");
+
+        NodeList values = metrics.getElementsByTagName("value");
+        Assert.assertEquals("The series and its sample", 2, values.getLength());
+        long expected = simulator.getInventory().get("vm-2-3").getValue("cpu.usage.average");
+        Assert.assertEquals(String.valueOf(expected), values.item(1).getTextContent());
+    }
+
+    @Test
+    public void shouldInjectLatencyAndFaults() throws Exception {
+        simulator.setLatency("CurrentTime", 50);
+        simulator.injectFault("CurrentTime", "NotAuthenticated", 1);
+        String currentTime = "<CurrentTime xmlns=\"urn:vim25\"><_this type=\"ServiceInstance\">ServiceInstance</_this></CurrentTime>";
+
+        long start = System.nanoTime();
+        HttpURLConnection connection = post(currentTime);
+        Assert.assertEquals(500, connection.getResponseCode());
+        Assert.assertTrue("The call should be delayed", System.nanoTime() - start >= 50000000L);
+        Assert.assertTrue(read(connection.getErrorStream()).contains("NotAuthenticatedFault"));
+
+        Assert.assertEquals("The fault should only be injected once", 1, call(currentTime).getElementsByTagName("returnval").getLength());
+        Assert.assertEquals(2, simulator.getCalls("CurrentTime"));
+    }
+
+    private Document call(String request) throws Exception {
+        HttpURLConnection connection = post(request);
+        Assert.assertEquals(200, connection.getResponseCode());
+        DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        return documentBuilderFactory.newDocumentBuilder().parse(new ByteArrayInputStream(read(connection.getInputStream()).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private HttpURLConnection post(String request) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) simulator.getUrl().openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "text/xml; charset=utf-8");
+        connection.setRequestProperty("SOAPAction", "urn:vim25/6.0");
+        OutputStream out = connection.getOutputStream();
+        out.write(("<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\"><soapenv:Body>" + request
+                + "</soapenv:Body></soapenv:Envelope>").getBytes(StandardCharsets.UTF_8));
+        out.close();
+        return connection;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}